@@ -0,0 +1,99 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.benchmarks;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.assertions.HeadersAssertion;
+import com.sas.unravl.assertions.JsonBodyAssertion;
+import com.sas.unravl.assertions.StatusAssertion;
+import com.sas.unravl.assertions.UnRAVLAssertion.Stage;
+import com.sas.unravl.util.Json;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The status, headers and JSON body assertions, checked against the response
+ * of one real API call to a local server. The call runs once in setup; only
+ * the checks are measured.
+ *
+ * @author David.Biesack@sas.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = Fixtures.QUIET)
+public class AssertionBenchmark {
+
+    private static final int ITEMS = 1000;
+
+    private HttpServer server;
+    private UnRAVL script;
+    private ApiCall call;
+    private ObjectNode status;
+    private ObjectNode headers;
+    private ObjectNode json;
+
+    @Setup
+    public void setup() throws UnRAVLException, IOException {
+        String body = Fixtures.json(ITEMS);
+        server = Fixtures.server(body);
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        runtime.execute(Json.parse("{ \"name\" : \"items\", \"GET\" : \""
+                + Fixtures.url(server) + "\" }"));
+        call = runtime.getApiCalls().get(0);
+        if (call.getException() != null)
+            throw call.getException();
+        script = call.getScript();
+        status = Fixtures.object("{ \"status\" : \"2..\" }");
+        headers = Fixtures.object("{ \"headers\" : { \"Content-Type\" : \"application/json\","
+                + " \"X-Benchmark\" : \"unr.*\" } }");
+        ObjectNode expected = Fixtures.object("{}");
+        expected.set("json", Json.parse(body));
+        json = expected;
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public StatusAssertion status() throws UnRAVLException {
+        StatusAssertion a = new StatusAssertion();
+        a.check(script, status, Stage.ASSERT, call);
+        return a;
+    }
+
+    @Benchmark
+    public HeadersAssertion headers() throws UnRAVLException {
+        HeadersAssertion a = new HeadersAssertion();
+        a.check(script, headers, Stage.ASSERT, call);
+        return a;
+    }
+
+    @Benchmark
+    public JsonBodyAssertion jsonBody() throws UnRAVLException {
+        JsonBodyAssertion a = new JsonBodyAssertion();
+        a.check(script, json, Stage.ASSERT, call);
+        return a;
+    }
+}
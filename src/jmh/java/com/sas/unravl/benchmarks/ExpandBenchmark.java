@@ -0,0 +1,83 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.util.Json;
+import com.sas.unravl.util.VariableResolver;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Variable expansion: {@link VariableResolver#expand(String)} of short and
+ * long strings, and {@link Json#expand(JsonNode, UnRAVL)} of a large tree.
+ *
+ * @author David.Biesack@sas.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = Fixtures.QUIET)
+public class ExpandBenchmark {
+
+    private VariableResolver resolver;
+    private String shortInput;
+    private String longInput;
+    private UnRAVL script;
+    private JsonNode tree;
+
+    @Setup
+    public void setup() throws UnRAVLException {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        Map<String, Object> env = new HashMap<String, Object>();
+        for (int i = 0; i < 50; i++)
+            env.put("var" + i, "value " + i);
+        env.put("host", "localhost");
+        env.put("id", Integer.valueOf(42));
+        resolver = new VariableResolver(env);
+        shortInput = "http://{host}/api/items/{id}";
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            b.append("Some literal text {var").append(i % 50)
+                    .append("} and {missing").append(i)
+                    .append("|an alternate} then U+{U+00e9}. ");
+        longInput = b.toString();
+
+        runtime.bind("prefix", "The").bind("user", "sas").bind("tag", "x")
+                .bind("value", Integer.valueOf(7));
+        script = new UnRAVL(runtime);
+        tree = Fixtures.template(1000);
+    }
+
+    @Benchmark
+    public String expandShort() {
+        return resolver.expand(shortInput);
+    }
+
+    @Benchmark
+    public String expandLong() {
+        return resolver.expand(longInput);
+    }
+
+    @Benchmark
+    public JsonNode expandJsonTree() {
+        return Json.expand(tree, script);
+    }
+}
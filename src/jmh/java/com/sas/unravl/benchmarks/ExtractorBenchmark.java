@@ -0,0 +1,90 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.benchmarks;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.ApiResponse;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.extractors.JsonPathExtractor;
+import com.sas.unravl.generators.Text;
+import com.sas.unravl.util.Json;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The JsonPath extractor on large response bodies. <code>extract</code> reads
+ * the call's response, whose unwrapped form is cached after the first
+ * extraction; <code>decodeBody</code> measures decoding a fresh body, which
+ * the first extractor of each call adds.
+ *
+ * @author David.Biesack@sas.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = Fixtures.QUIET)
+public class ExtractorBenchmark {
+
+    @Param({ "100", "10000" })
+    public int items;
+
+    private HttpServer server;
+    private UnRAVL script;
+    private ApiCall call;
+    private byte body[];
+    private ObjectNode jsonPath;
+
+    @Setup
+    public void setup() throws UnRAVLException, IOException {
+        String json = Fixtures.json(items);
+        body = json.getBytes(Text.UTF_8);
+        server = Fixtures.server(json);
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        runtime.execute(Json.parse("{ \"name\" : \"items\", \"GET\" : \""
+                + Fixtures.url(server) + "\" }"));
+        call = runtime.getApiCalls().get(0);
+        if (call.getException() != null)
+            throw call.getException();
+        script = call.getScript();
+        jsonPath = Fixtures.object("{ \"jsonPath\" : { \"count\" : \"$.count\","
+                + " \"last\" : \"$.items[" + (items - 1) + "].name\","
+                + " \"cheap\" : \"$.items[?(@.price < 3)].id\" } }");
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public UnRAVL extract() throws UnRAVLException {
+        new JsonPathExtractor().extract(script, jsonPath, call);
+        return script;
+    }
+
+    @Benchmark
+    public Object decodeBody() throws UnRAVLException {
+        ApiResponse response = new ApiResponse(body);
+        response.json();
+        return response.unwrapped();
+    }
+}
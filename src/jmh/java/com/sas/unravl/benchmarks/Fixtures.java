@@ -0,0 +1,111 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.generators.Text;
+import com.sas.unravl.util.Json;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+
+/**
+ * Inputs shared by the benchmarks: generated JSON documents and a local HTTP
+ * server, so that no benchmark depends on the network.
+ *
+ * @author David.Biesack@sas.com
+ */
+final class Fixtures {
+
+    /** JVM option which turns the per-call INFO logging off */
+    static final String QUIET = "-Dlog4j.configuration=log4j-quiet.properties";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private Fixtures() {
+    }
+
+    /**
+     * @param items
+     *            the number of items
+     * @return a JSON object with an <code>items</code> array of objects with
+     *         numbers, strings and a nested array, about 90 bytes per item
+     */
+    static String json(int items) {
+        StringBuilder b = new StringBuilder("{ \"count\" : ").append(items)
+                .append(", \"items\" : [");
+        for (int i = 0; i < items; i++) {
+            if (i > 0)
+                b.append(',');
+            b.append(String.format(Locale.ROOT,
+                    "{ \"id\" : %d, \"name\" : \"item %d\", \"price\" : %.2f,"
+                            + " \"tags\" : [ \"a\", \"b\", \"c\" ] }", i, i,
+                    i * 1.5));
+        }
+        return b.append("] }").toString();
+    }
+
+    /**
+     * @param items
+     *            the number of items
+     * @return a JSON tree like {@link #json(int)} whose strings contain
+     *         <code>{var}</code> references, for expansion
+     */
+    static JsonNode template(int items) throws UnRAVLException {
+        StringBuilder b = new StringBuilder("{ \"items\" : [");
+        for (int i = 0; i < items; i++) {
+            if (i > 0)
+                b.append(',');
+            b.append("{ \"id\" : ").append(i)
+                    .append(", \"name\" : \"{prefix} item ").append(i)
+                    .append("\", \"owner\" : \"{user|nobody}\",")
+                    .append(" \"value\" : \"{@value@}\", \"tags\" : [ \"{tag}\", \"b\" ] }");
+        }
+        return Json.parse(b.append("] }").toString());
+    }
+
+    static ObjectNode object(String json) throws IOException {
+        return (ObjectNode) mapper.readTree(json);
+    }
+
+    /**
+     * Start an HTTP server which returns body for every GET
+     *
+     * @param body
+     *            the JSON response body
+     * @return the running server; stop it when done
+     */
+    static HttpServer server(String body) throws IOException {
+        final byte bytes[] = body.getBytes(Text.UTF_8);
+        HttpServer server = HttpServer.create(new InetSocketAddress(
+                "localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("Content-Type",
+                        "application/json");
+                exchange.getResponseHeaders().set("X-Benchmark", "unravl");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(bytes);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    static String url(HttpServer server) {
+        return "http://localhost:" + server.getAddress().getPort() + "/items";
+    }
+}
@@ -0,0 +1,86 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.benchmarks;
+
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.generators.Binary;
+import com.sas.unravl.generators.Text;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Request and response body I/O: {@link Binary#copy} between streams and
+ * loading a {@link Text} body from a file.
+ *
+ * @author David.Biesack@sas.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = Fixtures.QUIET)
+public class IOBenchmark {
+
+    @Param({ "1024", "1048576" })
+    public int size;
+
+    private byte bytes[];
+    private File file;
+    private UnRAVL script;
+
+    @Setup
+    public void setup() throws IOException {
+        bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        file = File.createTempFile("unravl-benchmark", ".txt");
+        StringBuilder text = new StringBuilder(size);
+        while (text.length() < size)
+            text.append("The quick brown fox jumps over the lazy dog. ");
+        text.setLength(size);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text.toString().getBytes(Text.UTF_8));
+        } finally {
+            out.close();
+        }
+        script = new UnRAVL(new UnRAVLRuntime());
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long copy() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        return Binary.copy(new ByteArrayInputStream(bytes), out);
+    }
+
+    @Benchmark
+    public int loadText() throws IOException, UnRAVLException {
+        return new Text(script, "@" + file.getPath()).length();
+    }
+}
@@ -0,0 +1,200 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.io.ByteStreams;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.ApiCallTimings;
+import com.sas.unravl.ApiCallTimings.Phase;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.util.Json;
+import com.sas.unravl.util.LatencyHistogram;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * An end-to-end benchmark of UnRAVL scripts against a local
+ * {@link StubServer}. Unlike the tests which use Spring's
+ * MockRestServiceServer, each call goes through the real
+ * {@link ApiCall}, RestTemplate, HttpClient connection pool and TCP stack.
+ * <p>
+ * Each script in the scripts directory (default <code>src/jmh/scripts</code>)
+ * is run repeatedly on one thread, with <code>{stub}</code> bound to the stub
+ * server's URL. After a warmup, the benchmark reports for each script:
+ * </p>
+ * <ul>
+ * <li>calls per second</li>
+ * <li>bytes allocated per call by the calling thread, which includes the HTTP
+ * client but not the stub server</li>
+ * <li>the p50 and p99 latency of the whole call</li>
+ * <li>the p50 and p99 overhead added by UnRAVL itself: the call's
+ * {@link Phase#TOTAL} time less the time spent connecting, sending, waiting
+ * for and reading the response ({@link Phase#CONNECT}, {@link Phase#SEND},
+ * {@link Phase#FIRST_BYTE} and {@link Phase#DOWNLOAD})</li>
+ * </ul>
+ * <p>
+ * Options: <code>--calls n</code> (default 2000), <code>--warmup n</code>
+ * (default 500), <code>--latency ms</code> (default 0, the stub server's
+ * response delay), <code>--scripts dir</code>, and script names to run only
+ * those scripts, such as <code>get-json</code>.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class MacroBenchmark {
+
+    private int calls = 2000;
+    private int warmup = 500;
+    private int latency = 0;
+    private File scripts = new File("src/jmh/scripts");
+    private String only[] = new String[0];
+
+    /** The results of one script */
+    static final class Result {
+        final String name;
+        long calls;
+        long errors;
+        long nanos;
+        long allocated = -1L;
+        final LatencyHistogram total = new LatencyHistogram();
+        final LatencyHistogram overhead = new LatencyHistogram();
+
+        Result(String name) {
+            this.name = name;
+        }
+    }
+
+    public static void main(String argv[]) throws Exception {
+        MacroBenchmark benchmark = new MacroBenchmark();
+        benchmark.parse(argv);
+        // Each call prints its report; keep the formatting, drop the output
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(ByteStreams.nullOutputStream()));
+        benchmark.run(out);
+    }
+
+    private void parse(String argv[]) {
+        int i = 0;
+        for (; i < argv.length && argv[i].startsWith("--"); i += 2) {
+            String option = argv[i];
+            String value = argv[i + 1];
+            if (option.equals("--calls"))
+                calls = Integer.parseInt(value);
+            else if (option.equals("--warmup"))
+                warmup = Integer.parseInt(value);
+            else if (option.equals("--latency"))
+                latency = Integer.parseInt(value);
+            else if (option.equals("--scripts"))
+                scripts = new File(value);
+            else
+                throw new IllegalArgumentException("Unknown option " + option);
+        }
+        only = Arrays.copyOfRange(argv, i, argv.length);
+    }
+
+    private void run(PrintStream out) throws IOException, UnRAVLException {
+        File files[] = scripts.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                if (!name.endsWith(".json"))
+                    return false;
+                if (only.length == 0)
+                    return true;
+                return Arrays.asList(only).contains(
+                        name.substring(0, name.length() - 5));
+            }
+        });
+        if (files == null || files.length == 0)
+            throw new IOException("No scripts to run in " + scripts);
+        Arrays.sort(files);
+        StubServer stub = new StubServer(1024, latency, "json");
+        try {
+            out.println(String.format(Locale.ROOT,
+                    "%d calls per script after %d warmup calls; stub latency %dms",
+                    calls, warmup, latency));
+            out.println(String.format(Locale.ROOT,
+                    "%-20s %7s %6s %9s %12s %9s %9s %11s %11s", "Script",
+                    "Calls", "Errors", "Calls/s", "Alloc/call", "p50 ms",
+                    "p99 ms", "ovh p50 ms", "ovh p99 ms"));
+            for (File file : files) {
+                JsonNode script = Json.parse(Files.readAllBytes(file.toPath()));
+                Result r = run(stub, file.getName().replace(".json", ""),
+                        script);
+                stub.check();
+                out.println(String.format(Locale.ROOT,
+                        "%-20s %7d %6d %9.1f %12s %9.3f %9.3f %11.3f %11.3f",
+                        r.name, r.calls, r.errors, r.calls * 1e9 / r.nanos,
+                        r.allocated < 0 ? "n/a" : Long
+                                .toString(r.allocated / r.calls),
+                        r.total.getPercentile(50) / 1e6,
+                        r.total.getPercentile(99) / 1e6,
+                        r.overhead.getPercentile(50) / 1e6,
+                        r.overhead.getPercentile(99) / 1e6));
+            }
+        } finally {
+            stub.close();
+        }
+    }
+
+    private Result run(StubServer stub, String name, JsonNode script)
+            throws IOException, UnRAVLException {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        runtime.bind("stub", stub.getURL());
+        Result ignored = new Result(name);
+        for (int i = 0; i < warmup; i++)
+            call(runtime, script, ignored);
+        Result result = new Result(name);
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++)
+            call(runtime, script, result);
+        result.nanos = System.nanoTime() - start;
+        if (allocated >= 0)
+            result.allocated = allocatedBytes() - allocated;
+        return result;
+    }
+
+    private static void call(UnRAVLRuntime runtime, JsonNode script,
+            Result result) throws IOException {
+        try {
+            runtime.execute(script);
+        } catch (UnRAVLException e) {
+            // counted below
+        }
+        for (ApiCall call : runtime.getApiCalls()) {
+            ApiCallTimings t = call.getTimings();
+            long total = t.getNanos(Phase.TOTAL);
+            long network = t.getNanos(Phase.CONNECT) + t.getNanos(Phase.SEND)
+                    + t.getNanos(Phase.FIRST_BYTE) + t.getNanos(Phase.DOWNLOAD);
+            result.calls++;
+            if (call.getException() != null
+                    || !call.getFailedAssertions().isEmpty())
+                result.errors++;
+            result.total.record(total);
+            result.overhead.record(Math.max(total - network, 0L));
+        }
+        runtime.reset();
+    }
+
+    // Bytes allocated by this thread so far, or -1 if the JVM cannot tell
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+            if (t.isThreadAllocatedMemorySupported()
+                    && t.isThreadAllocatedMemoryEnabled())
+                return t.getThreadAllocatedBytes(Thread.currentThread()
+                        .getId());
+        }
+        return -1L;
+    }
+}
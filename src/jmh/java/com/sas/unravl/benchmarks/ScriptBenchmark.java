@@ -0,0 +1,74 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.benchmarks;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.util.Json;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link UnRAVL} construction: parsing a script's env, headers, method and
+ * assertions, with and without a chain of three templates to resolve.
+ *
+ * @author David.Biesack@sas.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = Fixtures.QUIET)
+public class ScriptBenchmark {
+
+    private UnRAVLRuntime runtime;
+    private ObjectNode plain;
+    private ObjectNode templated;
+
+    @Setup
+    public void setup() throws UnRAVLException, IOException {
+        runtime = new UnRAVLRuntime();
+        runtime.execute(Json.parse("["
+                + "{ \"name\" : \"base.template\", \"env\" : { \"host\" : \"localhost\" },"
+                + "  \"headers\" : { \"Accept\" : \"application/json\" },"
+                + "  \"assert\" : [ { \"status\" : 200 } ] },"
+                + "{ \"name\" : \"auth.template\", \"template\" : \"base\","
+                + "  \"headers\" : { \"Authorization\" : \"Bearer {token}\" } },"
+                + "{ \"name\" : \"items.template\", \"template\" : \"auth\","
+                + "  \"env\" : { \"path\" : \"/api/items\" } }" + "]"));
+        String body = "\"name\" : \"get item\","
+                + " \"env\" : { \"id\" : 42, \"token\" : \"abc\" },"
+                + " \"headers\" : { \"If-None-Match\" : \"{etag|*}\" },"
+                + " \"GET\" : \"http://{host}{path}/{id}\","
+                + " \"bind\" : [ { \"jsonPath\" : { \"name\" : \"$.name\" } } ],"
+                + " \"assert\" : [ \"name != null\", { \"json\" : { \"id\" : 42 } } ]";
+        plain = Fixtures.object("{ " + body + " }");
+        templated = Fixtures.object("{ \"template\" : \"items\", " + body
+                + " }");
+    }
+
+    @Benchmark
+    public UnRAVL construct() throws UnRAVLException, IOException {
+        return new UnRAVL(runtime, plain);
+    }
+
+    @Benchmark
+    public UnRAVL constructWithTemplates() throws UnRAVLException,
+            IOException {
+        return new UnRAVL(runtime, templated);
+    }
+}
@@ -0,0 +1,407 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.benchmarks;
+
+import com.sas.unravl.generators.Text;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal HTTP/1.1 stub server on localhost for end-to-end benchmarks. One
+ * selector thread serves all connections with non-blocking I/O, so the stub
+ * adds little latency or allocation of its own, and keep-alive connections
+ * are reused by the HTTP client connection pool just as with a real server.
+ * <p>
+ * Every request, for any method and path, receives a 200 response. The
+ * response is shaped by query parameters, which default to the values given
+ * to the constructor:
+ * </p>
+ * <ul>
+ * <li><code>size</code> - the body size in bytes</li>
+ * <li><code>type</code> - <code>json</code> (an <code>items</code> array of
+ * objects), <code>text</code> or <code>binary</code></li>
+ * <li><code>latency</code> - how long to wait before responding, in
+ * milliseconds</li>
+ * </ul>
+ * <p>
+ * For example, <code>GET /items?size=65536&amp;latency=5</code>. Request
+ * bodies are read and discarded. Pipelined requests are not supported.
+ * </p>
+ * <p>
+ * If the selector thread fails, it stops serving and records the failure;
+ * {@link #check()} reports it, so that a benchmark does not report the
+ * timings of calls which the stub did not answer.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+final class StubServer implements Closeable {
+
+    private static final byte HEADERS_END[] = { '\r', '\n', '\r', '\n' };
+
+    private final int size;
+    private final long latencyMillis;
+    private final String type;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread thread;
+    private final ScheduledExecutorService delays;
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+    private final ConcurrentMap<String, byte[]> bodies = new ConcurrentHashMap<String, byte[]>();
+    private final AtomicLong requests = new AtomicLong();
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    /** The state of one client connection */
+    private static final class Connection {
+        private final SocketChannel channel;
+        private ByteBuffer in = ByteBuffer.allocate(8192);
+        private final Queue<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Start a stub server on a free port
+     *
+     * @param size
+     *            the default body size, in bytes
+     * @param latencyMillis
+     *            the default latency, in milliseconds
+     * @param type
+     *            the default body type: json, text or binary
+     * @throws IOException
+     *             if the server socket cannot be opened
+     */
+    StubServer(int size, long latencyMillis, String type) throws IOException {
+        this.size = size;
+        this.latencyMillis = latencyMillis;
+        this.type = type;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("localhost", 0));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        delays = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "stub-server-delay");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "stub-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the base URL of the server, such as
+     *         <code>http://localhost:12345</code>
+     */
+    String getURL() {
+        return "http://localhost:" + server.socket().getLocalPort();
+    }
+
+    /**
+     * @return the number of requests answered
+     */
+    long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Check that the server is still serving requests
+     *
+     * @throws IOException
+     *             if the selector thread failed
+     */
+    void check() throws IOException {
+        Throwable t = failure;
+        if (t != null)
+            throw new IOException("The stub server failed: " + t, t);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        delays.shutdownNow();
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys())
+            key.channel().close();
+        selector.close();
+    }
+
+    private void serve() {
+        while (!closed) {
+            try {
+                selector.select();
+                for (Runnable r = pending.poll(); r != null; r = pending.poll())
+                    r.run();
+                Iterator<SelectionKey> keys = selector.selectedKeys()
+                        .iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid())
+                            continue;
+                        if (key.isAcceptable())
+                            accept();
+                        else {
+                            if (key.isReadable())
+                                read(key);
+                            if (key.isValid() && key.isWritable())
+                                write(key);
+                        }
+                    } catch (IOException e) {
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed)
+                    failure = e;
+                return;
+            } catch (RuntimeException e) {
+                if (!closed)
+                    failure = e;
+                return;
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ, new Connection(
+                channel));
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection c = (Connection) key.attachment();
+        if (!c.in.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(c.in.capacity() * 2);
+            c.in.flip();
+            larger.put(c.in);
+            c.in = larger;
+        }
+        if (c.channel.read(c.in) < 0) {
+            key.cancel();
+            c.channel.close();
+            return;
+        }
+        int end = indexOf(c.in, HEADERS_END);
+        if (end < 0)
+            return;
+        String head = new String(c.in.array(), 0, end, Text.UTF_8);
+        int start = end + HEADERS_END.length;
+        int length = header(head, "Transfer-Encoding") != null ? chunkedEnd(
+                c.in, start) : start + Integer.parseInt(header(head,
+                "Content-Length", "0"));
+        if (length < 0 || c.in.position() < length)
+            return; // wait for the rest of the body
+        // discard this request; keep any bytes which follow it
+        c.in.flip();
+        c.in.position(length);
+        c.in.compact();
+        respond(key, c, head.substring(0, head.indexOf('\r')));
+    }
+
+    private void respond(final SelectionKey key, final Connection c,
+            String requestLine) {
+        String target = requestLine.split(" ")[1];
+        int q = target.indexOf('?');
+        String query = q < 0 ? "" : target.substring(q + 1);
+        int size = intParameter(query, "size", this.size);
+        long latency = intParameter(query, "latency", (int) latencyMillis);
+        String type = stringParameter(query, "type", this.type);
+        byte body[] = body(type, size);
+        String head = "HTTP/1.1 200 OK\r\nContent-Type: " + contentType(type)
+                + "\r\nContent-Length: " + body.length + "\r\n\r\n";
+        final ByteBuffer response[] = {
+                ByteBuffer.wrap(head.getBytes(Text.UTF_8)),
+                ByteBuffer.wrap(body) };
+        if (latency <= 0) {
+            send(key, c, response);
+            return;
+        }
+        delays.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pending.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        send(key, c, response);
+                    }
+                });
+                selector.wakeup();
+            }
+        }, latency, TimeUnit.MILLISECONDS);
+    }
+
+    private void send(SelectionKey key, Connection c, ByteBuffer response[]) {
+        if (!key.isValid())
+            return;
+        for (ByteBuffer b : response)
+            c.out.add(b);
+        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        requests.incrementAndGet();
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection c = (Connection) key.attachment();
+        while (!c.out.isEmpty()) {
+            ByteBuffer b = c.out.peek();
+            c.channel.write(b);
+            if (b.hasRemaining())
+                return; // socket buffer full; wait for OP_WRITE
+            c.out.remove();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    // Response bodies are built once for each type and size
+    private byte[] body(String type, int size) {
+        String key = type + ":" + size;
+        byte body[] = bodies.get(key);
+        if (body == null) {
+            body = newBody(type, size);
+            bodies.putIfAbsent(key, body);
+        }
+        return body;
+    }
+
+    private static byte[] newBody(String type, int size) {
+        if ("binary".equals(type)) {
+            byte body[] = new byte[size];
+            new Random(size).nextBytes(body);
+            return body;
+        }
+        StringBuilder b = new StringBuilder(size + 64);
+        if ("json".equals(type)) {
+            b.append("{\"items\":[");
+            for (int i = 0; b.length() + 40 < size; i++) {
+                if (i > 0)
+                    b.append(',');
+                b.append(String.format(Locale.ROOT,
+                        "{\"id\":%d,\"name\":\"item %06d\"}", i, i));
+            }
+            b.append("]}");
+        } else {
+            while (b.length() < size)
+                b.append("The quick brown fox jumps over the lazy dog. ");
+            b.setLength(size);
+        }
+        return b.toString().getBytes(Text.UTF_8);
+    }
+
+    private static String contentType(String type) {
+        if ("json".equals(type))
+            return "application/json";
+        if ("text".equals(type))
+            return "text/plain; charset=UTF-8";
+        return "application/octet-stream";
+    }
+
+    private static String header(String head, String name) {
+        return header(head, name, null);
+    }
+
+    private static String header(String head, String name,
+            String defaultValue) {
+        for (String line : head.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0
+                    && line.substring(0, colon).trim().equalsIgnoreCase(name))
+                return line.substring(colon + 1).trim();
+        }
+        return defaultValue;
+    }
+
+    // Return the end of a chunked body which starts at start, or -1 if
+    // the whole body has not been read yet. Trailers are not supported.
+    private static int chunkedEnd(ByteBuffer buffer, int start) {
+        byte bytes[] = buffer.array();
+        int limit = buffer.position();
+        int i = start;
+        while (true) {
+            int eol = i;
+            while (eol + 1 < limit
+                    && !(bytes[eol] == '\r' && bytes[eol + 1] == '\n'))
+                eol++;
+            if (eol + 1 >= limit)
+                return -1;
+            String line = new String(bytes, i, eol - i, Text.UTF_8);
+            int semi = line.indexOf(';');
+            int chunk = Integer.parseInt(
+                    (semi < 0 ? line : line.substring(0, semi)).trim(), 16);
+            i = eol + 2 + chunk + 2; // the chunk and its CRLF
+            if (chunk == 0)
+                return i <= limit ? i : -1;
+            if (i > limit)
+                return -1;
+        }
+    }
+
+    private static String stringParameter(String query, String name,
+            String defaultValue) {
+        for (String pair : query.split("&")) {
+            if (pair.startsWith(name + "="))
+                return pair.substring(name.length() + 1);
+        }
+        return defaultValue;
+    }
+
+    private static int intParameter(String query, String name,
+            int defaultValue) {
+        return Integer.parseInt(stringParameter(query, name,
+                Integer.toString(defaultValue)));
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte pattern[]) {
+        byte bytes[] = buffer.array();
+        int limit = buffer.position() - pattern.length;
+        outer: for (int i = 0; i <= limit; i++) {
+            for (int j = 0; j < pattern.length; j++)
+                if (bytes[i + j] != pattern[j])
+                    continue outer;
+            return i;
+        }
+        return -1;
+    }
+}
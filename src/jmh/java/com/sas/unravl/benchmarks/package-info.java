@@ -0,0 +1,11 @@
+/**
+ * Uniform REST API Validation Language (UnRAVL) JMH microbenchmarks of the
+ * core hot paths: variable expansion, script construction, assertions,
+ * extractors and request/response body I/O. Run them with
+ * <code>mvn -P jmh test-compile exec:exec</code> or <code>./gradlew jmh</code>
+ * and compare the results with the baselines in <code>src/jmh/baseline</code>.
+ * {@link com.sas.unravl.benchmarks.MacroBenchmark} runs whole scripts end to
+ * end against a local {@link com.sas.unravl.benchmarks.StubServer}.
+ */
+package com.sas.unravl.benchmarks;
+
@@ -2,13 +2,12 @@ package com.sas.unravl;
 
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.BooleanNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
+import com.sas.unravl.ApiCallTimings.Phase;
 import com.sas.unravl.assertions.BaseUnRAVLAssertion;
 import com.sas.unravl.assertions.StatusAssertion;
 import com.sas.unravl.assertions.UnRAVLAssertion;
@@ -17,14 +16,17 @@ import com.sas.unravl.assertions.UnRAVLAssertionException;
 import com.sas.unravl.auth.UnRAVLAuth;
 import com.sas.unravl.extractors.UnRAVLExtractor;
 import com.sas.unravl.generators.Binary;
-import com.sas.unravl.generators.JsonRequestBodyGenerator;
+import com.sas.unravl.generators.FileRequestBody;
 import com.sas.unravl.generators.UnRAVLRequestBodyGenerator;
+import com.sas.unravl.metrics.UnRAVLMetrics;
 import com.sas.unravl.util.Json;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -38,6 +40,7 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.StreamingHttpOutputMessage;
 import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.web.client.HttpStatusCodeException;
@@ -62,7 +65,12 @@ public class ApiCall {
     private static final String AUTHORIZATION = "Authorization";
     private static final String MASK = "************";
     private static final Logger logger = Logger.getLogger(ApiCall.class);
-    private static final String JSON_GENERATOR_KEY = "json";
+
+    /** The default size of the view returned by {@link #getRequestBody()} */
+    public static final int DEFAULT_REQUEST_BODY_VIEW_BYTES = 64 * 1024;
+
+    private static final int requestBodyViewBytes = Integer.getInteger(
+            "unravl.request.body.view.bytes", DEFAULT_REQUEST_BODY_VIEW_BYTES);
 
     private UnRAVL script;
     /**
@@ -70,6 +78,7 @@ public class ApiCall {
      */
     private ByteArrayOutputStream requestBody;
     private ByteArrayOutputStream responseBody;
+    private ApiResponse response = ApiResponse.EMPTY;
     private InputStream requestStream;
 
     private int httpStatus;
@@ -81,6 +90,11 @@ public class ApiCall {
     private Method method;
     private String uri;
     private boolean cancelled = false, skipped = false;
+    private ExecutionPlan plan;
+    // the template chain of the script, which the plan's steps index
+    private List<UnRAVL> chain;
+    private final ApiCallTimings timings = new ApiCallTimings();
+    private long requestBytes;
 
     private static final ObjectNode STATUS_ASSERTION = new ObjectNode(
             JsonNodeFactory.instance);
@@ -100,24 +114,50 @@ public class ApiCall {
     }
 
     public ApiCall run() throws UnRAVLException {
+        UnRAVLMetrics metrics = UnRAVLRuntime.metrics();
+        metrics.callStarted();
+        long start = System.nanoTime();
         try {
             if (getScript().isRunnable() && conditionalExecution()) {
+                long t = System.nanoTime();
                 defineEnv();
                 bind("unravlScript", getScript());
+                timings.add(Phase.ENV, System.nanoTime() - t);
                 if (runAssertions(UnRAVLAssertion.Stage.PRECONDITIONS)) {
+                    t = System.nanoTime();
                     defineBody();
+                    timings.add(Phase.BODY, System.nanoTime() - t);
                     executeAPI();
                     extract();
                     runAssertions(UnRAVLAssertion.Stage.ASSERT);
-                }             }
+                }
+            }
         } catch (UnRAVLException e) {
             throwException(e);
         } catch (IOException e) {
             throwException(e);
+        } finally {
+            long total = System.nanoTime() - start;
+            timings.add(Phase.TOTAL, total);
+            String name = getScript().getName();
+            boolean error = exception != null
+                    && !(exception instanceof UnRAVLAssertionException);
+            metrics.callFinished(name == null ? LoadStatistics.UNNAMED : name,
+                    method == null ? 0 : httpStatus, error, total,
+                    passedAssertions.size(), failedAssertions.size(),
+                    skippedAssertions.size(), requestBytes, response.size());
+            getScript().getRuntime().callFinished(this);
         }
         return this;
     }
 
+    /**
+     * @return the time this call spent in each phase of its execution
+     */
+    public ApiCallTimings getTimings() {
+        return timings;
+    }
+
     private boolean canceled() {
         cancelled = cancelled || getScript().getRuntime().isCanceled();
         return cancelled;
@@ -133,22 +173,33 @@ public class ApiCall {
     
 
     private boolean conditionalExecution() throws UnRAVLException {
-        Boolean cond = conditionalExecution(getScript());
+        long start = System.nanoTime();
+        Boolean cond;
+        try {
+            cond = conditions();
+        } finally {
+            timings.add(Phase.CONDITIONS, System.nanoTime() - start);
+        }
         if (cond == null)
             cond = Boolean.valueOf(getRuntime().getFailedAssertionCount() == 0);
         skipped = !cond.booleanValue();
         return cond.booleanValue();
     }
 
-    private Boolean conditionalExecution(UnRAVL script) throws UnRAVLException {
-        if (script == null)
-            return null;
-        Boolean inherited = conditionalExecution(script.getTemplate());
-        if (inherited != null && !inherited.booleanValue())
-            return Boolean.FALSE;
-        JsonNode cond = script.getRoot().get("if");
-        if (cond == null)
-            return inherited;
+    private Boolean conditions() throws UnRAVLException {
+        // Evaluate the "if" conditions of the template chain, root first,
+        // until one is false.
+        Boolean result = null;
+        for (ExecutionPlan.Step<Void> c : plan().getConditions()) {
+            result = condition(level(c.level), c.node);
+            if (!result.booleanValue())
+                return Boolean.FALSE;
+        }
+        return result;
+    }
+
+    private Boolean condition(UnRAVL script, JsonNode cond)
+            throws UnRAVLException {
         Object condition = null;
         if (cond.isBoolean())
             condition = (BooleanNode) cond;
@@ -178,66 +229,32 @@ public class ApiCall {
     }
 
     private void authenticate() throws UnRAVLException, IOException {
-        authenticate(script);
-    }
-
-    private void authenticate(UnRAVL script) throws UnRAVLException,
-            IOException {
-        if (script == null)
+        ExecutionPlan.Step<UnRAVLAuth> auth = plan().getAuth();
+        if (auth == null)
             return;
-
-        JsonNode auth = script.getRoot().get("auth");
-        if (auth == null) {
-            authenticate(script.getTemplate()); // recurse on template
+        auth.check();
+        if (auth.factory == null) {
+            logger.info("authentication disabled in script.");
             return;
         }
-        if (auth.isBoolean()) {
-            if (auth.booleanValue()) {
-                throw new UnRAVLException(
-                        "\"auth\" : true is invalid. Only \"auth\" : false is allowed (to disable inherited authentication.)");
-            } else {
-                logger.info("authentication disabled in script.");
-                return;
-            }
-        }
-        ObjectNode spec = null;
-        // If "auth" value is just a string and not an object, such as "auth" :
-        // "basic",
-        // convert to "auth" : { "basic" : true } to enable that auth type
-        if (auth.isTextual()) {
-            spec = Json.jsonNodeFactory().objectNode();
-            spec.put(auth.textValue(), true);
-        } else
-            spec = Json.object(auth);
-        String authKey = Json.firstFieldName(spec);
-        Class<? extends UnRAVLAuth> authClass = getPlugins().getAuth().get(
-                authKey);
+        UnRAVLAuth authInstance;
         try {
-            UnRAVLAuth authInstance = authClass.newInstance();
-            authInstance.authenticate(getScript(), spec, this);
-        } catch (InstantiationException e) {
-            throw new UnRAVLException(
-                    "Could not instantiate authentication plugin for " + auth);
-        } catch (IllegalAccessException e) {
+            authInstance = auth.factory.newInstance();
+        } catch (UnRAVLException e) {
             throw new UnRAVLException(
-                    "Could not instantiate authentication plugin for " + auth);
+                    "Could not instantiate authentication plugin for "
+                            + level(auth.level).getRoot().get("auth"), e);
         }
-
+        authInstance.authenticate(getScript(), auth.object(), this);
     }
 
     private void defineBody() throws UnRAVLException, IOException {
-        defineBody(script);
-    }
-
-    private void defineBody(UnRAVL script) throws UnRAVLException, IOException {
-        if (canceled() || script == null)
+        ExecutionPlan.Step<UnRAVLRequestBodyGenerator> bodyStep = plan()
+                .getBody();
+        if (canceled() || bodyStep == null)
             return;
+        UnRAVL script = level(bodyStep.level);
         JsonNode body = script.getRoot().get("body");
-
-        if (body == null || body.isNull()) {
-            defineBody(script.getTemplate());
-            return;
-        }
         if (body.isTextual() && !isVariableHoldingJson(body.asText())) {
             String s = script.expand(body.asText());
             if (!s.trim().startsWith(UnRAVL.REDIRECT_PREFIX)) {
@@ -253,35 +270,15 @@ public class ApiCall {
             }
         }
 
-        ObjectNode bodyObj = null;
-        String generatorKey = null;
-        Class<? extends UnRAVLRequestBodyGenerator> bgClass = null;
-
-        if (body.isObject() && body.fields().hasNext()) {
-            bodyObj = Json.object(body);
-            generatorKey = body.fields().next().getKey();
-            bgClass = getPlugins().getBodyGenerators().get(generatorKey);
-
-        }
-
-        if (bgClass == null || body.isArray() || body.isTextual()) {
-            bodyObj = new ObjectNode(JsonNodeFactory.instance);
-            bodyObj.set(JSON_GENERATOR_KEY, body);
-            generatorKey = JSON_GENERATOR_KEY;
-            bgClass = JsonRequestBodyGenerator.class;
-        }
-
+        UnRAVLRequestBodyGenerator gen;
         try {
-            UnRAVLRequestBodyGenerator gen = bgClass.newInstance();
-            requestStream = gen.getBody(script, bodyObj, this);
-        } catch (InstantiationException e) {
-            throw new UnRAVLException(
-                    "Could not instantiate body generator plugin for " + body);
-        } catch (IllegalAccessException e) {
+            gen = bodyStep.factory.newInstance();
+        } catch (UnRAVLException e) {
             throw new UnRAVLException(
-                    "Could not instantiate body generator plugin for " + body);
+                    "Could not instantiate body generator plugin for " + body,
+                    e);
         }
-
+        requestStream = gen.getBody(script, bodyStep.object(), this);
     }
 
     private boolean isVariableHoldingJson(String value) {
@@ -295,45 +292,30 @@ public class ApiCall {
     }
 
     private void extract() throws UnRAVLException {
-        extract(script);
-    }
-
-    private void extract(UnRAVL script) throws UnRAVLException {
         try {
-            if (canceled() || script == null)
-                return;
-            extract(script.getTemplate());
-            JsonNode bind = script.getRoot().get("bind");
-            if (bind == null)
-                return;
-            if (bind.isObject()) {
-                bind = Json.wrapInArray(bind);
-            }
-            for (JsonNode j : Json.array(bind)) {
+            for (ExecutionPlan.Step<UnRAVLExtractor> step : plan()
+                    .getExtractors()) {
                 if (canceled())
                     return;
-                ObjectNode ob = Json.object(j);
-                Map.Entry<String, JsonNode> first = Json.firstField(ob);
-                String key = first.getKey();
-                Class<? extends UnRAVLExtractor> ec = getPlugins()
-                        .getExtractors().get(key);
-                if (ec == null)
-                    if (!bind.isObject())
-                        throw new UnRAVLException("No defined extractor " + key);
+                ObjectNode ob = step.object();
+                PluginFactory<UnRAVLExtractor> ec = step.factory;
                 UnRAVLExtractor ex;
+                long start = System.nanoTime();
                 try {
                     ex = ec.newInstance();
-                    ex.extract(script, ob, this);
-                } catch (InstantiationException e1) {
-                    throw new UnRAVLException(
-                            "Could not instantiate extractor " + key
-                                    + " using class " + ec.getName(), e1);
-                } catch (IllegalAccessException e1) {
+                } catch (UnRAVLException e1) {
                     throw new UnRAVLException(
-                            "Could not instantiate extractor " + key
-                                    + " using class " + ec.getName(), e1);
+                            "Could not instantiate extractor " + step.key
+                                    + " using class "
+                                    + ec.getType().getName(), e1);
+                }
+                try {
+                    ex.extract(level(step.level), ob, this);
                 } catch (RuntimeException e1) {
                     throw new UnRAVLException(e1.getMessage(), e1);
+                } finally {
+                    timings.add(Phase.EXTRACT, step.key,
+                            System.nanoTime() - start);
                 }
             }
         } finally {
@@ -342,10 +324,6 @@ public class ApiCall {
         }
     }
 
-    private ObjectNode statusAssertion(UnRAVL script) throws UnRAVLException {
-        return UnRAVL.statusAssertion(script);
-    }
-
     public Header getResponseHeader(String headerName) {
         for (Header h : responseHeaders) {
             if (h.getName().equalsIgnoreCase(headerName))
@@ -358,18 +336,13 @@ public class ApiCall {
     // Scalars are bound as Java scalar types; JSON arrays and objects
     // are bound as JsonNode objects
     private void defineEnv() throws UnRAVLException {
-        defineEnv(getScript());
-    }
-
-    static void defineEnv(UnRAVL script) throws UnRAVLException {
-        if (script == null)
-            return;
-        defineEnv(script.getTemplate());
-        JsonNode envNode = script.getRoot().get("env");
-        if (script.getName() != null)
-            script.bind("name", script.getName());
-        if (envNode != null) {
-            for (Map.Entry<String, JsonNode> e : Json.fields(envNode)) {
+        for (ExecutionPlan.Step<Void> step : plan().getEnv()) {
+            UnRAVL script = level(step.level);
+            if (script.getName() != null)
+                script.bind("name", script.getName());
+            if (step.node == null)
+                continue;
+            for (Map.Entry<String, JsonNode> e : Json.fields(step.object())) {
                 String name = e.getKey();
                 JsonNode n = e.getValue();
                 Object value = null;
@@ -403,9 +376,7 @@ public class ApiCall {
                 }
                 script.bind(name, value);
             }
-
         }
-
     }
 
     /**
@@ -450,9 +421,7 @@ public class ApiCall {
     }
 
     public InputStream getResponseBodyAsInputStream() {
-        ByteArrayInputStream i = new ByteArrayInputStream(getResponseBody()
-                .toByteArray());
-        return i;
+        return getResponse().inputStream();
     }
 
     public void executeAPI() throws UnRAVLException {
@@ -460,12 +429,12 @@ public class ApiCall {
             cancelled = true;
             return;
         }
-        if (script.getMethod() == null || script.getURI() == null) {
+        if (plan().getMethod() == null || plan().getURI() == null) {
             logger.warn("Warning: Non-template script " + script.getName()
                     + " does not define an HTTP method or URI.");
             return;
         }
-        setMethod(script.getMethod());
+        setMethod(plan().getMethod());
         RestTemplate restTemplate = getRuntime().getPlugins().getRestTemplate();
         executeAPIWithRestTemplate(restTemplate);
     }
@@ -474,11 +443,14 @@ public class ApiCall {
             throws UnRAVLException {
         // authenticate first, since this may add new (Authentication) headers.
         // Set the expanded URI first, since auth nodes may access it
-        setURI(script.expand(script.getURI()));
+        setURI(script.expand(plan().getURI()));
+        long authStart = System.nanoTime();
         try {
             authenticate();
         } catch (IOException e) {
             throwException(e);
+        } finally {
+            timings.add(Phase.AUTH, System.nanoTime() - authStart);
         }
         // expand the URI after authenticating: OAuth2 or other auth may set env
         // vars that should
@@ -496,9 +468,24 @@ public class ApiCall {
                 final HttpHeaders headers = mapHeaders(script
                         .getRequestHeaders());
                 request.getHeaders().putAll(headers);
-                if (requestStream != null)
-                    Binary.copy(requestStream, request.getBody());
-                ;
+                if (requestStream == null)
+                    return;
+                if (request instanceof StreamingHttpOutputMessage) {
+                    // Write the body as the request is sent rather than
+                    // buffering it. Without a known length, it is chunked.
+                    long length = contentLength(requestStream);
+                    if (length >= 0L)
+                        request.getHeaders().setContentLength(length);
+                    ((StreamingHttpOutputMessage) request)
+                            .setBody(new StreamingHttpOutputMessage.Body() {
+                                @Override
+                                public void writeTo(OutputStream out)
+                                        throws IOException {
+                                    requestBytes = send(requestStream, out);
+                                }
+                            });
+                } else
+                    requestBytes = send(requestStream, request.getBody());
             }
         };
         final ResponseExtractor<InternalResponse> responseExtractor = new ResponseExtractor<InternalResponse>() {
@@ -506,35 +493,49 @@ public class ApiCall {
             public InternalResponse extractData(ClientHttpResponse response)
                     throws IOException {
                 httpStatus = response.getStatusCode().value();
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                Binary.copy(response.getBody(), baos);
-                return new InternalResponse(response.getStatusCode(),
-                        baos.toByteArray(), response.getHeaders());
+                long start = System.nanoTime();
+                ResponseStore store = new ResponseStore(response.getHeaders()
+                        .getContentLength());
+                ApiResponse body;
+                try {
+                    store.readFrom(response.getBody());
+                    body = store.toResponse();
+                } catch (IOException e) {
+                    store.discard();
+                    throw e;
+                }
+                timings.add(Phase.DOWNLOAD, System.nanoTime() - start);
+                return new InternalResponse(response.getStatusCode(), body,
+                        response.getHeaders());
             }
         };
 
-        long start = System.currentTimeMillis();
         try {
             logger.info(method.name() + " " + getURI());
-            // create response body and a valid HTTP response code before the
-            // call
-            // so that even on exceptions, we have a non-null response
-            responseBody = new ByteArrayOutputStream();
+            // reset the response body and a valid HTTP response code before
+            // the call so that even on exceptions, we have a non-null response
+            response = ApiResponse.EMPTY;
+            responseBody = null;
             httpStatus = HttpStatus.NOT_IMPLEMENTED.value();
-            InternalResponse response = restTemplate.execute(getURI(),
-                    HttpMethod.valueOf(method.name()), requestCallback,
-                    responseExtractor);
-            setResponseHeaders(mapHeaders(response.headers));
-            responseBody.write(response.responseBody);
-            responseBody.close();
-            long end = System.currentTimeMillis();
-            logger.info(script.getMethod() + " took " + (end - start)
-                    + "ms, returned HTTP status " + response.status);
-            log("Response body:", responseBody, "Response headers:",
-                    response.headers);
+            InternalResponse internal;
+            long start = System.nanoTime();
+            ApiCallTimings.begin(timings);
+            try {
+                internal = restTemplate.execute(getURI(),
+                        HttpMethod.valueOf(method.name()), requestCallback,
+                        responseExtractor);
+            } finally {
+                ApiCallTimings.end();
+                timings.add(Phase.HTTP, System.nanoTime() - start);
+            }
+            setResponseHeaders(mapHeaders(internal.headers));
+            response = internal.responseBody;
+            logger.info(script.getMethod() + " took "
+                    + ApiCallTimings.millis(timings.getNanos(Phase.HTTP))
+                    + ", returned HTTP status " + internal.status);
+            log("Response body:", response, "Response headers:",
+                    internal.headers);
             assertStatus(httpStatus);
-        } catch (IOException e) {
-            throwException(e);
         } catch (HttpStatusCodeException e) {
             // this happens if the host name cannot be resolved.
             // This and other exceptions below won't happen with the
@@ -561,10 +562,10 @@ public class ApiCall {
 
     private class InternalResponse {
         private HttpStatus status;
-        private byte[] responseBody;
+        private ApiResponse responseBody;
         private HttpHeaders headers;
 
-        public InternalResponse(HttpStatus status, byte[] responseBody,
+        public InternalResponse(HttpStatus status, ApiResponse responseBody,
                 HttpHeaders headers) {
             super();
             this.status = status;
@@ -618,21 +619,59 @@ public class ApiCall {
         getRuntime().bind(varName, value);
     }
 
+    // The length of a request body, or -1 if it is not known
+    private static long contentLength(InputStream body) throws IOException {
+        if (body instanceof FileRequestBody)
+            return ((FileRequestBody) body).remaining();
+        if (body instanceof ByteArrayInputStream)
+            return body.available();
+        return -1L;
+    }
+
+    private static long send(InputStream body, OutputStream out)
+            throws IOException {
+        if (body instanceof FileRequestBody)
+            return ((FileRequestBody) body).writeTo(out);
+        return Binary.copy(body, out);
+    }
+
     /**
-     * @return the request body, wrapped in a ByteArrayOutputStream
+     * Return the start of the request body. At most
+     * <code>unravl.request.body.view.bytes</code> bytes (a system property,
+     * default 64K) are copied, so a large body is not read into memory, and
+     * the request stream is not consumed; the body may still be sent.
+     *
+     * @return the start of the request body, wrapped in a
+     *         ByteArrayOutputStream, or null if there is no body
      * @deprecated Use getRequestStream() instead
      */
     public ByteArrayOutputStream getRequestBody() {
         if (requestBody == null) {
             if (requestStream == null)
                 return null;
-            requestBody = new ByteArrayOutputStream();
+            if (!requestStream.markSupported())
+                requestStream = new BufferedInputStream(requestStream,
+                        requestBodyViewBytes);
+            ByteArrayOutputStream view = new ByteArrayOutputStream();
             try {
-                Binary.copy(requestStream, requestBody);
+                requestStream.mark(requestBodyViewBytes);
+                try {
+                    byte buffer[] = new byte[8192];
+                    for (int total = 0; total < requestBodyViewBytes;) {
+                        int n = requestStream.read(buffer, 0, Math.min(
+                                buffer.length, requestBodyViewBytes - total));
+                        if (n < 0)
+                            break;
+                        view.write(buffer, 0, n);
+                        total += n;
+                    }
+                } finally {
+                    requestStream.reset();
+                }
             } catch (IOException e) {
                 logger.error(e);
             }
-            requestStream = null;
+            requestBody = view;
         }
         return requestBody;
     }
@@ -641,10 +680,38 @@ public class ApiCall {
         return requestStream;
     }
 
+    /**
+     * @return the response body. Consider using {@link #getResponse()}, which
+     *         does not copy the body.
+     */
     public ByteArrayOutputStream getResponseBody() {
+        if (responseBody == null) {
+            byte[] bytes = response.bytes();
+            ByteArrayOutputStream body = new ByteArrayOutputStream(
+                    bytes.length);
+            body.write(bytes, 0, bytes.length);
+            responseBody = body;
+        }
         return responseBody;
     }
 
+    /**
+     * @return the response body, which caches its text and JSON forms so that
+     *         all the assertions and extractors of this call decode it once
+     */
+    public ApiResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * Release the storage held by this call's response body, if it was kept
+     * in a temporary file; see {@link ApiResponse#release()}. The runtime
+     * calls this when it drops the call from its history.
+     */
+    public void release() {
+        response.release();
+    }
+
     public int getHttpStatus() {
         return httpStatus;
     }
@@ -712,74 +779,65 @@ public class ApiCall {
     }
 
     private ObjectNode statusAssertion() throws UnRAVLException {
-        return statusAssertion(script);
+        return plan().getStatusAssertion();
     }
 
-    private boolean runAssertions(Stage stage) throws UnRAVLException {
-        return runAssertions(script, stage);
+    // The compiled plan of the script; see UnRAVL.getPlan()
+    private ExecutionPlan plan() {
+        if (plan == null) {
+            chain = ExecutionPlan.chain(script);
+            plan = script.getPlan();
+        }
+        return plan;
     }
 
-    private boolean runAssertions(UnRAVL unravl, Stage stage)
-            throws UnRAVLException {
-        if (canceled() || unravl == null)
-            return true;
-        if (!runAssertions(unravl.getTemplate(), stage))
-            return false;
-        if (canceled())
-            return true;
-        JsonNode assertionNode = unravl.getRoot().get(stage.getName());
-        if (assertionNode == null)
-            return true;
-        ArrayNode assertions = assertionArray(assertionNode, stage);
-        for (int i = 0; !canceled() && i < assertions.size(); i++) {
-            JsonNode s = assertions.get(i);
-            ObjectNode assertionScriptlet = null;
-            UnRAVLAssertion a = null;
-            Class<? extends UnRAVLAssertion> aClass = null;
-            try {
-                if (s.isTextual()) {
-                    ObjectNode o = new ObjectNode(JsonNodeFactory.instance);
-                    o.set(getRuntime().getScriptLanguage(), (TextNode) s);
-                    s = o;
+    // The script or template which defines a step of the plan
+    private UnRAVL level(int level) {
+        plan();
+        return chain.get(level);
+    }
+
+    private boolean runAssertions(Stage stage) throws UnRAVLException {
+        for (ExecutionPlan.AssertionGroup group : plan().getAssertions(stage)) {
+            if (canceled())
+                return true;
+            group.check();
+            List<ExecutionPlan.AssertionStep> steps = group.steps;
+            for (int i = 0; !canceled() && i < steps.size(); i++) {
+                ExecutionPlan.AssertionStep step = steps.get(i);
+                UnRAVLAssertion a = null;
+                step.check();
+                long start = System.nanoTime();
+                try {
+                    a = step.factory.newInstance();
+                } catch (UnRAVLException e) {
+                    failedAssertions.add(BaseUnRAVLAssertion.of(script,
+                            step.scriptlet));
+                    logger.error(e.getMessage());
+                    throw new UnRAVLException("Assertion class "
+                            + step.factory.getType().getName()
+                            + " cannot be instantiated.", e);
                 }
-                String aName = Json.firstFieldName(s);
-                assertionScriptlet = Json.object(s);
-                aClass = getPlugins().getAssertions().get(aName);
-                if (aClass == null)
-                    throw new UnRAVLException(
-                            "No such assertion class registered for " + stage
-                                    + " keyword " + aName);
-                a = aClass.newInstance();
-                a.setAssertion(assertionScriptlet);
-                a.check(this.script, assertionScriptlet, stage, this);
-                passedAssertions.add(a);
-            } catch (InstantiationException e) {
-                failedAssertions.add(BaseUnRAVLAssertion.of(script,
-                        assertionScriptlet));
-                e.printStackTrace();
-            } catch (IllegalAccessException e) {
-                failedAssertions.add(BaseUnRAVLAssertion.of(script,
-                        assertionScriptlet));
-                logger.error(e.getMessage());
-                throw new UnRAVLException("Assertion class " + aClass.getName()
-                        + " cannot be instantiated.");
-            } catch (UnRAVLAssertionException e) {
-                failedAssertions.add(a);
-                for (int j = i + 1; j < assertions.size(); j++) {
-                    JsonNode skipped = assertions.get(j);
-                    if (skipped.isTextual()) {
-                        ObjectNode g = new ObjectNode(JsonNodeFactory.instance);
-                        g.set("groovy", (TextNode) skipped);
-                        skipped = g;
+                try {
+                    a.setAssertion(step.scriptlet);
+                    a.check(this.script, step.scriptlet, stage, this);
+                    passedAssertions.add(a);
+                } catch (UnRAVLAssertionException e) {
+                    failedAssertions.add(a);
+                    for (int j = i + 1; j < steps.size(); j++) {
+                        skippedAssertions.add(BaseUnRAVLAssertion.of(
+                                getScript(), steps.get(j).skipped));
                     }
-                    skippedAssertions.add(BaseUnRAVLAssertion.of(getScript(),
-                            Json.object(skipped)));
+                    throw e;
+                } finally {
+                    timings.add(stage == Stage.PRECONDITIONS ? Phase.PRECONDITIONS
+                            : Phase.ASSERT, step.key, System.nanoTime() - start);
                 }
-                throw e;
             }
-
+            if (failedAssertions.size() != 0)
+                return false;
         }
-        return failedAssertions.size() == 0;
+        return true;
     }
 
     private UnRAVLPlugins getPlugins() {
@@ -814,7 +872,7 @@ public class ApiCall {
                 + " must be a string, an object, or an array.");
     }
 
-    private void log(String bodyLabel, ByteArrayOutputStream bytes,
+    private void log(String bodyLabel, ApiResponse body,
             String headersLabel, HttpHeaders headers) {
 
         if (headers != null && headers.size() > 0) {
@@ -832,28 +890,27 @@ public class ApiCall {
                 contentType.toString()) };
         if (script.bodyIsTextual(ct))
             try {
-                if (bytes == null || bytes.size() == 0) {
+                if (body.size() == 0) {
                     if (getMethod() != Method.HEAD)
                         logger.warn("Warning: Non-HEAD request returned a text Content-Type header but defines no body.");
                     return;
                 }
                 if (logger.isInfoEnabled()) {
                     logger.info(bodyLabel);
-                    if (script.bodyIsJson(ct) && bytes.size() > 0) {
+                    byte[] bytes = null;
+                    if (script.bodyIsJson(ct)) {
                         try {
-                            ObjectMapper mapper = new ObjectMapper();
-                            mapper.enable(SerializationFeature.INDENT_OUTPUT);
-                            JsonNode json = Json.parse(bytes.toString("UTF-8"));
-                            ByteArrayOutputStream os = new ByteArrayOutputStream();
-                            os.write(mapper.writeValueAsBytes(json));
-                            os.close();
-                            bytes = os;
+                            bytes = Json.prettyWriter().writeValueAsBytes(
+                                    body.json());
                         } catch (UnRAVLException e) {
                             // ignore parse/format errors; just print bytes w/o
                             // pretty print.
                         }
                     }
-                    bytes.writeTo(System.out);
+                    if (bytes != null)
+                        System.out.write(bytes);
+                    else
+                        Binary.copy(body.inputStream(), System.out);
                     System.out.println();
                 }
             } catch (IOException e) {
@@ -912,6 +969,9 @@ public class ApiCall {
             out.println("This call was cancelled.");
         if (wasSkipped())
             out.println("This call was skipped because preconditions.");
+        out.println("Timings: " + timings);
+        for (ApiCallTimings.Entry e : timings.getEntries())
+            out.println("  " + e);
 
         out.flush();
     }
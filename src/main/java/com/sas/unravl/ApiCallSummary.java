@@ -0,0 +1,154 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import com.sas.unravl.assertions.UnRAVLAssertion;
+import com.sas.unravl.assertions.UnRAVLAssertionException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What {@link RetentionPolicy#SUMMARIES} keeps of a finished
+ * {@link ApiCall}: its script, method, URI, HTTP status, timings and
+ * assertion outcomes, without its bodies, headers or assertion objects.
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class ApiCallSummary {
+
+    private final String scriptName;
+    private final Method method;
+    private final String uri;
+    private final int httpStatus;
+    private final ApiCallTimings timings;
+    private final int passed, failed, skipped;
+    private final List<String> failures;
+    private final String exception;
+    private final boolean cancelled, callSkipped;
+
+    /**
+     * @param call
+     *            a finished call
+     */
+    public ApiCallSummary(ApiCall call) {
+        scriptName = call.getScript().getName();
+        method = call.getMethod();
+        uri = call.getURI();
+        httpStatus = call.getHttpStatus();
+        timings = call.getTimings();
+        passed = call.getPassedAssertions().size();
+        failed = call.getFailedAssertions().size();
+        skipped = call.getSkippedAssertions().size();
+        List<String> f = new ArrayList<String>(failed);
+        for (UnRAVLAssertion a : call.getFailedAssertions()) {
+            UnRAVLAssertionException e = a.getUnRAVLAssertionException();
+            f.add(e == null ? String.valueOf(a) : e.getMessage());
+        }
+        failures = Collections.unmodifiableList(f);
+        exception = call.getException() == null ? null : call.getException()
+                .getMessage();
+        cancelled = call.wasCancelled();
+        callSkipped = call.wasSkipped();
+    }
+
+    /**
+     * @return the name of the call's script
+     */
+    public String getScriptName() {
+        return scriptName;
+    }
+
+    /**
+     * @return the HTTP method, or null if the script did not call an API
+     */
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the URI which was called, or null
+     */
+    public String getURI() {
+        return uri;
+    }
+
+    /**
+     * @return the HTTP status of the response
+     */
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+
+    /**
+     * @return the time the call spent in each phase
+     */
+    public ApiCallTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * @return the number of assertions which passed
+     */
+    public int getPassedCount() {
+        return passed;
+    }
+
+    /**
+     * @return the number of assertions which failed
+     */
+    public int getFailedCount() {
+        return failed;
+    }
+
+    /**
+     * @return the number of assertions which were skipped
+     */
+    public int getSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * @return the messages of the failed assertions
+     */
+    public List<String> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the message of the exception the call threw, or null
+     */
+    public String getException() {
+        return exception;
+    }
+
+    /**
+     * @return true if the call failed an assertion or threw an exception
+     */
+    public boolean isFailure() {
+        return failed > 0 || exception != null;
+    }
+
+    /**
+     * @return true if the call was cancelled
+     */
+    public boolean wasCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true if the call was skipped by its preconditions
+     */
+    public boolean wasSkipped() {
+        return callSkipped;
+    }
+
+    @Override
+    public String toString() {
+        return "Script '" + scriptName + "' "
+                + (method == null ? "<no method>" : method.toString()) + " "
+                + (uri == null ? "<no URI>" : uri) + " " + httpStatus + ": "
+                + passed + " passed, " + failed + " failed, " + skipped
+                + " skipped";
+    }
+}
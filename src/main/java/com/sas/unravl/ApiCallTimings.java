@@ -0,0 +1,227 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The time an {@link ApiCall} spent in each phase of its execution, in
+ * nanoseconds. Use {@link ApiCall#getTimings()} to get the timings of a call.
+ * <p>
+ * Each phase accumulates the time of all of its steps; for example
+ * {@link Phase#ASSERT} is the sum of the times of all the call's assertions,
+ * and {@link Phase#CONNECT} is the sum for the original request and any
+ * redirects. The time of each extractor and assertion is also recorded as a
+ * separate {@link Entry}.
+ * </p>
+ * <p>
+ * The {@link Phase#CONNECT}, {@link Phase#SEND} and {@link Phase#FIRST_BYTE}
+ * phases are measured by the HTTP client created by {@link UnRAVLPlugins};
+ * they are zero if a script uses a RestTemplate that uses some other client.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class ApiCallTimings {
+
+    /** The phases of an API call, in the order they run */
+    public enum Phase {
+        /** evaluating the "if" conditions */
+        CONDITIONS("conditions"),
+        /** binding the "env" variables */
+        ENV("env"),
+        /** running the "preconditions" assertions */
+        PRECONDITIONS("preconditions"),
+        /** generating the request body */
+        BODY("body"),
+        /** authentication, including requests for tokens or tickets */
+        AUTH("auth"),
+        /** leasing a pooled connection, or connecting (and TLS handshake) */
+        CONNECT("connect"),
+        /** sending the request headers and body */
+        SEND("send"),
+        /** waiting for the response status and headers (time to first byte) */
+        FIRST_BYTE("first byte"),
+        /** reading the response body */
+        DOWNLOAD("download"),
+        /** the whole HTTP exchange, including CONNECT through DOWNLOAD */
+        HTTP("http"),
+        /** running the "bind" extractors */
+        EXTRACT("extract"),
+        /** running the "assert" assertions */
+        ASSERT("assert"),
+        /** the entire call */
+        TOTAL("total");
+
+        private final String label;
+
+        private Phase(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return the name of the phase, as shown in reports
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /** The time of one extractor or assertion */
+    public static final class Entry {
+        private final Phase phase;
+        private final String name;
+        private final long nanos;
+
+        Entry(Phase phase, String name, long nanos) {
+            this.phase = phase;
+            this.name = name;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the phase this step ran in
+         */
+        public Phase getPhase() {
+            return phase;
+        }
+
+        /**
+         * @return the name of the step, such as the assertion or extractor key
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the time of the step, in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s %s %s", phase.getLabel(),
+                    name, millis(nanos));
+        }
+    }
+
+    // The timings of the call running on this thread; see HTTP hooks below
+    private static final ThreadLocal<ApiCallTimings> CURRENT = new ThreadLocal<ApiCallTimings>();
+
+    private final Map<Phase, Long> nanos = new EnumMap<Phase, Long>(
+            Phase.class);
+    private final List<Entry> entries = new ArrayList<Entry>();
+    // start of the current HTTP request round, for CONNECT
+    private long requestStart;
+
+    /**
+     * Add time to a phase
+     *
+     * @param phase
+     *            the phase
+     * @param elapsed
+     *            the elapsed time, in nanoseconds
+     */
+    public synchronized void add(Phase phase, long elapsed) {
+        Long total = nanos.get(phase);
+        nanos.put(phase, total == null ? elapsed : total + elapsed);
+    }
+
+    /**
+     * Add the time of one step (an extractor or assertion) to a phase
+     *
+     * @param phase
+     *            the phase
+     * @param name
+     *            the name of the step
+     * @param elapsed
+     *            the elapsed time, in nanoseconds
+     */
+    public synchronized void add(Phase phase, String name, long elapsed) {
+        add(phase, elapsed);
+        entries.add(new Entry(phase, name, elapsed));
+    }
+
+    /**
+     * @param phase
+     *            a phase
+     * @return the total time of the phase, in nanoseconds; 0 if it did not run
+     */
+    public synchronized long getNanos(Phase phase) {
+        Long total = nanos.get(phase);
+        return total == null ? 0L : total.longValue();
+    }
+
+    /**
+     * @param phase
+     *            a phase
+     * @return true if the phase ran
+     */
+    public synchronized boolean contains(Phase phase) {
+        return nanos.containsKey(phase);
+    }
+
+    /**
+     * @return the times of the individual extractors and assertions, in the
+     *         order they ran
+     */
+    public synchronized List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<Entry>(entries));
+    }
+
+    /**
+     * @return a one line summary of the phases which ran, such as
+     *         <code>env 0.120ms, http 35.002ms, ...</code>
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder b = new StringBuilder();
+        for (Map.Entry<Phase, Long> e : nanos.entrySet()) {
+            if (b.length() > 0)
+                b.append(", ");
+            b.append(e.getKey().getLabel()).append(' ')
+                    .append(millis(e.getValue()));
+        }
+        return b.toString();
+    }
+
+    /**
+     * @param nanos
+     *            a time in nanoseconds
+     * @return the time formatted as milliseconds, such as "12.345ms"
+     */
+    public static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3fms", nanos / 1e6);
+    }
+
+    // Hooks for the HTTP client; see TimingHttpRequestExecutor
+
+    static void begin(ApiCallTimings timings) {
+        CURRENT.set(timings);
+    }
+
+    static void end() {
+        CURRENT.remove();
+    }
+
+    static ApiCallTimings current() {
+        return CURRENT.get();
+    }
+
+    synchronized void requestStarted(long now) {
+        requestStart = now;
+    }
+
+    synchronized void connected(long now) {
+        if (requestStart != 0) {
+            add(Phase.CONNECT, now - requestStart);
+            requestStart = 0;
+        }
+    }
+}
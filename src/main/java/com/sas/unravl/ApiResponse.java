@@ -0,0 +1,256 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sas.unravl.generators.Text;
+import com.sas.unravl.util.Json;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The body of an API call's response. The raw bytes are held once, and the
+ * forms that assertions and extractors need - the UTF-8 text, the parsed JSON,
+ * and the JSON unwrapped to Java Map/List/scalar values - are computed the
+ * first time they are requested and then reused by the call's other
+ * assertions and extractors.
+ * <p>
+ * Because the same instances are shared, callers must treat the byte array,
+ * the JsonNode and the unwrapped values as read-only, and copy them before
+ * modifying them.
+ * </p>
+ * <p>
+ * A large body may instead be kept in a temporary file (see
+ * {@link ResponseStore}), which is mapped into memory when it is read.
+ * {@link #buffer()} and {@link #inputStream()} read such a body without
+ * copying it onto the heap; {@link #bytes()} copies it. {@link #release()}
+ * deletes the file when the call is no longer needed.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class ApiResponse {
+
+    /** An empty response body */
+    public static final ApiResponse EMPTY = new ApiResponse(new byte[0]);
+
+    private final byte[] bytes;
+    private final File file;
+    private final long length;
+    private ByteBuffer mapped;
+    private boolean released;
+    private volatile String text;
+    private volatile JsonNode json;
+    private volatile Object unwrapped;
+    private volatile boolean isUnwrapped;
+
+    /**
+     * @param bytes
+     *            the response body. This array is not copied, so the caller
+     *            must not modify it afterwards.
+     */
+    public ApiResponse(byte[] bytes) {
+        this.bytes = bytes;
+        this.file = null;
+        this.length = bytes.length;
+    }
+
+    /**
+     * @param file
+     *            a temporary file which holds the response body. It is deleted
+     *            by {@link #release()}.
+     * @param length
+     *            the length of the body
+     */
+    ApiResponse(File file, long length) {
+        this.bytes = null;
+        this.file = file;
+        this.length = length;
+    }
+
+    /**
+     * @return the raw bytes of the response body. Do not modify. If the body
+     *         is kept in a file, this is a new copy of it on each call;
+     *         consider {@link #buffer()} instead.
+     */
+    public byte[] bytes() {
+        if (bytes != null)
+            return bytes;
+        ByteBuffer buffer = buffer();
+        byte copy[] = new byte[buffer.remaining()];
+        buffer.get(copy);
+        return copy;
+    }
+
+    /**
+     * @return the number of bytes in the response body
+     */
+    public int size() {
+        return (int) Math.min(length, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the number of bytes in the response body
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return true if the body is kept in a temporary file rather than in
+     *         memory
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * @return a new read-only view of the whole response body. For a body kept
+     *         in a file, this is a view of the file mapped into memory.
+     * @throws IllegalStateException
+     *             if the body was {@link #release() released} or its file
+     *             cannot be read
+     */
+    public ByteBuffer buffer() {
+        if (bytes != null)
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        return map().duplicate();
+    }
+
+    private synchronized ByteBuffer map() {
+        if (released)
+            throw new IllegalStateException("The response body in " + file
+                    + " has been released");
+        if (mapped == null) {
+            if (length > Integer.MAX_VALUE)
+                throw new IllegalStateException("The response body in "
+                        + file + " is too large to map");
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    mapped = raf.getChannel()
+                            .map(FileChannel.MapMode.READ_ONLY, 0L, length)
+                            .asReadOnlyBuffer();
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                        "Could not read the response body in " + file, e);
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * @return a new stream which reads the response body
+     */
+    public InputStream inputStream() {
+        if (bytes != null)
+            return new ByteArrayInputStream(bytes);
+        return new BufferInputStream(buffer());
+    }
+
+    /**
+     * Release the storage of a body kept in a file, by deleting the file.
+     * After this, the body can no longer be read, except for the text and
+     * JSON forms which were already computed. This does nothing for a body
+     * held in memory.
+     */
+    public synchronized void release() {
+        if (file != null && !released) {
+            released = true;
+            mapped = null;
+            // on some platforms this fails while the file is still mapped;
+            // it is then deleted on exit
+            ResponseStore.delete(file);
+        }
+    }
+
+    /**
+     * @return the response body decoded as UTF-8 text
+     */
+    public String text() {
+        String t = text;
+        if (t == null)
+            text = t = bytes != null ? Text.utf8ToString(bytes) : Text.UTF_8
+                    .decode(buffer()).toString();
+        return t;
+    }
+
+    /**
+     * @return the response body parsed as JSON. This is parsed from the bytes
+     *         without first decoding them to text. Do not modify.
+     * @throws UnRAVLException
+     *             if the body is not valid JSON
+     */
+    public JsonNode json() throws UnRAVLException {
+        JsonNode j = json;
+        if (j == null)
+            json = j = bytes != null ? Json.parse(bytes) : Json
+                    .parse(inputStream());
+        return j;
+    }
+
+    /**
+     * @return the JSON response body converted to Java objects (Map, List,
+     *         String, Number, Boolean, or null), as by
+     *         {@link Json#unwrap(Object)}. Do not modify.
+     * @throws UnRAVLException
+     *             if the body is not valid JSON
+     */
+    public Object unwrapped() throws UnRAVLException {
+        if (!isUnwrapped) {
+            unwrapped = Json.unwrap(json());
+            isUnwrapped = true;
+        }
+        return unwrapped;
+    }
+
+    @Override
+    public String toString() {
+        return text();
+    }
+
+    /** Reads a buffer without copying it */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte b[], int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0L, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,334 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.util.Json;
+
+/**
+ * The target arrival rate of an open-model {@link LoadTest}: how many script
+ * iterations start per second, over time. Unlike a closed loop of virtual
+ * users, an open model keeps starting iterations on schedule when the server
+ * slows down, so the measured latency includes the queuing a real client
+ * population would see.
+ * <p>
+ * Profiles are read from a JSON file, usually kept next to the UnRAVL
+ * scripts. Rates are in arrivals per second and durations in seconds:
+ * </p>
+ *
+ * <pre>
+ * { "type" : "constant", "rate" : 50, "duration" : 60 }
+ * { "type" : "ramp", "from" : 10, "to" : 200, "duration" : 300 }
+ * { "type" : "stepped", "steps" : [ { "rate" : 10, "duration" : 30 },
+ *                                   { "rate" : 20, "duration" : 30 } ] }
+ * { "type" : "poisson", "rate" : 50, "duration" : 60 }
+ * </pre>
+ * <p>
+ * Arrivals of a "poisson" profile are spaced randomly, with exponentially
+ * distributed gaps, at the given mean rate. Adding <code>"poisson" : true</code>
+ * to a ramp or stepped profile randomizes its arrivals the same way, following
+ * the changing rate. Otherwise arrivals are evenly spaced.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public abstract class ArrivalProfile {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final double duration;
+    private final boolean poisson;
+
+    /**
+     * @param duration
+     *            the length of the profile, in seconds
+     * @param poisson
+     *            true if arrivals are randomly spaced
+     */
+    protected ArrivalProfile(double duration, boolean poisson) {
+        this.duration = duration;
+        this.poisson = poisson;
+    }
+
+    /**
+     * @return the length of the profile, in seconds
+     */
+    public double getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return true if arrivals are randomly spaced (a Poisson process), false
+     *         if they are evenly spaced
+     */
+    public boolean isPoisson() {
+        return poisson;
+    }
+
+    /**
+     * @param seconds
+     *            a time since the start of the profile
+     * @return the target arrival rate at that time, in arrivals per second
+     */
+    public abstract double rate(double seconds);
+
+    /**
+     * @param seconds
+     *            a time since the start of the profile
+     * @return the expected number of arrivals from the start until that time;
+     *         the integral of {@link #rate(double)}
+     */
+    public abstract double count(double seconds);
+
+    /**
+     * @param count
+     *            an expected number of arrivals
+     * @return the time at which {@link #count(double)} reaches count, in
+     *         seconds; {@link Double#POSITIVE_INFINITY} if it never does
+     */
+    public abstract double time(double count);
+
+    /**
+     * @return the expected total number of arrivals
+     */
+    public double expectedArrivals() {
+        return count(duration);
+    }
+
+    /**
+     * Create the schedule of one run of this profile
+     *
+     * @param random
+     *            random numbers for a Poisson profile
+     * @return a new schedule
+     */
+    public Schedule schedule(Random random) {
+        return new Schedule(random);
+    }
+
+    /**
+     * The arrival times of one run of a profile.
+     */
+    public final class Schedule {
+        private final Random random;
+        private double count = -1.0;
+
+        Schedule(Random random) {
+            this.random = random;
+        }
+
+        /**
+         * @return the time of the next arrival, in nanoseconds since the start
+         *         of the run, or -1 if there are no more arrivals
+         */
+        public long next() {
+            if (poisson)
+                count = Math.max(count, 0.0)
+                        - Math.log(1.0 - random.nextDouble());
+            else
+                count += 1.0;
+            double t = time(count);
+            if (!(t <= duration))
+                return -1L;
+            return (long) (t * NANOS_PER_SECOND);
+        }
+    }
+
+    /** Evenly spaced or Poisson arrivals at a fixed rate */
+    public static final class Constant extends ArrivalProfile {
+        private final double rate;
+
+        public Constant(double rate, double duration, boolean poisson) {
+            super(duration, poisson);
+            this.rate = rate;
+        }
+
+        @Override
+        public double rate(double seconds) {
+            return rate;
+        }
+
+        @Override
+        public double count(double seconds) {
+            return rate * seconds;
+        }
+
+        @Override
+        public double time(double count) {
+            return rate == 0.0 ? Double.POSITIVE_INFINITY : count / rate;
+        }
+    }
+
+    /** A rate which changes linearly from one value to another */
+    public static final class Ramp extends ArrivalProfile {
+        private final double from;
+        private final double slope;
+
+        public Ramp(double from, double to, double duration, boolean poisson) {
+            super(duration, poisson);
+            this.from = from;
+            this.slope = duration == 0.0 ? 0.0 : (to - from) / duration;
+        }
+
+        @Override
+        public double rate(double seconds) {
+            return from + slope * seconds;
+        }
+
+        @Override
+        public double count(double seconds) {
+            return from * seconds + slope * seconds * seconds / 2.0;
+        }
+
+        @Override
+        public double time(double count) {
+            // solve slope/2 t^2 + from t - count = 0 for the first t >= 0,
+            // in a form which is also stable when slope is 0
+            double discriminant = from * from + 2.0 * slope * count;
+            if (discriminant < 0.0)
+                return Double.POSITIVE_INFINITY;
+            double denominator = from + Math.sqrt(discriminant);
+            if (denominator <= 0.0)
+                return count == 0.0 ? 0.0 : Double.POSITIVE_INFINITY;
+            return 2.0 * count / denominator;
+        }
+    }
+
+    /** A sequence of constant rates */
+    public static final class Stepped extends ArrivalProfile {
+        private final double rates[];
+        private final double ends[]; // end time of each step
+        private final double counts[]; // count at the start of each step
+
+        public Stepped(double rates[], double durations[], boolean poisson) {
+            super(sum(durations), poisson);
+            this.rates = rates.clone();
+            this.ends = new double[rates.length];
+            this.counts = new double[rates.length];
+            double end = 0.0, count = 0.0;
+            for (int i = 0; i < rates.length; i++) {
+                counts[i] = count;
+                end += durations[i];
+                ends[i] = end;
+                count += rates[i] * durations[i];
+            }
+        }
+
+        private static double sum(double values[]) {
+            double sum = 0.0;
+            for (double v : values)
+                sum += v;
+            return sum;
+        }
+
+        private int step(double seconds) {
+            int i = 0;
+            while (i < ends.length - 1 && seconds >= ends[i])
+                i++;
+            return i;
+        }
+
+        private double start(int i) {
+            return i == 0 ? 0.0 : ends[i - 1];
+        }
+
+        @Override
+        public double rate(double seconds) {
+            return rates.length == 0 ? 0.0 : rates[step(seconds)];
+        }
+
+        @Override
+        public double count(double seconds) {
+            if (rates.length == 0)
+                return 0.0;
+            int i = step(seconds);
+            return counts[i] + rates[i] * (seconds - start(i));
+        }
+
+        @Override
+        public double time(double count) {
+            for (int i = 0; i < rates.length; i++) {
+                double end = counts[i] + rates[i] * (ends[i] - start(i));
+                if (rates[i] > 0.0 && count <= end)
+                    return start(i) + (count - counts[i]) / rates[i];
+            }
+            return Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Read a profile from a JSON file
+     *
+     * @param file
+     *            the profile file
+     * @return the profile
+     * @throws UnRAVLException
+     *             if the file cannot be read or is not a valid profile
+     */
+    public static ArrivalProfile read(File file) throws UnRAVLException {
+        try {
+            return parse(Json.reader().<JsonNode> readValue(file));
+        } catch (IOException e) {
+            throw new UnRAVLException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Create a profile from its JSON definition
+     *
+     * @param json
+     *            a JSON profile object
+     * @return the profile
+     * @throws UnRAVLException
+     *             if the JSON is not a valid profile
+     */
+    public static ArrivalProfile parse(JsonNode json) throws UnRAVLException {
+        ObjectNode profile = Json.object(json);
+        String type = Json.stringFieldOr(profile, "type", "constant");
+        boolean poisson = profile.path("poisson").asBoolean(false);
+        if ("constant".equals(type))
+            return new Constant(number(profile, "rate"), number(profile,
+                    "duration"), poisson);
+        if ("poisson".equals(type))
+            return new Constant(number(profile, "rate"), number(profile,
+                    "duration"), true);
+        if ("ramp".equals(type))
+            return new Ramp(number(profile, "from"), number(profile, "to"),
+                    number(profile, "duration"), poisson);
+        if ("stepped".equals(type)) {
+            List<JsonNode> steps = Json.toArray(profile.path("steps"));
+            List<Double> rates = new ArrayList<Double>();
+            List<Double> durations = new ArrayList<Double>();
+            for (JsonNode step : steps) {
+                ObjectNode s = Json.object(step);
+                rates.add(number(s, "rate"));
+                durations.add(number(s, "duration"));
+            }
+            return new Stepped(toArray(rates), toArray(durations), poisson);
+        }
+        throw new UnRAVLException("Unknown arrival profile type '" + type
+                + "'; expected constant, ramp, stepped or poisson");
+    }
+
+    private static double number(ObjectNode node, String field)
+            throws UnRAVLException {
+        JsonNode value = node.get(field);
+        if (value == null || !value.isNumber() || value.doubleValue() < 0.0)
+            throw new UnRAVLException("Arrival profile requires a non-negative number for '"
+                    + field + "'; found " + value);
+        return value.doubleValue();
+    }
+
+    private static double[] toArray(List<Double> values) {
+        double array[] = new double[values.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = values.get(i);
+        return array;
+    }
+}
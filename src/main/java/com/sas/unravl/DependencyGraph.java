@@ -0,0 +1,544 @@
+package com.sas.unravl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.assertions.BaseScriptAssertion;
+import com.sas.unravl.assertions.BoundAssertion;
+import com.sas.unravl.extractors.BaseScriptExtractor;
+import com.sas.unravl.extractors.BinaryExtractor;
+import com.sas.unravl.extractors.HeadersExtractor;
+import com.sas.unravl.extractors.IgnoreExtractor;
+import com.sas.unravl.extractors.JsonExtractor;
+import com.sas.unravl.extractors.JsonPathExtractor;
+import com.sas.unravl.extractors.LinksExtractor;
+import com.sas.unravl.extractors.PatternExtractor;
+import com.sas.unravl.extractors.TextExtractor;
+import com.sas.unravl.extractors.UnRAVLExtractor;
+import com.sas.unravl.util.Json;
+import com.sas.unravl.util.VariableResolver;
+
+/**
+ * The data flow dependencies between the scripts in a list of UnRAVL scripts.
+ * Scripts only communicate through variables and files: a script
+ * <em>writes</em> a variable with an "env" element or a "bind" extractor, and
+ * <em>reads</em> it via a {varName} reference in its URI, headers, body,
+ * "env" values or assertions, or by name in a script expression. Files are
+ * written by extractors such as <code>{ "json" : "@file.json" }</code> and
+ * read by "@file.json" references. The reads and writes of a script include
+ * those of its template chain (see {@link UnRAVL#getTemplate()}).
+ * <p>
+ * The <code>failedAssertionCount</code> variable is modeled like any other:
+ * every script which can fail an assertion (one with assertions,
+ * preconditions, an API call, whose status is asserted, or a "headers" or
+ * "pattern" extractor) writes it, and every script without an "if"
+ * condition reads it, since such a script only runs while the count is 0.
+ * An "if" expression which names it reads it as well. So, as in a
+ * sequential run, a script without an "if" runs after the earlier scripts
+ * which may fail; give a script an "if" (such as <code>"if" : true</code>,
+ * possibly in a template) if it may run regardless.
+ * </p>
+ * <p>
+ * From these, the graph derives an ordering between scripts:
+ * </p>
+ * <ul>
+ * <li>a script which reads a variable must run after every earlier script
+ * which writes it;</li>
+ * <li>a script which writes a variable must not run before an earlier script
+ * which reads or writes it, but it may run in the same wave, since each
+ * script in a wave sees a private copy of the environment and waves are merged
+ * in list order;</li>
+ * <li>a script which modifies a resource (POST, PUT, PATCH or DELETE) and
+ * another script whose URI may name the same resource, or a sub-resource of it,
+ * run in list order;</li>
+ * <li>script references, "@" redirects, and scripts which use extractors the
+ * analyzer does not know or which refer to <code>unravlScript</code> are
+ * barriers which run alone, after all earlier scripts and before all later
+ * scripts.</li>
+ * </ul>
+ * <p>
+ * {@link #getWaves()} groups the scripts into waves: each wave only depends on
+ * earlier waves, so the scripts within a wave may run concurrently.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class DependencyGraph {
+
+    private static final Logger logger = Logger
+            .getLogger(DependencyGraph.class);
+
+    // Variables which each API call binds for its own use; they do not carry
+    // data from one script to another.
+    private static final Set<String> CALL_VARIABLES = new HashSet<String>(
+            Arrays.asList("unravlScript", "name", "status", "requestBody",
+                    "responseBody"));
+
+    private static final Set<Method> UNSAFE_METHODS = Collections
+            .unmodifiableSet(new HashSet<Method>(Arrays.asList(Method.POST,
+                    Method.PUT, Method.PATCH, Method.DELETE)));
+
+    private static final Pattern IDENTIFIER = Pattern
+            .compile("[A-Za-z_$][\\w$]*");
+    private static final String FILE_PREFIX = UnRAVL.REDIRECT_PREFIX;
+    private static final String IMPLICIT_TEMPLATE = "implicit.template";
+
+    private final UnRAVLRuntime runtime;
+    private final List<Node> nodes;
+    private List<List<Integer>> waves;
+
+    private DependencyGraph(UnRAVLRuntime runtime, List<JsonNode> scripts) {
+        this.runtime = runtime;
+        this.nodes = new ArrayList<Node>(scripts.size());
+        for (JsonNode script : scripts) {
+            Node node = new Node();
+            analyze(script, node);
+            if (node.mayFail)
+                node.writes.add(UnRAVLRuntime.FAILED_ASSERTION_COUNT);
+            if (!node.conditional)
+                node.reads.add(UnRAVLRuntime.FAILED_ASSERTION_COUNT);
+            nodes.add(node);
+        }
+        Set<String> written = new HashSet<String>();
+        for (Node node : nodes)
+            written.addAll(node.writes);
+        for (Node node : nodes)
+            node.resolveExpressions(written);
+        link();
+    }
+
+    /**
+     * Analyze a list of scripts.
+     *
+     * @param runtime
+     *            the runtime in which the scripts will run; this supplies
+     *            the templates, named scripts and plugins.
+     * @param scripts
+     *            the scripts
+     * @return the dependency graph of the scripts
+     */
+    public static DependencyGraph analyze(UnRAVLRuntime runtime,
+            List<JsonNode> scripts) {
+        return new DependencyGraph(runtime, scripts);
+    }
+
+    /**
+     * @return the number of scripts in the graph
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @param script
+     *            the index of a script in the analyzed list
+     * @return the names of the variables the script reads. File references
+     *         are prefixed with "@".
+     */
+    public Set<String> getReads(int script) {
+        return Collections.unmodifiableSet(nodes.get(script).reads);
+    }
+
+    /**
+     * @param script
+     *            the index of a script in the analyzed list
+     * @return the names of the variables the script writes. File references
+     *         are prefixed with "@".
+     */
+    public Set<String> getWrites(int script) {
+        return Collections.unmodifiableSet(nodes.get(script).writes);
+    }
+
+    /**
+     * @param script
+     *            the index of a script in the analyzed list
+     * @return true if the script must run alone, after all scripts before it
+     *         and before all scripts after it
+     */
+    public boolean isBarrier(int script) {
+        return nodes.get(script).barrier;
+    }
+
+    /**
+     * @param script
+     *            the index of a script in the analyzed list
+     * @return the indexes of the earlier scripts which the script depends on
+     */
+    public Set<Integer> getDependencies(int script) {
+        Node node = nodes.get(script);
+        Set<Integer> deps = new TreeSet<Integer>(node.after);
+        deps.addAll(node.notBefore);
+        return deps;
+    }
+
+    /**
+     * Group the scripts into waves. Each wave contains the indexes of scripts,
+     * in list order, which only depend on scripts in earlier waves.
+     *
+     * @return the waves, in execution order
+     */
+    public List<List<Integer>> getWaves() {
+        if (waves == null) {
+            int level[] = new int[nodes.size()];
+            int maxLevel = -1;
+            for (int j = 0; j < nodes.size(); j++) {
+                Node node = nodes.get(j);
+                int l = 0;
+                for (int i : node.after)
+                    l = Math.max(l, level[i] + 1);
+                for (int i : node.notBefore)
+                    l = Math.max(l, level[i]);
+                level[j] = l;
+                maxLevel = Math.max(maxLevel, l);
+            }
+            List<List<Integer>> w = new ArrayList<List<Integer>>(maxLevel + 1);
+            for (int l = 0; l <= maxLevel; l++)
+                w.add(new ArrayList<Integer>());
+            for (int j = 0; j < level.length; j++)
+                w.get(level[j]).add(j);
+            waves = Collections.unmodifiableList(w);
+            logger.trace("Scheduled " + nodes.size() + " scripts in "
+                    + waves.size() + " waves: " + waves);
+        }
+        return waves;
+    }
+
+    private void link() {
+        for (int j = 0; j < nodes.size(); j++) {
+            Node later = nodes.get(j);
+            for (int i = 0; i < j; i++) {
+                Node earlier = nodes.get(i);
+                if (earlier.barrier || later.barrier
+                        || intersects(earlier.writes, later.reads)
+                        || conflicts(earlier, later))
+                    later.after.add(i);
+                else if (intersects(earlier.reads, later.writes)
+                        || bothWrite(earlier.writes, later.writes))
+                    later.notBefore.add(i);
+            }
+        }
+    }
+
+    // true if two scripts write the same variable. Failed assertions are
+    // added up when the waves are merged, so writing the count does not order
+    // two scripts.
+    private static boolean bothWrite(Set<String> a, Set<String> b) {
+        for (String s : a)
+            if (b.contains(s)
+                    && !s.equals(UnRAVLRuntime.FAILED_ASSERTION_COUNT))
+                return true;
+        return false;
+    }
+
+    private static boolean intersects(Set<String> a, Set<String> b) {
+        Set<String> smaller = a.size() < b.size() ? a : b;
+        Set<String> larger = smaller == a ? b : a;
+        for (String s : smaller)
+            if (larger.contains(s))
+                return true;
+        return false;
+    }
+
+    // Two API calls conflict if one of them modifies a resource and the other
+    // may access the same resource or a sub-resource of it.
+    private static boolean conflicts(Node a, Node b) {
+        if (a.method == null || b.method == null)
+            return false;
+        if (!UNSAFE_METHODS.contains(a.method)
+                && !UNSAFE_METHODS.contains(b.method))
+            return false;
+        return samePath(a.path, b.path);
+    }
+
+    // true if one path is a prefix of the other. Segments containing
+    // variable references match any segment.
+    private static boolean samePath(List<String> a, List<String> b) {
+        int n = Math.min(a.size(), b.size());
+        for (int i = 0; i < n; i++) {
+            String sa = a.get(i), sb = b.get(i);
+            if (!sa.equals(sb) && sa.indexOf('{') == -1
+                    && sb.indexOf('{') == -1)
+                return false;
+        }
+        return true;
+    }
+
+    private static List<String> path(String uri) {
+        int q = indexOfAny(uri, "?#");
+        if (q != -1)
+            uri = uri.substring(0, q);
+        int scheme = uri.indexOf("://");
+        if (scheme != -1)
+            uri = uri.substring(scheme + 3);
+        List<String> segments = new ArrayList<String>();
+        for (String segment : uri.split("/"))
+            if (segment.length() > 0)
+                segments.add(segment);
+        return segments;
+    }
+
+    private static int indexOfAny(String s, String chars) {
+        for (int i = 0; i < s.length(); i++)
+            if (chars.indexOf(s.charAt(i)) != -1)
+                return i;
+        return -1;
+    }
+
+    private void analyze(JsonNode script, Node node) {
+        if (script.isTextual()) {
+            // a reference to a named script or an "@" redirect to a file or
+            // URL; the content is not known until it runs.
+            node.barrier = true;
+        } else if (script.isArray()) {
+            for (JsonNode element : script)
+                analyze(element, node);
+        } else if (script.isObject()) {
+            analyzeScript(script, node, new HashSet<String>());
+        } else {
+            node.barrier = true;
+        }
+    }
+
+    private void analyzeScript(JsonNode script, Node node, Set<String> visited) {
+        references(script, node.reads);
+        for (Map.Entry<String, JsonNode> field : fields(script)) {
+            String key = field.getKey();
+            JsonNode value = field.getValue();
+            if (key.equals("env")) {
+                if (value.isObject())
+                    node.writes.addAll(fieldNames(value));
+            } else if (key.equals("bind")) {
+                extractors(value, node);
+            } else if (key.equals("assert") || key.equals("preconditions")) {
+                node.mayFail = true;
+                assertions(value, node);
+            } else if (key.equals("if")) {
+                node.conditional = true;
+                if (value.isTextual())
+                    node.expressions.add(value.textValue());
+            } else if (node.method == null && value.isTextual()) {
+                Method method = method(key);
+                if (method != null) {
+                    node.mayFail = true;
+                    node.method = method;
+                    node.path = path(value.textValue());
+                }
+            }
+        }
+        UnRAVL template = template(script);
+        if (template != null && visited.add(template.getName()))
+            analyzeScript(template.getRoot(), node, visited);
+    }
+
+    private UnRAVL template(JsonNode script) {
+        JsonNode name = script.get("name");
+        String scriptName = name == null ? null : name.asText();
+        JsonNode templateNode = script.get("template");
+        if (templateNode != null && templateNode.isTextual()) {
+            String templateName = runtime.expand(templateNode.textValue());
+            if (!templateName.endsWith(UnRAVL.TEMPLATE_EXTENSION))
+                templateName += UnRAVL.TEMPLATE_EXTENSION;
+            return runtime.getTemplate(templateName);
+        }
+        if (IMPLICIT_TEMPLATE.equals(scriptName))
+            return null;
+        return runtime.getTemplate(IMPLICIT_TEMPLATE);
+    }
+
+    private static Method method(String key) {
+        String name = key.toUpperCase();
+        for (Method m : Method.values())
+            if (m.name().equals(name))
+                return m;
+        return null;
+    }
+
+    private void extractors(JsonNode bind, Node node) {
+        if (bind.isObject()) {
+            extractor(bind, node);
+        } else if (bind.isArray()) {
+            for (JsonNode extractor : bind)
+                extractor(extractor, node);
+        }
+    }
+
+    private void extractor(JsonNode extractor, Node node) {
+        if (!extractor.isObject() || extractor.size() == 0) {
+            node.barrier = true;
+            return;
+        }
+        String key = extractor.fieldNames().next();
+        JsonNode spec = extractor.get(key);
+        Class<? extends UnRAVLExtractor> type = runtime.getPlugins()
+                .getExtractors().get(key);
+        if (type == null) {
+            node.barrier = true;
+        } else if (IgnoreExtractor.class.isAssignableFrom(type)) {
+            return;
+        } else if (JsonPathExtractor.class.isAssignableFrom(type)) {
+            node.writes.addAll(fieldNames(spec));
+            from(extractor, node);
+        } else if (JsonExtractor.class.isAssignableFrom(type)
+                || TextExtractor.class.isAssignableFrom(type)
+                || BinaryExtractor.class.isAssignableFrom(type)) {
+            if (spec.isTextual())
+                node.writes.add(spec.textValue());
+        } else if (HeadersExtractor.class.isAssignableFrom(type)) {
+            node.mayFail = true;
+            for (Map.Entry<String, JsonNode> header : fields(spec)) {
+                node.writes.add(header.getKey());
+                if (header.getValue().isArray())
+                    groupNames(header.getValue(), 2, node);
+            }
+        } else if (PatternExtractor.class.isAssignableFrom(type)) {
+            node.mayFail = true;
+            groupNames(spec, 2, node);
+        } else if (LinksExtractor.class.isAssignableFrom(type)) {
+            if (spec.isTextual())
+                node.writes.add(spec.textValue());
+            else if (spec.isArray())
+                groupNames(spec, 0, node);
+            else
+                node.writes.addAll(fieldNames(spec));
+            node.reads.add("unravl.hrefs.prefix");
+            from(extractor, node);
+        } else if (BaseScriptExtractor.class.isAssignableFrom(type)) {
+            for (Map.Entry<String, JsonNode> binding : fields(spec)) {
+                node.writes.add(binding.getKey());
+                if (binding.getValue().isTextual())
+                    node.expressions.add(binding.getValue().textValue());
+            }
+        } else {
+            node.barrier = true;
+        }
+    }
+
+    private static void from(JsonNode extractor, Node node) {
+        JsonNode from = extractor.get("from");
+        if (from != null && from.isTextual())
+            node.expressions.add(from.textValue());
+    }
+
+    private static void groupNames(JsonNode array, int first, Node node) {
+        if (!array.isArray())
+            return;
+        for (int i = first; i < array.size(); i++)
+            if (array.get(i).isTextual())
+                node.writes.add(array.get(i).textValue());
+    }
+
+    private void assertions(JsonNode assertions, Node node) {
+        if (assertions.isArray()) {
+            for (JsonNode assertion : assertions)
+                assertion(assertion, node);
+        } else {
+            assertion(assertions, node);
+        }
+    }
+
+    private void assertion(JsonNode assertion, Node node) {
+        if (assertion.isTextual()) {
+            node.expressions.add(assertion.textValue());
+        } else if (assertion.isObject() && assertion.size() > 0) {
+            String key = assertion.fieldNames().next();
+            Class<?> type = runtime.getPlugins().getAssertions().get(key);
+            if (type == null)
+                return;
+            if (BaseScriptAssertion.class.isAssignableFrom(type))
+                strings(assertion.get(key), node.expressions);
+            else if (BoundAssertion.class.isAssignableFrom(type))
+                strings(assertion.get(key), node.reads);
+        }
+    }
+
+    // Add all {var} and "@file" references in the string values and field
+    // names of a JSON node
+    private static void references(JsonNode json, Set<String> reads) {
+        if (json.isTextual()) {
+            String text = json.textValue();
+            VariableResolver.variableReferences(text, reads);
+            if (text.startsWith(FILE_PREFIX) && text.length() > 1)
+                reads.add(text);
+        } else if (json.isContainerNode()) {
+            for (Map.Entry<String, JsonNode> field : fields(json))
+                VariableResolver.variableReferences(field.getKey(), reads);
+            for (JsonNode element : json)
+                references(element, reads);
+        }
+    }
+
+    private static void strings(JsonNode json, Collection<String> strings) {
+        if (json == null)
+            return;
+        if (json.isTextual())
+            strings.add(json.textValue());
+        else
+            for (JsonNode element : json)
+                strings(element, strings);
+    }
+
+    private static Set<String> fieldNames(JsonNode object) {
+        Set<String> names = new LinkedHashSet<String>();
+        for (Map.Entry<String, JsonNode> field : fields(object))
+            names.add(field.getKey());
+        return names;
+    }
+
+    // the fields of an object node, or an empty list for any other node
+    private static List<Map.Entry<String, JsonNode>> fields(JsonNode node) {
+        if (node == null || !node.isObject())
+            return Collections.emptyList();
+        return Json.fields((ObjectNode) node);
+    }
+
+    /** What the analysis found for one element of the script list */
+    private static final class Node {
+        final Set<String> reads = new LinkedHashSet<String>();
+        final Set<String> writes = new LinkedHashSet<String>();
+        // script language expressions, which may read any variable by name
+        final List<String> expressions = new ArrayList<String>();
+        Method method;
+        List<String> path;
+        boolean barrier;
+        // true if the script or its templates have an "if" condition
+        boolean conditional;
+        // true if the script may fail an assertion
+        boolean mayFail;
+        // earlier scripts which must complete before this one starts
+        final Set<Integer> after = new TreeSet<Integer>();
+        // earlier scripts which must not run in a later wave than this one
+        final Set<Integer> notBefore = new TreeSet<Integer>();
+
+        // An identifier in an expression reads a variable only if some script
+        // writes a variable of that name; other identifiers are local names,
+        // methods or properties. Writes to files become "@file" names, to
+        // match "@file" reads.
+        void resolveExpressions(Set<String> written) {
+            for (String expression : expressions) {
+                if (expression.contains("unravlScript"))
+                    barrier = true;
+                VariableResolver.variableReferences(expression, reads);
+                Matcher m = IDENTIFIER.matcher(expression);
+                while (m.find())
+                    if (written.contains(m.group()))
+                        reads.add(m.group());
+            }
+            reads.removeAll(CALL_VARIABLES);
+            writes.removeAll(CALL_VARIABLES);
+        }
+    }
+}
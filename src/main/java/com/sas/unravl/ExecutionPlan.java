@@ -0,0 +1,506 @@
+package com.sas.unravl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.sas.unravl.assertions.UnRAVLAssertion;
+import com.sas.unravl.assertions.UnRAVLAssertion.Stage;
+import com.sas.unravl.auth.UnRAVLAuth;
+import com.sas.unravl.extractors.UnRAVLExtractor;
+import com.sas.unravl.generators.JsonRequestBodyGenerator;
+import com.sas.unravl.generators.UnRAVLRequestBodyGenerator;
+import com.sas.unravl.util.Json;
+
+/**
+ * The compiled form of an {@link UnRAVL} script and its template chain. An
+ * {@link ApiCall} runs a script by walking its plan instead of walking the
+ * template chain and inspecting the script's JSON for each step. The plan
+ * contains the method and (unexpanded) URI, the merged request headers, the
+ * "if" conditions and "env" elements of each level of the chain, the nearest
+ * "auth" and "body" elements, the extractors and assertions in execution
+ * order with their plugin classes resolved, and the status assertion.
+ * <p>
+ * A plan is immutable and refers to the levels of the template chain by their
+ * index, not to {@link UnRAVL} instances, so it may be shared by all the API
+ * calls of every instance of a script, in any runtime, whose template chain
+ * has the same JSON roots. Get it with {@link UnRAVL#getPlan()}, which looks
+ * it up in the {@link PlanCache} and compiles it if it is missing or its
+ * templates or script language have changed. Compiling never fails: if part of the script is invalid, the corresponding
+ * step holds the {@link UnRAVLException} which is thrown when the step runs,
+ * so an invalid assertion does not prevent the API call or earlier assertions
+ * from running.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class ExecutionPlan {
+
+    private static final String JSON_GENERATOR_KEY = "json";
+
+    // the roots of the templates in the chain, root template first
+    private final List<JsonNode> templates;
+    private final String scriptLanguage;
+    private final Method method;
+    private final String uri;
+    private final List<Header> headers;
+    private final List<Step<Void>> conditions;
+    private final List<Step<Void>> env;
+    private final Step<UnRAVLAuth> auth;
+    private final Step<UnRAVLRequestBodyGenerator> body;
+    private final List<Step<UnRAVLExtractor>> extractors;
+    private final Map<Stage, List<AssertionGroup>> assertions;
+    private final ObjectNode statusAssertion;
+    private final UnRAVLException statusAssertionError;
+
+    /**
+     * Compile a plan for a script.
+     *
+     * @param script
+     *            the script
+     */
+    ExecutionPlan(UnRAVL script) {
+        UnRAVLRuntime runtime = script.getRuntime();
+        UnRAVLPlugins plugins = runtime.getPlugins();
+        List<UnRAVL> chain = chain(script);
+        List<JsonNode> t = new ArrayList<JsonNode>(chain.size() - 1);
+        for (int i = 0; i < chain.size() - 1; i++)
+            t.add(chain.get(i).getRoot());
+        this.templates = Collections.unmodifiableList(t);
+        this.scriptLanguage = runtime.getScriptLanguage();
+        this.method = script.getMethod();
+        this.uri = script.getURI();
+
+        List<Header> h = new ArrayList<Header>();
+        List<Step<Void>> c = new ArrayList<Step<Void>>();
+        List<Step<Void>> e = new ArrayList<Step<Void>>();
+        List<Step<UnRAVLExtractor>> x = new ArrayList<Step<UnRAVLExtractor>>();
+        Step<UnRAVLAuth> a = null;
+        Step<UnRAVLRequestBodyGenerator> b = null;
+        for (int level = 0; level < chain.size(); level++) {
+            JsonNode root = chain.get(level).getRoot();
+            headers(root.get("headers"), h);
+            JsonNode cond = root.get("if");
+            if (cond != null)
+                c.add(new Step<Void>(level, cond, null, null, null));
+            e.add(env(level, root.get("env")));
+            extractors(level, root.get("bind"), plugins, x);
+        }
+        // the nearest auth and body elements win
+        for (int level = chain.size() - 1; level >= 0
+                && (a == null || b == null); level--) {
+            JsonNode root = chain.get(level).getRoot();
+            JsonNode authNode = root.get("auth");
+            if (a == null && authNode != null)
+                a = auth(level, authNode, plugins);
+            JsonNode bodyNode = root.get("body");
+            if (b == null && bodyNode != null && !bodyNode.isNull())
+                b = body(level, bodyNode, plugins);
+        }
+        this.headers = Collections.unmodifiableList(h);
+        this.conditions = Collections.unmodifiableList(c);
+        this.env = Collections.unmodifiableList(e);
+        this.extractors = Collections.unmodifiableList(x);
+        this.auth = a;
+        this.body = b;
+
+        Map<Stage, List<AssertionGroup>> as = new EnumMap<Stage, List<AssertionGroup>>(
+                Stage.class);
+        for (Stage stage : Stage.values())
+            as.put(stage, assertions(chain, stage, plugins));
+        this.assertions = Collections.unmodifiableMap(as);
+
+        ObjectNode status = null;
+        UnRAVLException statusError = null;
+        try {
+            status = UnRAVL.statusAssertion(script);
+        } catch (UnRAVLException ex) {
+            statusError = ex;
+        }
+        this.statusAssertion = status;
+        this.statusAssertionError = statusError;
+    }
+
+    /**
+     * @param script
+     *            a script
+     * @return the template chain of the script, starting with the root
+     *         template and ending with the script itself. The steps of a
+     *         plan refer to these levels by index.
+     */
+    static List<UnRAVL> chain(UnRAVL script) {
+        List<UnRAVL> chain = new ArrayList<UnRAVL>();
+        for (UnRAVL s = script; s != null; s = s.getTemplate())
+            chain.add(0, s);
+        return Collections.unmodifiableList(chain);
+    }
+
+    private static void headers(JsonNode headersNode, List<Header> headers) {
+        if (headersNode == null)
+            return;
+        for (Map.Entry<String, JsonNode> h : fields(headersNode))
+            headers.add(new BasicHeader(h.getKey(), h.getValue().asText()));
+    }
+
+    private static Step<Void> env(int level, JsonNode envNode) {
+        UnRAVLException error = null;
+        try {
+            if (envNode != null)
+                Json.object(envNode);
+        } catch (UnRAVLException e) {
+            error = e;
+        }
+        return new Step<Void>(level, envNode, null, null, error);
+    }
+
+    private static Step<UnRAVLAuth> auth(int level, JsonNode auth,
+            UnRAVLPlugins plugins) {
+        if (auth.isBoolean()) {
+            UnRAVLException error = auth.booleanValue() ? new UnRAVLException(
+                    "\"auth\" : true is invalid. Only \"auth\" : false is allowed (to disable inherited authentication.)")
+                    : null;
+            // a null key means authentication is disabled
+            return new Step<UnRAVLAuth>(level, auth, null, null, error);
+        }
+        try {
+            ObjectNode spec;
+            // If "auth" value is just a string and not an object, such as
+            // "auth" : "basic", convert to "auth" : { "basic" : true } to
+            // enable that auth type
+            if (auth.isTextual()) {
+                spec = Json.jsonNodeFactory().objectNode();
+                spec.put(auth.textValue(), true);
+            } else
+                spec = Json.object(auth);
+            String authKey = Json.firstFieldName(spec);
+            PluginFactory<UnRAVLAuth> authFactory = plugins
+                    .getAuthFactory(authKey);
+            UnRAVLException error = authFactory == null ? new UnRAVLException(
+                    "No such auth plugin registered for " + authKey) : null;
+            return new Step<UnRAVLAuth>(level, spec, authKey, authFactory,
+                    error);
+        } catch (UnRAVLException e) {
+            return new Step<UnRAVLAuth>(level, auth, null, null, e);
+        }
+    }
+
+    private static Step<UnRAVLRequestBodyGenerator> body(int level,
+            JsonNode body, UnRAVLPlugins plugins) {
+        if (body.isObject() && body.fields().hasNext()) {
+            String generatorKey = body.fields().next().getKey();
+            PluginFactory<UnRAVLRequestBodyGenerator> bgFactory = plugins
+                    .getBodyGeneratorFactory(generatorKey);
+            if (bgFactory != null)
+                return new Step<UnRAVLRequestBodyGenerator>(level, body,
+                        generatorKey, bgFactory, null);
+        }
+        ObjectNode bodyObj = new ObjectNode(JsonNodeFactory.instance);
+        bodyObj.set(JSON_GENERATOR_KEY, body);
+        PluginFactory<UnRAVLRequestBodyGenerator> json = plugins
+                .<UnRAVLRequestBodyGenerator> factory(JsonRequestBodyGenerator.class);
+        return new Step<UnRAVLRequestBodyGenerator>(level, bodyObj,
+                JSON_GENERATOR_KEY, json, null);
+    }
+
+    private static void extractors(int level, JsonNode bind,
+            UnRAVLPlugins plugins, List<Step<UnRAVLExtractor>> steps) {
+        if (bind == null)
+            return;
+        if (bind.isObject())
+            bind = Json.wrapInArray(bind);
+        try {
+            Json.array(bind);
+        } catch (UnRAVLException e) {
+            steps.add(new Step<UnRAVLExtractor>(level, bind, null, null, e));
+            return;
+        }
+        for (JsonNode j : bind) {
+            try {
+                ObjectNode ob = Json.object(j);
+                String key = Json.firstFieldName(ob);
+                PluginFactory<UnRAVLExtractor> ec = plugins
+                        .getExtractorFactory(key);
+                UnRAVLException error = ec == null ? new UnRAVLException(
+                        "No defined extractor " + key) : null;
+                steps.add(new Step<UnRAVLExtractor>(level, ob, key, ec, error));
+            } catch (UnRAVLException e) {
+                steps.add(new Step<UnRAVLExtractor>(level, j, null, null, e));
+            }
+        }
+    }
+
+    private List<AssertionGroup> assertions(List<UnRAVL> chain, Stage stage,
+            UnRAVLPlugins plugins) {
+        List<AssertionGroup> groups = new ArrayList<AssertionGroup>();
+        for (int level = 0; level < chain.size(); level++) {
+            JsonNode assertionNode = chain.get(level).getRoot()
+                    .get(stage.getName());
+            if (assertionNode == null)
+                continue;
+            ArrayNode array;
+            try {
+                array = ApiCall.assertionArray(assertionNode, stage);
+            } catch (UnRAVLException e) {
+                groups.add(new AssertionGroup(level, null, e));
+                continue;
+            }
+            List<AssertionStep> steps = new ArrayList<AssertionStep>(
+                    array.size());
+            for (JsonNode s : array)
+                steps.add(assertion(s, stage, plugins));
+            groups.add(new AssertionGroup(level, steps, null));
+        }
+        return Collections.unmodifiableList(groups);
+    }
+
+    private AssertionStep assertion(JsonNode s, Stage stage,
+            UnRAVLPlugins plugins) {
+        ObjectNode skipped = null;
+        if (s.isTextual()) {
+            ObjectNode o = new ObjectNode(JsonNodeFactory.instance);
+            o.set(scriptLanguage, (TextNode) s);
+            ObjectNode g = new ObjectNode(JsonNodeFactory.instance);
+            g.set("groovy", (TextNode) s);
+            skipped = g;
+            s = o;
+        } else if (s.isObject()) {
+            skipped = (ObjectNode) s;
+        }
+        ObjectNode scriptlet = s.isObject() ? (ObjectNode) s : null;
+        try {
+            String aName = Json.firstFieldName(s);
+            scriptlet = Json.object(s);
+            PluginFactory<UnRAVLAssertion> aFactory = plugins
+                    .getAssertionFactory(aName);
+            UnRAVLException error = aFactory == null ? new UnRAVLException(
+                    "No such assertion class registered for " + stage
+                            + " keyword " + aName) : null;
+            return new AssertionStep(scriptlet, skipped, aName, aFactory,
+                    error);
+        } catch (UnRAVLException e) {
+            return new AssertionStep(scriptlet, skipped, null, null, e);
+        }
+    }
+
+    // Null-safe Json.fields for elements that have already been checked
+    private static List<Map.Entry<String, JsonNode>> fields(JsonNode node) {
+        if (node == null || !node.isObject())
+            return Collections.emptyList();
+        return Json.fields((ObjectNode) node);
+    }
+
+    /**
+     * @param script
+     *            a script with the same root as the script this plan was
+     *            compiled from
+     * @return true if this plan reflects the script's method and URI, the
+     *         templates it currently uses, and its runtime's script language
+     */
+    boolean isCurrent(UnRAVL script) {
+        String language = script.getRuntime().getScriptLanguage();
+        if (method != script.getMethod()
+                || (uri == null ? script.getURI() != null : !uri.equals(script
+                        .getURI()))
+                || (scriptLanguage == null ? language != null
+                        : !scriptLanguage.equals(language)))
+            return false;
+        int i = templates.size();
+        for (UnRAVL t = script.getTemplate(); t != null; t = t.getTemplate())
+            if (--i < 0 || templates.get(i) != t.getRoot())
+                return false;
+        return i == 0;
+    }
+
+    /**
+     * @return the roots of the templates the script uses, starting with the
+     *         root template. A plan is reused only while a script's templates
+     *         have these same roots.
+     */
+    public List<JsonNode> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * @return the HTTP method, or null if the script does not call an API
+     */
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the URI of the API call, before variable expansion
+     */
+    public String getURI() {
+        return uri;
+    }
+
+    /**
+     * @return the request headers of the script and its templates, before
+     *         variable expansion. This does not include headers that plugins
+     *         add while running the script.
+     */
+    public List<Header> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return the "if" conditions, root template first
+     */
+    List<Step<Void>> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * @return one step per level of the template chain, root template first,
+     *         whose node is that level's "env" element (or null)
+     */
+    List<Step<Void>> getEnv() {
+        return env;
+    }
+
+    /**
+     * @return the nearest "auth" element, or null if there is none. If the
+     *         step has no plugin class, authentication is disabled.
+     */
+    Step<UnRAVLAuth> getAuth() {
+        return auth;
+    }
+
+    /**
+     * @return the nearest "body" element, or null if there is none. The node
+     *         is the original "body" value for plugin generators, or wrapped
+     *         in a "json" object for JSON bodies.
+     */
+    Step<UnRAVLRequestBodyGenerator> getBody() {
+        return body;
+    }
+
+    /**
+     * @return the extractors, in the order they run
+     */
+    List<Step<UnRAVLExtractor>> getExtractors() {
+        return extractors;
+    }
+
+    /**
+     * @param stage
+     *            preconditions or assertions
+     * @return the assertion groups of a stage, one per level of the template
+     *         chain that defines the stage, root template first
+     */
+    List<AssertionGroup> getAssertions(Stage stage) {
+        return assertions.get(stage);
+    }
+
+    /**
+     * @return the "status" assertion of the script or its nearest template
+     *         that has one, or null
+     * @throws UnRAVLException
+     *             if an "assert" element is invalid
+     */
+    ObjectNode getStatusAssertion() throws UnRAVLException {
+        if (statusAssertionError != null)
+            throw statusAssertionError;
+        return statusAssertion;
+    }
+
+    /**
+     * One compiled element of a script: the index of the level of the
+     * template chain that defines it (see {@link ExecutionPlan#chain(UnRAVL)}),
+     * its JSON node, and the plugin which runs it.
+     *
+     * @param <T>
+     *            the plugin type
+     */
+    static final class Step<T> {
+        final int level;
+        final JsonNode node;
+        final String key;
+        // creates the plugin; null if the step is disabled or invalid
+        final PluginFactory<T> factory;
+        private final UnRAVLException error;
+
+        Step(int level, JsonNode node, String key,
+                PluginFactory<T> factory, UnRAVLException error) {
+            this.level = level;
+            this.node = node;
+            this.key = key;
+            this.factory = factory;
+            this.error = error;
+        }
+
+        /**
+         * @return the node as an ObjectNode
+         * @throws UnRAVLException
+         *             if this step is invalid
+         */
+        ObjectNode object() throws UnRAVLException {
+            check();
+            return (ObjectNode) node;
+        }
+
+        /**
+         * @throws UnRAVLException
+         *             if this step is invalid
+         */
+        void check() throws UnRAVLException {
+            if (error != null)
+                throw error;
+        }
+    }
+
+    /** The assertions of one stage defined by one level of the chain */
+    static final class AssertionGroup {
+        final int level;
+        final List<AssertionStep> steps;
+        private final UnRAVLException error;
+
+        AssertionGroup(int level, List<AssertionStep> steps,
+                UnRAVLException error) {
+            this.level = level;
+            this.steps = steps == null ? Collections.<AssertionStep> emptyList()
+                    : Collections.unmodifiableList(steps);
+            this.error = error;
+        }
+
+        void check() throws UnRAVLException {
+            if (error != null)
+                throw error;
+        }
+    }
+
+    /** One compiled assertion */
+    static final class AssertionStep {
+        // the assertion, with strings converted to script assertions
+        final ObjectNode scriptlet;
+        // how the assertion is reported if an earlier one fails
+        final ObjectNode skipped;
+        final String key;
+        final PluginFactory<UnRAVLAssertion> factory;
+        private final UnRAVLException error;
+
+        AssertionStep(ObjectNode scriptlet, ObjectNode skipped, String key,
+                PluginFactory<UnRAVLAssertion> factory, UnRAVLException error) {
+            this.scriptlet = scriptlet;
+            this.skipped = skipped;
+            this.key = key;
+            this.factory = factory;
+            this.error = error;
+        }
+
+        void check() throws UnRAVLException {
+            if (error != null)
+                throw error;
+        }
+    }
+}
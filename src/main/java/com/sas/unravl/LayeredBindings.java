@@ -0,0 +1,132 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.script.Bindings;
+
+/**
+ * Script engine bindings which are a live view of an {@link UnRAVLRuntime}
+ * environment, rather than a copy of it, so the cost of evaluating a script
+ * does not depend on the size of the environment.
+ * <p>
+ * Lookups check a local scope first, then the runtime environment (which
+ * includes system properties, if the runtime exposes them lazily; see
+ * {@link UnRAVLRuntime#isLazySystemProperties()}). Assigning a variable which
+ * is bound in the environment writes through to the environment with
+ * {@link UnRAVLRuntime#bind(String, Object)}. New variables the script
+ * defines, and the variables that script engines reserve for themselves (such
+ * as <code>context</code> and <code>out</code>), are kept in the local scope
+ * and are discarded with these bindings.
+ * </p>
+ * <p>
+ * Iterating over these bindings builds a merged snapshot of all the layers,
+ * so it is as expensive as copying the environment; script engines do not
+ * normally do that.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public class LayeredBindings extends AbstractMap<String, Object> implements
+        Bindings {
+
+    private final UnRAVLRuntime runtime;
+    private final Map<String, Object> local = new HashMap<String, Object>();
+
+    /**
+     * Create bindings over a runtime's environment
+     *
+     * @param runtime
+     *            the runtime whose environment the bindings expose
+     */
+    public LayeredBindings(UnRAVLRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    /**
+     * @return the variables defined in the local scope
+     */
+    public Map<String, Object> getLocal() {
+        return Collections.unmodifiableMap(local);
+    }
+
+    @Override
+    public Object put(String name, Object value) {
+        check(name);
+        if (local.containsKey(name) || isReserved(name)
+                || !runtime.getBindings().containsKey(name))
+            return local.put(name, value);
+        Object old = runtime.binding(name);
+        runtime.bind(name, value);
+        return old;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        String name = check(key);
+        return local.containsKey(name) || runtime.bound(name);
+    }
+
+    @Override
+    public Object get(Object key) {
+        String name = check(key);
+        if (local.containsKey(name))
+            return local.get(name);
+        return runtime.binding(name);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        String name = check(key);
+        if (local.containsKey(name))
+            return local.remove(name);
+        Object old = runtime.binding(name);
+        runtime.unbind(name);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        local.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        Map<String, Object> merged = new LinkedHashMap<String, Object>();
+        if (runtime.isLazySystemProperties()) {
+            for (Map.Entry<Object, Object> e : System.getProperties()
+                    .entrySet())
+                merged.put(e.getKey().toString(), e.getValue());
+        }
+        merged.putAll(runtime.getBindings());
+        merged.putAll(local);
+        return Collections.unmodifiableMap(merged).entrySet();
+    }
+
+    /**
+     * @param name
+     *            a variable name
+     * @return true if name is a variable that script engines bind for their
+     *         own use, which must not be written into the environment
+     */
+    protected boolean isReserved(String name) {
+        return "context".equals(name) || "out".equals(name)
+                || name.startsWith("javax.script.");
+    }
+
+    // Enforce the key contract of javax.script.Bindings
+    private static String check(Object key) {
+        if (key == null)
+            throw new NullPointerException("key can not be null");
+        if (!(key instanceof String))
+            throw new ClassCastException("key should be a String");
+        if (((String) key).length() == 0)
+            throw new IllegalArgumentException("key can not be empty");
+        return (String) key;
+    }
+}
@@ -0,0 +1,465 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sas.unravl.util.LatencyHistogram;
+
+/**
+ * The results of a {@link LoadTest}: the number of calls, the error rate, the
+ * throughput and the latency percentiles of each script, grouped by script
+ * name. A call is an error if it threw an exception or any of its assertions
+ * failed.
+ * <p>
+ * Two latencies are recorded for each call, in {@link LatencyHistogram}s. The
+ * service time is the call's {@link ApiCallTimings.Phase#TOTAL} time. The
+ * response time is measured from when the call was intended to start: in an
+ * open-model load test, an iteration which starts late because the load
+ * generator fell behind its schedule adds that lag to the response time of
+ * each of its calls. This corrects for coordinated omission - a slow server
+ * delaying the requests which would have measured its slowness. In a closed
+ * model load test the two are equal.
+ * </p>
+ * <p>
+ * Statistics are recorded concurrently by all the users of a load test. They
+ * can be saved to a compact file with {@link #save(File)}, and the statistics
+ * of several runs or processes can be combined with {@link #merge}.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class LoadStatistics {
+
+    /** The name used for calls of scripts which do not have a name */
+    public static final String UNNAMED = "<unnamed>";
+
+    private static final int MAGIC = 0x554e4c32; // "UNL2"
+
+    /** The statistics of all the calls of one script */
+    public static final class ScriptStatistics {
+        private final String name;
+        private final AtomicLong errors = new AtomicLong();
+        private final LatencyHistogram service;
+        private final LatencyHistogram response;
+
+        ScriptStatistics(String name) {
+            this(name, new LatencyHistogram(), new LatencyHistogram());
+        }
+
+        private ScriptStatistics(String name, LatencyHistogram service,
+                LatencyHistogram response) {
+            this.name = name;
+            this.service = service;
+            this.response = response;
+        }
+
+        void add(long serviceNanos, long lagNanos, boolean error) {
+            service.record(serviceNanos);
+            response.record(serviceNanos + Math.max(lagNanos, 0L));
+            if (error)
+                errors.incrementAndGet();
+        }
+
+        void merge(ScriptStatistics other) {
+            service.add(other.service);
+            response.add(other.response);
+            errors.addAndGet(other.errors.get());
+        }
+
+        /**
+         * @return the script name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of calls of this script
+         */
+        public long getCount() {
+            return service.getCount();
+        }
+
+        /**
+         * @return the number of calls which failed
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * @return the fraction of calls which failed, from 0.0 to 1.0
+         */
+        public double getErrorRate() {
+            long count = getCount();
+            return count == 0 ? 0.0 : (double) getErrors() / count;
+        }
+
+        /**
+         * @return the histogram of the service times of the calls
+         */
+        public LatencyHistogram getServiceTime() {
+            return service;
+        }
+
+        /**
+         * @return the histogram of the response times of the calls, measured
+         *         from their intended start times
+         */
+        public LatencyHistogram getResponseTime() {
+            return response;
+        }
+
+        /**
+         * @return the mean service time, in nanoseconds
+         */
+        public long getMean() {
+            return service.getMean();
+        }
+
+        /**
+         * @param percentile
+         *            the percentile, from 0 to 100, such as 99.9
+         * @return the service time at that percentile, in nanoseconds; 0 if
+         *         there were no calls
+         */
+        public long getPercentile(double percentile) {
+            return service.getPercentile(percentile);
+        }
+
+        /**
+         * @return the maximum service time, in nanoseconds
+         */
+        public long getMax() {
+            return service.getMax();
+        }
+    }
+
+    private final Map<String, ScriptStatistics> scripts = new LinkedHashMap<String, ScriptStatistics>();
+    private final LatencyHistogram lag = new LatencyHistogram();
+    private final AtomicLong failedIterations = new AtomicLong();
+    private final AtomicLong lateArrivals = new AtomicLong();
+    private final AtomicLong droppedArrivals = new AtomicLong();
+    private volatile long elapsedNanos;
+
+    /**
+     * Add the latency and outcome of an API call which started on time
+     *
+     * @param call
+     *            a call which has finished
+     */
+    public void add(ApiCall call) {
+        add(call, 0L);
+    }
+
+    /**
+     * Add the latency and outcome of an API call
+     *
+     * @param call
+     *            a call which has finished
+     * @param lagNanos
+     *            how late the call's iteration started compared to its
+     *            intended start time, in nanoseconds
+     */
+    public void add(ApiCall call, long lagNanos) {
+        boolean error = call.getException() != null
+                || !call.getFailedAssertions().isEmpty();
+        add(name(call),
+                call.getTimings().getNanos(ApiCallTimings.Phase.TOTAL),
+                lagNanos, error);
+    }
+
+    /**
+     * Add the latency and outcome of a call of a script
+     *
+     * @param name
+     *            the script name
+     * @param serviceNanos
+     *            the service time of the call, in nanoseconds
+     * @param lagNanos
+     *            how late the call started compared to its intended start
+     *            time, in nanoseconds
+     * @param error
+     *            true if the call failed
+     */
+    public void add(String name, long serviceNanos, long lagNanos,
+            boolean error) {
+        script(name).add(serviceNanos, lagNanos, error);
+    }
+
+    /**
+     * Add how late an iteration of an open-model load test started, compared
+     * to its scheduled arrival time
+     *
+     * @param nanos
+     *            the lag, in nanoseconds
+     */
+    public void addLag(long nanos) {
+        lag.record(nanos);
+    }
+
+    /**
+     * @return the lag of each iteration of an open-model load test: how far
+     *         the actual start of the iteration fell behind its scheduled
+     *         arrival time, because the dispatcher was late or all users were
+     *         busy. Empty for a closed-model load test.
+     */
+    public LatencyHistogram getLag() {
+        return lag;
+    }
+
+    /**
+     * Count an arrival of an open-model load test which had to wait for a
+     * free user
+     */
+    public void arrivalLate() {
+        lateArrivals.incrementAndGet();
+    }
+
+    /**
+     * Count an arrival of an open-model load test which did not run because
+     * too many arrivals were already waiting for a free user
+     */
+    public void arrivalDropped() {
+        droppedArrivals.incrementAndGet();
+    }
+
+    /**
+     * @return the number of arrivals of an open-model load test which waited
+     *         for a free user because all users were busy
+     */
+    public long getLateArrivals() {
+        return lateArrivals.get();
+    }
+
+    /**
+     * @return the number of arrivals of an open-model load test which were
+     *         dropped because the backlog of waiting arrivals was full
+     */
+    public long getDroppedArrivals() {
+        return droppedArrivals.get();
+    }
+
+    /**
+     * Count an iteration which stopped with an exception
+     */
+    public void iterationFailed() {
+        failedIterations.incrementAndGet();
+    }
+
+    /**
+     * Add the statistics of another load test, such as one run by another
+     * process and read with {@link #load(File)}, to this one
+     *
+     * @param other
+     *            the other statistics
+     */
+    public void merge(LoadStatistics other) {
+        for (ScriptStatistics s : other.getScripts().values())
+            script(s.name).merge(s);
+        lag.add(other.lag);
+        failedIterations.addAndGet(other.failedIterations.get());
+        lateArrivals.addAndGet(other.lateArrivals.get());
+        droppedArrivals.addAndGet(other.droppedArrivals.get());
+        elapsedNanos = Math.max(elapsedNanos, other.elapsedNanos);
+    }
+
+    private synchronized ScriptStatistics script(String name) {
+        ScriptStatistics s = scripts.get(name);
+        if (s == null) {
+            s = new ScriptStatistics(name);
+            scripts.put(name, s);
+        }
+        return s;
+    }
+
+    private static String name(ApiCall call) {
+        String name = call.getScript() == null ? null : call.getScript()
+                .getName();
+        return name == null ? UNNAMED : name;
+    }
+
+    /**
+     * @return the statistics of each script, in the order the scripts first
+     *         ran
+     */
+    public synchronized Map<String, ScriptStatistics> getScripts() {
+        return Collections
+                .unmodifiableMap(new LinkedHashMap<String, ScriptStatistics>(
+                        scripts));
+    }
+
+    /**
+     * @return the total number of calls of all scripts
+     */
+    public long getCalls() {
+        long calls = 0L;
+        for (ScriptStatistics s : getScripts().values())
+            calls += s.getCount();
+        return calls;
+    }
+
+    /**
+     * @return the total number of failed calls of all scripts
+     */
+    public long getErrors() {
+        long errors = 0L;
+        for (ScriptStatistics s : getScripts().values())
+            errors += s.getErrors();
+        return errors;
+    }
+
+    /**
+     * @return the number of iterations which stopped with an exception before
+     *         running all their scripts
+     */
+    public long getFailedIterations() {
+        return failedIterations.get();
+    }
+
+    /**
+     * @return the wall clock time of the load test, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @param count
+     *            a number of calls
+     * @return the number of calls per second over the elapsed time
+     */
+    public double throughput(long count) {
+        long elapsed = elapsedNanos;
+        return elapsed == 0 ? 0.0 : count * 1e9 / elapsed;
+    }
+
+    /**
+     * Save these statistics to a compressed binary file
+     *
+     * @param file
+     *            the destination file
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file))));
+        try {
+            Map<String, ScriptStatistics> all = getScripts();
+            out.writeInt(MAGIC);
+            out.writeLong(elapsedNanos);
+            out.writeLong(failedIterations.get());
+            out.writeLong(lateArrivals.get());
+            out.writeLong(droppedArrivals.get());
+            lag.writeTo(out);
+            out.writeInt(all.size());
+            for (ScriptStatistics s : all.values()) {
+                out.writeUTF(s.name);
+                out.writeLong(s.errors.get());
+                s.service.writeTo(out);
+                s.response.writeTo(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read statistics written by {@link #save(File)}
+     *
+     * @param file
+     *            the source file
+     * @return the statistics
+     * @throws IOException
+     *             if the file cannot be read or was not written by
+     *             {@link #save(File)}
+     */
+    public static LoadStatistics load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file
+                        + " is not an UnRAVL load test statistics file");
+            LoadStatistics statistics = new LoadStatistics();
+            statistics.elapsedNanos = in.readLong();
+            statistics.failedIterations.set(in.readLong());
+            statistics.lateArrivals.set(in.readLong());
+            statistics.droppedArrivals.set(in.readLong());
+            statistics.lag.add(LatencyHistogram.readFrom(in));
+            for (int i = in.readInt(); i > 0; i--) {
+                String name = in.readUTF();
+                long errors = in.readLong();
+                ScriptStatistics s = new ScriptStatistics(name,
+                        LatencyHistogram.readFrom(in),
+                        LatencyHistogram.readFrom(in));
+                s.errors.set(errors);
+                statistics.scripts.put(name, s);
+            }
+            return statistics;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Print a table of the statistics of each script
+     *
+     * @param out
+     *            the report destination
+     */
+    public void report(PrintStream out) {
+        out.println(String.format(Locale.ROOT,
+                "%-30s %8s %8s %7s %9s %10s %10s %10s %10s %10s", "Script",
+                "Calls", "Errors", "Error%", "Calls/s", "p50 ms", "p90 ms",
+                "p99 ms", "max ms", "resp p99"));
+        for (ScriptStatistics s : getScripts().values()) {
+            out.println(String.format(Locale.ROOT,
+                    "%-30s %8d %8d %7.2f %9.2f %10.3f %10.3f %10.3f %10.3f %10.3f",
+                    s.getName(), s.getCount(), s.getErrors(),
+                    100.0 * s.getErrorRate(), throughput(s.getCount()),
+                    s.getPercentile(50) / 1e6, s.getPercentile(90) / 1e6,
+                    s.getPercentile(99) / 1e6, s.getMax() / 1e6,
+                    s.response.getPercentile(99) / 1e6));
+        }
+        out.println(String.format(Locale.ROOT,
+                "%d calls, %d errors, %.2f calls/s in %.3fs", getCalls(),
+                getErrors(), throughput(getCalls()), elapsedNanos / 1e9));
+        if (lag.getCount() > 0)
+            out.println(String.format(Locale.ROOT,
+                    "Dispatch lag: p50 %.3fms, p90 %.3fms, p99 %.3fms, max %.3fms over %d arrivals",
+                    lag.getPercentile(50) / 1e6, lag.getPercentile(90) / 1e6,
+                    lag.getPercentile(99) / 1e6, lag.getMax() / 1e6,
+                    lag.getCount()));
+        if (lateArrivals.get() > 0)
+            out.println(lateArrivals.get()
+                    + " arrivals waited for a free user.");
+        if (droppedArrivals.get() > 0)
+            out.println(droppedArrivals.get()
+                    + " arrivals were dropped because the backlog was full.");
+        if (failedIterations.get() > 0)
+            out.println(failedIterations.get()
+                    + " iterations stopped with an exception.");
+        out.flush();
+    }
+}
@@ -0,0 +1,419 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Runs a list of UnRAVL scripts repeatedly with a number of concurrent virtual
+ * users, so that existing scripts and their assertions can be used as load
+ * scenarios. Each user runs on its own thread in its own worker runtime, which
+ * starts with a copy of the parent runtime's environment (see
+ * {@link UnRAVLRuntime#UnRAVLRuntime(UnRAVLRuntime)}) and keeps its variable
+ * bindings from one iteration to the next. Each iteration runs the whole list
+ * of scripts in order.
+ * <p>
+ * Users stop after a fixed number of iterations, or when the duration has
+ * elapsed, whichever comes first; an iteration which is running when the
+ * duration elapses finishes. If neither is set, each user runs one
+ * iteration. The calls of each iteration are added to the test's
+ * {@link LoadStatistics} and then discarded, so the parent runtime's call
+ * history and environment are not changed by a load test.
+ * </p>
+ * <p>
+ * If an {@link ArrivalProfile} is set, the load test uses an open model
+ * instead: iterations start at the times given by the profile, whether or not
+ * earlier iterations have finished, each in a new worker runtime, and the
+ * iteration and duration limits are not used. At most {@link #getUsers()}
+ * iterations run at the same time; later arrivals wait for a free user, and
+ * when {@link #getBacklog()} arrivals are already waiting, new arrivals are
+ * dropped. How late each iteration started compared to its schedule is
+ * reported by {@link LoadStatistics#getLag()}, and the numbers of arrivals
+ * which waited or were dropped by {@link LoadStatistics#getLateArrivals()}
+ * and {@link LoadStatistics#getDroppedArrivals()}.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class LoadTest {
+
+    /**
+     * The default number of arrivals of an open-model load test which may
+     * wait for a free user
+     */
+    public static final int DEFAULT_BACKLOG = 1000;
+
+    private static final Logger logger = Logger.getLogger(LoadTest.class);
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    private int users = 1;
+    private int backlog = DEFAULT_BACKLOG;
+    private int iterations;
+    private long durationNanos;
+    private ArrivalProfile profile;
+    private Random random = new Random();
+
+    /**
+     * @return the number of concurrent virtual users
+     */
+    public int getUsers() {
+        return users;
+    }
+
+    /**
+     * @param users
+     *            the number of concurrent virtual users. With an arrival
+     *            profile, the maximum number of iterations running at once.
+     * @return this load test
+     * @throws IllegalArgumentException
+     *             if users is less than 1
+     */
+    public LoadTest setUsers(int users) {
+        if (users < 1)
+            throw new IllegalArgumentException(
+                    "users must be at least 1; found " + users);
+        this.users = users;
+        return this;
+    }
+
+    /**
+     * @return the number of arrivals of an open-model load test which may
+     *         wait for a free user
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * @param backlog
+     *            the number of arrivals of an open-model load test which may
+     *            wait for a free user; arrivals beyond that are dropped
+     * @return this load test
+     * @throws IllegalArgumentException
+     *             if backlog is less than 1
+     */
+    public LoadTest setBacklog(int backlog) {
+        if (backlog < 1)
+            throw new IllegalArgumentException(
+                    "backlog must be at least 1; found " + backlog);
+        this.backlog = backlog;
+        return this;
+    }
+
+    /**
+     * @return the number of iterations each user runs; 0 if the test is only
+     *         limited by its duration
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @param iterations
+     *            the number of iterations each user runs; 0 for no limit
+     * @return this load test
+     * @throws IllegalArgumentException
+     *             if iterations is negative
+     */
+    public LoadTest setIterations(int iterations) {
+        if (iterations < 0)
+            throw new IllegalArgumentException(
+                    "iterations may not be negative; found " + iterations);
+        this.iterations = iterations;
+        return this;
+    }
+
+    /**
+     * @param unit
+     *            the time unit of the result
+     * @return the duration of the test; 0 if the test is only limited by its
+     *         iterations
+     */
+    public long getDuration(TimeUnit unit) {
+        return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param duration
+     *            how long users start new iterations; 0 for no limit
+     * @param unit
+     *            the time unit of duration
+     * @return this load test
+     * @throws IllegalArgumentException
+     *             if duration is negative
+     */
+    public LoadTest setDuration(long duration, TimeUnit unit) {
+        if (duration < 0)
+            throw new IllegalArgumentException(
+                    "duration may not be negative; found " + duration);
+        this.durationNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * @return the arrival profile of an open-model load test, or null for a
+     *         closed model
+     */
+    public ArrivalProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @param profile
+     *            the arrival profile of an open-model load test, or null for a
+     *            closed model
+     * @return this load test
+     */
+    public LoadTest setProfile(ArrivalProfile profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    /**
+     * @param random
+     *            the random numbers used to space the arrivals of a Poisson
+     *            profile; set a seeded Random for a repeatable schedule
+     * @return this load test
+     */
+    public LoadTest setRandom(Random random) {
+        this.random = random;
+        return this;
+    }
+
+    /**
+     * Run the load test.
+     * <p>
+     * Each call records its service time and its response time, measured from
+     * its intended start, in the returned statistics; see
+     * {@link LoadStatistics}.
+     * </p>
+     *
+     * @param runtime
+     *            the runtime whose environment, scripts and templates the
+     *            virtual users start with. Cancelling this runtime stops the
+     *            users after their current script.
+     * @param scripts
+     *            the scripts each user runs in each iteration
+     * @return the statistics of all users
+     * @throws UnRAVLException
+     *             if interrupted while waiting for the users to finish
+     */
+    public LoadStatistics run(UnRAVLRuntime runtime, List<JsonNode> scripts)
+            throws UnRAVLException {
+        if (profile != null)
+            return runOpen(runtime, scripts);
+        int limit = iterations == 0 && durationNanos == 0 ? 1 : iterations;
+        LoadStatistics statistics = new LoadStatistics();
+        List<User> all = new ArrayList<User>(users);
+        for (int i = 0; i < users; i++)
+            all.add(new User(newWorker(runtime), scripts, limit, statistics));
+        ExecutorService pool = Executors.newFixedThreadPool(users,
+                new UserThreadFactory());
+        long start = System.nanoTime();
+        try {
+            long deadline = durationNanos == 0 ? 0L : start + durationNanos;
+            List<Future<?>> futures = new ArrayList<Future<?>>(users);
+            for (User user : all) {
+                user.deadline = deadline;
+                futures.add(pool.submit(user));
+            }
+            for (Future<?> future : futures)
+                await(runtime, future);
+        } finally {
+            pool.shutdownNow();
+            statistics.setElapsedNanos(System.nanoTime() - start);
+        }
+        return statistics;
+    }
+
+    // Start an iteration at each arrival of the profile. The dispatcher
+    // (this thread) only takes one snapshot of the parent runtime's
+    // environment; each arrival creates its worker runtime from it when it
+    // starts, so creating workers does not delay the schedule.
+    private LoadStatistics runOpen(UnRAVLRuntime runtime,
+            List<JsonNode> scripts) throws UnRAVLException {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(users, users, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                        backlog), new UserThreadFactory());
+        LoadStatistics statistics = new LoadStatistics();
+        Map<String, Object> env = new LinkedHashMap<String, Object>(
+                runtime.getBindings());
+        // arrivals which were dispatched and have not finished
+        AtomicInteger pending = new AtomicInteger();
+        ArrivalProfile.Schedule schedule = profile.schedule(random);
+        long start = System.nanoTime();
+        try {
+            for (long next = schedule.next(); next >= 0
+                    && !runtime.isCanceled(); next = schedule.next()) {
+                long scheduled = start + next;
+                long delay = scheduled - System.nanoTime();
+                if (delay > 0)
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                boolean busy = pending.getAndIncrement() >= users;
+                try {
+                    pool.execute(new Arrival(runtime, env, scripts, scheduled,
+                            statistics, pending));
+                    if (busy)
+                        statistics.arrivalLate();
+                } catch (RejectedExecutionException e) {
+                    pending.decrementAndGet();
+                    statistics.arrivalDropped();
+                }
+            }
+            pool.shutdown();
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (runtime.isCanceled())
+                    break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            runtime.cancel();
+            throw new UnRAVLException(
+                    "Interrupted while running load test arrivals", e);
+        } finally {
+            pool.shutdownNow();
+            statistics.setElapsedNanos(System.nanoTime() - start);
+        }
+        return statistics;
+    }
+
+    private static void await(UnRAVLRuntime runtime, Future<?> future)
+            throws UnRAVLException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            runtime.cancel();
+            throw new UnRAVLException(
+                    "Interrupted while waiting for load test users", e);
+        } catch (ExecutionException e) {
+            throw new UnRAVLException(e.getCause());
+        }
+    }
+
+    /**
+     * One virtual user: a worker runtime which runs the scripts until it
+     * reaches its iteration limit or the deadline.
+     */
+    private static class User implements Runnable {
+        private final UnRAVLRuntime worker;
+        private final List<JsonNode> scripts;
+        private final int limit;
+        private final LoadStatistics statistics;
+        private volatile long deadline;
+
+        User(UnRAVLRuntime worker, List<JsonNode> scripts, int limit,
+                LoadStatistics statistics) {
+            this.worker = worker;
+            this.scripts = scripts;
+            this.limit = limit;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; (limit == 0 || i < limit)
+                    && (deadline == 0 || System.nanoTime() < deadline)
+                    && !worker.isCanceled(); i++) {
+                try {
+                    worker.executeInternal(scripts);
+                } catch (Throwable t) {
+                    statistics.iterationFailed();
+                    logger.error(t.getMessage()
+                            + " while running a load test iteration");
+                }
+                for (ApiCall call : worker.getApiCalls())
+                    statistics.add(call);
+                worker.reset();
+            }
+        }
+    }
+
+    /**
+     * One iteration of an open-model load test, scheduled to start at a
+     * given time.
+     */
+    private static class Arrival implements Runnable {
+        private final UnRAVLRuntime runtime;
+        private final Map<String, Object> env;
+        private final List<JsonNode> scripts;
+        private final long scheduled;
+        private final LoadStatistics statistics;
+        private final AtomicInteger pending;
+
+        Arrival(UnRAVLRuntime runtime, Map<String, Object> env,
+                List<JsonNode> scripts, long scheduled,
+                LoadStatistics statistics, AtomicInteger pending) {
+            this.runtime = runtime;
+            this.env = env;
+            this.scripts = scripts;
+            this.scheduled = scheduled;
+            this.statistics = statistics;
+            this.pending = pending;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long lag = System.nanoTime() - scheduled;
+                statistics.addLag(lag);
+                if (runtime.isCanceled())
+                    return;
+                UnRAVLRuntime worker = newWorker(runtime, env);
+                try {
+                    worker.executeInternal(scripts);
+                } catch (Throwable t) {
+                    statistics.iterationFailed();
+                    logger.error(t.getMessage()
+                            + " while running a load test iteration");
+                }
+                for (ApiCall call : worker.getApiCalls())
+                    statistics.add(call, lag);
+                worker.reset();
+            } finally {
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    // A worker keeps all of an iteration's calls, whatever the runtime's
+    // retention policy, since the statistics read them all
+    private static UnRAVLRuntime newWorker(UnRAVLRuntime runtime) {
+        return newWorker(runtime, runtime.getBindings());
+    }
+
+    private static UnRAVLRuntime newWorker(UnRAVLRuntime runtime,
+            Map<String, Object> env) {
+        UnRAVLRuntime worker = runtime.newWorker(env);
+        worker.setRetentionPolicy(RetentionPolicy.ALL,
+                runtime.getRetentionLimit());
+        return worker;
+    }
+
+    private static class UserThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "unravl-user-"
+                    + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -1,12 +1,19 @@
 package com.sas.unravl;
 
+import com.sas.unravl.metrics.JmxExporter;
+import com.sas.unravl.metrics.PrometheusExporter;
+import com.sas.unravl.metrics.UnRAVLMetrics;
 import com.sas.unravl.ui.UnRAVLFrame;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
 
 /**
  * The main command-line interface for running {@link UnRAVL} scripts. You can
@@ -66,6 +73,23 @@ public final class Main {
 
     static boolean ui = false;
     static boolean redirectOutput = true;
+    static int parallelism = 1;
+    static boolean dependencyScheduling = true;
+    static int users = 0;
+    static int iterations = 0;
+    static int duration = 0;
+    static String profile = null;
+    static String statisticsFile = null;
+    static int metricsPort = 0;
+    static boolean metricsBindAll = false;
+    static String metricsFile = null;
+    static boolean jmx = false;
+    static RetentionPolicy retention = null;
+    static int retentionLimit = UnRAVLRuntime.DEFAULT_RETENTION_LIMIT;
+    // the default maximum concurrency of an open-model load test
+    private static final int PROFILE_USERS = 100;
+    // how often --metrics-file is rewritten, in seconds
+    private static final int METRICS_FILE_PERIOD = 10;
 
     // Scan for --v | -verbose | -q | --quiet | --stdout and set the log4j configuration
     // remove those args from the arg list and return the remainder
@@ -74,7 +98,8 @@ public final class Main {
         ArrayList<String> args = new ArrayList<String>();
         String log4j = null;
         ui = true;
-        for (String arg : argv) {
+        for (int i = 0; i < argv.length; i++) {
+            String arg = argv[i];
             if (arg.trim().length() == 0) // Ignore "" on command line
                 continue;
             else if (arg.matches("^--?h(elp)?"))
@@ -85,6 +110,30 @@ public final class Main {
                 log4j = "log4j-trace.properties";
             else if (arg.matches("^--?stdout"))
                 redirectOutput = false;
+            else if (arg.matches("^--?p(arallel)?"))
+                parallelism = intOption(arg, argv, ++i);
+            else if (arg.matches("^--?independent"))
+                dependencyScheduling = false;
+            else if (arg.matches("^--?u(sers)?"))
+                users = intOption(arg, argv, ++i);
+            else if (arg.matches("^--?(n|iterations)"))
+                iterations = intOption(arg, argv, ++i);
+            else if (arg.matches("^--?d(uration)?"))
+                duration = intOption(arg, argv, ++i);
+            else if (arg.matches("^--?profile"))
+                profile = stringOption(arg, argv, ++i);
+            else if (arg.matches("^--?save"))
+                statisticsFile = stringOption(arg, argv, ++i);
+            else if (arg.matches("^--?metrics-port"))
+                metricsPort = intOption(arg, argv, ++i);
+            else if (arg.matches("^--?metrics-bind-all"))
+                metricsBindAll = true;
+            else if (arg.matches("^--?metrics-file"))
+                metricsFile = stringOption(arg, argv, ++i);
+            else if (arg.matches("^--?jmx"))
+                jmx = true;
+            else if (arg.matches("^--?retain"))
+                retentionOption(arg, stringOption(arg, argv, ++i));
             else {
                 args.add(arg);
                 ui = false;
@@ -95,24 +144,116 @@ public final class Main {
         return args.toArray(new String[args.size()]);
     }
     
+    // Return the integer value of the option at argv[i], or print usage
+    // and exit if it is missing or not a positive integer.
+    private static int intOption(String option, String[] argv, int i) {
+        try {
+            int value = Integer.parseInt(argv[i]);
+            if (value > 0)
+                return value;
+        } catch (ArrayIndexOutOfBoundsException e) {
+        } catch (NumberFormatException e) {
+        }
+        System.out.println(option + " requires a positive integer value.");
+        usage();
+        return 0;
+    }
+
+    // Set the retention policy from a --retain value, or print usage and
+    // exit if it is not valid
+    private static void retentionOption(String option, String value) {
+        try {
+            retention = RetentionPolicy.parse(value);
+            if (value.trim().matches("[0-9]+"))
+                retentionLimit = Integer.parseInt(value.trim());
+            if (retentionLimit > 0)
+                return;
+        } catch (IllegalArgumentException e) {
+        }
+        System.out.println(option
+                + " requires all, failures, summaries or a positive integer.");
+        usage();
+    }
+
+    // Return the value of the option at argv[i], or print usage and exit if
+    // it is missing.
+    private static String stringOption(String option, String[] argv, int i) {
+        if (i < argv.length)
+            return argv[i];
+        System.out.println(option + " requires a value.");
+        usage();
+        return null;
+    }
+
     private static void usage() {
         System.out.println("UnRAVL - Uniform REST API Validation Language");
         System.out.println("Runs one or more UnRAVL script files, which are JSON executable REST API validation specifications.");
         System.out.println("");
         System.out.println("Synopsis:");
         System.out.println("");
-        System.out.println("    unravl.sh [-q|--quiet|-v|--verbose|-h|--help] <script-file>");
+        System.out.println("    unravl.sh [-q|--quiet|-v|--verbose|-h|--help] [-p|--parallel <n> [--independent]] <script-file>");
+        System.out.println("    unravl.sh [-q|--quiet] -u|--users <n> [-n|--iterations <n>] [-d|--duration <seconds>] <script-file>");
+        System.out.println("    unravl.sh [-q|--quiet] --profile <profile-file> [-u|--users <n>] <script-file>");
+        System.out.println("    unravl.sh [--metrics-port <port> [--metrics-bind-all]] [--metrics-file <file>] [--jmx] ... <script-file>");
+        System.out.println("    unravl.sh [--retain all|failures|summaries|<n>] ... <script-file>");
         System.out.println("");
         System.out.println("Examples:");
         System.out.println("");
         System.out.println("    unravl.sh --verbose hello.json");
         System.out.println("    unravl.sh -q hello.json");
+        System.out.println("    unravl.sh --parallel 8 suite.json");
+        System.out.println("    unravl.sh -q --users 20 --duration 60 suite.json");
+        System.out.println("    unravl.sh -q --profile ramp.json suite.json");
+        System.out.println("    unravl.sh -q --users 5 --duration 3600 --metrics-port 9400 monitor.json");
         System.out.println("");
         System.out.println("Options:");
         System.out.println("   -q | --quiet : decrease the logging level.");
         System.out.println("   -v | --verbose : increase the logging level.");
         System.out.println("   -h | --help : Display this message and exit.");
         System.out.println("   --stdout : In interactive mode, write output to the standard output, not the Output panel.");
+        System.out.println("   -p <n> | --parallel <n> : Run the independent scripts in each script file");
+        System.out.println("          on <n> worker threads. The default is 1 (run scripts in order).");
+        System.out.println("          Scripts that use variables bound by earlier scripts, or resources");
+        System.out.println("          that earlier scripts modify, still wait for those scripts.");
+        System.out.println("          As in a sequential run, a script without an \"if\" is skipped after");
+        System.out.println("          an earlier script fails, so it waits for the earlier scripts which");
+        System.out.println("          may fail; give it \"if\" : true to let it run concurrently.");
+        System.out.println("   --independent : With --parallel, assume all scripts are independent. A");
+        System.out.println("          script without an \"if\" which ran alongside an earlier script that");
+        System.out.println("          failed is run again afterwards, so the results are still those of");
+        System.out.println("          a sequential run, but its first API call was made.");
+        System.out.println("   -u <n> | --users <n> : Run a load test: run the scripts repeatedly with <n>");
+        System.out.println("          concurrent virtual users, each with its own copy of the environment,");
+        System.out.println("          then report the throughput, error rate and latency percentiles");
+        System.out.println("          of each script.");
+        System.out.println("   -n <n> | --iterations <n> : With --users, the number of times each user");
+        System.out.println("          runs the scripts. The default is 1 unless --duration is set.");
+        System.out.println("   -d <s> | --duration <s> : With --users, run for <s> seconds.");
+        System.out.println("   --profile <file> : Run an open-model load test: start the scripts at the");
+        System.out.println("          arrival rates in the JSON profile <file> (constant, ramp, stepped or");
+        System.out.println("          poisson), and report how far arrivals fell behind the schedule.");
+        System.out.println("          A relative <file> may also be next to the first <script-file>.");
+        System.out.println("          --users sets how many arrivals may run at once (default "
+                + PROFILE_USERS + ").");
+        System.out.println("          Up to " + LoadTest.DEFAULT_BACKLOG
+                + " more arrivals may wait for a free user; later ones are dropped.");
+        System.out.println("   --save <file> : With --users or --profile, save the latency histograms of");
+        System.out.println("          each script to <file>; see LoadStatistics.load.");
+        System.out.println("   --metrics-port <port> : Serve call, assertion, byte, connection pool and");
+        System.out.println("          script cache metrics in the Prometheus text format at");
+        System.out.println("          http://localhost:<port>/metrics while the scripts run.");
+        System.out.println("   --metrics-bind-all : With --metrics-port, listen on all network interfaces,");
+        System.out.println("          not just the loopback interface, so that other hosts can scrape");
+        System.out.println("          the metrics.");
+        System.out.println("   --metrics-file <file> : Write the metrics in the Prometheus text format to");
+        System.out.println("          <file> every " + METRICS_FILE_PERIOD + " seconds and when the run ends.");
+        System.out.println("   --jmx : Export the metrics as attributes of the JMX MBean");
+        System.out.println("          " + JmxExporter.OBJECT_NAME + ".");
+        System.out.println("   --retain <policy> : Which API calls to keep in memory during a long run:");
+        System.out.println("          all (the default), failures (calls with failed assertions or");
+        System.out.println("          errors), summaries (only the status, timings and assertion counts");
+        System.out.println("          of each call), or <n> (the last <n> calls). The exit status");
+        System.out.println("          still counts the failed assertions of every call.");
         System.out.println("");
         System.out.println("If you do not specify any <script-file> options, start UnRAVL in");
         System.out.println("interactive mode, from which you can edit and execute scripts.");
@@ -179,7 +320,51 @@ public final class Main {
     }
 
     public int run(String argv[]) {
+        PrometheusExporter prometheus = null;
+        JmxExporter jmxExporter = null;
+        try {
+            if (metricsPort > 0 || metricsFile != null || jmx) {
+                UnRAVLMetrics metrics = UnRAVLRuntime.metrics();
+                metrics.setEnabled(true);
+                prometheus = new PrometheusExporter(metrics.getRegistry());
+                if (metricsPort > 0)
+                    prometheus.start(metricsPort, metricsBindAll);
+                if (metricsFile != null)
+                    prometheus.startFileWriter(new File(metricsFile),
+                            METRICS_FILE_PERIOD, TimeUnit.SECONDS);
+                if (jmx) {
+                    jmxExporter = new JmxExporter(metrics.getRegistry());
+                    jmxExporter.register();
+                }
+            }
+            if (users > 0 || profile != null)
+                return runLoad(argv);
+            return runScripts(argv);
+        } catch (IOException e) {
+            System.err.println("Could not export metrics: " + e.getMessage());
+            return 1;
+        } catch (JMException e) {
+            System.err.println("Could not export metrics: " + e.getMessage());
+            return 1;
+        } finally {
+            if (prometheus != null)
+                prometheus.close();
+            if (jmxExporter != null) {
+                try {
+                    jmxExporter.unregister();
+                } catch (JMException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        }
+    }
+
+    private int runScripts(String argv[]) {
         UnRAVLRuntime runtime = new UnRAVLRuntime();
+        runtime.setParallelism(parallelism);
+        runtime.setDependencyScheduling(dependencyScheduling);
+        if (retention != null)
+            runtime.setRetentionPolicy(retention, retentionLimit);
         try {
             return runtime.execute(argv).report();
         } catch (UnRAVLException e) {
@@ -193,4 +378,42 @@ public final class Main {
         }
     }
 
+    // Find the profile file as given, or else next to the first script
+    private static File profileFile(String argv[]) {
+        File file = new File(profile);
+        if (!file.exists() && !file.isAbsolute() && argv.length > 0) {
+            File sibling = new File(new File(argv[0]).getAbsoluteFile()
+                    .getParentFile(), profile);
+            if (sibling.exists())
+                return sibling;
+        }
+        return file;
+    }
+
+    // Run the scripts as a load test and print the statistics. Return 1
+    // if any call failed.
+    private int runLoad(String argv[]) {
+        UnRAVLRuntime runtime = new UnRAVLRuntime();
+        LoadTest load = new LoadTest()
+                .setUsers(users > 0 ? users : PROFILE_USERS)
+                .setIterations(iterations)
+                .setDuration(duration, TimeUnit.SECONDS);
+        try {
+            if (profile != null)
+                load.setProfile(ArrivalProfile.read(profileFile(argv)));
+            LoadStatistics statistics = runtime.executeLoad(load, argv);
+            statistics.report(System.out);
+            if (statisticsFile != null)
+                statistics.save(new File(statisticsFile));
+            return statistics.getErrors() == 0
+                    && statistics.getFailedIterations() == 0 ? 0 : 1;
+        } catch (UnRAVLException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
+    }
+
 }
@@ -0,0 +1,271 @@
+package com.sas.unravl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Runs a list of UnRAVL scripts on a bounded pool of worker threads. Each
+ * script runs in its own worker runtime (see {@link UnRAVLRuntime#newWorker()}
+ * ) which has a private copy of the environment and its own list of API calls.
+ * After each wave of scripts has finished, the workers' environments and
+ * failed assertion counts are merged back into the parent runtime in the
+ * order the scripts appear in the list; their API calls are appended in list
+ * order when the whole group has finished. So the parent's call history,
+ * failed assertion count and environment do not depend on thread scheduling.
+ * <p>
+ * Template definitions are run sequentially in the parent runtime and split
+ * the list into groups, so a template is always defined before the scripts
+ * that follow it. Unless the runtime's dependency scheduling is turned off,
+ * each group is then split into waves by a {@link DependencyGraph}, so scripts
+ * which consume variables or resources of earlier scripts run after them; the
+ * scripts of a wave run concurrently. Otherwise, all the scripts of a group
+ * are assumed to be independent and form a single wave.
+ * </p>
+ * <p>
+ * A script which reads <code>failedAssertionCount</code> (as every script
+ * without an "if" does; see {@link DependencyGraph}) must see the failures of
+ * the scripts before it. The dependency graph puts it in a later wave than
+ * the scripts which may fail; if it is nevertheless in the same wave as an
+ * earlier script which failed, its results are discarded when the wave is
+ * merged and it runs again, alone, as it would have in a sequential run.
+ * </p>
+ * <p>
+ * If any script throws an exception, the remaining scripts of its wave still
+ * finish and are merged, then the first exception (in list order) is rethrown
+ * and later waves do not run.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+class ParallelExecutor {
+
+    private static final Logger logger = Logger
+            .getLogger(ParallelExecutor.class);
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    private final UnRAVLRuntime runtime;
+    private final int parallelism;
+
+    /**
+     * Create an executor for a runtime
+     *
+     * @param runtime
+     *            the runtime which receives the merged results
+     * @param parallelism
+     *            the maximum number of scripts to run at the same time
+     */
+    ParallelExecutor(UnRAVLRuntime runtime, int parallelism) {
+        this.runtime = runtime;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Run the scripts and merge their results into the runtime.
+     *
+     * @param scripts
+     *            the list of scripts; each element may be a script object, a
+     *            script name, an "@sublist" redirect or an array of these.
+     * @throws IOException
+     *             if a script throws an IOException
+     * @throws UnRAVLException
+     *             if a script throws an UnRAVLException
+     */
+    void execute(List<JsonNode> scripts) throws IOException, UnRAVLException {
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism,
+                new WorkerThreadFactory());
+        try {
+            List<JsonNode> group = new ArrayList<JsonNode>();
+            for (JsonNode script : scripts) {
+                if (runtime.isCanceled())
+                    break;
+                if (isTemplate(script)) {
+                    runGroup(pool, group);
+                    group.clear();
+                    if (!runtime.isCanceled())
+                        runtime.executeInternal(script);
+                } else {
+                    group.add(script);
+                }
+            }
+            runGroup(pool, group);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static boolean isTemplate(JsonNode script) {
+        if (!script.isObject())
+            return false;
+        JsonNode name = script.get("name");
+        return name != null && name.isTextual()
+                && name.textValue().endsWith(UnRAVL.TEMPLATE_EXTENSION);
+    }
+
+    private static String label(JsonNode script) {
+        JsonNode name = script.isObject() ? script.get("name") : script;
+        return name != null && name.isTextual() ? name.textValue() : "";
+    }
+
+    private void runGroup(ExecutorService pool, List<JsonNode> group)
+            throws IOException, UnRAVLException {
+        if (group.isEmpty() || runtime.isCanceled())
+            return;
+        DependencyGraph graph = DependencyGraph.analyze(runtime, group);
+        // the unit which ran each script, whose calls are appended in order
+        Unit units[] = new Unit[group.size()];
+        try {
+            if (!runtime.isDependencyScheduling()) {
+                List<Integer> all = new ArrayList<Integer>(group.size());
+                for (int i = 0; i < group.size(); i++)
+                    all.add(i);
+                runWave(pool, group, all, graph, units);
+                return;
+            }
+            for (List<Integer> wave : graph.getWaves()) {
+                if (runtime.isCanceled())
+                    return;
+                runWave(pool, group, wave, graph, units);
+            }
+        } finally {
+            for (Unit unit : units)
+                if (unit != null)
+                    runtime.mergeCalls(unit.worker);
+        }
+    }
+
+    // Run the scripts of a wave concurrently and merge them in order. Stop at
+    // the first exception after all the scripts have finished.
+    private void runWave(ExecutorService pool, List<JsonNode> group,
+            List<Integer> wave, DependencyGraph graph, Unit units[])
+            throws IOException, UnRAVLException {
+        List<Unit> run = new ArrayList<Unit>(wave.size());
+        for (int i : wave)
+            run.add(new Unit(group.get(i), readsFailures(graph, i)));
+        Throwable results[] = new Throwable[run.size()];
+        if (run.size() == 1) {
+            results[0] = run.get(0).call();
+        } else {
+            List<Future<Throwable>> futures = new ArrayList<Future<Throwable>>(
+                    run.size());
+            for (Unit unit : run)
+                futures.add(pool.submit(unit));
+            // wait for all the workers before changing this runtime, which
+            // they read
+            for (int k = 0; k < run.size(); k++)
+                results[k] = await(futures.get(k));
+        }
+        Throwable first = null;
+        for (int k = 0; k < run.size(); k++) {
+            Throwable thrown = results[k];
+            Unit unit = run.get(k);
+            if (unit.readsFailures
+                    && runtime.getFailedAssertionCount() != unit.initialFailures) {
+                // an earlier script of this wave failed; run this one again
+                // with the merged state, as a sequential run would have
+                unit.worker.reset();
+                unit = new Unit(unit.script, true);
+                thrown = unit.call();
+            }
+            runtime.merge(unit.worker, unit.initialEnv, unit.initialFailures);
+            units[wave.get(k)] = unit;
+            if (first == null && thrown != null)
+                first = thrown;
+        }
+        if (first != null)
+            rethrow(first);
+    }
+
+    // true if a script's outcome may depend on the failures of earlier
+    // scripts. The content of barriers is not known.
+    private static boolean readsFailures(DependencyGraph graph, int script) {
+        return graph.isBarrier(script)
+                || graph.getReads(script).contains(
+                        UnRAVLRuntime.FAILED_ASSERTION_COUNT);
+    }
+
+    private Throwable await(Future<Throwable> future) throws UnRAVLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            runtime.cancel();
+            throw new UnRAVLException(
+                    "Interrupted while waiting for parallel scripts", e);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    private static void rethrow(Throwable t) throws IOException,
+            UnRAVLException {
+        if (t instanceof UnRAVLException)
+            throw (UnRAVLException) t;
+        if (t instanceof IOException)
+            throw (IOException) t;
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        throw new UnRAVLException(t);
+    }
+
+    /**
+     * One script and the worker runtime it runs in. The worker is created on
+     * the calling thread so its initial state is a consistent snapshot of the
+     * parent runtime.
+     */
+    private class Unit implements Callable<Throwable> {
+        private final JsonNode script;
+        private final boolean readsFailures;
+        private final UnRAVLRuntime worker;
+        private final Map<String, Object> initialEnv;
+        private final int initialFailures;
+
+        Unit(JsonNode script, boolean readsFailures) {
+            this.script = script;
+            this.readsFailures = readsFailures;
+            this.worker = runtime.newWorker();
+            this.initialEnv = new LinkedHashMap<String, Object>(
+                    worker.getBindings());
+            this.initialFailures = worker.getFailedAssertionCount();
+        }
+
+        @Override
+        public Throwable call() {
+            if (worker.isCanceled())
+                return null;
+            try {
+                worker.executeInternal(script);
+                return null;
+            } catch (Throwable t) {
+                logger.error(t.getMessage() + " while running UnRAVL script "
+                        + label(script));
+                return t;
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "unravl-worker-"
+                    + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide cache of compiled {@link ExecutionPlan}s, used by
+ * {@link UnRAVL#getPlan()}, so that a script which is run many times, such
+ * as a script in a loop, a load test iteration or a parallel worker, is
+ * compiled once even though each run creates a new {@link UnRAVL} instance.
+ * <p>
+ * Plans are keyed by the identity of the script's JSON root, so the parsed
+ * scripts which {@link ScriptCache} shares also share their plans. A cached
+ * plan is used only if it is current for the script (see
+ * {@link ExecutionPlan#isCurrent(UnRAVL)}): if the script's templates, method,
+ * URI or script language have changed, the plan is compiled again and
+ * replaces the cached one. Keys are weak, so a plan is dropped when its
+ * script is no longer used.
+ * </p>
+ * <p>
+ * The number of plans kept is set with the system property
+ * <code>unravl.plan.cache.size</code> (default 1024; 0 disables the cache).
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class PlanCache {
+
+    /** The default maximum number of plans to cache */
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    private static final PlanCache instance = new PlanCache(Integer.getInteger(
+            "unravl.plan.cache.size", DEFAULT_CACHE_SIZE));
+
+    private final Cache<JsonNode, ExecutionPlan> plans;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param cacheSize
+     *            the maximum number of plans to cache
+     */
+    public PlanCache(int cacheSize) {
+        plans = CacheBuilder.newBuilder().weakKeys().maximumSize(cacheSize)
+                .build();
+    }
+
+    /**
+     * @return the cache shared by all runtimes
+     */
+    public static PlanCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Return the plan of a script, compiling it if there is no current plan
+     * for the script's root.
+     *
+     * @param script
+     *            the script
+     * @return the script's execution plan
+     */
+    public ExecutionPlan get(UnRAVL script) {
+        JsonNode root = script.getRoot();
+        ExecutionPlan plan = plans.getIfPresent(root);
+        if (plan != null && plan.isCurrent(script)) {
+            hits.incrementAndGet();
+            return plan;
+        }
+        misses.incrementAndGet();
+        plan = new ExecutionPlan(script);
+        plans.put(root, plan);
+        return plan;
+    }
+
+    /**
+     * @return the number of lookups which used a cached plan
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups which compiled a plan
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Remove all plans from the cache
+     */
+    public void clear() {
+        plans.invalidateAll();
+    }
+}
@@ -0,0 +1,101 @@
+// Copyright (c) 2014, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Creates instances of one plugin class (an assertion, extractor, request body
+ * generator, or auth plugin) via a constructor {@link MethodHandle} which is
+ * resolved once, when the plugin is registered with {@link UnRAVLPlugins},
+ * rather than with reflection each time a script uses the plugin.
+ * <p>
+ * Plugin instances hold per-use state (the script, the JSON specification, the
+ * ApiCall), so {@link #newInstance()} returns a new instance for each use. The
+ * factory itself is immutable and may be shared by all threads.
+ * </p>
+ *
+ * @param <T>
+ *            the plugin type
+ * @author David.Biesack@sas.com
+ */
+public final class PluginFactory<T> {
+
+    private static final MethodType NO_ARG_CONSTRUCTOR = MethodType
+            .methodType(void.class);
+    private static final MethodType FACTORY_TYPE = MethodType
+            .methodType(Object.class);
+
+    private final Class<? extends T> type;
+    private final MethodHandle constructor;
+    // Set if the class has no accessible no-arg constructor; reported on use
+    private final String error;
+
+    private PluginFactory(Class<? extends T> type, MethodHandle constructor,
+            String error) {
+        this.type = type;
+        this.constructor = constructor;
+        this.error = error;
+    }
+
+    /**
+     * Create a factory for a plugin class
+     *
+     * @param type
+     *            the plugin class, which must be public and have a public
+     *            no-argument constructor
+     * @return a factory which creates instances of the class. If the class
+     *         cannot be instantiated, the factory's {@link #newInstance()}
+     *         method throws an UnRAVLException.
+     */
+    public static <T> PluginFactory<T> of(Class<? extends T> type) {
+        try {
+            MethodHandle ctor = MethodHandles.publicLookup()
+                    .findConstructor(type, NO_ARG_CONSTRUCTOR)
+                    .asType(FACTORY_TYPE);
+            return new PluginFactory<T>(type, ctor, null);
+        } catch (NoSuchMethodException e) {
+            return new PluginFactory<T>(type, null, "Plugin class "
+                    + type.getName() + " has no public no-argument constructor");
+        } catch (IllegalAccessException e) {
+            return new PluginFactory<T>(type, null, "Plugin class "
+                    + type.getName() + " cannot be instantiated.");
+        }
+    }
+
+    /**
+     * @return the plugin class this factory instantiates
+     */
+    public Class<? extends T> getType() {
+        return type;
+    }
+
+    /**
+     * Create a new plugin instance.
+     *
+     * @return a new instance of the plugin class
+     * @throws UnRAVLException
+     *             if the class cannot be instantiated or its constructor
+     *             throws a checked exception
+     */
+    public T newInstance() throws UnRAVLException {
+        if (error != null)
+            throw new UnRAVLException(error);
+        try {
+            return type.cast((Object) constructor.invokeExact());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UnRAVLException("Could not instantiate plugin class "
+                    + type.getName(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PluginFactory[" + type.getName() + "]";
+    }
+}
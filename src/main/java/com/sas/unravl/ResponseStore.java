@@ -0,0 +1,225 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the body of an API call's response as it is read, and creates
+ * its {@link ApiResponse}. Bodies are kept in memory up to the size set with
+ * the system property <code>unravl.response.spill.bytes</code> (default
+ * 4MB); larger bodies are written to a temporary file instead, which the
+ * response maps into memory when it is read, and which
+ * {@link ApiResponse#release()} deletes. Files which are still present when
+ * the JVM exits, because they were never released or could not be deleted
+ * then, are deleted by a shutdown hook.
+ * <p>
+ * When the length of the body is known in advance (from its
+ * <code>Content-Length</code>) and it fits in memory, the body is read into
+ * an array of exactly that size, so that it is not copied again.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class ResponseStore extends OutputStream {
+
+    /** The default size above which response bodies are kept on disk */
+    public static final long DEFAULT_SPILL_BYTES = 4L * 1024L * 1024L;
+
+    private static final int BUFSIZE = 8192;
+
+    private static final long spillBytes = Long.getLong(
+            "unravl.response.spill.bytes", DEFAULT_SPILL_BYTES);
+
+    // the temporary files which have not been deleted yet
+    private static final Set<File> live = Collections
+            .newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    static {
+        Runtime.getRuntime().addShutdownHook(
+                new Thread("unravl-response-cleanup") {
+                    @Override
+                    public void run() {
+                        for (File file : live)
+                            file.delete();
+                    }
+                });
+    }
+
+    private final int threshold;
+    private byte[] buf;
+    private int count;
+    private File file;
+    private OutputStream fileOut;
+    private long size;
+
+    /**
+     * Create a store which uses the <code>unravl.response.spill.bytes</code>
+     * threshold
+     *
+     * @param expectedLength
+     *            the expected length of the body, or -1 if it is not known
+     */
+    public ResponseStore(long expectedLength) {
+        this(expectedLength, spillBytes);
+    }
+
+    /**
+     * @param expectedLength
+     *            the expected length of the body, or -1 if it is not known
+     * @param spillBytes
+     *            bodies larger than this are written to a temporary file
+     */
+    public ResponseStore(long expectedLength, long spillBytes) {
+        threshold = (int) Math.max(0L,
+                Math.min(spillBytes, Integer.MAX_VALUE - 8));
+        if (expectedLength >= 0L && expectedLength <= threshold)
+            buf = new byte[(int) expectedLength];
+        else
+            buf = new byte[Math.min(BUFSIZE, threshold)];
+    }
+
+    /**
+     * Read the rest of a stream into this store. The stream is not closed.
+     *
+     * @param in
+     *            the response body
+     * @return the number of bytes read
+     * @throws IOException
+     *             if the stream cannot be read or the file cannot be written
+     */
+    public long readFrom(InputStream in) throws IOException {
+        long total = 0L;
+        // read directly into the array while the body fits
+        while (file == null) {
+            if (count == buf.length) {
+                int b = in.read();
+                if (b < 0)
+                    return total;
+                write(b);
+                total++;
+                continue;
+            }
+            int n = in.read(buf, count, buf.length - count);
+            if (n < 0)
+                return total;
+            count += n;
+            size += n;
+            total += n;
+        }
+        byte buffer[] = new byte[BUFSIZE];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            fileOut.write(buffer, 0, n);
+            size += n;
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte b[], int off, int len) throws IOException {
+        if (file == null && count + len > buf.length)
+            grow(count + len);
+        if (file == null) {
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        } else
+            fileOut.write(b, off, len);
+        size += len;
+    }
+
+    // Make room for at least needed bytes, or spill to a file
+    private void grow(long needed) throws IOException {
+        if (needed > threshold) {
+            spill();
+            return;
+        }
+        long capacity = Math.max(Math.max(buf.length * 2L, needed), BUFSIZE);
+        buf = Arrays.copyOf(buf, (int) Math.min(capacity, threshold));
+    }
+
+    private void spill() throws IOException {
+        file = File.createTempFile("unravl-response", ".body");
+        live.add(file);
+        fileOut = new BufferedOutputStream(new FileOutputStream(file),
+                BUFSIZE);
+        fileOut.write(buf, 0, count);
+        buf = null;
+    }
+
+    /**
+     * @return the number of bytes stored
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return true if the body has been written to a temporary file
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Finish storing the body
+     *
+     * @return the response body
+     * @throws IOException
+     *             if the temporary file cannot be written
+     */
+    public ApiResponse toResponse() throws IOException {
+        if (file == null)
+            return new ApiResponse(count == buf.length ? buf : Arrays.copyOf(
+                    buf, count));
+        fileOut.close();
+        return new ApiResponse(file, size);
+    }
+
+    /**
+     * Discard the body, deleting the temporary file if any. Use this if the
+     * body could not be read.
+     */
+    public void discard() {
+        buf = null;
+        if (file != null) {
+            try {
+                fileOut.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            delete(file);
+        }
+    }
+
+    /**
+     * Delete a temporary file created by a store. If it cannot be deleted
+     * now, it is deleted when the JVM exits.
+     *
+     * @param file
+     *            the file
+     */
+    static void delete(File file) {
+        if (file.delete() || !file.exists())
+            live.remove(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileOut != null)
+            fileOut.flush();
+    }
+}
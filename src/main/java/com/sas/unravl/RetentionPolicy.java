@@ -0,0 +1,45 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+/**
+ * Which API calls an {@link UnRAVLRuntime} keeps in its history. Each
+ * {@link ApiCall} holds its request and response bodies, headers and
+ * assertions, so a long soak or monitoring run should not keep them all.
+ * Whatever the policy, the runtime counts every call and failed assertion,
+ * so {@link UnRAVLRuntime#report()} is the same.
+ *
+ * @author David.Biesack@sas.com
+ * @see UnRAVLRuntime#setRetentionPolicy(RetentionPolicy, int)
+ */
+public enum RetentionPolicy {
+    /** Keep every call (the default) */
+    ALL,
+    /** Keep the most recent calls, up to the runtime's retention limit */
+    LAST_N,
+    /** Keep only calls which failed an assertion or threw an exception */
+    FAILURES,
+    /**
+     * Keep no calls, only an {@link ApiCallSummary} of each: the script,
+     * status, timings and assertion outcomes
+     */
+    SUMMARIES;
+
+    /**
+     * Parse a policy name, as used by the <code>--retain</code> command line
+     * option and the <code>unravl.retention</code> system property:
+     * <code>all</code>, <code>failures</code>, <code>summaries</code>,
+     * <code>last</code>, or a number, which means <code>last</code>.
+     *
+     * @param name
+     *            the policy name, in any case
+     * @return the policy
+     * @throws IllegalArgumentException
+     *             if name is not a policy name
+     */
+    public static RetentionPolicy parse(String name) {
+        String n = name.trim().toUpperCase();
+        if (n.equals("LAST") || n.matches("[0-9]+"))
+            return LAST_N;
+        return valueOf(n);
+    }
+}
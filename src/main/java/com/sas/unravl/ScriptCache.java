@@ -0,0 +1,233 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sas.unravl.util.Json;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A process-wide cache of parsed UnRAVL script files, used by
+ * {@link UnRAVLRuntime#read(String)}, so that a file which is run or included
+ * (with <code>"@file"</code>) many times is read and parsed once.
+ * <p>
+ * Files are keyed by canonical path and are read again when their
+ * modification time or size changes. HTTP and HTTPS URLs are keyed by URL and
+ * revalidated on each use with a conditional request (
+ * <code>If-None-Match</code> with the response's <code>ETag</code>, or
+ * <code>If-Modified-Since</code> with its <code>Last-Modified</code> time);
+ * responses with neither header are not cached. Other URLs, such as
+ * <code>jar:</code> URLs, are read each time.
+ * </p>
+ * <p>
+ * The parsed scripts are shared by everyone who reads the same file, so they
+ * must not be modified. {@link UnRAVL} instances are not cached, since each
+ * is bound to the runtime which runs it, but their compiled plans are shared
+ * through the {@link PlanCache}.
+ * </p>
+ * <p>
+ * The number of files kept is set with the system property
+ * <code>unravl.script.file.cache.size</code> (default 256; 0 disables the
+ * cache).
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class ScriptCache {
+
+    private static final Logger logger = Logger.getLogger(ScriptCache.class);
+
+    /** The default maximum number of script files to cache */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private static final ScriptCache instance = new ScriptCache(
+            Integer.getInteger("unravl.script.file.cache.size",
+                    DEFAULT_CACHE_SIZE));
+
+    /** The parsed scripts of one file or URL, and how to validate them */
+    private static final class Entry {
+        private final List<JsonNode> roots;
+        private final long lastModified;
+        private final long length;
+        private final String etag;
+
+        Entry(List<JsonNode> roots, long lastModified, long length,
+                String etag) {
+            this.roots = Collections.unmodifiableList(roots);
+            this.lastModified = lastModified;
+            this.length = length;
+            this.etag = etag;
+        }
+    }
+
+    private final Cache<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param cacheSize
+     *            the maximum number of files and URLs to cache
+     */
+    public ScriptCache(int cacheSize) {
+        entries = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    /**
+     * @return the cache shared by all runtimes
+     */
+    public static ScriptCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Read the UnRAVL scripts in a file or URL.
+     *
+     * @param scriptFile
+     *            a file name or URL
+     * @return the scripts: the elements of the file's array, or the file's
+     *         single script. The caller may modify the list, but not the
+     *         scripts.
+     * @throws IOException
+     *             if the file cannot be read
+     * @throws UnRAVLException
+     *             if the file is not valid JSON
+     */
+    public List<JsonNode> read(String scriptFile) throws IOException,
+            UnRAVLException {
+        URL url = null;
+        try {
+            url = new URL(scriptFile);
+        } catch (MalformedURLException e) {
+        }
+        File file = url == null ? new File(scriptFile) : file(url);
+        Entry entry;
+        if (file != null)
+            entry = read(file);
+        else if (isHttp(url))
+            entry = read(url);
+        else
+            entry = new Entry(parse(url.openStream()), 0L, 0L, null);
+        return new ArrayList<JsonNode>(entry.roots);
+    }
+
+    private Entry read(File file) throws IOException, UnRAVLException {
+        String key = file.getCanonicalPath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        Entry entry = entries.getIfPresent(key);
+        if (entry != null && entry.lastModified == lastModified
+                && entry.length == length) {
+            hits.incrementAndGet();
+            return entry;
+        }
+        misses.incrementAndGet();
+        if (entry != null)
+            logger.info("Reloading changed script " + key);
+        Entry read = new Entry(parse(new FileInputStream(file)),
+                lastModified, length, null);
+        entries.put(key, read);
+        return read;
+    }
+
+    private Entry read(URL url) throws IOException, UnRAVLException {
+        String key = url.toExternalForm();
+        Entry entry = entries.getIfPresent(key);
+        HttpURLConnection connection = (HttpURLConnection) url
+                .openConnection();
+        if (entry != null) {
+            if (entry.etag != null)
+                connection.setRequestProperty("If-None-Match", entry.etag);
+            else
+                connection.setIfModifiedSince(entry.lastModified);
+        }
+        int status = connection.getResponseCode();
+        if (entry != null && status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            connection.getInputStream().close();
+            hits.incrementAndGet();
+            return entry;
+        }
+        misses.incrementAndGet();
+        // getInputStream throws an IOException for error statuses
+        Entry read = new Entry(parse(connection.getInputStream()),
+                connection.getLastModified(), 0L,
+                connection.getHeaderField("ETag"));
+        if (read.etag != null || read.lastModified != 0L)
+            entries.put(key, read);
+        else
+            entries.invalidate(key);
+        return read;
+    }
+
+    private static List<JsonNode> parse(InputStream in) throws IOException,
+            UnRAVLException {
+        JsonNode root;
+        try {
+            root = Json.parse(in);
+        } finally {
+            in.close();
+        }
+        List<JsonNode> roots = new ArrayList<JsonNode>();
+        if (root.isArray()) {
+            for (JsonNode next : Json.array(root)) {
+                roots.add(next);
+            }
+        } else {
+            roots.add(root);
+        }
+        return roots;
+    }
+
+    // the file a file: URL names, or null
+    private static File file(URL url) {
+        if (!"file".equals(url.getProtocol()))
+            return null;
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isHttp(URL url) {
+        return "http".equals(url.getProtocol())
+                || "https".equals(url.getProtocol());
+    }
+
+    /**
+     * @return the number of reads which used cached scripts
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of reads which parsed a file or URL
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Remove all scripts from the cache
+     */
+    public void clear() {
+        entries.invalidateAll();
+    }
+}
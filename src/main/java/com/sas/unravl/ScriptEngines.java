@@ -0,0 +1,380 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Evaluates script expressions (assertions, conditions, extractors) with
+ * reusable script engines.
+ * <p>
+ * For each script language, engines whose factory declares a
+ * <code>THREADING</code> parameter (such as Groovy, which is
+ * <code>MULTITHREADED</code>) are shared by all threads, and the expressions
+ * they evaluate are compiled once (if the engine is {@link Compilable}) and
+ * kept in a bounded LRU cache keyed by the expression text. Engines which are
+ * not thread safe are borrowed from a per-language pool for the duration of one
+ * evaluation. Each evaluation runs in its own {@link ScriptContext}, so
+ * evaluations do not see each other's bindings.
+ * </p>
+ * <p>
+ * Compiling a Groovy expression defines a new class which the engine's class
+ * loader keeps for the engine's lifetime, so a shared engine is replaced with a
+ * new one after it has compiled as many expressions as the cache holds. Classes
+ * compiled by the old engine become garbage once their scripts are evicted from
+ * the cache.
+ * </p>
+ * <p>
+ * The cache size is set with the system property
+ * <code>unravl.script.cache.size</code> (default 1000; 0 disables compiling)
+ * and the maximum number of idle pooled engines per language with
+ * <code>unravl.script.pool.size</code> (default: the number of processors).
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class ScriptEngines {
+
+    private static final Logger logger = Logger.getLogger(ScriptEngines.class);
+
+    /** The default maximum number of compiled scripts to cache */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private final int cacheSize;
+    private final int poolSize;
+
+    private ScriptEngineManager manager;
+
+    // language name or alias, as used in scripts -> engines for that language
+    private final ConcurrentMap<String, Language> aliases = new ConcurrentHashMap<String, Language>();
+    // engine factory class -> engines; aliases of the same language share one
+    private final ConcurrentMap<String, Language> languages = new ConcurrentHashMap<String, Language>();
+
+    private final Cache<Key, CompiledScript> compiled;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong compileNanos = new AtomicLong();
+    private final AtomicLong enginesCreated = new AtomicLong();
+
+    /**
+     * Create an instance which uses the cache and pool sizes from the system
+     * properties <code>unravl.script.cache.size</code> and
+     * <code>unravl.script.pool.size</code>
+     */
+    public ScriptEngines() {
+        this(Integer.getInteger("unravl.script.cache.size",
+                DEFAULT_CACHE_SIZE), Integer.getInteger(
+                "unravl.script.pool.size", Runtime.getRuntime()
+                        .availableProcessors()));
+    }
+
+    /**
+     * @param cacheSize
+     *            the maximum number of compiled scripts to cache; 0 disables
+     *            compiling
+     * @param poolSize
+     *            the maximum number of idle engines to keep per language, for
+     *            engines which are not thread safe
+     */
+    public ScriptEngines(int cacheSize, int poolSize) {
+        if (cacheSize < 0 || poolSize < 0)
+            throw new IllegalArgumentException("negative cache or pool size");
+        this.cacheSize = cacheSize;
+        this.poolSize = poolSize;
+        this.compiled = CacheBuilder.newBuilder().maximumSize(cacheSize)
+                .build();
+    }
+
+    /**
+     * Return a new script engine for a script language. The engine is not
+     * pooled or shared; the caller owns it.
+     *
+     * @param lang
+     *            the script language name, such as "groovy" or "javascript"
+     * @return a new engine, or null if there is no engine for lang
+     */
+    public ScriptEngine newEngine(String lang) {
+        Language language = language(lang);
+        return language == null ? null : language.create();
+    }
+
+    /**
+     * Evaluate an expression.
+     *
+     * @param lang
+     *            the script language name, such as "groovy" or "javascript"
+     * @param expression
+     *            the script source text
+     * @param bindings
+     *            the engine scope bindings for the evaluation
+     * @return the result of the expression
+     * @throws ScriptException
+     *             if the expression does not compile or throws an exception
+     * @throws UnRAVLException
+     *             if there is no engine for the language
+     */
+    public Object eval(String lang, String expression, Bindings bindings)
+            throws ScriptException, UnRAVLException {
+        Language language = language(lang);
+        if (language == null) {
+            UnRAVLPlugins.logSupportedScriptEngines();
+            throw new UnRAVLException(String.format(
+                    "No script engine available for script language %s", lang));
+        }
+        ScriptContext context = new SimpleScriptContext();
+        context.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+        if (language.shared != null && language.compilable && cacheSize > 0) {
+            Key key = new Key(language.name, expression);
+            CompiledScript script = compiled.getIfPresent(key);
+            if (script == null) {
+                misses.incrementAndGet();
+                script = language.compile(expression);
+                compiled.put(key, script);
+            } else {
+                hits.incrementAndGet();
+            }
+            return script.eval(context);
+        }
+        ScriptEngine engine = language.acquire();
+        try {
+            return engine.eval(expression, context);
+        } finally {
+            language.release(engine);
+        }
+    }
+
+    /**
+     * @return a snapshot of the compiled script cache statistics
+     */
+    public Stats getStats() {
+        return new Stats(hits.get(), misses.get(), compileNanos.get(),
+                compiled.size(), enginesCreated.get());
+    }
+
+    /**
+     * Discard all cached compiled scripts and pooled engines.
+     */
+    public void clear() {
+        compiled.invalidateAll();
+        for (Language language : languages.values())
+            language.clear();
+    }
+
+    private Language language(String lang) {
+        Language language = aliases.get(lang);
+        if (language != null)
+            return language;
+        ScriptEngineFactory factory = factory(lang);
+        if (factory == null)
+            return null;
+        Language created = new Language(factory);
+        language = languages.putIfAbsent(created.name, created);
+        if (language == null)
+            language = created;
+        aliases.put(lang, language);
+        return language;
+    }
+
+    private synchronized ScriptEngineFactory factory(String lang) {
+        if (manager == null)
+            manager = new ScriptEngineManager();
+        ScriptEngine engine = manager.getEngineByName(lang);
+        return engine == null ? null : engine.getFactory();
+    }
+
+    // The engines for one script language
+    private final class Language {
+        final String name;
+        final ScriptEngineFactory factory;
+        final boolean compilable;
+        // the engine all threads use, if the engine is thread safe
+        volatile ScriptEngine shared;
+        private final AtomicInteger compiles = new AtomicInteger();
+        // idle engines, if the engine is not thread safe
+        private final ConcurrentLinkedQueue<ScriptEngine> pool = new ConcurrentLinkedQueue<ScriptEngine>();
+        private final AtomicInteger idle = new AtomicInteger();
+
+        Language(ScriptEngineFactory factory) {
+            this.factory = factory;
+            this.name = factory.getClass().getName();
+            ScriptEngine engine = create();
+            this.compilable = engine instanceof Compilable;
+            if (factory.getParameter("THREADING") != null) {
+                shared = engine;
+            } else {
+                release(engine);
+            }
+            logger.trace(String.format(
+                    "Script engine %s for %s: %s, %s",
+                    factory.getEngineName(), factory.getLanguageName(),
+                    shared == null ? "pooled" : "shared",
+                    compilable ? "compilable" : "interpreted"));
+        }
+
+        ScriptEngine create() {
+            enginesCreated.incrementAndGet();
+            return factory.getScriptEngine();
+        }
+
+        CompiledScript compile(String expression) throws ScriptException {
+            ScriptEngine engine = shared;
+            if (compiles.incrementAndGet() > Math.max(cacheSize, 1)) {
+                synchronized (this) {
+                    if (engine == shared) {
+                        shared = create();
+                        compiles.set(1);
+                    }
+                    engine = shared;
+                }
+            }
+            long start = System.nanoTime();
+            try {
+                return ((Compilable) engine).compile(expression);
+            } finally {
+                compileNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        ScriptEngine acquire() {
+            ScriptEngine engine = pool.poll();
+            if (engine == null)
+                return shared == null ? create() : shared;
+            idle.decrementAndGet();
+            return engine;
+        }
+
+        void release(ScriptEngine engine) {
+            if (engine == shared)
+                return;
+            if (idle.incrementAndGet() <= poolSize)
+                pool.offer(engine);
+            else
+                idle.decrementAndGet();
+        }
+
+        void clear() {
+            while (pool.poll() != null)
+                idle.decrementAndGet();
+        }
+    }
+
+    // Cache key: the same text may be cached for different languages
+    private static final class Key {
+        private final String language;
+        private final String text;
+        private final int hash;
+
+        Key(String language, String text) {
+            this.language = language;
+            this.text = text;
+            this.hash = 31 * language.hashCode() + text.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return hash == k.hash && language.equals(k.language)
+                    && text.equals(k.text);
+        }
+    }
+
+    /**
+     * A snapshot of the compiled script cache statistics
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long compileNanos;
+        private final long size;
+        private final long enginesCreated;
+
+        Stats(long hits, long misses, long compileNanos, long size,
+                long enginesCreated) {
+            this.hits = hits;
+            this.misses = misses;
+            this.compileNanos = compileNanos;
+            this.size = size;
+            this.enginesCreated = enginesCreated;
+        }
+
+        /**
+         * @return the number of evaluations which used a cached compiled
+         *         script
+         */
+        public long getHitCount() {
+            return hits;
+        }
+
+        /**
+         * @return the number of evaluations which compiled their script
+         */
+        public long getMissCount() {
+            return misses;
+        }
+
+        /**
+         * @return the fraction of compiled evaluations which were cache hits,
+         *         or 1.0 if there have been none
+         */
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 1.0 : (double) hits / total;
+        }
+
+        /**
+         * @return the total time spent compiling scripts, in nanoseconds
+         */
+        public long getCompileNanos() {
+            return compileNanos;
+        }
+
+        /**
+         * @return the number of compiled scripts in the cache
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the number of script engines created
+         */
+        public long getEnginesCreated() {
+            return enginesCreated;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "hits=%d misses=%d hitRate=%.3f compileMs=%.3f size=%d engines=%d",
+                    hits, misses, getHitRate(), compileNanos / 1e6, size,
+                    enginesCreated);
+        }
+    }
+}
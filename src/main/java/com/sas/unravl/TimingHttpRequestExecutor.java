@@ -0,0 +1,65 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl;
+
+import java.io.IOException;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * Records the connect, send and time to first byte phases of the
+ * {@link ApiCallTimings} of the API call running on the current thread. The
+ * {@link #REQUEST_STARTED} interceptor runs before the client leases a
+ * connection; the executor runs once the connection is open.
+ *
+ * @author David.Biesack@sas.com
+ */
+class TimingHttpRequestExecutor extends HttpRequestExecutor {
+
+    /** Marks the start of each request, before a connection is leased */
+    static final HttpRequestInterceptor REQUEST_STARTED = new HttpRequestInterceptor() {
+        @Override
+        public void process(HttpRequest request, HttpContext context) {
+            ApiCallTimings timings = ApiCallTimings.current();
+            if (timings != null)
+                timings.requestStarted(System.nanoTime());
+        }
+    };
+
+    @Override
+    protected HttpResponse doSendRequest(HttpRequest request,
+            HttpClientConnection conn, HttpContext context)
+            throws IOException, HttpException {
+        ApiCallTimings timings = ApiCallTimings.current();
+        if (timings == null)
+            return super.doSendRequest(request, conn, context);
+        long start = System.nanoTime();
+        timings.connected(start);
+        try {
+            return super.doSendRequest(request, conn, context);
+        } finally {
+            timings.add(ApiCallTimings.Phase.SEND, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    protected HttpResponse doReceiveResponse(HttpRequest request,
+            HttpClientConnection conn, HttpContext context)
+            throws HttpException, IOException {
+        ApiCallTimings timings = ApiCallTimings.current();
+        if (timings == null)
+            return super.doReceiveResponse(request, conn, context);
+        long start = System.nanoTime();
+        try {
+            return super.doReceiveResponse(request, conn, context);
+        } finally {
+            timings.add(ApiCallTimings.Phase.FIRST_BYTE, System.nanoTime()
+                    - start);
+        }
+    }
+}
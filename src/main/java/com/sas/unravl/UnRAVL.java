@@ -5,8 +5,8 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
-import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 
 import org.apache.http.Header;
@@ -48,9 +48,11 @@ public class UnRAVL {
     private static final String IMPLICIT_TEMPLATE = "implicit.template";
     private static final String TEMPLATE_KEY = "template";
     private static final String NAME_KEY = "name";
-    private static final String TEMPLATE_EXTENSION = ".template";
-    private static final String TEXT_MEDIA_TYPES_REGEX = "^(text/.*|.*/.*(xml|json)).*$";
-    private static final String JSON_MEDIA_TYPES_REGEX = "^.*(\\.|\\+)*json.*$";
+    static final String TEMPLATE_EXTENSION = ".template";
+    private static final Pattern TEXT_MEDIA_TYPES = Pattern
+            .compile("^(text/.*|.*/.*(xml|json)).*$");
+    private static final Pattern JSON_MEDIA_TYPES = Pattern
+            .compile("^.*(\\.|\\+)*json.*$");
     public static final String REDIRECT_PREFIX = "@";
     private UnRAVLRuntime runtime;
     private ObjectNode root;
@@ -60,6 +62,7 @@ public class UnRAVL {
     private Method method;
     private String uri;
     private List<UnRAVLExtractor> extractors;
+    private volatile ExecutionPlan plan;
     static Logger logger = Logger.getLogger(UnRAVL.class);
 
     public UnRAVL(UnRAVLRuntime runtime) {
@@ -181,6 +184,24 @@ public class UnRAVL {
 
     public void setURI(String uri) {
         this.uri = uri;
+        this.plan = null;
+    }
+
+    /**
+     * Return the compiled execution plan for this script and its templates.
+     * The plan is shared, through the {@link PlanCache}, with other instances
+     * of the same script; it is recompiled if the script's templates or the
+     * runtime's script language have changed since.
+     *
+     * @return this script's execution plan
+     */
+    public ExecutionPlan getPlan() {
+        ExecutionPlan p = plan;
+        if (p == null || !p.isCurrent(this)) {
+            p = PlanCache.getInstance().get(this);
+            plan = p;
+        }
+        return p;
     }
 
     public List<UnRAVLExtractor> getExtractors() {
@@ -331,16 +352,16 @@ public class UnRAVL {
     }
 
     public boolean bodyIsTextual(Header headers[]) {
-        return headersMatchPattern(headers, TEXT_MEDIA_TYPES_REGEX);
+        return headersMatchPattern(headers, TEXT_MEDIA_TYPES);
     }
 
     public boolean bodyIsJson(Header headers[]) {
-        return headersMatchPattern(headers, JSON_MEDIA_TYPES_REGEX);
+        return headersMatchPattern(headers, JSON_MEDIA_TYPES);
     }
 
-    private boolean headersMatchPattern(Header headers[], String pattern) {
+    private boolean headersMatchPattern(Header headers[], Pattern pattern) {
         for (Header h : headers)
-            if (h.getValue().matches(pattern))
+            if (pattern.matcher(h.getValue()).matches())
                 return true;
         return false;
     }
@@ -375,10 +396,8 @@ public class UnRAVL {
 
     public Object evalWith(String expression, String lang)
             throws UnRAVLException {
-        ScriptEngine engine = getRuntime().interpreter(lang);
         try {
-            Object result = engine.eval(expression, engine.getContext());
-            return result;
+            return getRuntime().evaluate(expression, lang);
         } catch (ScriptException e) {
             logger.error("script '" + expression
                     + "' threw a runtime script exception "
@@ -13,20 +13,38 @@ import com.sas.unravl.extractors.UnRAVLExtractor;
 import com.sas.unravl.generators.UnRAVLRequestBodyGenerator;
 
 import java.io.IOException;
+import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
 import javax.script.ScriptEngineManager;
 
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.ResponseErrorHandler;
@@ -34,6 +52,12 @@ import org.springframework.web.client.RestTemplate;
 
 /**
  * Manages the mappings of keywords to plugin implementation classes.
+ * <p>
+ * Each keyword is also mapped to a {@link PluginFactory} when the plugin is
+ * registered, so running a script does not use reflection to create plugin
+ * instances. Plugins are registered while Spring configures the runtime; after
+ * that, the registry is only read, and may be shared by concurrent scripts.
+ * </p>
  * 
  * @author David.Biesack@sas.com
  */
@@ -46,10 +70,40 @@ public class UnRAVLPlugins {
     private Map<String, Class<? extends UnRAVLExtractor>> extractors = new HashMap<String, Class<? extends UnRAVLExtractor>>();
     private Map<String, Class<? extends UnRAVLAuth>> auth = new HashMap<String, Class<? extends UnRAVLAuth>>();
 
+    private final Map<String, PluginFactory<UnRAVLRequestBodyGenerator>> requestBodyGeneratorFactories = new ConcurrentHashMap<String, PluginFactory<UnRAVLRequestBodyGenerator>>();
+    private final Map<String, PluginFactory<UnRAVLAssertion>> assertionFactories = new ConcurrentHashMap<String, PluginFactory<UnRAVLAssertion>>();
+    private final Map<String, PluginFactory<UnRAVLExtractor>> extractorFactories = new ConcurrentHashMap<String, PluginFactory<UnRAVLExtractor>>();
+    private final Map<String, PluginFactory<UnRAVLAuth>> authFactories = new ConcurrentHashMap<String, PluginFactory<UnRAVLAuth>>();
+    // factories by class, so a class registered under several keys (or
+    // requested via factory(Class)) has one factory
+    private final ConcurrentMap<Class<?>, PluginFactory<?>> factories = new ConcurrentHashMap<Class<?>, PluginFactory<?>>();
+
     private CredentialsProvider credentialsProvider;
 
     private RestTemplate defaultRestTemplate;
 
+    private volatile ScriptEngines scriptEngines;
+
+    // The shared HTTP client and its connection pool; see getHttpClient()
+    private CloseableHttpClient httpClient;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private RestTemplate pooledRestTemplate;
+
+    @Value("#{systemProperties['unravl.http.maxTotal'] ?: 200}")
+    private int maxConnections = 200;
+
+    @Value("#{systemProperties['unravl.http.maxPerRoute'] ?: 20}")
+    private int maxConnectionsPerRoute = 20;
+
+    @Value("#{systemProperties['unravl.http.idleTimeout'] ?: 30}")
+    private int idleTimeoutSeconds = 30;
+
+    @Value("#{systemProperties['unravl.http.keepAlive'] ?: 30}")
+    private int keepAliveSeconds = 30;
+
+    @Value("#{systemProperties['unravl.http.validateAfterInactivity'] ?: 2000}")
+    private int validateAfterInactivityMillis = 2000;
+
     // must be "Groovy", "groovy", "JavaScript", "js", "javascript", or another
     // valid ScriptEngine name
     @Value("#{systemProperties['unravl.script.language'] ?: 'groovy'}")
@@ -87,20 +141,48 @@ public class UnRAVLPlugins {
             return scriptLanguage;
     }
 
+    /**
+     * Return a new script engine for a script language. Expressions in
+     * scripts are evaluated with {@link #getScriptEngines()}, which reuses
+     * engines and compiled expressions; this method is for callers which need
+     * an engine of their own.
+     * 
+     * @param lang
+     *            the script language, or null for the default
+     *            {@link #getScriptLanguage()}
+     * @return a new script engine
+     * @throws UnRAVLException
+     *             if no engine exists for the language
+     */
     public ScriptEngine interpreter(String lang) throws UnRAVLException {
-        ScriptEngineManager manager = new ScriptEngineManager();
-        ScriptEngine engine = manager
-                .getEngineByName(lang == null ? getScriptLanguage() : lang);
+        ScriptEngine engine = getScriptEngines().newEngine(
+                lang == null ? getScriptLanguage() : lang);
         if (engine == null) {
             logSupportedScriptEngines();
             throw new UnRAVLException(String.format(
                     "No script engine available for %sscript lanaguge %s",
                     lang == null ? "unravl.script.langauge " : "",
-                    getScriptLanguage()));
+                    lang == null ? getScriptLanguage() : lang));
         }
         return engine;
     }
 
+    /**
+     * @return the pooled script engines and compiled script cache used to
+     *         evaluate script expressions
+     */
+    public ScriptEngines getScriptEngines() {
+        ScriptEngines engines = scriptEngines;
+        if (engines == null) {
+            synchronized (this) {
+                if (scriptEngines == null)
+                    scriptEngines = new ScriptEngines();
+                engines = scriptEngines;
+            }
+        }
+        return engines;
+    }
+
     public void addAssertion(Class<? extends UnRAVLAssertion> class1) {
         UnRAVLAssertionPlugin a = class1
                 .getAnnotation(UnRAVLAssertionPlugin.class);
@@ -108,6 +190,7 @@ public class UnRAVLPlugins {
         for (String key : keys) {
             logger.trace("Define assertion '" + key + "' via " + class1);
             assertions.put(key, class1);
+            assertionFactories.put(key, this.<UnRAVLAssertion> factory(class1));
         }
     }
 
@@ -117,6 +200,7 @@ public class UnRAVLPlugins {
         for (String key : keys) {
             logger.trace("Define auth '" + key + "' via " + class1);
             auth.put(key, class1);
+            authFactories.put(key, this.<UnRAVLAuth> factory(class1));
         }
     }
 
@@ -126,6 +210,7 @@ public class UnRAVLPlugins {
         for (String key : a.value()) {
             logger.trace("Define extractor '" + key + "' via " + class1);
             extractors.put(key, class1);
+            extractorFactories.put(key, this.<UnRAVLExtractor> factory(class1));
         }
 
     }
@@ -137,7 +222,66 @@ public class UnRAVLPlugins {
         for (String key : a.value()) {
             logger.trace("Define body generator '" + key + "' via " + class1);
             requestBodyGenerators.put(key, class1);
+            requestBodyGeneratorFactories.put(key,
+                    this.<UnRAVLRequestBodyGenerator> factory(class1));
+        }
+    }
+
+    /**
+     * Return the factory for a plugin class, creating it the first time the
+     * class is seen.
+     * 
+     * @param type
+     *            a plugin class
+     * @return the factory which creates instances of type
+     */
+    @SuppressWarnings("unchecked")
+    public <T> PluginFactory<T> factory(Class<? extends T> type) {
+        PluginFactory<?> factory = factories.get(type);
+        if (factory == null) {
+            PluginFactory<T> created = PluginFactory.of(type);
+            factory = factories.putIfAbsent(type, created);
+            if (factory == null)
+                factory = created;
         }
+        return (PluginFactory<T>) factory;
+    }
+
+    /**
+     * @param key
+     *            an assertion keyword, such as "status"
+     * @return the factory for the assertion registered for key, or null
+     */
+    public PluginFactory<UnRAVLAssertion> getAssertionFactory(String key) {
+        return assertionFactories.get(key);
+    }
+
+    /**
+     * @param key
+     *            a body generator keyword, such as "json"
+     * @return the factory for the body generator registered for key, or null
+     */
+    public PluginFactory<UnRAVLRequestBodyGenerator> getBodyGeneratorFactory(
+            String key) {
+        return requestBodyGeneratorFactories.get(key);
+    }
+
+    /**
+     * @param key
+     *            an extractor keyword, such as "json"
+     * @return the factory for the extractor registered for key, or null
+     */
+    public PluginFactory<UnRAVLExtractor> getExtractorFactory(String key) {
+        return extractorFactories.get(key);
+    }
+
+    /**
+     * @param key
+     *            an auth keyword, such as "basic"
+     * @return the factory for the auth plugin registered for key, or null
+     */
+    public PluginFactory<UnRAVLAuth> getAuthFactory(String key) {
+        return authFactories.get(key);
     }
 
     public Map<String, Class<? extends UnRAVLAssertion>> getAssertions() {
@@ -188,11 +332,133 @@ public class UnRAVLPlugins {
 
     /**
      * @return the default RestTemplate instance that UnRAVL and ApiCall will
-     *         use
+     *         use. Unless one has been set with
+     *         {@link #setRestTemplate(RestTemplate)}, this is a RestTemplate
+     *         which is created once and uses the shared
+     *         {@link #getHttpClient() HTTP client}.
      */
     public RestTemplate getRestTemplate() {
-        return defaultRestTemplate == null ? newRestTemplate()
-                : defaultRestTemplate;
+        if (defaultRestTemplate != null)
+            return defaultRestTemplate;
+        synchronized (this) {
+            if (pooledRestTemplate == null)
+                pooledRestTemplate = newRestTemplate(getHttpClient());
+            return pooledRestTemplate;
+        }
+    }
+
+    /**
+     * Return the HTTP client for all UnRAVL traffic, including auth plugins.
+     * The client is created on first use and keeps connections in a pool so
+     * that calls to the same host reuse TCP connections and TLS sessions. The
+     * pool is configured with these properties, which may be set as bean
+     * properties in the Spring context or as the system properties:
+     * <dl>
+     * <dt>unravl.http.maxTotal</dt>
+     * <dd>the maximum number of connections (default 200); see
+     * {@link #setMaxConnections(int)}</dd>
+     * <dt>unravl.http.maxPerRoute</dt>
+     * <dd>the maximum number of connections per host (default 20); see
+     * {@link #setMaxConnectionsPerRoute(int)}</dd>
+     * <dt>unravl.http.idleTimeout</dt>
+     * <dd>seconds after which idle connections are closed by a background
+     * thread (default 30); see {@link #setIdleTimeoutSeconds(int)}</dd>
+     * <dt>unravl.http.keepAlive</dt>
+     * <dd>seconds to keep a connection alive when the server does not send a
+     * Keep-Alive timeout (default 30); see {@link #setKeepAliveSeconds(int)}
+     * </dd>
+     * <dt>unravl.http.validateAfterInactivity</dt>
+     * <dd>milliseconds of inactivity after which a pooled connection is checked
+     * before it is reused (default 2000); see
+     * {@link #setValidateAfterInactivityMillis(int)}</dd>
+     * </dl>
+     * The client does not manage cookies itself; each request gets its own
+     * cookie store (see {@link #newHttpContext()}), as when each call had its
+     * own client.
+     *
+     * @return the shared HTTP client
+     */
+    public synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            connectionManager = new LeaseCountingConnectionManager();
+            connectionManager.setMaxTotal(maxConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+            connectionManager
+                    .setValidateAfterInactivity(validateAfterInactivityMillis);
+            httpClient = HttpClientBuilder.create()
+                    .setConnectionManager(connectionManager)
+                    .setRedirectStrategy(new UnRAVLRedirectStrategy())
+                    .setRequestExecutor(new TimingHttpRequestExecutor())
+                    .addInterceptorFirst(
+                            TimingHttpRequestExecutor.REQUEST_STARTED)
+                    .setKeepAliveStrategy(new UnRAVLKeepAliveStrategy(
+                            keepAliveSeconds * 1000L))
+                    .evictExpiredConnections()
+                    .evictIdleConnections(idleTimeoutSeconds, TimeUnit.SECONDS)
+                    .disableCookieManagement().build();
+            logger.debug(String.format(
+                    "HTTP connection pool: maxTotal=%d maxPerRoute=%d",
+                    maxConnections, maxConnectionsPerRoute));
+        }
+        return httpClient;
+    }
+
+    /**
+     * @return a new context for one request with the shared HTTP client, with
+     *         its own cookie store
+     */
+    public static HttpClientContext newHttpContext() {
+        HttpClientContext context = HttpClientContext.create();
+        context.setCookieStore(new BasicCookieStore());
+        return context;
+    }
+
+    /**
+     * @return statistics of the shared connection pool (leased, pending,
+     *         available, and maximum connections), or null if the shared HTTP
+     *         client has not been created
+     */
+    public synchronized PoolStats getPoolStats() {
+        return connectionManager == null ? null : connectionManager
+                .getTotalStats();
+    }
+
+    /**
+     * Close the shared HTTP client and its pooled connections. A new client is
+     * created if one is needed again.
+     */
+    public synchronized void closeHttpClient() {
+        if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                logger.warn("Could not close HTTP client: " + e.getMessage());
+            }
+            httpClient = null;
+            connectionManager = null;
+            pooledRestTemplate = null;
+        }
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public void setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+    }
+
+    public void setKeepAliveSeconds(int keepAliveSeconds) {
+        this.keepAliveSeconds = keepAliveSeconds;
+    }
+
+    public void setValidateAfterInactivityMillis(
+            int validateAfterInactivityMillis) {
+        this.validateAfterInactivityMillis = validateAfterInactivityMillis;
     }
 
     /**
@@ -210,11 +476,32 @@ public class UnRAVLPlugins {
      * that ApiCall can extract the HTTP response code, headers, and response
      * body.
      * </p>
+     * <p>
+     * Request bodies are not buffered by the factory; {@link ApiCall} writes
+     * them as the request is sent.
+     * </p>
      * 
      * @return a RestTemplate instance to use for making HTTP calls when running
      *         UnRAVL scripts.
      */
     public static RestTemplate newRestTemplate() {
+        return newRestTemplate(HttpClientBuilder.create()
+                .setRedirectStrategy(new UnRAVLRedirectStrategy())
+                .setRequestExecutor(new TimingHttpRequestExecutor())
+                .addInterceptorFirst(TimingHttpRequestExecutor.REQUEST_STARTED)
+                .build());
+    }
+
+    /**
+     * Create a RestTemplate as described in {@link #newRestTemplate()}, which
+     * uses the given HTTP client
+     *
+     * @param httpClient
+     *            the client which executes requests
+     * @return a RestTemplate instance to use for making HTTP calls when running
+     *         UnRAVL scripts.
+     */
+    public static RestTemplate newRestTemplate(HttpClient httpClient) {
 
         final ResponseErrorHandler ignoreResponseErrors = new ResponseErrorHandler() {
 
@@ -232,11 +519,16 @@ public class UnRAVLPlugins {
                 return false;
             }
         };
-        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory();
-        final HttpClient httpClient = HttpClientBuilder.create()
-                .setRedirectStrategy(new UnRAVLRedirectStrategy()).build();
-        factory.setHttpClient(httpClient);
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(
+                httpClient) {
+            @Override
+            protected HttpContext createHttpContext(HttpMethod httpMethod,
+                    URI uri) {
+                return newHttpContext();
+            }
+        };
 
+        factory.setBufferRequestBody(false);
         RestTemplate rt = new RestTemplate(factory);
         rt.setErrorHandler(ignoreResponseErrors);
         return rt;
@@ -251,4 +543,49 @@ public class UnRAVLPlugins {
                     || HttpHead.METHOD_NAME.equalsIgnoreCase(method);
         }
     }
+
+    // Counts each connection actually taken from the pool, for the metrics
+    private static final class LeaseCountingConnectionManager extends
+            PoolingHttpClientConnectionManager {
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route,
+                Object state) {
+            final ConnectionRequest request = super.requestConnection(route,
+                    state);
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit tunit)
+                        throws InterruptedException, ExecutionException,
+                        ConnectionPoolTimeoutException {
+                    HttpClientConnection connection = request.get(timeout,
+                            tunit);
+                    UnRAVLRuntime.metrics().connectionLeased();
+                    return connection;
+                }
+
+                @Override
+                public boolean cancel() {
+                    return request.cancel();
+                }
+            };
+        }
+    }
+
+    // Use the server's Keep-Alive timeout, else a default
+    private static final class UnRAVLKeepAliveStrategy extends
+            DefaultConnectionKeepAliveStrategy {
+        private final long defaultMillis;
+
+        UnRAVLKeepAliveStrategy(long defaultMillis) {
+            this.defaultMillis = defaultMillis;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response,
+                HttpContext context) {
+            long duration = super.getKeepAliveDuration(response, context);
+            return duration < 0 ? defaultMillis : duration;
+        }
+    }
 }
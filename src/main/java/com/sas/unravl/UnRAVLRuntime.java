@@ -2,12 +2,10 @@ package com.sas.unravl;
 
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
-import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -16,7 +14,7 @@ import java.util.Set;
 
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
-import javax.script.SimpleBindings;
+import javax.script.ScriptException;
 
 import org.apache.log4j.Logger;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
@@ -24,7 +22,6 @@ import org.springframework.stereotype.Component;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.jayway.jsonpath.Configuration;
 import com.jayway.jsonpath.Option;
@@ -36,7 +33,9 @@ import com.sas.unravl.annotations.UnRAVLAssertionPlugin;
 import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
 import com.sas.unravl.assertions.UnRAVLAssertionException;
 import com.sas.unravl.generators.UnRAVLRequestBodyGenerator;
+import com.sas.unravl.metrics.UnRAVLMetrics;
 import com.sas.unravl.util.Json;
+import com.sas.unravl.util.JsonPaths;
 import com.sas.unravl.util.VariableResolver;
 
 /**
@@ -57,17 +56,56 @@ public class UnRAVLRuntime implements Cloneable {
      */
     public static final String ENV_PROPERTY_CHANGE_PREFIX = "env.";
     private static final Logger logger = Logger.getLogger(UnRAVLRuntime.class);
+    static final String FAILED_ASSERTION_COUNT = "failedAssertionCount";
+    /**
+     * The system property which controls how system properties are exposed
+     * as variables. If its value is <code>"lazy"</code>, system properties are
+     * looked up when a variable is not bound in the environment, instead of
+     * being copied into the environment when the runtime is created.
+     */
+    public static final String SYSTEM_PROPERTIES_MODE_PROPERTY = "unravl.env.systemProperties";
+    /**
+     * The system property which sets the default {@link RetentionPolicy} of
+     * the call history: <code>all</code> (the default), <code>failures</code>,
+     * <code>summaries</code>, <code>last</code>, or a number <var>n</var>,
+     * which keeps the last <var>n</var> calls.
+     */
+    public static final String RETENTION_PROPERTY = "unravl.retention";
+    /**
+     * The system property which sets the default number of calls kept by
+     * {@link RetentionPolicy#LAST_N}
+     */
+    public static final String RETENTION_LIMIT_PROPERTY = "unravl.retention.limit";
+    /** The default number of calls kept by {@link RetentionPolicy#LAST_N} */
+    public static final int DEFAULT_RETENTION_LIMIT = 1000;
     private Map<String, Object> env; // script variables
     private Map<String, UnRAVL> scripts = new LinkedHashMap<String, UnRAVL>();
     private Map<String, UnRAVL> templates = new LinkedHashMap<String, UnRAVL>();
     // a history of the API calls we've made in this runtime
     private ArrayList<ApiCall> calls = new ArrayList<ApiCall>();
+    // summaries of the calls, kept instead with RetentionPolicy.SUMMARIES
+    private ArrayList<ApiCallSummary> summaries = new ArrayList<ApiCallSummary>();
+    private RetentionPolicy retentionPolicy;
+    private int retentionLimit;
+    // the number of calls, and of their failed assertions, whether or not
+    // they are still in the history
+    private int callCount;
+    private int callFailures;
     private int failedAssertionCount;
 
     // used to expand variable references {varName} in strings:
     private VariableResolver variableResolver;
     private String scriptLanguage;
-    private boolean cancelled;
+    private volatile boolean cancelled;
+
+    // number of worker threads used to run a list of scripts; 1 is sequential
+    private int parallelism = 1;
+    // order parallel scripts by their data flow; see DependencyGraph
+    private boolean dependencyScheduling = true;
+    // the runtime that created this one as a parallel worker, else null
+    private UnRAVLRuntime parent;
+    // look up system properties on demand instead of binding them all
+    private final boolean lazySystemProperties;
 
     public UnRAVLRuntime() {
         this(new LinkedHashMap<String, Object>());
@@ -83,31 +121,68 @@ public class UnRAVLRuntime implements Cloneable {
         configure();
         this.env = environment;
         setScriptLanguage(getPlugins().getScriptLanguage());
-        for (Map.Entry<Object, Object> e : System.getProperties().entrySet())
-            bind(e.getKey().toString(), e.getValue());
-        bind("failedAssertionCount", Integer.valueOf(0));
+        lazySystemProperties = "lazy".equalsIgnoreCase(System
+                .getProperty(SYSTEM_PROPERTIES_MODE_PROPERTY));
+        if (!lazySystemProperties) {
+            for (Map.Entry<Object, Object> e : System.getProperties()
+                    .entrySet())
+                bind(e.getKey().toString(), e.getValue());
+        }
+        bind(FAILED_ASSERTION_COUNT, Integer.valueOf(0));
         resetBindings();
+        String retention = System.getProperty(RETENTION_PROPERTY, "all");
+        int limit = Integer.getInteger(RETENTION_LIMIT_PROPERTY,
+                DEFAULT_RETENTION_LIMIT);
+        if (retention.trim().matches("[0-9]+"))
+            limit = Integer.parseInt(retention.trim());
+        try {
+            setRetentionPolicy(RetentionPolicy.parse(retention), limit);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ignoring invalid " + RETENTION_PROPERTY + " "
+                    + retention);
+            setRetentionPolicy(RetentionPolicy.ALL, DEFAULT_RETENTION_LIMIT);
+        }
     }
 
     /**
      * Instantiate a new runtime with the environment of the input runtime
-     * instance. The environment is copied, but the new runtime gets its own
-     * empty list of calls, scripts, and templates.
+     * instance. The environment and retention policy are copied, but the new
+     * runtime gets its own empty list of calls, scripts, and templates.
      *
      * @param runtime
      *            an existing Runtime (may not be null)
      */
     public UnRAVLRuntime(UnRAVLRuntime runtime) {
-        env = new LinkedHashMap<String, Object>();
-        env.putAll(runtime.env);
+        this(runtime, runtime.env);
+    }
+
+    // A copy of runtime which starts with the given environment
+    private UnRAVLRuntime(UnRAVLRuntime runtime, Map<String, Object> env) {
+        this.env = new LinkedHashMap<String, Object>();
+        this.env.putAll(env);
         calls = new ArrayList<ApiCall>();
+        retentionPolicy = runtime.retentionPolicy;
+        retentionLimit = runtime.retentionLimit;
         scripts = new LinkedHashMap<String, UnRAVL>();
         cancelled = false;
-        variableResolver = new VariableResolver(env);
+        lazySystemProperties = runtime.lazySystemProperties;
         templates = new LinkedHashMap<String, UnRAVL>();
         setScriptLanguage(runtime.getScriptLanguage());
     }
 
+    /**
+     * @return true if this runtime looks up system properties when a variable
+     *         is not bound, instead of binding all system properties when it
+     *         is created. This is enabled by running with
+     *         <code>-Dunravl.env.systemProperties=lazy</code>. Lazily
+     *         exposed system properties are visible to
+     *         {@link #binding(String)}, {@link #bound(String)}, variable
+     *         expansion and scripts, but are not in {@link #getBindings()}.
+     */
+    public boolean isLazySystemProperties() {
+        return lazySystemProperties;
+    }
+
     /**
      * @return this runtime's default script language
      */
@@ -126,13 +201,91 @@ public class UnRAVLRuntime implements Cloneable {
         this.scriptLanguage = language;
     }
 
+    /**
+     * @return the number of worker threads used to run a list of scripts. 1
+     *         (the default) means scripts run sequentially on the calling
+     *         thread.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of worker threads used to run the scripts passed to
+     * {@link #execute(List)} or read from each file passed to
+     * {@link #execute(String[])}. When greater than 1, the scripts in a list
+     * run concurrently, each in a worker runtime with its own copy of the
+     * environment and its own API call history. The failed assertion counts
+     * and variable bindings of each worker are merged back into this runtime
+     * in script order, and its API calls are appended in script order, so
+     * {@link #report()}, {@link #getFailedAssertionCount()} and
+     * {@link #getApiCalls()} are the same as for a sequential run.
+     * <p>
+     * In particular, a script without an "if" condition only runs if no
+     * earlier script has failed, as in a sequential run; so does a script
+     * whose "if" reads <code>failedAssertionCount</code>. Such a script waits
+     * for the earlier scripts which may fail. With dependency scheduling off,
+     * it runs with the others, but if an earlier script of its wave failed,
+     * its results are discarded and it runs again (and is usually skipped)
+     * after that script; any API call it made the first time has still been
+     * made. Give scripts which may run regardless an "if" condition, such as
+     * <code>"if" : true</code>, to let them run concurrently.
+     * </p>
+     * <p>
+     * Template definitions (scripts whose name ends in ".template") are
+     * always run in this runtime, in order, and act as a barrier between the
+     * scripts before and after them. Unless
+     * {@link #setDependencyScheduling(boolean) dependency scheduling} is turned
+     * off, scripts which read variables written by earlier scripts, or which
+     * access a resource that an earlier script modifies, wait for those
+     * scripts to finish.
+     * </p>
+     *
+     * @param parallelism
+     *            the number of worker threads; 1 for sequential execution
+     * @throws IllegalArgumentException
+     *             if parallelism is less than 1
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException(
+                    "parallelism must be at least 1; found " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return true (the default) if parallel execution runs scripts in waves
+     *         derived from their data flow, false if all scripts of a list
+     *         are assumed to be independent
+     * @see DependencyGraph
+     */
+    public boolean isDependencyScheduling() {
+        return dependencyScheduling;
+    }
+
+    /**
+     * Choose how scripts are ordered when {@link #getParallelism()} is greater
+     * than 1.
+     *
+     * @param dependencyScheduling
+     *            if true, analyze the variables and resources each script
+     *            reads and writes with a {@link DependencyGraph} and run each
+     *            script only after the scripts it depends on. If false, run
+     *            all scripts of a list concurrently.
+     */
+    public void setDependencyScheduling(boolean dependencyScheduling) {
+        this.dependencyScheduling = dependencyScheduling;
+    }
+
     /**
      * Gets a variable resolver for this runtime.
      * @return variable resolver
      */
     public VariableResolver getVariableResolver(){
         if (variableResolver == null) {
-            variableResolver = new VariableResolver(getBindings());
+            variableResolver = new VariableResolver(
+                    lazySystemProperties ? new LayeredBindings(this)
+                            : getBindings());
         }
         return variableResolver;
     }
@@ -166,11 +319,37 @@ public class UnRAVLRuntime implements Cloneable {
      */
     public ScriptEngine interpreter(String lang) throws UnRAVLException {
         ScriptEngine engine = getPlugins().interpreter(lang);
-        SimpleBindings bindings = new SimpleBindings(getBindings());
-        engine.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+        engine.setBindings(new LayeredBindings(this),
+                ScriptContext.ENGINE_SCOPE);
         return engine;
     }
 
+    /**
+     * Evaluate a script expression using this runtime's environment as the
+     * script's variable bindings. The expression is run on a pooled or shared
+     * engine and compiled once per expression text; see {@link ScriptEngines}.
+     * The script sees the environment through {@link LayeredBindings}, so
+     * assigning a bound variable rebinds it, while new variables are local to
+     * the evaluation.
+     *
+     * @param expression
+     *            the script source text
+     * @param lang
+     *            the script language, or null for the default language
+     * @return the result of the expression
+     * @throws ScriptException
+     *             if the expression does not compile or throws an exception
+     * @throws UnRAVLException
+     *             if no engine exists for the script language
+     */
+    public Object evaluate(String expression, String lang)
+            throws ScriptException, UnRAVLException {
+        UnRAVLPlugins plugins = getPlugins();
+        return plugins.getScriptEngines().eval(
+                lang == null ? plugins.getScriptLanguage() : lang, expression,
+                new LayeredBindings(this));
+    }
+
     public Map<String, Object> getBindings() {
         return env;
     }
@@ -190,7 +369,7 @@ public class UnRAVLRuntime implements Cloneable {
 
     public void incrementFailedAssertionCount() {
         failedAssertionCount++;
-        bind("failedAssertionCount", Integer.valueOf(failedAssertionCount));
+        bind(FAILED_ASSERTION_COUNT, Integer.valueOf(failedAssertionCount));
     }
 
     public Map<String, UnRAVL> getScripts() {
@@ -202,6 +381,10 @@ public class UnRAVLRuntime implements Cloneable {
     }
 
     private static ClassPathXmlApplicationContext ctx = null;
+    // The plugins bean from ctx, looked up once in configure()
+    private static volatile UnRAVLPlugins plugins = null;
+    // The metrics of all API calls in this process; recorded only if enabled
+    private static final UnRAVLMetrics metrics = new UnRAVLMetrics();
 
     /**
      * UnRAVL can be configured with Spring by loading the Spring config
@@ -221,6 +404,8 @@ public class UnRAVLRuntime implements Cloneable {
         String[] contextXml = new String[] { "/META-INF/spring/unravlApplicationContext.xml" };
         ctx = new ClassPathXmlApplicationContext(contextXml);
         assert (ctx != null);
+        plugins = ctx.getBean(UnRAVLPlugins.class);
+        metrics.bind(plugins);
 
         // Configure jsonPath to use Jackson
         Configuration.Defaults jsonPathConfig = new Configuration.Defaults() {
@@ -245,6 +430,8 @@ public class UnRAVLRuntime implements Cloneable {
         };
 
         Configuration.setDefaults(jsonPathConfig);
+        // and to evaluate paths on Jackson trees, without converting them
+        JsonPaths.setConfiguration(JsonPaths.newConfiguration());
     }
 
     public UnRAVLRuntime execute(String[] argv) throws UnRAVLException {
@@ -283,6 +470,10 @@ public class UnRAVLRuntime implements Cloneable {
     public void executeInternal(List<JsonNode> listOfScripts)
             throws JsonProcessingException, IOException, UnRAVLException {
 
+        if (parallelism > 1 && listOfScripts.size() > 1) {
+            new ParallelExecutor(this, parallelism).execute(listOfScripts);
+            return;
+        }
         for (int i = 0; !isCanceled() && i < listOfScripts.size(); i++) {
             JsonNode root = listOfScripts.get(i);
             executeInternal(root);
@@ -311,7 +502,7 @@ public class UnRAVLRuntime implements Cloneable {
             if (root.isTextual()) {
                 String name = root.textValue();
                 label = name;
-                u = getScripts().get(name);
+                u = findScript(name);
                 if (u == null) {
                     throw new UnRAVLException(String.format(
                             "No such UnRAVL script named '%s'", name));
@@ -352,8 +543,38 @@ public class UnRAVLRuntime implements Cloneable {
         return this;
     }
 
+    /**
+     * Run script files as a load test. The scripts of all the files are read
+     * once, then each virtual user of the load test runs them, in order, in
+     * each iteration. The calls are not added to this runtime's call history;
+     * use the returned statistics instead.
+     *
+     * @param load
+     *            the load test settings
+     * @param scriptFiles
+     *            the names or URLs of the script files
+     * @return the statistics of the calls of each script
+     * @throws UnRAVLException
+     *             if a script file cannot be read
+     */
+    public LoadStatistics executeLoad(LoadTest load, String... scriptFiles)
+            throws UnRAVLException {
+        cancelled = false;
+        List<JsonNode> scripts = new ArrayList<JsonNode>();
+        for (String scriptFile : scriptFiles) {
+            try {
+                scripts.addAll(read(scriptFile));
+            } catch (IOException e) {
+                logger.error(e.getMessage() + " while reading UnRAVL script "
+                        + scriptFile);
+                throw new UnRAVLException(e);
+            }
+        }
+        return load.run(this, scripts);
+    }
+
     public boolean isCanceled() {
-        return cancelled;
+        return cancelled || (parent != null && parent.isCanceled());
     }
 
     /** Stop execution. */
@@ -362,6 +583,8 @@ public class UnRAVLRuntime implements Cloneable {
             pcs.firePropertyChange("cancelled", Boolean.FALSE, Boolean.TRUE);
             this.cancelled = true;
         }
+        if (parent != null)
+            parent.cancel();
     }
 
     /**
@@ -464,7 +687,15 @@ public class UnRAVLRuntime implements Cloneable {
      * @return the value bound to the variable
      */
     public Object binding(String varName) {
-        return env.get(varName);
+        Object value = env.get(varName);
+        if (value == null && lazySystemProperties && !env.containsKey(varName))
+            value = systemProperty(varName);
+        return value;
+    }
+
+    private static String systemProperty(String name) {
+        return name == null || name.length() == 0 ? null : System
+                .getProperty(name);
     }
 
     /**
@@ -475,7 +706,8 @@ public class UnRAVLRuntime implements Cloneable {
      * @return true iff the variable is bound
      */
     public boolean bound(String varName) {
-        return env.containsKey(varName);
+        return env.containsKey(varName)
+                || (lazySystemProperties && systemProperty(varName) != null);
     }
 
     /**
@@ -496,68 +728,209 @@ public class UnRAVLRuntime implements Cloneable {
         /* variableResolver = null; */
     }
 
+    /**
+     * Read the UnRAVL scripts in a file or URL. Files are parsed once and
+     * cached until they change; see {@link ScriptCache}.
+     *
+     * @param scriptFile
+     *            a file name or URL
+     * @return the scripts in the file. The scripts are shared and must not be
+     *         modified.
+     * @throws IOException
+     *             if the file cannot be read
+     * @throws UnRAVLException
+     *             if the file is not valid JSON
+     */
     public List<JsonNode> read(String scriptFile)
             throws JsonProcessingException, IOException, UnRAVLException {
-        JsonNode root;
-        List<JsonNode> roots = new ArrayList<JsonNode>();
-        ObjectMapper mapper = new ObjectMapper();
-        URL url = null;
-        try {
-            url = new URL(scriptFile);
-        } catch (MalformedURLException e) {
-        }
-        if (url != null)
-            root = mapper.readTree(url);
-        else {
-            File f = new File(scriptFile);
-            root = mapper.readTree(f);
-        }
-
-        if (root.isArray()) {
-            for (JsonNode next : Json.array(root)) {
-                roots.add(next);
-            }
-        } else {
-            roots.add(root);
-        }
-        return roots;
+        return ScriptCache.getInstance().read(scriptFile);
     }
 
+    /**
+     * @return the number of failed assertions of all the API calls, or 1 if
+     *         there were no calls. This counts every call, including those
+     *         which the {@link RetentionPolicy} did not keep.
+     */
     public int report() {
-        int failed = (calls.size() == 0 ? 1 : 0);
-        for (ApiCall call : calls) {
-            failed += call.getFailedAssertions().size();
-        }
+        int failed = (callCount == 0 ? 1 : 0) + callFailures;
         if (cancelled)
             System.out.println("UnRAVL script execution was canceled.");
         return failed;
     }
 
     /**
-     * @return a list of the API calls
+     * @return a list of the API calls which the retention policy has kept
      */
     public List<ApiCall> getApiCalls() {
         return calls;
     }
 
     /**
-     * @return The size of this runtime, which is the number of API calls
+     * @return summaries of the API calls. With
+     *         {@link RetentionPolicy#SUMMARIES}, these are the summaries of
+     *         all the calls; otherwise, they summarize
+     *         {@link #getApiCalls()}.
+     */
+    public List<ApiCallSummary> getApiCallSummaries() {
+        if (retentionPolicy == RetentionPolicy.SUMMARIES)
+            return Collections.unmodifiableList(summaries);
+        List<ApiCallSummary> list = new ArrayList<ApiCallSummary>(
+                calls.size());
+        for (ApiCall call : calls)
+            list.add(new ApiCallSummary(call));
+        return list;
+    }
+
+    /**
+     * @return The size of this runtime, which is the number of API calls in
+     *         {@link #getApiCalls()}
      */
     public int size() {
         return calls.size();
     }
 
+    /**
+     * @return the number of API calls made since this runtime was created or
+     *         {@link #reset()}, whether or not they are kept
+     */
+    public int getCallCount() {
+        return callCount;
+    }
+
+    /**
+     * @return which API calls are kept in {@link #getApiCalls()}
+     */
+    public RetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
+    /**
+     * @return the number of calls kept by {@link RetentionPolicy#LAST_N}
+     */
+    public int getRetentionLimit() {
+        return retentionLimit;
+    }
+
+    /**
+     * Set which API calls are kept in the history. The default is set with
+     * the system properties {@value #RETENTION_PROPERTY} and
+     * {@value #RETENTION_LIMIT_PROPERTY}. The policy applies to calls which
+     * finish after this; with {@link RetentionPolicy#LAST_N}, the history is
+     * also trimmed now. Calls which are dropped are
+     * {@link ApiCall#release() released}.
+     *
+     * @param policy
+     *            the retention policy
+     * @param limit
+     *            the number of calls kept by {@link RetentionPolicy#LAST_N}
+     * @throws IllegalArgumentException
+     *             if limit is less than 1
+     */
+    public void setRetentionPolicy(RetentionPolicy policy, int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Retention limit " + limit
+                    + " must be at least 1");
+        retentionPolicy = policy;
+        retentionLimit = limit;
+        if (policy == RetentionPolicy.LAST_N)
+            trim();
+    }
+
     public void addApiCall(ApiCall apiCall) {
-        calls.add(apiCall);
+        callCount++;
+        // Running calls are kept, so they can be watched, unless the policy
+        // waits to see whether they fail
+        if (retentionPolicy == RetentionPolicy.ALL
+                || retentionPolicy == RetentionPolicy.LAST_N) {
+            calls.add(apiCall);
+            trim();
+            pcs.firePropertyChange("calls", null, calls);
+        }
+    }
+
+    /**
+     * Count the failed assertions of a call which has finished running, and
+     * keep or drop it as the retention policy requires
+     *
+     * @param call
+     *            the finished call, which was passed to
+     *            {@link #addApiCall(ApiCall)}
+     */
+    void callFinished(ApiCall call) {
+        callFailures += call.getFailedAssertions().size();
+        if (retentionPolicy == RetentionPolicy.FAILURES
+                || retentionPolicy == RetentionPolicy.SUMMARIES)
+            retain(call);
+    }
+
+    // Keep a finished call which is not yet in the history, if the policy
+    // allows it
+    private void retain(ApiCall call) {
+        switch (retentionPolicy) {
+        case FAILURES:
+            if (call.getFailedAssertions().size() == 0
+                    && call.getException() == null) {
+                call.release();
+                return;
+            }
+            calls.add(call);
+            break;
+        case SUMMARIES:
+            summaries.add(new ApiCallSummary(call));
+            call.release();
+            return;
+        default:
+            calls.add(call);
+            trim();
+        }
         pcs.firePropertyChange("calls", null, calls);
     }
 
+    // Drop the oldest calls beyond the LAST_N limit
+    private void trim() {
+        if (retentionPolicy != RetentionPolicy.LAST_N)
+            return;
+        int excess = calls.size() - retentionLimit;
+        if (excess > 0) {
+            List<ApiCall> evicted = calls.subList(0, excess);
+            for (ApiCall call : evicted)
+                call.release();
+            evicted.clear();
+        }
+    }
+
+    /**
+     * @return the plugin registry. This is the UnRAVLPlugins bean from the
+     *         Spring context, which is looked up once when the runtime is
+     *         configured.
+     */
     public UnRAVLPlugins getPlugins() {
-        return ctx.getBean(UnRAVLPlugins.class);
+        return plugins;
+    }
+
+    /**
+     * @return the metrics of the API calls run by all runtimes in this
+     *         process. Metrics are only recorded if
+     *         {@link UnRAVLMetrics#setEnabled(boolean) enabled}.
+     */
+    public UnRAVLMetrics getMetrics() {
+        return metrics;
+    }
+
+    static UnRAVLMetrics metrics() {
+        return metrics;
     }
 
     public UnRAVL getTemplate(String templateName) {
-        return getTemplates().get(templateName);
+        UnRAVL template = getTemplates().get(templateName);
+        if (template == null && parent != null) {
+            // A worker runtime inherits its parent's templates. Rebuild them
+            // here so they are bound to this runtime, not the parent.
+            UnRAVL inherited = parent.getTemplate(templateName);
+            if (inherited != null)
+                template = adopt(inherited);
+        }
+        return template;
     }
 
     public void setTemplate(String name, UnRAVL template) {
@@ -573,12 +946,129 @@ public class UnRAVLRuntime implements Cloneable {
     }
 
     /**
-     * Reset this instance. This removes the history of calls, turns off the
-     * cancelled flag, and resets the assertion failure count to 0.
+     * Find a named script in this runtime or, for a parallel worker, in the
+     * runtime which created it.
+     *
+     * @param name
+     *            the script name
+     * @return the script, or null if there is no script with that name
+     */
+    private UnRAVL findScript(String name) {
+        UnRAVL script = getScripts().get(name);
+        if (script == null && parent != null) {
+            UnRAVL inherited = parent.findScript(name);
+            if (inherited != null)
+                script = adopt(inherited);
+        }
+        return script;
+    }
+
+    // Rebuild a script or template from another runtime within this runtime.
+    // The UnRAVL constructor registers the new instance by name.
+    private UnRAVL adopt(UnRAVL other) {
+        try {
+            return new UnRAVL(this, (ObjectNode) other.getRoot());
+        } catch (IOException e) {
+            throw new RuntimeException(new UnRAVLException(e));
+        } catch (UnRAVLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Create a worker runtime for parallel execution. The worker starts with
+     * a copy of this runtime's environment and failed assertion count, and
+     * inherits this runtime's scripts, templates and cancellation state.
+     *
+     * @return a new worker runtime
+     */
+    UnRAVLRuntime newWorker() {
+        return newWorker(env);
+    }
+
+    /**
+     * Create a worker runtime like {@link #newWorker()}, which starts with a
+     * copy of the given environment instead of this runtime's. Use this to
+     * create workers on other threads from one snapshot of the environment.
+     *
+     * @param env
+     *            the initial environment, which is copied
+     * @return a new worker runtime
+     */
+    UnRAVLRuntime newWorker(Map<String, Object> env) {
+        UnRAVLRuntime worker = new UnRAVLRuntime(this, env);
+        worker.parent = this;
+        worker.failedAssertionCount = failedAssertionCount;
+        return worker;
+    }
+
+    /**
+     * Merge the state of a worker runtime created by {@link #newWorker()}
+     * into this runtime: add its call and failed assertion counts to this
+     * runtime's, rebind the variables it changed and register the runnable
+     * scripts it defined. Its API calls are merged separately, with
+     * {@link #mergeCalls(UnRAVLRuntime)}.
+     *
+     * @param worker
+     *            the worker runtime
+     * @param initialEnv
+     *            a copy of the worker's environment before it ran
+     * @param initialFailures
+     *            the worker's failed assertion count before it ran
+     */
+    void merge(UnRAVLRuntime worker, Map<String, Object> initialEnv,
+            int initialFailures) {
+        // The worker has counted all of its calls, including those it did not
+        // keep, so add its counts rather than counting its calls again
+        callCount += worker.callCount;
+        callFailures += worker.callFailures;
+        for (Map.Entry<String, Object> e : worker.env.entrySet()) {
+            String name = e.getKey();
+            if (FAILED_ASSERTION_COUNT.equals(name))
+                continue;
+            if (!initialEnv.containsKey(name)
+                    || initialEnv.get(name) != e.getValue())
+                bind(name, e.getValue());
+        }
+        for (String name : initialEnv.keySet()) {
+            if (!worker.env.containsKey(name))
+                unbind(name);
+        }
+        for (Map.Entry<String, UnRAVL> e : worker.scripts.entrySet()) {
+            if (!scripts.containsKey(e.getKey()))
+                adopt(e.getValue());
+        }
+        int failures = worker.failedAssertionCount - initialFailures;
+        for (int i = 0; i < failures; i++)
+            incrementFailedAssertionCount();
+    }
+
+    /**
+     * Append the API calls (or summaries) which a worker runtime kept to
+     * this runtime's, as this runtime's retention policy allows
+     *
+     * @param worker
+     *            the worker runtime
+     */
+    void mergeCalls(UnRAVLRuntime worker) {
+        for (ApiCall call : worker.calls)
+            retain(call);
+        summaries.addAll(worker.summaries);
+    }
+
+    /**
+     * Reset this instance. This removes the history of calls and releases
+     * their response bodies (see {@link ApiCall#release()}), turns off the
+     * cancelled flag, and resets the assertion failure and call counts to 0.
      */
     public void reset() {
         resetFailedAssertionCount();
+        for (ApiCall call : calls)
+            call.release();
         calls.clear();
+        summaries.clear();
+        callCount = 0;
+        callFailures = 0;
         if (cancelled) {
             cancelled = false;
             pcs.firePropertyChange("cancelled", Boolean.TRUE, Boolean.FALSE);
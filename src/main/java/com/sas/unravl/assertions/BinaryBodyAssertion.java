@@ -9,6 +9,7 @@ import com.sas.unravl.annotations.UnRAVLAssertionPlugin;
 import com.sas.unravl.generators.Binary;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Asserts that the HTTP response body matches some text. There are several
@@ -30,7 +31,8 @@ public class BinaryBodyAssertion extends BaseUnRAVLAssertion implements
         try {
             Binary binary = new Binary(current, value);
             byte[] expected = binary.bytes();
-            byte[] actual = call.getResponseBody().toByteArray();
+            // a view, so a large body kept in a file is not copied
+            ByteBuffer actual = call.getResponse().buffer();
             assertArrayEquals(expected, actual);
         } catch (IOException e1) {
             throw new UnRAVLException(e1.getMessage(), e1);
@@ -38,19 +40,20 @@ public class BinaryBodyAssertion extends BaseUnRAVLAssertion implements
 
     }
 
-    private void assertArrayEquals(byte[] expected, byte[] actual)
+    private void assertArrayEquals(byte[] expected, ByteBuffer actual)
             throws UnRAVLAssertionException {
-        if (expected.length != actual.length)
+        if (expected.length != actual.remaining())
             throw new UnRAVLAssertionException(
                     String.format(
                             "binary array contents not equal: length %d not equal to expected length %d",
-                            actual.length, expected.length));
-        for (int i = 0; i < actual.length; i++) {
-            if (actual[i] != expected[i])
+                            actual.remaining(), expected.length));
+        for (int i = 0; i < expected.length; i++) {
+            byte b = actual.get(i);
+            if (b != expected[i])
                 throw new UnRAVLAssertionException(
                         String.format(
                                 "binary array contents not equal at byte %d: found %d, expected %d",
-                                i, actual[i], expected[i]));
+                                i, b, expected[i]));
         }
     }
 
@@ -7,6 +7,7 @@ import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLAssertionPlugin;
 import com.sas.unravl.util.Json;
+import com.sas.unravl.util.Patterns;
 
 import java.util.Arrays;
 import java.util.Map;
@@ -58,7 +59,7 @@ public class HeadersAssertion extends BaseUnRAVLAssertion {
             String pattern = current.expand(valNode.textValue());
             Header h = findHeader(header, headers);
             try {
-                Matcher matcher = Pattern.compile(pattern)
+                Matcher matcher = Patterns.compile(pattern)
                         .matcher(h.getValue());
                 if (!matcher.matches())
                     throw new UnRAVLAssertionException("header " + header
@@ -2,7 +2,7 @@ package com.sas.unravl.assertions;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.sas.unravl.ApiCall;
 import com.sas.unravl.UnRAVL;
@@ -53,14 +53,16 @@ public class JsonBodyAssertion extends BaseUnRAVLAssertion implements
 
         JsonNode expected = Json.firstFieldValue(assertion);
 
-        ObjectMapper mapper = new ObjectMapper();
-        String content;
+        ObjectReader reader = Json.reader();
         try {
-            content = current.expand(Text.utf8ToString(call.getResponseBody()
-                    .toByteArray()));
-            JsonNode actual = mapper.readTree(content);
+            // Variables in the response body are expanded before comparing.
+            // If there are none, the call's parsed body can be used as is.
+            String text = call.getResponse().text();
+            String content = current.expand(text);
+            JsonNode actual = content.equals(text) ? parsed(call)
+                    : reader.<JsonNode> readValue(content);
             JsonNode mapped = Json.expand(actual, current);
-            expected = realize(expected, mapper);
+            expected = realize(expected, reader);
             boolean same = mapped.equals(expected);
             if (!same)
                 throw new UnRAVLAssertionException(
@@ -91,15 +93,25 @@ public class JsonBodyAssertion extends BaseUnRAVLAssertion implements
 
     }
 
+    // The call's response body, parsed once for all assertions and extractors
+    private JsonNode parsed(ApiCall call) throws UnRAVLException {
+        try {
+            return call.getResponse().json();
+        } catch (UnRAVLException e) {
+            throw new UnRAVLException("Could not parse response body as JSON: "
+                    + e.getMessage(), e);
+        }
+    }
+
     // If node is "@file-or-URL , read text from that file and parse as JSON
-    private JsonNode realize(JsonNode expected, ObjectMapper mapper)
+    private JsonNode realize(JsonNode expected, ObjectReader reader)
             throws IOException, UnRAVLException {
         JsonNode json = expected;
         if (expected.isTextual()) {
             String path = getScript().expand(expected.textValue());
             String text = getScript()
                     .expand(new Text(getScript(), path).text());
-            json = mapper.readTree(text);
+            json = reader.readValue(text);
         }
         return json;
     }
@@ -0,0 +1,226 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.assertions;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.github.fge.jsonschema.core.exceptions.ProcessingException;
+import com.github.fge.jsonschema.core.report.ProcessingReport;
+import com.github.fge.jsonschema.main.JsonSchema;
+import com.github.fge.jsonschema.main.JsonSchemaFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.generators.Text;
+import com.sas.unravl.util.Json;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A process-wide cache of validated, compiled JSON schemas for
+ * {@link SchemaAssertion}.
+ * <p>
+ * Building a {@link JsonSchemaFactory} and checking a schema's syntax cost
+ * far more than validating a typical response, and contract test suites
+ * validate many responses against a few schemas. Schemas are therefore
+ * compiled once, by one shared factory, and cached by content: two schemas
+ * which are equal JSON share one compiled schema, however they were
+ * referenced. Schemas loaded from files are also cached by canonical path,
+ * and are reloaded when the file's modification time or size changes.
+ * Schemas loaded from URLs are fetched each time, since they may change, but
+ * are only compiled again if their content changed. Schemas with invalid
+ * syntax are not cached.
+ * </p>
+ * <p>
+ * The number of schemas kept is set with the system property
+ * <code>unravl.schema.cache.size</code> (default 256).
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class JsonSchemas {
+
+    private static final Logger logger = Logger.getLogger(JsonSchemas.class);
+
+    /** The default maximum number of compiled schemas to cache */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private static final JsonSchemas instance = new JsonSchemas(
+            Integer.getInteger("unravl.schema.cache.size", DEFAULT_CACHE_SIZE));
+
+    /** A schema file, and the state of the file when it was loaded */
+    private static final class FileSchema {
+        private final long lastModified;
+        private final long length;
+        private final JsonNode schema;
+
+        FileSchema(long lastModified, long length, JsonNode schema) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.schema = schema;
+        }
+    }
+
+    private final Cache<JsonNode, JsonSchema> compiled;
+    private final Cache<String, FileSchema> files;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // JsonSchemaFactory.byDefault() is expensive; the factory is thread safe
+    private static class Factory {
+        static final JsonSchemaFactory factory = JsonSchemaFactory.byDefault();
+    }
+
+    /**
+     * @param cacheSize
+     *            the maximum number of compiled schemas and schema files to
+     *            cache
+     */
+    public JsonSchemas(int cacheSize) {
+        compiled = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+        files = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    /**
+     * @return the schema cache shared by all scripts
+     */
+    public static JsonSchemas getInstance() {
+        return instance;
+    }
+
+    /**
+     * Load a schema from a <code>@location</code> reference: a file, URL or
+     * class path resource
+     *
+     * @param script
+     *            the script which references the schema; variables in the
+     *            location are expanded in its environment
+     * @param reference
+     *            the reference, starting with <code>@</code>
+     * @return the schema JSON
+     * @throws UnRAVLException
+     *             if the schema cannot be read or is not JSON
+     */
+    public JsonNode load(UnRAVL script, String reference)
+            throws UnRAVLException {
+        String expanded = script.expand(reference);
+        String location = expanded.substring(UnRAVL.REDIRECT_PREFIX.length());
+        try {
+            File file = file(location);
+            if (file == null)
+                return read(script, expanded);
+            String path = file.getCanonicalPath();
+            long lastModified = file.lastModified();
+            long length = file.length();
+            FileSchema cached = files.getIfPresent(path);
+            if (cached != null && cached.lastModified == lastModified
+                    && cached.length == length)
+                return cached.schema;
+            JsonNode schema = read(script, UnRAVL.REDIRECT_PREFIX + path);
+            files.put(path, new FileSchema(lastModified, length, schema));
+            if (cached != null)
+                logger.info("Reloaded changed JSON schema " + path);
+            return schema;
+        } catch (IOException e) {
+            throw new UnRAVLException(String.format(
+                    "Unable to load schema from @ reference %s", reference), e);
+        }
+    }
+
+    // the file a location names, or null if it is not a file
+    private static File file(String location) {
+        try {
+            URL url = new URL(location);
+            if (!"file".equals(url.getProtocol()))
+                return null;
+            return new File(url.toURI());
+        } catch (MalformedURLException e) {
+            File file = new File(location);
+            return file.exists() ? file : null; // else a class path resource
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static JsonNode read(UnRAVL script, String reference)
+            throws IOException, UnRAVLException {
+        Text text = new Text(script, new TextNode(reference));
+        return Json.parse(text.text());
+    }
+
+    /**
+     * Return the compiled form of a JSON schema, checking its syntax and
+     * compiling it only if an equal schema is not already cached
+     *
+     * @param schema
+     *            the JSON schema
+     * @return the compiled schema
+     * @throws UnRAVLException
+     *             if the schema is not a valid JSON schema
+     */
+    public JsonSchema compile(JsonNode schema) throws UnRAVLException {
+        JsonSchema result = compiled.getIfPresent(schema);
+        if (result != null) {
+            hits.incrementAndGet();
+            return result;
+        }
+        // copy the key, so that changing a bound schema later does not
+        // change the cache
+        final JsonNode key = schema.deepCopy();
+        try {
+            return compiled.get(key, new Callable<JsonSchema>() {
+                @Override
+                public JsonSchema call() throws UnRAVLException,
+                        ProcessingException {
+                    misses.incrementAndGet();
+                    JsonSchemaFactory factory = Factory.factory;
+                    ProcessingReport report = factory.getSyntaxValidator()
+                            .validateSchema(key);
+                    if (!report.isSuccess())
+                        throw new UnRAVLException("JSON schema is invalid: "
+                                + report);
+                    return factory.getJsonSchema(key);
+                }
+            });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnRAVLException)
+                throw (UnRAVLException) e.getCause();
+            throw new UnRAVLException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the number of times {@link #compile(JsonNode)} found the schema
+     *         in the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of times {@link #compile(JsonNode)} compiled a
+     *         schema
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Remove all schemas from the cache
+     */
+    public void clear() {
+        compiled.invalidateAll();
+        files.invalidateAll();
+    }
+}
@@ -2,21 +2,27 @@ package com.sas.unravl.assertions;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.TextNode;
 import com.github.fge.jsonschema.core.exceptions.ProcessingException;
 import com.github.fge.jsonschema.core.report.ProcessingReport;
 import com.github.fge.jsonschema.main.JsonSchema;
-import com.github.fge.jsonschema.main.JsonSchemaFactory;
-import com.github.fge.jsonschema.processors.syntax.SyntaxValidator;
 import com.sas.unravl.ApiCall;
 import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLAssertionPlugin;
-import com.sas.unravl.generators.Text;
 import com.sas.unravl.util.Json;
 
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Asserts that one or more JSON structures conform to a JSON schema. There are
@@ -53,34 +59,62 @@ import java.util.Iterator;
  * TThe assertion fails if any value does not conform to the JSON schema, or if
  * the elements do not have the forms described above or if the referenced JSON
  * schema is not a valid schema.
+ * <p>
+ * Schemas are compiled once and cached by {@link JsonSchemas}, and the values
+ * of a <code>"values"</code> array are validated in parallel.
  * 
  * @author David.Biesack@sas.com
  */
 @UnRAVLAssertionPlugin("schema")
 public class SchemaAssertion extends BaseUnRAVLAssertion {
 
+    // Validates the values of one assertion in parallel. The threads are
+    // daemons, created on demand, and exit after a minute of idleness.
+    private static final ExecutorService validators = validators();
+
+    private static ExecutorService validators() {
+        int n = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(n, n, 60L,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "unravl-schema-"
+                                + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
     @Override
     public void check(UnRAVL current, ObjectNode assertion, Stage when,
             ApiCall call) throws UnRAVLAssertionException, UnRAVLException {
         super.check(current, assertion, when, call);
         JsonNode schemaRef = Json.firstFieldValue(assertion);
         JsonNode jsonSchema = resolveSchema(current, schemaRef);
-        JsonSchema validatingSchema = validateSchema(jsonSchema);
+        JsonSchema validatingSchema = JsonSchemas.getInstance().compile(
+                jsonSchema);
         JsonNode values = assertion.get("values");
         if (values == null) {
             values = assertion.get("value");
         }
         if (values == null) {
-            JsonNode responseBody = Json.parse(Text.utf8ToString(call
-                    .getResponseBody().toByteArray()));
+            JsonNode responseBody = call.getResponse().json();
             validateValueAgainstSchema(responseBody, validatingSchema);
         } else if (values.isArray()) {
+            List<JsonNode> nodes = new ArrayList<JsonNode>(values.size());
             Iterator<JsonNode> iter = values.elements();
             while (iter.hasNext()) {
-                assertSchema(call, validatingSchema, iter.next());
+                nodes.add(value(call, iter.next()));
             }
+            validateValuesAgainstSchema(nodes, validatingSchema);
         } else if (values.isTextual()) {
-            assertSchema(call, validatingSchema, values);
+            validateValueAgainstSchema(value(call, values), validatingSchema);
         } else { // Should we allow an object or array and validate it?
             throw new UnRAVLException(String.format(
                     "Value '%s' is not a variable name in schema assertion",
@@ -89,14 +123,19 @@ public class SchemaAssertion extends BaseUnRAVLAssertion {
         return;
     }
 
-    private void assertSchema(ApiCall call, JsonSchema validatingSchema,
-            JsonNode item) throws UnRAVLException {
+    // Return the JSON value of the variable named by item
+    private JsonNode value(ApiCall call, JsonNode item) throws UnRAVLException {
         if (!item.isTextual())
             throw new UnRAVLException(String.format(
                     "Value '%s' is not a variable name in schema assertion",
                     item));
         String varName = item.textValue();
-        validateVarAgainstSchema(call, varName, validatingSchema);
+        Object value = call.getScript().binding(varName);
+        if (value == null || !(value instanceof JsonNode)) {
+            throw new UnRAVLException(
+                    "responseBody is not a JSON value in schema assertion");
+        }
+        return (JsonNode) value;
     }
 
     private JsonNode resolveSchema(UnRAVL current, JsonNode schemaRef)
@@ -106,17 +145,7 @@ public class SchemaAssertion extends BaseUnRAVLAssertion {
         if (schemaRef.isTextual()) {
             String request = schemaRef.textValue();
             if (request.startsWith(UnRAVL.REDIRECT_PREFIX)) {
-                Text text;
-                try {
-                    TextNode expanded = new TextNode(current.expand(schemaRef
-                            .textValue()));
-                    text = new Text(current, expanded);
-                    jsonSchema = Json.parse(text.text());
-                } catch (IOException e) {
-                    throw new UnRAVLException(String.format(
-                            "Unable to load schema from @ reference %s",
-                            schemaRef.textValue()), e);
-                }
+                jsonSchema = JsonSchemas.getInstance().load(current, request);
             } else {
                 Object val = current.binding(request);
                 if (val instanceof JsonNode) {
@@ -135,36 +164,39 @@ public class SchemaAssertion extends BaseUnRAVLAssertion {
         return jsonSchema;
     }
 
-    private JsonSchema validateSchema(JsonNode jsonSchema)
-            throws UnRAVLException {
-
-        try {
-            final JsonSchemaFactory factory = JsonSchemaFactory.byDefault();
-            final JsonSchema schema = factory.getJsonSchema(jsonSchema);
-            SyntaxValidator syntaxValidator = factory.getSyntaxValidator();
-            if (!syntaxValidator.schemaIsValid(jsonSchema)) {
-                throw new UnRAVLException("JSON schema is invalid");
-            }
-            ProcessingReport report = syntaxValidator
-                    .validateSchema(jsonSchema);
-            boolean success = report.isSuccess();
-            if (!success) {
-                throw new UnRAVLAssertionException(report.toString());
-            }
-            return schema;
-        } catch (ProcessingException e) {
-            throw new UnRAVLException(e);
+    // Validate several values in parallel. If more than one is invalid,
+    // report the first, so the result does not depend on thread timing.
+    private void validateValuesAgainstSchema(List<JsonNode> nodes,
+            final JsonSchema schema) throws UnRAVLException {
+        if (nodes.size() < 2) {
+            for (JsonNode node : nodes)
+                validateValueAgainstSchema(node, schema);
+            return;
         }
-    }
-
-    private void validateVarAgainstSchema(ApiCall call, String varName,
-            JsonSchema jsonSchema) throws UnRAVLException {
-        Object value = call.getScript().binding(varName);
-        if (value == null || !(value instanceof JsonNode)) {
-            throw new UnRAVLException(
-                    "responseBody is not a JSON value in schema assertion");
+        List<Future<Void>> results = new ArrayList<Future<Void>>(nodes.size());
+        for (final JsonNode node : nodes) {
+            results.add(validators.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws UnRAVLException {
+                    validateValueAgainstSchema(node, schema);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> result : results)
+                result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnRAVLException("Interrupted while validating values", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnRAVLException)
+                throw (UnRAVLException) e.getCause();
+            throw new UnRAVLException(e.getCause());
+        } finally {
+            for (Future<Void> result : results)
+                result.cancel(false);
         }
-        validateValueAgainstSchema((JsonNode) value, jsonSchema);
     }
 
     private void validateValueAgainstSchema(JsonNode node, JsonSchema schema)
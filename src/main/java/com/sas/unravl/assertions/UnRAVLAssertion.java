@@ -27,6 +27,15 @@ import com.sas.unravl.UnRAVLPlugins;
  * <p>
  * Assertions should extend {@link BaseUnRAVLAssertion} and their check() method
  * should invoke super.check(script,node)
+ * <p>
+ * Thread safety: a new assertion instance is created (via the
+ * {@link com.sas.unravl.PluginFactory} registered for its key) each time an
+ * assertion is run, and that instance is used only by the thread running the
+ * API call, so assertions may keep per-use state in instance fields without
+ * synchronization. Assertions must not keep mutable state in static fields,
+ * since scripts may run concurrently (see
+ * {@link com.sas.unravl.UnRAVLRuntime#setParallelism(int)}). Assertion classes
+ * must be public and have a public no-argument constructor.
  *
  * @author David.Biesack@sas.com
  */
@@ -7,6 +7,7 @@ import com.fasterxml.jackson.databind.node.TextNode;
 import com.sas.unravl.ApiCall;
 import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLPlugins;
 import com.sas.unravl.annotations.UnRAVLAuthPlugin;
 import com.sas.unravl.assertions.UnRAVLAssertionException;
 import com.sas.unravl.generators.Binary;
@@ -24,11 +25,10 @@ import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicHeader;
 import org.apache.log4j.Logger;
 
@@ -159,30 +159,28 @@ public class CentralAuthenticationServiceAuth extends BaseUnRAVLAuth {
             URISyntaxException, ClientProtocolException, IOException {
         if (mock)
             return "ST-18-umUeNL4yUkWHES2VdtKki5mFzatga43kNNCe3niguLWaUxl1aK-cas";
-        CloseableHttpClient httpclient = HttpClients.createDefault();
-        try {
-            // TODO: make this call via UnRAVL, not HttpPost
-            HttpPost post = new HttpPost();
-            post.setURI(new URI(tgt));
-            Header requestHeaders[] = new Header[] { new BasicHeader(
-                    "Content-Type", "text/plain") };
-            post.setHeaders(requestHeaders);
-            String body = "service=" + Text.urlEncode(uri.toString());
-            HttpEntity entity = new StringEntity(body);
-            post.setEntity(entity);
-            ResponseHandler<HttpResponse> responseHandler = new CasAuthResponseHandler();
-            HttpResponse response = httpclient.execute(post, responseHandler);
-            // TODO: If we get back a response that indicates a timed out
-            // TGT, we should login again.
-            int status = response.getStatusLine().getStatusCode();
-            if (status != 200)
-                throw new UnRAVLException("Cannot get Service Ticket for "
-                        + uri + ", response returned " + status);
-            String st = Text.utf8ToString(responseBody.toByteArray());
-            return st;
-        } finally {
-            httpclient.close();
-        }
+        HttpClient httpclient = getScript().getRuntime().getPlugins()
+                .getHttpClient();
+        // TODO: make this call via UnRAVL, not HttpPost
+        HttpPost post = new HttpPost();
+        post.setURI(new URI(tgt));
+        Header requestHeaders[] = new Header[] { new BasicHeader(
+                "Content-Type", "text/plain") };
+        post.setHeaders(requestHeaders);
+        String body = "service=" + Text.urlEncode(uri.toString());
+        HttpEntity entity = new StringEntity(body);
+        post.setEntity(entity);
+        ResponseHandler<HttpResponse> responseHandler = new CasAuthResponseHandler();
+        HttpResponse response = httpclient.execute(post, responseHandler,
+                UnRAVLPlugins.newHttpContext());
+        // TODO: If we get back a response that indicates a timed out
+        // TGT, we should login again.
+        int status = response.getStatusLine().getStatusCode();
+        if (status != 200)
+            throw new UnRAVLException("Cannot get Service Ticket for "
+                    + uri + ", response returned " + status);
+        String st = Text.utf8ToString(responseBody.toByteArray());
+        return st;
     }
 
     private String logon(URI logonURI, ObjectNode auth) throws UnRAVLException,
@@ -211,40 +209,38 @@ public class CentralAuthenticationServiceAuth extends BaseUnRAVLAuth {
                 return tgt;
             }
         }
-        CloseableHttpClient httpclient = HttpClients.createDefault();
-        try {
-            HttpPost post = new HttpPost();
-            Header requestHeaders[] = new Header[] { new BasicHeader(
-                    "Content-Type", "application/x-www-form-urlencoded") };
-            String u = Text.urlEncode(user);
-            String p = Text.urlEncode(credentials.getPassword());
-            String body = String.format("username=%s&password=%s", u, p);
-            // security: don't hold onto credentials in memory
-            credentials.clear();
-            credentials = null;
-            p = null;
-            post.setURI(logonURI);
-            post.setHeaders(requestHeaders);
-            post.setEntity(new StringEntity(body));
-            ResponseHandler<HttpResponse> responseHandler = new CasAuthResponseHandler();
-            HttpResponse response = httpclient.execute(post, responseHandler);
-            // security: don't hold onto credentials in memory
-            body = null;
-            int status = response.getStatusLine().getStatusCode();
-            if (status != 201)
-                throw new UnRAVLException("Cannot login via " + logonURI
-                        + ", response: " + response.getStatusLine());
-            Header location = response.getFirstHeader("Location");
-            if (location == null)
-                throw new UnRAVLException("Cannot login via " + logonURI
-                        + ", no Location header returned.");
+        HttpClient httpclient = getScript().getRuntime().getPlugins()
+                .getHttpClient();
+        HttpPost post = new HttpPost();
+        Header requestHeaders[] = new Header[] { new BasicHeader(
+                "Content-Type", "application/x-www-form-urlencoded") };
+        String u = Text.urlEncode(user);
+        String p = Text.urlEncode(credentials.getPassword());
+        String body = String.format("username=%s&password=%s", u, p);
+        // security: don't hold onto credentials in memory
+        credentials.clear();
+        credentials = null;
+        p = null;
+        post.setURI(logonURI);
+        post.setHeaders(requestHeaders);
+        post.setEntity(new StringEntity(body));
+        ResponseHandler<HttpResponse> responseHandler = new CasAuthResponseHandler();
+        HttpResponse response = httpclient.execute(post, responseHandler,
+                UnRAVLPlugins.newHttpContext());
+        // security: don't hold onto credentials in memory
+        body = null;
+        int status = response.getStatusLine().getStatusCode();
+        if (status != 201)
+            throw new UnRAVLException("Cannot login via " + logonURI
+                    + ", response: " + response.getStatusLine());
+        Header location = response.getFirstHeader("Location");
+        if (location == null)
+            throw new UnRAVLException("Cannot login via " + logonURI
+                    + ", no Location header returned.");
 
-            tgt = location.getValue();
-            bindTGT(tgt, logonURI, user);
-            return tgt;
-        } finally {
-            httpclient.close();
-        }
+        tgt = location.getValue();
+        bindTGT(tgt, logonURI, user);
+        return tgt;
     }
 
     private class CasAuthResponseHandler implements
@@ -2,7 +2,6 @@
 package com.sas.unravl.auth;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 import com.sas.unravl.ApiCall;
@@ -290,9 +289,8 @@ public class OAuth2Auth extends BaseUnRAVLAuth {
                 .bind("password", creds.getPassword())
                 .bind(ACCESS_TOKEN_JSON_PATH_KEY, accessTokenJsonPath);
         // @formatter:on
-        ObjectMapper mapper = new ObjectMapper();
         try (InputStream in = openScriptStream(oAuthScriptResourcePath)) {
-            ObjectNode accessAuthJson = (ObjectNode) mapper.readTree(in);
+            ObjectNode accessAuthJson = (ObjectNode) Json.parse(in);
             UnRAVL oathAccessTokenScript = new UnRAVL(tokenRuntime,
                     accessAuthJson);
             oathAccessTokenScript.run();
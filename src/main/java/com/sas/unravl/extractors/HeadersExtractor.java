@@ -10,6 +10,7 @@ import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
 import com.sas.unravl.assertions.UnRAVLAssertionException;
 import com.sas.unravl.util.Json;
+import com.sas.unravl.util.Patterns;
 
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -156,7 +157,7 @@ public class HeadersExtractor extends BaseUnRAVLExtractor {
         String varName;
         {
             String regex = current.expand(a.get(offset + 1).textValue());
-            Pattern pattern = Pattern.compile(regex);
+            Pattern pattern = Patterns.compile(regex);
             Matcher matcher = pattern.matcher(headerValue);
             if (matcher.matches()) {
                 for (int i = 1, v = offset + 2; i <= matcher.groupCount()
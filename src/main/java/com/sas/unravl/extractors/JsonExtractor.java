@@ -6,7 +6,6 @@ import com.sas.unravl.ApiCall;
 import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
-import com.sas.unravl.generators.Text;
 import com.sas.unravl.util.Json;
 
 import org.apache.log4j.Logger;
@@ -55,9 +54,8 @@ public class JsonExtractor extends BaseUnRAVLExtractor {
             throw new UnRAVLException(
                     "json binding value must be a var name or a @file-name string");
         String to = target.textValue();
-        JsonNode json = Json.parse(Text.utf8ToString(call.getResponseBody()
-                .toByteArray()));
-        Object result = unwrap ? Json.unwrap(json) : json;
+        JsonNode json = call.getResponse().json();
+        Object result = unwrap ? call.getResponse().unwrapped() : json;
         current.bind("responseBody", result);
         if (to.startsWith(UnRAVL.REDIRECT_PREFIX)) {
             String where = to.substring(UnRAVL.REDIRECT_PREFIX.length());
@@ -1,17 +1,16 @@
 package com.sas.unravl.extractors;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.jayway.jsonpath.JsonPath;
 import com.sas.unravl.ApiCall;
 import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
-import com.sas.unravl.generators.Text;
 import com.sas.unravl.util.Json;
+import com.sas.unravl.util.JsonPaths;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -65,6 +64,11 @@ import org.apache.log4j.Logger;
  * variable instead of the current API call's response body. The from value can
  * be a value assigned by another extractor or defined in the "env" element.
  * </p>
+ * <p>
+ * Paths are evaluated directly on the parsed JSON (see {@link JsonPaths}), so
+ * only the selected values are converted to Java objects, not the whole
+ * document.
+ * </p>
  *
  * @author David.Biesack@sas.com
  */
@@ -74,8 +78,6 @@ public class JsonPathExtractor extends JsonExtractor {
     private static final Logger logger = Logger
             .getLogger(JsonPathExtractor.class);
 
-    private ObjectMapper mapper = new ObjectMapper();
-
     @Override
     public void extract(UnRAVL script, ObjectNode scriptlet, ApiCall call)
             throws UnRAVLException {
@@ -86,6 +88,8 @@ public class JsonPathExtractor extends JsonExtractor {
         // in inherited templates (match only if the value is {}). If true, wrap
         // this one as well.
         boolean wrap = booleanOption(scriptlet, "wrap");
+        List<String> names = new ArrayList<String>();
+        List<String> paths = new ArrayList<String>();
         for (Map.Entry<String, JsonNode> entry : Json.fields(bindings)) {
             JsonNode path = entry.getValue();
             if (!path.isTextual()) {
@@ -93,12 +97,25 @@ public class JsonPathExtractor extends JsonExtractor {
                         "JsonPath extractor requires string path values, found "
                                 + path);
             }
-            String pathString = call.getScript().expand(path.textValue());
-            Object value = JsonPath.read(fromObject, pathString);
-            if (wrap) {
+            names.add(entry.getKey());
+            paths.add(call.getScript().expand(path.textValue()));
+        }
+        List<Object> values;
+        if (fromObject instanceof JsonNode) {
+            // Evaluate on the tree; convert only the selected values
+            values = JsonPaths.read((JsonNode) fromObject, paths);
+        } else {
+            values = new ArrayList<Object>(paths.size());
+            for (String path : paths)
+                values.add(JsonPaths.compile(path).read(fromObject));
+        }
+        for (int i = 0; i < names.size(); i++) {
+            Object value = values.get(i);
+            if (wrap)
                 value = Json.wrap(value);
-            }
-            script.bind(entry.getKey(), value);
+            else if (value instanceof JsonNode)
+                value = Json.unwrap(value);
+            script.bind(names.get(i), value);
         }
     }
 
@@ -109,10 +126,9 @@ public class JsonPathExtractor extends JsonExtractor {
         if (from == null) {
             // assert response body is valid JSON; extract JSON into
             // responseBody
-            from = Json.parse(Text.utf8ToString(call.getResponseBody()
-                    .toByteArray()));
+            from = call.getResponse().json();
             script.bind("responseBody", from);
-            fromObject = Json.unwrap(from);
+            fromObject = from;
         } else {
             if (from.isTextual()) {
                 Object val = script.binding(from.textValue());
@@ -120,12 +136,9 @@ public class JsonPathExtractor extends JsonExtractor {
                     fromObject = val;
                 else if (val instanceof List)
                     fromObject = val;
-                else if (val instanceof ObjectNode) {
-                    fromObject = mapper.convertValue((ObjectNode) val,
-                            Map.class);
-                } else if (val instanceof ArrayNode) {
-                    fromObject = mapper.convertValue((ObjectNode) val,
-                            List.class);
+                else if (val instanceof ObjectNode
+                        || val instanceof ArrayNode) {
+                    fromObject = val;
                 } else {
                     String msg = String
                             .format("Variable named by 'from' value %s in %s extractor is not an object or array. Value is %s",
@@ -9,6 +9,7 @@ import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLExtractorPlugin;
 import com.sas.unravl.util.Json;
+import com.sas.unravl.util.Patterns;
 
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -462,7 +463,7 @@ public class LinksExtractor extends BaseUnRAVLExtractor {
     private boolean matches(ObjectNode root, JsonNode actual, JsonNode expected)
             throws UnRAVLException {
         if (actual.isTextual() && expected.isTextual()) {
-            Pattern p = Pattern.compile(expected.textValue());
+            Pattern p = Patterns.compile(expected.textValue());
             return p.matcher(actual.textValue()).matches();
         }
         throw new UnRAVLException(String.format(
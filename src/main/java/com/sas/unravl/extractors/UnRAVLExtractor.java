@@ -10,6 +10,14 @@ import com.sas.unravl.UnRAVLException;
  * API response body, status code, or headers and store those values in the
  * UnRAVL script's environment or elsewhere, such as in a file. Implementors
  * should extend {@link BaseUnRAVLExtractor}.
+ * <p>
+ * Thread safety: a new extractor instance is created (via the
+ * {@link com.sas.unravl.PluginFactory} registered for its key) for each
+ * extractor in a "bind" element, and that instance is used only by the thread
+ * running the API call. Extractors may therefore keep per-use state in instance
+ * fields, but must not keep mutable state in static fields, since scripts may
+ * run concurrently. Extractor classes must be public and have a public
+ * no-argument constructor.
  * 
  * @author David.Biesack@sas.com
  *
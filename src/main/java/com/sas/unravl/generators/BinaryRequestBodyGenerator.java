@@ -1,5 +1,6 @@
 package com.sas.unravl.generators;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.sas.unravl.ApiCall;
 import com.sas.unravl.UnRAVL;
@@ -7,6 +8,8 @@ import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.annotations.UnRAVLRequestBodyGeneratorPlugin;
 import com.sas.unravl.util.Json;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -26,6 +29,15 @@ import java.io.InputStream;
  * <p>
  * The resulting <code>byte[]</code> is bound to the current environment as
  * <code>"requestBody"</code>.
+ * </p>
+ * <p>
+ * A body which is a single <code>"@file"</code> reference to a local file of
+ * at least <code>unravl.body.stream.bytes</code> bytes (a system property,
+ * default 1MB) is not read into memory. It is sent from the file as the
+ * request is written, with a <code>Content-Length</code> of the file's size,
+ * and the {@link File} is bound as <code>"requestBody"</code> instead of a
+ * <code>byte[]</code>.
+ * </p>
  *
  * @author David.Biesack@sas.com
  *
@@ -33,13 +45,36 @@ import java.io.InputStream;
 @UnRAVLRequestBodyGeneratorPlugin("binary")
 public class BinaryRequestBodyGenerator extends BaseUnRAVLRequestBodyGenerator {
 
+    /** The default size from which file bodies are streamed, in bytes */
+    public static final long DEFAULT_STREAM_BYTES = 1024L * 1024L;
+
+    private static final long streamBytes = Long.getLong(
+            "unravl.body.stream.bytes", DEFAULT_STREAM_BYTES);
+
     @Override
     public InputStream getBody(UnRAVL script, ObjectNode bodySpec, ApiCall call)
             throws IOException, UnRAVLException {
+        File file = streamedFile(script, bodySpec.get("binary"));
+        if (file != null) {
+            script.bind("requestBody", file);
+            return new FileRequestBody(file);
+        }
         Binary binary = new Binary(script, Json.object(bodySpec), "binary");
         byte requestBody[] = binary.bytes();
         script.bind("requestBody", requestBody);
-        return binary.stream();
+        return new ByteArrayInputStream(requestBody);
+    }
+
+    // The large local file which the body spec names, or null
+    private static File streamedFile(UnRAVL script, JsonNode spec) {
+        if (spec == null || !spec.isTextual()
+                || !spec.textValue().startsWith(UnRAVL.REDIRECT_PREFIX))
+            return null;
+        String path = script.expand(spec.textValue().substring(
+                UnRAVL.REDIRECT_PREFIX.length()));
+        File file = Resources.localFile(path);
+        return file != null && file.isFile() && file.length() >= streamBytes ? file
+                : null;
     }
 
 }
@@ -0,0 +1,152 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.generators;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A request body which is read from a file as it is sent, so that large
+ * uploads do not need to fit in memory. The file is opened on first use.
+ * <p>
+ * {@link #writeTo(OutputStream)} sends the rest of the file with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which lets
+ * the JVM move the bytes without copying them through the Java heap where
+ * it can. {@link #remaining()} gives the length for a
+ * <code>Content-Length</code> header. The stream supports
+ * {@link #mark(int)} and {@link #reset()} with no limit, by seeking, so
+ * the body can be inspected and then sent.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public class FileRequestBody extends InputStream {
+
+    private final File file;
+    private FileChannel channel;
+    private long mark;
+
+    /**
+     * @param file
+     *            the file to send
+     */
+    public FileRequestBody(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the file this body is read from
+     */
+    public File getFile() {
+        return file;
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null)
+            channel = new RandomAccessFile(file, "r").getChannel();
+        return channel;
+    }
+
+    /**
+     * @return the number of bytes left to read or send
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public long remaining() throws IOException {
+        FileChannel c = channel();
+        return Math.max(c.size() - c.position(), 0L);
+    }
+
+    /**
+     * Send the rest of the file, then close this stream
+     *
+     * @param out
+     *            where to write the body
+     * @return the number of bytes written
+     * @throws IOException
+     *             if the file cannot be read or out cannot be written
+     */
+    public long writeTo(OutputStream out) throws IOException {
+        try {
+            FileChannel c = channel();
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = c.position(), size = c.size(), total = 0L;
+            while (position < size) {
+                long n = c.transferTo(position, size - position, target);
+                if (n <= 0)
+                    break;
+                position += n;
+                total += n;
+            }
+            c.position(position);
+            out.flush();
+            return total;
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte b[] = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        return channel().read(ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        FileChannel c = channel();
+        long skipped = Math.min(Math.max(n, 0L), remaining());
+        c.position(c.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(remaining(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        try {
+            mark = channel().position();
+        } catch (IOException e) {
+            mark = 0L;
+        }
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        channel().position(mark);
+    }
+
+    /**
+     * Close the file. The body may be read again from the last mark (or the
+     * start), after {@link #reset()}, which reopens it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            FileChannel c = channel;
+            channel = null;
+            c.close();
+        }
+    }
+}
@@ -70,8 +70,8 @@ public class JsonRequestBodyGenerator extends BaseUnRAVLRequestBodyGenerator {
                             json));
         }
         script.bind("requestBody", body);
-        String jsonText = body.toString();
-        return new ByteArrayInputStream(Text.utf8(jsonText));
+        // encode directly to UTF-8, without an intermediate String
+        return new ByteArrayInputStream(Json.writer().writeValueAsBytes(body));
     }
 
 }
@@ -0,0 +1,254 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.generators;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide cache of the content of <code>@</code> references: the
+ * files, URLs and class path resources which {@link Text} and {@link Binary}
+ * read for request bodies, expected responses and schemas.
+ * <p>
+ * Files, including class path resources in directories, are keyed by
+ * canonical path and read again when their modification time or size
+ * changes. Resources in jars (<code>jar:</code> URLs) do not change while
+ * running, so they are read once. Other URLs, such as <code>http:</code>
+ * URLs, are read on every use.
+ * </p>
+ * <p>
+ * The cache is bounded by the total size of its entries, set with the system
+ * property <code>unravl.resource.cache.bytes</code> (default 64MB); the least
+ * recently used entries are evicted first. Files larger than a quarter of
+ * that are not cached; they are read again on each use. Files are read
+ * through a {@link FileChannel} into an array of exactly their size, so that
+ * their content is not copied.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class Resources {
+
+    /** The default maximum total size of the cached content, in bytes */
+    public static final long DEFAULT_CACHE_BYTES = 64L * 1024L * 1024L;
+
+    private static final int BUFSIZE = 8192;
+
+    private static final long cacheBytes = Long.getLong(
+            "unravl.resource.cache.bytes", DEFAULT_CACHE_BYTES);
+
+    /** The content of one resource, and the state of its file if any */
+    private static final class Content {
+        private final byte[] bytes;
+        private final long lastModified;
+        private final long length;
+        private volatile String text;
+
+        Content(byte[] bytes, long lastModified, long length) {
+            this.bytes = bytes;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        String text() {
+            String t = text;
+            if (t == null)
+                text = t = new String(bytes, Text.UTF_8);
+            return t;
+        }
+    }
+
+    private static final Cache<String, Content> CONTENT = CacheBuilder
+            .newBuilder().maximumWeight(cacheBytes)
+            .weigher(new Weigher<String, Content>() {
+                @Override
+                public int weigh(String key, Content content) {
+                    // the bytes, and the decoded text (2 bytes per char)
+                    return content.bytes.length * 3;
+                }
+            }).build();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private Resources() {
+    }
+
+    /**
+     * Read the content of a file, URL or class path resource
+     *
+     * @param fileOrURL
+     *            a URL, file name, or class path resource name
+     * @return the content. The array may be shared, so do not modify it.
+     * @throws IOException
+     *             if there is no such resource or it cannot be read
+     */
+    public static byte[] bytes(String fileOrURL) throws IOException {
+        return content(fileOrURL).bytes;
+    }
+
+    /**
+     * Read the content of a file, URL or class path resource as UTF-8 text
+     *
+     * @param fileOrURL
+     *            a URL, file name, or class path resource name
+     * @return the text
+     * @throws IOException
+     *             if there is no such resource or it cannot be read
+     */
+    public static String text(String fileOrURL) throws IOException {
+        return content(fileOrURL).text();
+    }
+
+    /**
+     * Return the local file which a reference names, if any
+     *
+     * @param fileOrURL
+     *            a URL, file name, or class path resource name
+     * @return the file named by a file name, a <code>file:</code> URL, or a
+     *         class path resource in a directory; or null if the reference
+     *         does not name a local file
+     */
+    public static File localFile(String fileOrURL) {
+        try {
+            return file(new URL(fileOrURL));
+        } catch (MalformedURLException e) {
+            File f = new File(fileOrURL);
+            if (f.exists())
+                return f;
+            URL url = Resources.class.getResource(fileOrURL);
+            return url == null ? null : file(url);
+        }
+    }
+
+    private static Content content(String fileOrURL) throws IOException {
+        File file = localFile(fileOrURL);
+        if (file != null)
+            return file(file);
+        URL url;
+        try {
+            url = new URL(fileOrURL);
+        } catch (MalformedURLException e) {
+            url = Resources.class.getResource(fileOrURL);
+        }
+        if (url == null)
+            throw new IOException("No such file or URL " + fileOrURL);
+        String protocol = url.getProtocol();
+        if (!"jar".equals(protocol)) {
+            misses.incrementAndGet();
+            return new Content(read(url.openStream()), 0L, 0L);
+        }
+        String key = url.toExternalForm();
+        Content content = CONTENT.getIfPresent(key);
+        if (content != null) {
+            hits.incrementAndGet();
+            return content;
+        }
+        misses.incrementAndGet();
+        content = new Content(read(url.openStream()), 0L, 0L);
+        cache(key, content);
+        return content;
+    }
+
+    private static Content file(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        Content content = CONTENT.getIfPresent(key);
+        if (content != null && content.lastModified == lastModified
+                && content.length == length) {
+            hits.incrementAndGet();
+            return content;
+        }
+        misses.incrementAndGet();
+        content = new Content(read(file), lastModified, length);
+        cache(key, content);
+        return content;
+    }
+
+    private static void cache(String key, Content content) {
+        if (content.bytes.length * 3L <= cacheBytes / 4L)
+            CONTENT.put(key, content);
+        else
+            CONTENT.invalidate(key);
+    }
+
+    // Read a file into an array of its size, with no intermediate copies
+    private static byte[] read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8)
+                throw new IOException("File " + file + " is too large");
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining())
+                if (channel.read(buffer) < 0)
+                    break;
+            // the file may have been truncated while it was read
+            return buffer.hasRemaining() ? Arrays.copyOf(buffer.array(),
+                    buffer.position()) : buffer.array();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(BUFSIZE);
+            byte buffer[] = new byte[BUFSIZE];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+                out.write(buffer, 0, n);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    // the file a file: URL names, or null
+    private static File file(URL url) {
+        if (!"file".equals(url.getProtocol()))
+            return null;
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of reads which used cached content
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of reads which read a resource
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Remove all content from the cache
+     */
+    public static void clear() {
+        CONTENT.invalidateAll();
+    }
+}
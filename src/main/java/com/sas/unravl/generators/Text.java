@@ -5,17 +5,10 @@ import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.util.Json;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 
@@ -51,7 +44,6 @@ import java.nio.charset.Charset;
  */
 public class Text implements CharSequence {
 
-    private static final int BUFSIZE = 256;
     public static final Charset UTF_8 = Charset.forName("UTF-8");
     StringBuilder text = new StringBuilder();
     private final UnRAVL script;
@@ -102,28 +94,7 @@ public class Text implements CharSequence {
     }
 
     private void buildFromStream(String fileOrURL) throws IOException {
-        InputStream is = null;
-        try {
-            URL url = new URL(fileOrURL);
-            is = url.openStream();
-        } catch (MalformedURLException e) {
-            File f = new File(fileOrURL);
-            if (f.exists()) {
-                is = new FileInputStream(f);
-            } else {
-                is = getClass().getResourceAsStream(fileOrURL);
-            }
-        }
-        if (is == null) {
-            throw new IOException("No such file or URL " + fileOrURL);
-        }
-        Reader r = new InputStreamReader(is, UTF_8);
-        char buffer[] = new char[BUFSIZE];
-        BufferedReader br = new BufferedReader(r);
-        for (int n = br.read(buffer, 0, BUFSIZE); n > 0; n = br.read(buffer, 0,
-                BUFSIZE))
-            text.append(buffer, 0, n);
-        br.close();
+        text.append(Resources.text(fileOrURL));
     }
 
     public Reader reader() {
@@ -0,0 +1,47 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count which only increases, such as the number of calls of a script.
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class Counter extends Metric {
+
+    private final AtomicLong count = new AtomicLong();
+    private final Source source;
+
+    Counter(String name, String labels, Source source) {
+        super(name, labels);
+        this.source = source;
+    }
+
+    /** Add one to the count */
+    public void inc() {
+        count.incrementAndGet();
+    }
+
+    /**
+     * Add to the count
+     *
+     * @param n
+     *            the amount to add; should not be negative
+     */
+    public void add(long n) {
+        count.addAndGet(n);
+    }
+
+    /**
+     * @return the count
+     */
+    public double get() {
+        return source == null ? count.get() : source.value();
+    }
+
+    @Override
+    public void collect(Visitor visitor) {
+        visitor.sample(getName(), getLabels(), get());
+    }
+}
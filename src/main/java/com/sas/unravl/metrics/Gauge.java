@@ -0,0 +1,50 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value which goes up and down, such as the number of calls in flight.
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class Gauge extends Metric {
+
+    private final AtomicLong value = new AtomicLong();
+    private final Source source;
+
+    Gauge(String name, String labels, Source source) {
+        super(name, labels);
+        this.source = source;
+    }
+
+    /** Add one to the value */
+    public void inc() {
+        value.incrementAndGet();
+    }
+
+    /** Subtract one from the value */
+    public void dec() {
+        value.decrementAndGet();
+    }
+
+    /**
+     * @param value
+     *            the new value
+     */
+    public void set(long value) {
+        this.value.set(value);
+    }
+
+    /**
+     * @return the value
+     */
+    public double get() {
+        return source == null ? value.get() : source.value();
+    }
+
+    @Override
+    public void collect(Visitor visitor) {
+        visitor.sample(getName(), getLabels(), get());
+    }
+}
@@ -0,0 +1,163 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Exports a {@link MetricsRegistry} as a JMX MBean. Each sample is a read-only
+ * attribute of type double, named like the Prometheus sample, such as
+ * <code>unravl_calls_total{script="a",status="2xx"}</code>. The attributes are
+ * read from the registry each time they are requested, so new metrics appear
+ * as they are created; reading one attribute only collects the metrics of its
+ * family, and reading several collects all the metrics once.
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class JmxExporter implements DynamicMBean {
+
+    /** The default object name of the UnRAVL metrics MBean */
+    public static final String OBJECT_NAME = "com.sas.unravl:type=Metrics";
+
+    private final MetricsRegistry registry;
+    private ObjectName name;
+
+    /**
+     * @param registry
+     *            the metrics to export
+     */
+    public JmxExporter(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Register this MBean with the platform MBean server as
+     * {@value #OBJECT_NAME}, replacing any MBean already registered there
+     *
+     * @return the object name
+     * @throws JMException
+     *             if the MBean cannot be registered
+     */
+    public synchronized ObjectName register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(objectName))
+            server.unregisterMBean(objectName);
+        server.registerMBean(this, objectName);
+        name = objectName;
+        return name;
+    }
+
+    /**
+     * Unregister this MBean, if it is registered
+     *
+     * @throws JMException
+     *             if the MBean cannot be unregistered
+     */
+    public synchronized void unregister() throws JMException {
+        if (name != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            name = null;
+        }
+    }
+
+    // the samples of all the metrics
+    private Map<String, Double> samples() {
+        Samples samples = new Samples();
+        registry.collect(samples);
+        return samples.values;
+    }
+
+    private static final class Samples implements Metric.Visitor {
+        private final Map<String, Double> values = new LinkedHashMap<String, Double>();
+
+        @Override
+        public void family(String name, String help, MetricsRegistry.Type type) {
+        }
+
+        @Override
+        public void sample(String name, String labels, double value) {
+            values.put(labels.length() == 0 ? name : name + "{" + labels + "}",
+                    value);
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute)
+            throws AttributeNotFoundException {
+        // only collect the family the attribute belongs to; a summary's
+        // _count and _sum samples belong to the family without the suffix
+        int brace = attribute.indexOf('{');
+        String family = brace < 0 ? attribute : attribute.substring(0, brace);
+        Samples samples = new Samples();
+        if (!registry.collect(family, samples)) {
+            for (String suffix : new String[] { "_count", "_sum" })
+                if (family.endsWith(suffix)
+                        && registry.collect(family.substring(0,
+                                family.length() - suffix.length()), samples))
+                    break;
+        }
+        Double value = samples.values.get(attribute);
+        if (value == null)
+            throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        // one snapshot for all the attributes
+        Map<String, Double> samples = samples();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Double value = samples.get(attribute);
+            if (value != null)
+                list.add(new Attribute(attribute, value));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute)
+            throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("UnRAVL metrics are read-only: "
+                + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature)
+            throws ReflectionException {
+        // the MBean has no operations
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for (String sample : samples().keySet())
+            attributes.add(new MBeanAttributeInfo(sample, "double", sample,
+                    true, false, false));
+        return new MBeanInfo(getClass().getName(), "UnRAVL metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+                null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,83 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.metrics;
+
+/**
+ * One labeled time series of a metric family in a {@link MetricsRegistry}.
+ * Updating a metric does not lock or allocate, so metrics may be updated on
+ * the hot path of every API call.
+ *
+ * @author David.Biesack@sas.com
+ */
+public abstract class Metric {
+
+    /**
+     * A source for a metric whose value is read when the metric is exported,
+     * such as the size of a connection pool
+     */
+    public interface Source {
+        /**
+         * @return the current value
+         */
+        double value();
+    }
+
+    /** Receives the samples of metrics as they are exported */
+    public interface Visitor {
+        /**
+         * Called before the samples of each metric family
+         *
+         * @param name
+         *            the family name
+         * @param help
+         *            the description of the family
+         * @param type
+         *            the type of the family
+         */
+        void family(String name, String help, MetricsRegistry.Type type);
+
+        /**
+         * Called for each sample
+         *
+         * @param name
+         *            the sample name, such as the family name or, for a
+         *            summary, the family name with a _sum or _count suffix
+         * @param labels
+         *            the label pairs in Prometheus form without braces, such
+         *            as <code>script="a",status="2xx"</code>; may be empty
+         * @param value
+         *            the sample value
+         */
+        void sample(String name, String labels, double value);
+    }
+
+    private final String name;
+    private final String labels;
+
+    Metric(String name, String labels) {
+        this.name = name;
+        this.labels = labels;
+    }
+
+    /**
+     * @return the name of the metric family
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the label pairs of this metric in Prometheus form, without
+     *         braces; empty if the metric has no labels
+     */
+    public String getLabels() {
+        return labels;
+    }
+
+    /**
+     * Pass the samples of this metric to a visitor
+     *
+     * @param visitor
+     *            the visitor
+     */
+    public abstract void collect(Visitor visitor);
+}
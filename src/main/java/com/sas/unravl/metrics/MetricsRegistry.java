@@ -0,0 +1,253 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of metric families. Each family has a name, a description and a type,
+ * and one {@link Metric} per distinct set of label values.
+ * <p>
+ * Looking up or creating a metric locks the registry and builds its label
+ * string, so callers look a metric up once and keep a reference to it; only
+ * updating the metric is done on the hot path. Names follow the Prometheus
+ * conventions: lower case with underscores, counters end in
+ * <code>_total</code> and times are in seconds.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class MetricsRegistry {
+
+    /** The type of a metric family */
+    public enum Type {
+        COUNTER("counter"), GAUGE("gauge"), SUMMARY("summary");
+
+        private final String name;
+
+        private Type(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return the Prometheus name of the type
+         */
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static final class Family {
+        private final String help;
+        private final Type type;
+        private final Map<String, Metric> metrics = new LinkedHashMap<String, Metric>();
+
+        Family(String help, Type type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<String, Family>();
+
+    /**
+     * Get or create a counter
+     *
+     * @param name
+     *            the family name
+     * @param help
+     *            the description of the family
+     * @param labels
+     *            label names and values, alternating
+     * @return the counter
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return counter(name, help, null, labels);
+    }
+
+    /**
+     * Get or create a counter whose value is read from a source
+     *
+     * @param name
+     *            the family name
+     * @param help
+     *            the description of the family
+     * @param source
+     *            the source of the value, or null if the counter is
+     *            incremented
+     * @param labels
+     *            label names and values, alternating
+     * @return the counter
+     */
+    public synchronized Counter counter(String name, String help,
+            Metric.Source source, String... labels) {
+        Map<String, Metric> metrics = family(name, help, Type.COUNTER);
+        String key = labels(labels);
+        Metric m = metrics.get(key);
+        if (m == null) {
+            m = new Counter(name, key, source);
+            metrics.put(key, m);
+        }
+        return (Counter) m;
+    }
+
+    /**
+     * Get or create a gauge
+     *
+     * @param name
+     *            the family name
+     * @param help
+     *            the description of the family
+     * @param labels
+     *            label names and values, alternating
+     * @return the gauge
+     */
+    public Gauge gauge(String name, String help, String... labels) {
+        return gauge(name, help, null, labels);
+    }
+
+    /**
+     * Get or create a gauge whose value is read from a source
+     *
+     * @param name
+     *            the family name
+     * @param help
+     *            the description of the family
+     * @param source
+     *            the source of the value, or null if the gauge is set
+     * @param labels
+     *            label names and values, alternating
+     * @return the gauge
+     */
+    public synchronized Gauge gauge(String name, String help,
+            Metric.Source source, String... labels) {
+        Map<String, Metric> metrics = family(name, help, Type.GAUGE);
+        String key = labels(labels);
+        Metric m = metrics.get(key);
+        if (m == null) {
+            m = new Gauge(name, key, source);
+            metrics.put(key, m);
+        }
+        return (Gauge) m;
+    }
+
+    /**
+     * Get or create a latency summary
+     *
+     * @param name
+     *            the family name, such as
+     *            <code>unravl_call_duration_seconds</code>
+     * @param help
+     *            the description of the family
+     * @param labels
+     *            label names and values, alternating
+     * @return the summary
+     */
+    public synchronized Summary summary(String name, String help,
+            String... labels) {
+        Map<String, Metric> metrics = family(name, help, Type.SUMMARY);
+        String key = labels(labels);
+        Metric m = metrics.get(key);
+        if (m == null) {
+            m = new Summary(name, key);
+            metrics.put(key, m);
+        }
+        return (Summary) m;
+    }
+
+    private Map<String, Metric> family(String name, String help, Type type) {
+        Family f = families.get(name);
+        if (f == null) {
+            f = new Family(help, type);
+            families.put(name, f);
+        } else if (f.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is a "
+                    + f.type.getName() + ", not a " + type.getName());
+        }
+        return f.metrics;
+    }
+
+    /**
+     * Pass all the metrics to a visitor, family by family
+     *
+     * @param visitor
+     *            the visitor
+     */
+    public void collect(Metric.Visitor visitor) {
+        // copy under the lock, then read the values without it
+        Map<String, Family> snapshot;
+        Map<String, List<Metric>> metrics = new LinkedHashMap<String, List<Metric>>();
+        synchronized (this) {
+            snapshot = new LinkedHashMap<String, Family>(families);
+            for (Map.Entry<String, Family> e : families.entrySet())
+                metrics.put(e.getKey(),
+                        new ArrayList<Metric>(e.getValue().metrics.values()));
+        }
+        for (Map.Entry<String, Family> e : snapshot.entrySet())
+            collect(e.getKey(), e.getValue(), metrics.get(e.getKey()), visitor);
+    }
+
+    /**
+     * Pass the metrics of one family to a visitor
+     *
+     * @param name
+     *            the family name
+     * @param visitor
+     *            the visitor
+     * @return true if there is such a family
+     */
+    public boolean collect(String name, Metric.Visitor visitor) {
+        Family f;
+        List<Metric> metrics;
+        synchronized (this) {
+            f = families.get(name);
+            if (f == null)
+                return false;
+            metrics = new ArrayList<Metric>(f.metrics.values());
+        }
+        collect(name, f, metrics, visitor);
+        return true;
+    }
+
+    private static void collect(String name, Family f, List<Metric> metrics,
+            Metric.Visitor visitor) {
+        visitor.family(name, f.help, f.type);
+        for (Metric m : metrics)
+            m.collect(visitor);
+    }
+
+    /**
+     * Format label pairs the way Prometheus does, without braces
+     *
+     * @param labels
+     *            label names and values, alternating
+     * @return the labels, such as <code>script="a",status="2xx"</code>
+     * @throws IllegalArgumentException
+     *             if there is a name without a value
+     */
+    public static String labels(String... labels) {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException(
+                    "Metric labels must be name/value pairs");
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0)
+                b.append(',');
+            b.append(labels[i]).append("=\"");
+            String value = labels[i + 1] == null ? "" : labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"')
+                    b.append('\\').append(c);
+                else if (c == '\n')
+                    b.append("\\n");
+                else
+                    b.append(c);
+            }
+            b.append('"');
+        }
+        return b.toString();
+    }
+}
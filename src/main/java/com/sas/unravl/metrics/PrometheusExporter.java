@@ -0,0 +1,263 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.sas.unravl.generators.Text;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Exports a {@link MetricsRegistry} in the Prometheus text format (version
+ * 0.0.4), either from a local HTTP endpoint which Prometheus can scrape, or
+ * to a file which is rewritten periodically, for the node exporter's textfile
+ * collector.
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class PrometheusExporter {
+
+    private static final Logger logger = Logger
+            .getLogger(PrometheusExporter.class);
+    /** The content type of the Prometheus text format */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry registry;
+    private HttpServer server;
+    private ScheduledExecutorService scheduler;
+    private File file; // written by the scheduler
+
+    /**
+     * @param registry
+     *            the metrics to export
+     */
+    public PrometheusExporter(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Write the metrics in the Prometheus text format
+     *
+     * @param out
+     *            the destination
+     * @throws IOException
+     *             if the output cannot be written
+     */
+    public void write(final Writer out) throws IOException {
+        final IOException error[] = new IOException[1];
+        registry.collect(new Metric.Visitor() {
+            @Override
+            public void family(String name, String help,
+                    MetricsRegistry.Type type) {
+                print("# HELP " + name + " " + help + "\n# TYPE " + name
+                        + " " + type.getName() + "\n");
+            }
+
+            @Override
+            public void sample(String name, String labels, double value) {
+                print(name + (labels.length() == 0 ? "" : "{" + labels + "}")
+                        + " " + format(value) + "\n");
+            }
+
+            private void print(String text) {
+                if (error[0] != null)
+                    return;
+                try {
+                    out.write(text);
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            }
+        });
+        out.flush();
+        if (error[0] != null)
+            throw error[0];
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value))
+            return "NaN";
+        if (Double.isInfinite(value))
+            return value > 0 ? "+Inf" : "-Inf";
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+            return Long.toString((long) value);
+        return String.format(Locale.ROOT, "%.9g", value);
+    }
+
+    /**
+     * @return the metrics in the Prometheus text format
+     */
+    public String scrape() {
+        StringWriter out = new StringWriter();
+        try {
+            write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringWriter does not throw
+        }
+        return out.toString();
+    }
+
+    /**
+     * Write the metrics to a file. The metrics are written to a temporary file
+     * which then replaces the file, so readers never see a partial file.
+     *
+     * @param file
+     *            the destination file
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void writeTo(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        Writer out = new OutputStreamWriter(new FileOutputStream(temp),
+                Text.UTF_8);
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Could not replace " + file);
+            }
+        }
+    }
+
+    /**
+     * Serve the metrics at <code>/metrics</code> on a local HTTP endpoint,
+     * listening only on the loopback interface
+     *
+     * @param port
+     *            the port; 0 to choose a free port
+     * @return the address the endpoint is listening on
+     * @throws IOException
+     *             if the server cannot be started
+     */
+    public InetSocketAddress start(int port) throws IOException {
+        return start(port, false);
+    }
+
+    /**
+     * Serve the metrics at <code>/metrics</code> on an HTTP endpoint
+     *
+     * @param port
+     *            the port; 0 to choose a free port
+     * @param allInterfaces
+     *            if true, listen on all network interfaces, so that a
+     *            Prometheus server on another host can scrape the metrics;
+     *            if false, listen only on the loopback interface
+     * @return the address the endpoint is listening on
+     * @throws IOException
+     *             if the server cannot be started
+     */
+    public synchronized InetSocketAddress start(int port, boolean allInterfaces)
+            throws IOException {
+        if (server != null)
+            throw new IllegalStateException("The metrics endpoint is already running");
+        server = HttpServer.create(allInterfaces ? new InetSocketAddress(port)
+                : new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte body[] = scrape().getBytes(Text.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type",
+                        CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(body);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(daemon("unravl-metrics-http")));
+        server.start();
+        logger.info("Serving metrics at http://"
+                + (allInterfaces ? "*" : "localhost") + ":"
+                + server.getAddress().getPort() + "/metrics");
+        return server.getAddress();
+    }
+
+    /**
+     * Rewrite a metrics file periodically, and once more when this exporter
+     * is closed
+     *
+     * @param file
+     *            the destination file
+     * @param period
+     *            the time between writes
+     * @param unit
+     *            the time unit of period
+     */
+    public synchronized void startFileWriter(final File file, long period,
+            TimeUnit unit) {
+        if (scheduler != null)
+            throw new IllegalStateException("The metrics file writer is already running");
+        scheduler = Executors
+                .newSingleThreadScheduledExecutor(daemon("unravl-metrics-file"));
+        Runnable write = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeTo(file);
+                } catch (IOException e) {
+                    logger.error("Could not write metrics to " + file + ": "
+                            + e.getMessage());
+                }
+            }
+        };
+        scheduler.scheduleAtFixedRate(write, period, period, unit);
+        this.file = file;
+    }
+
+    /**
+     * Stop the HTTP endpoint and the file writer. The metrics file, if any, is
+     * written one last time.
+     */
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            try {
+                writeTo(file);
+            } catch (IOException e) {
+                logger.error("Could not write metrics to " + file + ": "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
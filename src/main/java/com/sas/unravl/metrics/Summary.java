@@ -0,0 +1,50 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.metrics;
+
+import com.sas.unravl.util.LatencyHistogram;
+
+/**
+ * A distribution of latencies, recorded in a {@link LatencyHistogram} in
+ * nanoseconds and exported as a Prometheus summary in seconds, with the 0.5,
+ * 0.9, 0.99 and 0.999 quantiles.
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class Summary extends Metric {
+
+    private static final double QUANTILES[] = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    Summary(String name, String labels) {
+        super(name, labels);
+    }
+
+    /**
+     * Record a latency
+     *
+     * @param nanos
+     *            the latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        histogram.record(nanos);
+    }
+
+    /**
+     * @return the recorded latencies
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    @Override
+    public void collect(Visitor visitor) {
+        String labels = getLabels();
+        String prefix = labels.length() == 0 ? "" : labels + ",";
+        for (double q : QUANTILES)
+            visitor.sample(getName(), prefix + "quantile=\"" + q + "\"",
+                    histogram.getPercentile(q * 100.0) / 1e9);
+        visitor.sample(getName() + "_sum", labels, histogram.getSum() / 1e9);
+        visitor.sample(getName() + "_count", labels, histogram.getCount());
+    }
+}
@@ -0,0 +1,289 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.http.pool.PoolStats;
+
+import com.sas.unravl.ScriptEngines;
+import com.sas.unravl.UnRAVLPlugins;
+import com.sas.unravl.util.Patterns;
+
+/**
+ * The metrics of UnRAVL API calls, for long-running monitor and load test
+ * runs:
+ * <ul>
+ * <li><code>unravl_calls_total</code> - calls by script and HTTP status class
+ * (<code>2xx</code>, ...; <code>error</code> if the call threw an exception
+ * other than a failed assertion, <code>none</code> if it made no request)</li>
+ * <li><code>unravl_call_duration_seconds</code> - call latency by script</li>
+ * <li><code>unravl_assertions_total</code> - assertions by script and result
+ * (passed, failed, skipped)</li>
+ * <li><code>unravl_request_bytes_total</code>,
+ * <code>unravl_response_bytes_total</code> - body bytes sent and received by
+ * script</li>
+ * <li><code>unravl_calls_in_flight</code> - calls currently running</li>
+ * <li><code>unravl_http_pool_*</code> - the shared connection pool: leases,
+ * and leased, available, pending and maximum connections</li>
+ * <li><code>unravl_script_cache_*</code> - script engine compiled expression
+ * cache hits, misses and size</li>
+ * <li><code>unravl_pattern_cache_*</code> - compiled regular expression
+ * cache hits, misses and size</li>
+ * </ul>
+ * <p>
+ * Metrics are only recorded when enabled, either with
+ * {@link #setEnabled(boolean)} or by running with
+ * <code>-Dunravl.metrics=true</code>. Once a script's metrics exist,
+ * recording a call does not lock or allocate.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class UnRAVLMetrics {
+
+    /** The system property which enables metrics when true */
+    public static final String ENABLED_PROPERTY = "unravl.metrics";
+
+    private static final String STATUS_CLASSES[] = { "none", "1xx", "2xx",
+            "3xx", "4xx", "5xx", "error" };
+    private static final int ERROR = STATUS_CLASSES.length - 1;
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final ConcurrentMap<String, ScriptMetrics> scripts = new ConcurrentHashMap<String, ScriptMetrics>();
+    private final Gauge inFlight;
+    private final Counter leases;
+    private volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+    private volatile UnRAVLPlugins plugins;
+
+    /** The metrics of one script */
+    private final class ScriptMetrics {
+        private final String script;
+        private final AtomicReferenceArray<Counter> calls = new AtomicReferenceArray<Counter>(
+                STATUS_CLASSES.length);
+        private final Summary duration;
+        private final Counter passed, failed, skipped;
+        private final Counter sent, received;
+
+        ScriptMetrics(String script) {
+            this.script = script;
+            duration = registry.summary("unravl_call_duration_seconds",
+                    "API call latency", "script", script);
+            String assertions = "unravl_assertions_total";
+            String help = "Assertions by script and result";
+            passed = registry.counter(assertions, help, "script", script,
+                    "result", "passed");
+            failed = registry.counter(assertions, help, "script", script,
+                    "result", "failed");
+            skipped = registry.counter(assertions, help, "script", script,
+                    "result", "skipped");
+            sent = registry.counter("unravl_request_bytes_total",
+                    "Request body bytes sent", "script", script);
+            received = registry.counter("unravl_response_bytes_total",
+                    "Response body bytes received", "script", script);
+        }
+
+        Counter calls(int statusClass) {
+            Counter c = calls.get(statusClass);
+            if (c == null) {
+                c = registry.counter("unravl_calls_total",
+                        "API calls by script and HTTP status class", "script",
+                        script, "status", STATUS_CLASSES[statusClass]);
+                calls.set(statusClass, c);
+            }
+            return c;
+        }
+    }
+
+    public UnRAVLMetrics() {
+        inFlight = registry.gauge("unravl_calls_in_flight",
+                "API calls currently running");
+        leases = registry.counter("unravl_http_pool_leases_total",
+                "Connections leased from the shared HTTP connection pool");
+        patternMetrics();
+    }
+
+    /**
+     * @return true if metrics are recorded
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled
+     *            true to record metrics
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the registry which holds the metrics, for exporting them
+     */
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Add gauges which read the connection pool and script engine cache
+     * statistics of a plugin registry. Only the first registry is used.
+     *
+     * @param plugins
+     *            the plugin registry
+     */
+    public synchronized void bind(final UnRAVLPlugins plugins) {
+        if (this.plugins != null)
+            return;
+        this.plugins = plugins;
+        poolGauge("unravl_http_pool_leased", "Leased pooled connections", 0);
+        poolGauge("unravl_http_pool_available",
+                "Idle pooled connections available for lease", 1);
+        poolGauge("unravl_http_pool_pending",
+                "Requests waiting for a pooled connection", 2);
+        poolGauge("unravl_http_pool_max", "Maximum pooled connections", 3);
+        registry.counter("unravl_script_cache_hits_total",
+                "Script evaluations which used a cached compiled script",
+                new Metric.Source() {
+                    @Override
+                    public double value() {
+                        return engines().getHitCount();
+                    }
+                });
+        registry.counter("unravl_script_cache_misses_total",
+                "Script evaluations which compiled their script",
+                new Metric.Source() {
+                    @Override
+                    public double value() {
+                        return engines().getMissCount();
+                    }
+                });
+        registry.gauge("unravl_script_cache_size",
+                "Compiled scripts in the script engine cache",
+                new Metric.Source() {
+                    @Override
+                    public double value() {
+                        return engines().getSize();
+                    }
+                });
+    }
+
+    // The pattern cache is process-wide, so its metrics do not need plugins
+    private void patternMetrics() {
+        registry.counter("unravl_pattern_cache_hits_total",
+                "Regular expressions found in the compiled pattern cache",
+                new Metric.Source() {
+                    @Override
+                    public double value() {
+                        return Patterns.getHitCount();
+                    }
+                });
+        registry.counter("unravl_pattern_cache_misses_total",
+                "Regular expressions compiled", new Metric.Source() {
+                    @Override
+                    public double value() {
+                        return Patterns.getMissCount();
+                    }
+                });
+        registry.gauge("unravl_pattern_cache_size",
+                "Compiled patterns in the pattern cache",
+                new Metric.Source() {
+                    @Override
+                    public double value() {
+                        return Patterns.getSize();
+                    }
+                });
+    }
+
+    private ScriptEngines.Stats engines() {
+        return plugins.getScriptEngines().getStats();
+    }
+
+    private void poolGauge(String name, String help, final int which) {
+        registry.gauge(name, help, new Metric.Source() {
+            @Override
+            public double value() {
+                PoolStats stats = plugins.getPoolStats();
+                if (stats == null)
+                    return 0.0;
+                switch (which) {
+                case 0:
+                    return stats.getLeased();
+                case 1:
+                    return stats.getAvailable();
+                case 2:
+                    return stats.getPending();
+                default:
+                    return stats.getMax();
+                }
+            }
+        });
+    }
+
+    /**
+     * Record that an API call started
+     */
+    public void callStarted() {
+        if (enabled)
+            inFlight.inc();
+    }
+
+    /**
+     * Record that an API call finished. This must be paired with
+     * {@link #callStarted()}.
+     *
+     * @param script
+     *            the script name
+     * @param status
+     *            the HTTP status code, or 0 if the call did not make a
+     *            request
+     * @param error
+     *            true if the call threw an exception other than an assertion
+     *            failure
+     * @param nanos
+     *            the latency of the call, in nanoseconds
+     * @param passed
+     *            the number of assertions which passed
+     * @param failed
+     *            the number of assertions which failed
+     * @param skipped
+     *            the number of assertions which were skipped
+     * @param sent
+     *            the number of request body bytes sent
+     * @param received
+     *            the number of response body bytes received
+     */
+    public void callFinished(String script, int status, boolean error,
+            long nanos, int passed, int failed, int skipped, long sent,
+            long received) {
+        if (!enabled)
+            return;
+        inFlight.dec();
+        ScriptMetrics m = scripts.get(script);
+        if (m == null) {
+            ScriptMetrics created = new ScriptMetrics(script);
+            m = scripts.putIfAbsent(script, created);
+            if (m == null)
+                m = created;
+        }
+        int statusClass = error ? ERROR : status / 100;
+        if (statusClass < 0 || statusClass > ERROR)
+            statusClass = 0;
+        m.calls(statusClass).inc();
+        m.duration.record(nanos);
+        m.passed.add(passed);
+        m.failed.add(failed);
+        m.skipped.add(skipped);
+        m.sent.add(sent);
+        m.received.add(received);
+    }
+
+    /**
+     * Record that a connection was leased from the shared connection pool
+     */
+    public void connectionLeased() {
+        if (enabled)
+            leases.inc();
+    }
+}
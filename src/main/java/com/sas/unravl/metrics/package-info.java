@@ -0,0 +1,6 @@
+/**
+ * Uniform REST API Validation Language (UnRAVL) metrics: counters, gauges and
+ * latency summaries of API calls, which can be exported in the Prometheus text
+ * format or as JMX MBean attributes.
+ */
+package com.sas.unravl.metrics;
@@ -5,7 +5,6 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.util.DefaultIndenter;
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.google.common.io.Files;
@@ -14,6 +13,7 @@ import com.sas.unravl.Main;
 import com.sas.unravl.UnRAVL;
 import com.sas.unravl.UnRAVLException;
 import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.util.Json;
 
 import java.awt.Color;
 import java.awt.Dimension;
@@ -451,7 +451,6 @@ public class UnRAVLFrame extends JFrame {
     }
 
     private JsonNode unravlScript = null;
-    private final ObjectMapper mapper = new ObjectMapper();
     DefaultPrettyPrinter pp = new DefaultPrettyPrinter();
     {
         pp.indentArraysWith(DefaultIndenter.SYSTEM_LINEFEED_INSTANCE);
@@ -460,7 +459,7 @@ public class UnRAVLFrame extends JFrame {
     public boolean validateJson(String json) {
         try {
             unravlScript = null;
-            unravlScript = mapper.readTree(json);
+            unravlScript = Json.reader().readValue(json);
             clearJsonError();
             return true;
         } catch (JsonProcessingException e) {
@@ -636,6 +635,9 @@ public class UnRAVLFrame extends JFrame {
                     if (call.wasSkipped()) {
                         summary += resources.getString("SKIPPED.txt");
                     }
+                    summary += String.format(
+                            resources.getString("TIMINGS.txt"),
+                            call.getTimings());
                     setStatusText(summary);
                 }
                 if (f.prettyPrintResponseBody.isSelected()) {
@@ -698,7 +700,7 @@ public class UnRAVLFrame extends JFrame {
 
     private String prettyPrint(String text) {
         try {
-            JsonNode node = mapper.readTree(text);
+            JsonNode node = Json.reader().readValue(text);
             return prettyPrint(node);
         } catch (IOException e) {
             return text;
@@ -707,7 +709,7 @@ public class UnRAVLFrame extends JFrame {
 
     private String prettyPrint(JsonNode node) {
         try {
-            return mapper.writer(pp).writeValueAsString(node);
+            return Json.mapper().writer(pp).writeValueAsString(node);
         } catch (JsonProcessingException ex) {
             return node.toString();
         }
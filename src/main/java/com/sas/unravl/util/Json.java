@@ -4,6 +4,7 @@ package com.sas.unravl.util;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
@@ -18,9 +19,11 @@ import org.apache.log4j.Logger;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.BigIntegerNode;
 import com.fasterxml.jackson.databind.node.BooleanNode;
@@ -41,13 +44,97 @@ import com.sas.unravl.generators.Text;
 
 /**
  * JSON utility methods.
+ * <p>
+ * All JSON reading and writing in UnRAVL goes through one shared
+ * {@link ObjectMapper} and the {@link ObjectReader} and {@link ObjectWriter}
+ * instances created from it, which are thread safe and expensive to create.
+ * Use {@link #reader()}, {@link #writer()} and {@link #prettyWriter()} rather
+ * than creating a new ObjectMapper. Embedders may replace the underlying
+ * {@link JsonFactory}, for example to enable parser features or use a
+ * different data format, with {@link #setJsonFactory(JsonFactory)}.
+ * </p>
+ * <p>
+ * The default factory keeps the last value of a repeated object key, and
+ * does not close the streams, readers and writers passed to it.
+ * {@link #parse(InputStream)} leaves its stream open whatever the factory.
+ * </p>
  *
  * @author David.Biesack@sas.com
  */
 public class Json {
-    private static ObjectMapper mapper = new ObjectMapper();
     private static final Logger logger = Logger.getLogger(Json.class);
 
+    /** The shared mapper and the readers and writers created from it */
+    private static final class Codec {
+        private final ObjectMapper mapper;
+        private final ObjectReader reader;
+        private final ObjectWriter writer;
+        private final ObjectWriter prettyWriter;
+
+        Codec(JsonFactory factory) {
+            mapper = new ObjectMapper(factory);
+            reader = mapper.reader(JsonNode.class);
+            writer = mapper.writer();
+            prettyWriter = mapper.writerWithDefaultPrettyPrinter();
+        }
+    }
+
+    private static volatile Codec codec = new Codec(defaultJsonFactory());
+
+    // The features UnRAVL relies on, set explicitly rather than inherited
+    // from Jackson's defaults
+    private static JsonFactory defaultJsonFactory() {
+        JsonFactory factory = new JsonFactory();
+        // a repeated key in a script or response replaces the earlier value,
+        // as it always has; rejecting it would break existing scripts
+        factory.disable(JsonParser.Feature.STRICT_DUPLICATE_DETECTION);
+        // callers own the streams they pass in; Json only closes what it
+        // opens, such as files
+        factory.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return factory;
+    }
+
+    /**
+     * @return the shared ObjectMapper. Do not reconfigure it; use
+     *         {@link #reader()} or {@link #writer()} where possible.
+     */
+    public static ObjectMapper mapper() {
+        return codec.mapper;
+    }
+
+    /**
+     * @return a shared, thread safe reader of JSON trees
+     */
+    public static ObjectReader reader() {
+        return codec.reader;
+    }
+
+    /**
+     * @return a shared, thread safe writer of compact JSON
+     */
+    public static ObjectWriter writer() {
+        return codec.writer;
+    }
+
+    /**
+     * @return a shared, thread safe writer of indented JSON
+     */
+    public static ObjectWriter prettyWriter() {
+        return codec.prettyWriter;
+    }
+
+    /**
+     * Replace the JsonFactory used by all JSON reading and writing. This is
+     * meant to be called once, before running scripts.
+     *
+     * @param factory
+     *            the factory, which is owned by Json afterwards
+     */
+    public static void setJsonFactory(JsonFactory factory) {
+        codec = new Codec(factory);
+    }
+
     /**
      * Convenience method for parsing a string as JSON.
      *
@@ -59,10 +146,51 @@ public class Json {
      */
     public static JsonNode parse(String json) throws UnRAVLException {
         try {
-            return mapper.readTree(json);
-        } catch (JsonProcessingException e) {
+            return reader().readValue(json);
+        } catch (IOException e) {
+            logger.error(e);
+            throw new UnRAVLException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Convenience method for parsing UTF-8 (or UTF-16/32) encoded bytes as JSON
+     * without first decoding them into a String.
+     *
+     * @param json
+     *            encoded JSON; this must be valid
+     * @return the root JsonNode
+     * @throws UnRAVLException
+     *             if the json is not valid.
+     */
+    public static JsonNode parse(byte[] json) throws UnRAVLException {
+        try {
+            return reader().readValue(json);
+        } catch (IOException e) {
             logger.error(e);
             throw new UnRAVLException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parse JSON from a stream as it is read, without first reading the whole
+     * stream into memory. The stream is not closed.
+     *
+     * @param json
+     *            a stream of UTF-8 (or UTF-16/32) encoded JSON
+     * @return the root JsonNode
+     * @throws UnRAVLException
+     *             if the json is not valid or the stream cannot be read
+     */
+    public static JsonNode parse(InputStream json) throws UnRAVLException {
+        try {
+            JsonParser parser = codec.mapper.getFactory().createParser(json);
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            try {
+                return reader().readValue(parser);
+            } finally {
+                parser.close();
+            }
         } catch (IOException e) {
             logger.error(e);
             throw new UnRAVLException(e.getMessage(), e);
@@ -353,14 +481,12 @@ public class Json {
             Writer w = stdout ? new PrintWriter(System.out)
                     : new OutputStreamWriter(new FileOutputStream(fileName),
                             Text.UTF_8);
-            JsonFactory jf = jsonFactory();
-            JsonGenerator g = jf.createGenerator(w);
-            g.setCodec(new ObjectMapper());
-            g.useDefaultPrettyPrinter();
-            g.writeTree(json);
-            if (stdout)
+            prettyWriter().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .writeValue(w, json);
+            if (stdout) {
                 w.write("\n");
-            else
+                w.flush();
+            } else
                 w.close();
         } catch (FileNotFoundException e) {
             throw new UnRAVLException(e.getMessage(), e);
@@ -369,8 +495,11 @@ public class Json {
         }
     }
 
+    /**
+     * @return the shared JsonFactory; see {@link #setJsonFactory(JsonFactory)}
+     */
     public static JsonFactory jsonFactory() {
-        return new JsonFactory();
+        return codec.mapper.getFactory();
     }
 
     public static JsonNodeFactory jsonNodeFactory() {
@@ -408,11 +537,10 @@ public class Json {
                                               // ObjectMapper.treeToValue()? The
                                               // spec is unclear
         Object result = val;
-        ObjectMapper mapper = new ObjectMapper();
         if (val instanceof ObjectNode) {
-            result = mapper.convertValue((ObjectNode) val, Map.class);
+            result = mapper().convertValue((ObjectNode) val, Map.class);
         } else if (val instanceof ArrayNode) {
-            result = mapper.convertValue((ObjectNode) val, List.class);
+            result = mapper().convertValue((ArrayNode) val, List.class);
         } else if (val instanceof NullNode) {
             result = null;
         } else if (val instanceof BooleanNode) {
@@ -443,7 +571,7 @@ public class Json {
      * @return a ObjectNode that corresponds to the Map
      */
     public static ObjectNode wrap(@SuppressWarnings("rawtypes") Map val) {
-        return mapper.valueToTree(val);
+        return mapper().valueToTree(val);
     }
 
     /**
@@ -454,7 +582,7 @@ public class Json {
      * @return a ArrayNode that corresponds to the Map
      */
     public static ArrayNode wrap(@SuppressWarnings("rawtypes") List val) {
-        return mapper.valueToTree(val);
+        return mapper().valueToTree(val);
     }
 
     /**
@@ -0,0 +1,283 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.Option;
+import com.jayway.jsonpath.spi.json.JacksonJsonNodeJsonProvider;
+import com.jayway.jsonpath.spi.mapper.JacksonMappingProvider;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates <a href='https://github.com/jayway/JsonPath'>JsonPath</a>
+ * expressions directly on Jackson {@link JsonNode} trees.
+ * <p>
+ * The default JsonPath configuration (see
+ * {@link com.sas.unravl.UnRAVLRuntime#configure()}) works on Java Map and List
+ * objects, so a JSON tree must first be converted, which costs more than the
+ * evaluation for a large document. The configuration used here reads the tree
+ * itself; only the selected values are converted. Compiled paths are kept in a
+ * bounded cache, whose size is set with the system property
+ * <code>unravl.jsonpath.cache.size</code> (default 1000).
+ * </p>
+ * <p>
+ * Definite paths made only of field names and array indexes, such as
+ * <code>$.results[0].location.lat</code> or <code>$['items'][2]</code>, are
+ * navigated without JsonPath, and {@link #read(JsonNode, List)} resolves a
+ * prefix shared by several such paths once. Other paths, or simple paths
+ * which do not select a value, are evaluated by JsonPath, so results and
+ * errors are the same as JsonPath's.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class JsonPaths {
+
+    /** The default maximum number of compiled paths to cache */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private static final Cache<String, JsonPath> PATHS = CacheBuilder
+            .newBuilder()
+            .maximumSize(
+                    Integer.getInteger("unravl.jsonpath.cache.size",
+                            DEFAULT_CACHE_SIZE)).build();
+
+    // Marks a path which is not a simple definite path
+    private static final List<Object> NOT_SIMPLE = new ArrayList<Object>();
+
+    private static final Cache<String, List<Object>> SEGMENTS = CacheBuilder
+            .newBuilder()
+            .maximumSize(
+                    Integer.getInteger("unravl.jsonpath.cache.size",
+                            DEFAULT_CACHE_SIZE)).build();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private static volatile Configuration configuration;
+
+    private JsonPaths() {
+    }
+
+    /**
+     * @return a JsonPath configuration which reads and returns Jackson
+     *         {@link JsonNode} values
+     */
+    public static Configuration newConfiguration() {
+        return Configuration.builder()
+                .jsonProvider(new JacksonJsonNodeJsonProvider())
+                .mappingProvider(new JacksonMappingProvider())
+                .options(EnumSet.noneOf(Option.class)).build();
+    }
+
+    /**
+     * @return the configuration used to evaluate paths on JsonNode trees
+     */
+    public static Configuration getConfiguration() {
+        Configuration c = configuration;
+        if (c == null)
+            configuration = c = newConfiguration();
+        return c;
+    }
+
+    /**
+     * @param configuration
+     *            the configuration used to evaluate paths; its JSON provider
+     *            must read JsonNode trees
+     */
+    public static void setConfiguration(Configuration configuration) {
+        JsonPaths.configuration = configuration;
+    }
+
+    /**
+     * Return the compiled form of a JsonPath expression
+     *
+     * @param path
+     *            the JsonPath expression
+     * @return the compiled path, which may be shared
+     * @throws com.jayway.jsonpath.InvalidPathException
+     *             if the path is not valid
+     */
+    public static JsonPath compile(String path) {
+        JsonPath compiled = PATHS.getIfPresent(path);
+        if (compiled != null) {
+            hits.incrementAndGet();
+            return compiled;
+        }
+        misses.incrementAndGet();
+        compiled = JsonPath.compile(path);
+        PATHS.put(path, compiled);
+        return compiled;
+    }
+
+    /**
+     * Evaluate a JsonPath expression on a JSON tree
+     *
+     * @param document
+     *            the JSON document
+     * @param path
+     *            the JsonPath expression
+     * @return the selected value: a String, Number, Boolean or null for JSON
+     *         scalars, else a JsonNode which is part of the document (do not
+     *         modify it) or, for indefinite paths, a new ArrayNode
+     * @throws com.jayway.jsonpath.JsonPathException
+     *             if the path is invalid or selects nothing
+     */
+    public static Object read(JsonNode document, String path) {
+        return read(document, path, null);
+    }
+
+    /**
+     * Evaluate several JsonPath expressions on one JSON tree
+     *
+     * @param document
+     *            the JSON document
+     * @param paths
+     *            the JsonPath expressions
+     * @return the selected values, in the order of paths, as described for
+     *         {@link #read(JsonNode, String)}
+     * @throws com.jayway.jsonpath.JsonPathException
+     *             if a path is invalid or selects nothing
+     */
+    public static List<Object> read(JsonNode document, List<String> paths) {
+        Map<List<Object>, JsonNode> prefixes = new HashMap<List<Object>, JsonNode>();
+        List<Object> values = new ArrayList<Object>(paths.size());
+        for (String path : paths)
+            values.add(read(document, path, prefixes));
+        return values;
+    }
+
+    private static Object read(JsonNode document, String path,
+            Map<List<Object>, JsonNode> prefixes) {
+        Configuration c = getConfiguration();
+        List<Object> segments = segments(path);
+        if (segments != NOT_SIMPLE) {
+            JsonNode node = navigate(document, segments, prefixes);
+            if (node != null)
+                return c.jsonProvider().unwrap(node);
+        }
+        return compile(path).read(document, c);
+    }
+
+    // Return the node a simple path selects, or null if it selects nothing
+    private static JsonNode navigate(JsonNode document, List<Object> segments,
+            Map<List<Object>, JsonNode> prefixes) {
+        JsonNode node = document;
+        int start = 0;
+        if (prefixes != null) {
+            for (int i = segments.size() - 1; i > 0; i--) {
+                JsonNode prefix = prefixes.get(segments.subList(0, i));
+                if (prefix != null) {
+                    node = prefix;
+                    start = i;
+                    break;
+                }
+            }
+        }
+        for (int i = start; i < segments.size(); i++) {
+            Object segment = segments.get(i);
+            if (segment instanceof String)
+                node = node.isObject() ? node.get((String) segment) : null;
+            else
+                node = node.isArray() ? node.get((Integer) segment) : null;
+            if (node == null)
+                return null;
+            if (prefixes != null && i < segments.size() - 1
+                    && node.isContainerNode())
+                prefixes.put(new ArrayList<Object>(segments.subList(0, i + 1)),
+                        node);
+        }
+        return node;
+    }
+
+    // Parse a simple definite path into field names (String) and array
+    // indexes (Integer), or return NOT_SIMPLE
+    private static List<Object> segments(String path) {
+        List<Object> segments = SEGMENTS.getIfPresent(path);
+        if (segments == null) {
+            segments = parse(path);
+            SEGMENTS.put(path, segments);
+        }
+        return segments;
+    }
+
+    private static List<Object> parse(String path) {
+        if (!path.startsWith("$"))
+            return NOT_SIMPLE;
+        List<Object> segments = new ArrayList<Object>();
+        int i = 1, n = path.length();
+        while (i < n) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                int start = ++i;
+                while (i < n && isNameChar(path.charAt(i)))
+                    i++;
+                if (i == start)
+                    return NOT_SIMPLE; // $..name, $.*, ...
+                segments.add(path.substring(start, i));
+            } else if (c == '[') {
+                int end = path.indexOf(']', i);
+                if (end < 0)
+                    return NOT_SIMPLE;
+                String s = path.substring(i + 1, end);
+                if (s.length() > 2 && s.charAt(0) == '\''
+                        && s.charAt(s.length() - 1) == '\'') {
+                    String name = s.substring(1, s.length() - 1);
+                    if (name.indexOf('\'') >= 0 || name.indexOf('\\') >= 0)
+                        return NOT_SIMPLE;
+                    segments.add(name);
+                } else if (s.length() > 0 && s.length() < 10
+                        && isDigits(s)) {
+                    segments.add(Integer.valueOf(s));
+                } else
+                    return NOT_SIMPLE; // filters, slices, wildcards, unions
+                i = end + 1;
+            } else
+                return NOT_SIMPLE;
+        }
+        return segments;
+    }
+
+    private static boolean isNameChar(char c) {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9');
+    }
+
+    private static boolean isDigits(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) < '0' || s.charAt(i) > '9')
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the number of times {@link #compile(String)} found a cached
+     *         path
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of times a path was compiled
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of compiled paths in the cache
+     */
+    public static long getSize() {
+        return PATHS.size();
+    }
+}
@@ -0,0 +1,328 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free, log-linear histogram of latencies in nanoseconds, in the style
+ * of HdrHistogram. Values below 256 have their own bucket; above that, each
+ * power of two is split into 128 linear buckets, so every recorded value is
+ * within 1/128 (0.8%) of its bucket's upper bound. Values up to about 18
+ * minutes (2<sup>40</sup> ns) are resolved; larger values are counted in the
+ * last bucket, but {@link #getMax()} is exact.
+ * <p>
+ * {@link #record(long)} does not lock. The buckets are striped: each thread
+ * increments the counts of its own stripe, chosen by thread id, so threads
+ * recording at the same time rarely contend for a cache line. The stripes are
+ * summed when the histogram is read. A stripe's buckets (about 35KB) are only
+ * allocated when a value is first recorded in it, so a histogram which one
+ * thread records, or which is only merged into, holds a single stripe.
+ * </p>
+ * <p>
+ * Histograms can be merged with {@link #add(LatencyHistogram)}, and written
+ * with {@link #writeTo(DataOutput)} in a compact form (only the non-empty
+ * buckets, as variable length integers) which {@link #readFrom(DataInput)}
+ * reads back, so results of several threads or processes can be combined and
+ * compared later.
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class LatencyHistogram {
+
+    private static final int MAGIC = 0x55524831; // "URH1"
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int MAX_BITS = 40;
+    /** The largest value with its own bucket, in nanoseconds */
+    public static final long MAX_TRACKABLE = (1L << MAX_BITS) - 1;
+    private static final int BUCKETS = index(MAX_TRACKABLE) + 1;
+    // counters of one stripe are 16 longs (two cache lines) apart
+    private static final int PAD = 16;
+    private static final int DEFAULT_STRIPES = Math.min(8,
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+
+    private final int stripes;
+    // the buckets of each stripe, or null until a value is recorded in it
+    private final AtomicReferenceArray<AtomicLongArray> counts;
+    private final AtomicLongArray totals; // count and sum of each stripe
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(0L);
+
+    /** Create a histogram with one stripe per processor, up to 8 */
+    public LatencyHistogram() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Create a histogram
+     *
+     * @param stripes
+     *            the number of stripes; this is rounded down to a power of 2.
+     *            Use 1 for a histogram which is only recorded by one thread.
+     */
+    public LatencyHistogram(int stripes) {
+        this.stripes = Integer.highestOneBit(Math.max(1, stripes));
+        this.counts = new AtomicReferenceArray<AtomicLongArray>(this.stripes);
+        this.totals = new AtomicLongArray(this.stripes * PAD);
+    }
+
+    // The bucket of a value; see bucketHigh for the inverse
+    private static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value)
+                - (SUB_BUCKET_BITS - 1);
+        int mantissa = (int) (value >>> shift);
+        return SUB_BUCKETS + (shift - 1) * HALF + (mantissa - HALF);
+    }
+
+    // The largest value which is counted in a bucket
+    private static long bucketHigh(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int k = index - SUB_BUCKETS;
+        int shift = k / HALF + 1;
+        long mantissa = HALF + k % HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Record a latency
+     *
+     * @param nanos
+     *            the latency, in nanoseconds; negative values are recorded as
+     *            0
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0L);
+        int stripe = (int) Thread.currentThread().getId() & (stripes - 1);
+        stripe(stripe).incrementAndGet(index(Math.min(value, MAX_TRACKABLE)));
+        totals.incrementAndGet(stripe * PAD);
+        totals.addAndGet(stripe * PAD + 1, value);
+        updateMin(value);
+        updateMax(value);
+    }
+
+    // The buckets of a stripe, allocated the first time they are used
+    private AtomicLongArray stripe(int stripe) {
+        AtomicLongArray buckets = counts.get(stripe);
+        if (buckets == null) {
+            buckets = new AtomicLongArray(BUCKETS);
+            if (!counts.compareAndSet(stripe, null, buckets))
+                buckets = counts.get(stripe);
+        }
+        return buckets;
+    }
+
+    private void updateMin(long value) {
+        long current;
+        while (value < (current = min.get())
+                && !min.compareAndSet(current, value))
+            ;
+    }
+
+    private void updateMax(long value) {
+        long current;
+        while (value > (current = max.get())
+                && !max.compareAndSet(current, value))
+            ;
+    }
+
+    /**
+     * Add the values of another histogram to this one
+     *
+     * @param other
+     *            another histogram
+     */
+    public void add(LatencyHistogram other) {
+        if (other.getCount() == 0)
+            return;
+        long[] buckets = other.buckets();
+        AtomicLongArray first = stripe(0);
+        for (int i = 0; i < BUCKETS; i++) {
+            if (buckets[i] != 0)
+                first.addAndGet(i, buckets[i]);
+        }
+        totals.addAndGet(0, other.getCount());
+        totals.addAndGet(1, other.getSum());
+        if (other.getCount() > 0) {
+            updateMin(other.getMin());
+            updateMax(other.getMax());
+        }
+    }
+
+    // The counts of each bucket, summed over the stripes
+    private long[] buckets() {
+        long[] buckets = new long[BUCKETS];
+        for (int s = 0; s < stripes; s++) {
+            AtomicLongArray stripe = counts.get(s);
+            if (stripe == null)
+                continue;
+            for (int i = 0; i < BUCKETS; i++)
+                buckets[i] += stripe.get(i);
+        }
+        return buckets;
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        long count = 0L;
+        for (int s = 0; s < stripes; s++)
+            count += totals.get(s * PAD);
+        return count;
+    }
+
+    /**
+     * @return the sum of the recorded values, in nanoseconds
+     */
+    public long getSum() {
+        long sum = 0L;
+        for (int s = 0; s < stripes; s++)
+            sum += totals.get(s * PAD + 1);
+        return sum;
+    }
+
+    /**
+     * @return the mean of the recorded values, in nanoseconds; 0 if empty
+     */
+    public long getMean() {
+        long count = getCount();
+        return count == 0 ? 0L : getSum() / count;
+    }
+
+    /**
+     * @return the smallest recorded value, in nanoseconds; 0 if empty
+     */
+    public long getMin() {
+        long m = min.get();
+        return m == Long.MAX_VALUE ? 0L : m;
+    }
+
+    /**
+     * @return the largest recorded value, in nanoseconds; 0 if empty
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile
+     *            the percentile, from 0 to 100, such as 99.9
+     * @return the value at that percentile, in nanoseconds: the upper bound of
+     *         the bucket which contains the value of that rank, but no more
+     *         than {@link #getMax()}; 0 if empty
+     */
+    public long getPercentile(double percentile) {
+        long[] buckets = buckets();
+        long count = 0L;
+        for (long c : buckets)
+            count += c;
+        if (count == 0)
+            return 0L;
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank)
+                return Math.min(bucketHigh(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Write this histogram in a compact binary form
+     *
+     * @param out
+     *            the destination
+     * @throws IOException
+     *             if the output cannot be written
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        long[] buckets = buckets();
+        int used = 0;
+        for (long c : buckets) {
+            if (c != 0)
+                used++;
+        }
+        out.writeInt(MAGIC);
+        out.writeByte(SUB_BUCKET_BITS);
+        writeVarLong(out, getSum());
+        writeVarLong(out, getMin());
+        writeVarLong(out, getMax());
+        writeVarLong(out, used);
+        int previous = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (buckets[i] != 0) {
+                writeVarLong(out, i - previous);
+                writeVarLong(out, buckets[i]);
+                previous = i;
+            }
+        }
+    }
+
+    /**
+     * Read a histogram written by {@link #writeTo(DataOutput)}
+     *
+     * @param in
+     *            the source
+     * @return a new histogram with one stripe
+     * @throws IOException
+     *             if the input cannot be read or is not a histogram
+     */
+    public static LatencyHistogram readFrom(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC || in.readByte() != SUB_BUCKET_BITS)
+            throw new IOException("Not an UnRAVL latency histogram");
+        LatencyHistogram h = new LatencyHistogram(1);
+        long sum = readVarLong(in);
+        long min = readVarLong(in);
+        long max = readVarLong(in);
+        long used = readVarLong(in);
+        long count = 0L;
+        int index = 0;
+        for (long i = 0; i < used; i++) {
+            index += (int) readVarLong(in);
+            if (index < 0 || index >= BUCKETS)
+                throw new IOException("Invalid latency histogram bucket "
+                        + index);
+            long c = readVarLong(in);
+            h.stripe(0).set(index, c);
+            count += c;
+        }
+        h.totals.set(0, count);
+        h.totals.set(1, sum);
+        if (count > 0) {
+            h.min.set(min);
+            h.max.set(max);
+        }
+        return h;
+    }
+
+    private static void writeVarLong(DataOutput out, long value)
+            throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Invalid variable length integer");
+    }
+}
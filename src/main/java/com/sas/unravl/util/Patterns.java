@@ -0,0 +1,149 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A process-wide cache of compiled regular expressions, used by the
+ * assertions and extractors which match text against patterns (
+ * <code>status</code>, <code>headers</code>, <code>pattern</code> and
+ * <code>links</code>).
+ * <p>
+ * The patterns in a script are usually the same on every run, so each
+ * distinct pattern is compiled once and shared; {@link Pattern} is immutable
+ * and thread safe. The cache is bounded; the least recently used patterns are
+ * evicted. Its size is set with the system property
+ * <code>unravl.pattern.cache.size</code> (default 1000).
+ * </p>
+ *
+ * @author David.Biesack@sas.com
+ */
+public final class Patterns {
+
+    /** The default maximum number of compiled patterns to cache */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private static final Cache<String, Pattern> PATTERNS = CacheBuilder
+            .newBuilder()
+            .maximumSize(
+                    Integer.getInteger("unravl.pattern.cache.size",
+                            DEFAULT_CACHE_SIZE)).concurrencyLevel(16).build();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private Patterns() {
+    }
+
+    /**
+     * Return the compiled form of a regular expression
+     *
+     * @param regex
+     *            the regular expression
+     * @return the compiled pattern, which may be shared
+     * @throws PatternSyntaxException
+     *             if regex is not a valid regular expression; invalid
+     *             patterns are not cached
+     */
+    public static Pattern compile(String regex) throws PatternSyntaxException {
+        Pattern pattern = PATTERNS.getIfPresent(regex);
+        if (pattern != null) {
+            hits.incrementAndGet();
+            return pattern;
+        }
+        misses.incrementAndGet();
+        pattern = Pattern.compile(regex);
+        PATTERNS.put(regex, pattern);
+        return pattern;
+    }
+
+    /**
+     * Like {@link String#matches(String)}, but with a cached pattern
+     *
+     * @param regex
+     *            the regular expression
+     * @param input
+     *            the text to match
+     * @return true iff all of input matches regex
+     * @throws PatternSyntaxException
+     *             if regex is not a valid regular expression
+     */
+    public static boolean matches(String regex, CharSequence input)
+            throws PatternSyntaxException {
+        return compile(regex).matcher(input).matches();
+    }
+
+    /**
+     * Test if an HTTP status code matches a status pattern. Simple patterns of
+     * three digits or '.' characters, such as <code>"2.."</code> or
+     * <code>"404"</code>, are matched directly; other patterns are regular
+     * expressions.
+     *
+     * @param pattern
+     *            the status pattern
+     * @param httpStatus
+     *            the HTTP status code
+     * @return true iff the status matches the pattern
+     * @throws PatternSyntaxException
+     *             if pattern is not a valid regular expression
+     */
+    public static boolean statusMatches(String pattern, int httpStatus)
+            throws PatternSyntaxException {
+        if (isSimpleStatus(pattern)) {
+            if (httpStatus < 100 || httpStatus > 999)
+                return false;
+            for (int i = 2, s = httpStatus; i >= 0; i--, s /= 10) {
+                char c = pattern.charAt(i);
+                if (c != '.' && c - '0' != s % 10)
+                    return false;
+            }
+            return true;
+        }
+        return matches(pattern, Integer.toString(httpStatus));
+    }
+
+    private static boolean isSimpleStatus(String pattern) {
+        if (pattern.length() != 3)
+            return false;
+        for (int i = 0; i < 3; i++) {
+            char c = pattern.charAt(i);
+            if (c != '.' && (c < '0' || c > '9'))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of times {@link #compile(String)} found a cached
+     *         pattern
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of times {@link #compile(String)} compiled a pattern
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of compiled patterns in the cache
+     */
+    public static long getSize() {
+        return PATTERNS.size();
+    }
+
+    /**
+     * Remove all patterns from the cache. The statistics are not reset.
+     */
+    public static void clear() {
+        PATTERNS.invalidateAll();
+    }
+}
@@ -1,6 +1,12 @@
 package com.sas.unravl.util;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -37,15 +43,19 @@ public class VariableResolver {
     public final static Pattern VAR_NAME_IN_VALUE_PATTERN = Pattern
             .compile("[^\\{@][-\\w.\\$]+[^@\\}]");
 
-    private String input; // the input string that we will expand
+    // Inputs up to this length are compiled once and cached as templates
+    private static final int MAX_CACHED_LENGTH = 4096;
+    // Cached placeholder for inputs that cannot be compiled; see Parser
+    private static final Template INTERPRET = new Template(new Segment[0]);
+    private static final Cache<String, Template> TEMPLATES = CacheBuilder
+            .newBuilder().maximumSize(10000).build();
+
     private final Map<String, Object> env;
-    private int len;
-    private StringBuilder result;
-    private int index; // position in the input string
 
     /**
      * Construct a reusable resolver that uses an environment. After creating,
-     * call {@link #expand(String)}.
+     * call {@link #expand(String)}. A resolver may be used by several threads
+     * at once, as long as the environment map is not modified concurrently.
      *
      * @param environment
      *            Non-null mapping of variable names to values
@@ -56,164 +66,379 @@ public class VariableResolver {
 
     /**
      * Expand variable references {varname} or {undefinedVarName|alt value} in
-     * the input string source
+     * the input string source. The input is compiled to a {@link Template} the
+     * first time it is seen, so expanding the same string again only looks up
+     * the variables.
      *
      * @param input
      *            the input source string
      * @return the result of expanding variables in the input
      */
     public String expand(String input) {
-        this.input = input;
-        return expand();
+        if (input.indexOf(OPENING_BRACE) == -1
+                || input.indexOf(CLOSING_BRACE) == -1)
+            return input;
+        if (input.length() <= MAX_CACHED_LENGTH) {
+            Template template = TEMPLATES.getIfPresent(input);
+            if (template == null) {
+                template = compile(input);
+                TEMPLATES.put(input, template == null ? INTERPRET : template);
+            }
+            if (template != INTERPRET)
+                return template.render(env);
+        }
+        return new Parser(input, env).parse().render(env);
     }
 
     /**
-     * Expand variable references in the input
+     * Compile a string into a template of literal text and variable
+     * references which can be expanded against any environment.
      *
-     * @return the expanded input string
+     * @param input
+     *            the input string
+     * @return the compiled template, or null if the way the string expands
+     *         depends on which variables are bound; {@link #expand(String)}
+     *         then expands such strings directly.
      */
-    private synchronized String expand() {
-        if (input.indexOf(OPENING_BRACE) == -1
-                || input.indexOf(CLOSING_BRACE) == -1)
-            return input;
-        result = new StringBuilder();
-        index = 0;
-        len = input.length();
-        while (index < len) {
-            char c = input.charAt(index);
-            if (c == OPENING_BRACE) {
-                resolveVar();
+    public static Template compile(String input) {
+        return new Parser(input, null).parse();
+    }
+
+    /**
+     * A string compiled into literal text, {varName}, {varName|alt text} and
+     * {U+hhhh} segments. Templates are immutable and do not depend on an
+     * environment, so they can be shared by all threads and runtimes.
+     */
+    public static final class Template {
+        private final Segment[] segments;
+
+        private Template(Segment[] segments) {
+            this.segments = segments;
+        }
+
+        /**
+         * Expand the template
+         *
+         * @param env
+         *            the variable bindings
+         * @return the expanded string
+         */
+        public String render(Map<String, Object> env) {
+            if (segments.length == 1 && segments[0] instanceof Literal)
+                return ((Literal) segments[0]).text;
+            StringBuilder result = new StringBuilder();
+            render(segments, env, result);
+            return result.toString();
+        }
+
+        private static void render(Segment[] segments,
+                Map<String, Object> env, StringBuilder result) {
+            for (Segment segment : segments)
+                segment.render(env, result);
+        }
+    }
+
+    private static abstract class Segment {
+        abstract void render(Map<String, Object> env, StringBuilder result);
+    }
+
+    private static final class Literal extends Segment {
+        final String text;
+
+        Literal(String text) {
+            this.text = text;
+        }
+
+        @Override
+        void render(Map<String, Object> env, StringBuilder result) {
+            result.append(text);
+        }
+    }
+
+    // {varName}; left as is if varName is not bound
+    private static final class Var extends Segment {
+        final String name;
+
+        Var(String name) {
+            this.name = name;
+        }
+
+        @Override
+        void render(Map<String, Object> env, StringBuilder result) {
+            if (env.containsKey(name)) {
+                Object val = env.get(name);
+                result.append(val == null ? "null" : val.toString());
             } else {
-                result.append(c);
-                index++;
+                result.append(OPENING_BRACE).append(name)
+                        .append(CLOSING_BRACE);
+            }
+        }
+    }
+
+    // {varName|alt text}
+    private static final class VarOrDefault extends Segment {
+        final String name;
+        final Segment[] alt;
+
+        VarOrDefault(String name, Segment[] alt) {
+            this.name = name;
+            this.alt = alt;
+        }
+
+        @Override
+        void render(Map<String, Object> env, StringBuilder result) {
+            if (env.containsKey(name)) {
+                Object val = env.get(name);
+                result.append(val == null ? "null" : val.toString());
+            } else {
+                Template.render(alt, env, result);
             }
         }
-        return result.toString();
     }
 
     /**
-     * Resolve a variable of the form {varName} or {varName|alt text}. If
-     * varName is bound in the environment, append the toString() value of the
-     * variable to the result (dropping the braces around the varName). If
-     * varName is not defined, the braces and varName are appended to the
-     * result. If the form is {varName|alt text} and the varName is not bound,
-     * the alt text is appended to the result (recursively expanding it.) if the
-     * first portion is not a valid variable name, then the remainder is
-     * parsed/expanded recursively.
-     * <p>
-     * The input is on a '{'. This will consume characters until to the matching
-     * '}' and leave index pointing after the matching '}'. If there is no
-     * matching '}', simply append the '{' to the result and return.
+     * Parses one input string into segments. With a null environment, this
+     * compiles a template. With an environment, {var|alt text} is resolved as
+     * it is parsed, which handles inputs that cannot be compiled.
      */
-    private void resolveVar() {
-        index++; // skip opening {
-        if (hasMatchingCloseBrace()) {
-            int varPos = index;
+    private static final class Parser {
+        private final String input;
+        private final int len;
+        private final Map<String, Object> env;
+        private int index; // position in the input string
+        private List<Segment> segments = new ArrayList<Segment>();
+        private StringBuilder literal = new StringBuilder();
+        private boolean dynamic; // true if the input cannot be compiled
+
+        Parser(String input, Map<String, Object> env) {
+            this.input = input;
+            this.len = input.length();
+            this.env = env;
+        }
+
+        Template parse() {
             while (index < len) {
                 char c = input.charAt(index);
-                switch (c) {
-                case OPENING_BRACE: {
-                    result.append(input, varPos - 1, index);
+                if (c == OPENING_BRACE) {
                     resolveVar();
-                    scanToCloseBrace(true);
-                    result.append(CLOSING_BRACE);
-                    return;
-                }
-                case CLOSING_BRACE: {
-                    String candidateVarName = input.substring(varPos, index);
-                    if (isValidVarName(candidateVarName)
-                            && env.containsKey(candidateVarName)) {
-                        Object val = env.get(candidateVarName);
-                        result.append(val == null ? "null" : val.toString());
-                    } else if (isUnicodeCodePointName(candidateVarName)) {
-                        result.append(unicodeCharacter(candidateVarName));
-                    } else {
-                        result.append(OPENING_BRACE) //
-                                .append(candidateVarName) //
-                                .append(CLOSING_BRACE);
-                    }
+                } else {
+                    literal.append(c);
                     index++;
-                    return;
                 }
-                case DELIMITER: {
-                    String candidateVarName = input.substring(varPos, index);
-                    index++;
-                    if (isValidVarName(candidateVarName)) {
-                        if (env.containsKey(candidateVarName)) {
-                            Object val = env.get(candidateVarName);
-                            result.append(val == null ? "null" : val.toString());
-                            scanToCloseBrace(false);
+            }
+            return dynamic ? null : new Template(finish());
+        }
+
+        private Segment[] finish() {
+            flush();
+            return segments.toArray(new Segment[segments.size()]);
+        }
+
+        private void flush() {
+            if (literal.length() > 0) {
+                segments.add(new Literal(literal.toString()));
+                literal.setLength(0);
+            }
+        }
+
+        private void add(Segment segment) {
+            flush();
+            segments.add(segment);
+        }
+
+        /**
+         * Resolve a variable of the form {varName} or {varName|alt text}. If
+         * varName is bound in the environment, its toString() value replaces
+         * the reference (dropping the braces around the varName). If varName
+         * is not defined, the braces and varName are kept. If the form is
+         * {varName|alt text} and the varName is not bound, the alt text is
+         * used instead (recursively expanding it.) if the first portion is not
+         * a valid variable name, then the remainder is parsed/expanded
+         * recursively.
+         * <p>
+         * The input is on a '{'. This will consume characters until to the
+         * matching '}' and leave index pointing after the matching '}'. If
+         * there is no matching '}', simply keep the '{' and return.
+         */
+        private void resolveVar() {
+            index++; // skip opening {
+            if (hasMatchingCloseBrace()) {
+                int varPos = index;
+                while (index < len) {
+                    char c = input.charAt(index);
+                    switch (c) {
+                    case OPENING_BRACE: {
+                        literal.append(input, varPos - 1, index);
+                        resolveVar();
+                        scanToCloseBrace(true);
+                        literal.append(CLOSING_BRACE);
+                        return;
+                    }
+                    case CLOSING_BRACE: {
+                        String candidateVarName = input.substring(varPos,
+                                index);
+                        if (isValidVarName(candidateVarName)) {
+                            add(new Var(candidateVarName));
+                        } else if (isUnicodeCodePointName(candidateVarName)) {
+                            literal.append(unicodeCharacter(candidateVarName));
                         } else {
+                            literal.append(OPENING_BRACE) //
+                                    .append(candidateVarName) //
+                                    .append(CLOSING_BRACE);
+                        }
+                        index++;
+                        return;
+                    }
+                    case DELIMITER: {
+                        String candidateVarName = input.substring(varPos,
+                                index);
+                        index++;
+                        if (!isValidVarName(candidateVarName)) {
+                            literal.append(OPENING_BRACE) //
+                                    .append(candidateVarName) //
+                                    .append(DELIMITER);
                             scanToCloseBrace(true);
+                            literal.append(CLOSING_BRACE);
+                        } else if (env != null) {
+                            if (env.containsKey(candidateVarName)) {
+                                add(new Var(candidateVarName));
+                                scanToCloseBrace(false);
+                            } else {
+                                scanToCloseBrace(true);
+                            }
+                        } else {
+                            alternative(candidateVarName);
                         }
-                    } else {
-                        result.append(OPENING_BRACE) //
-                                .append(candidateVarName) //
-                                .append(DELIMITER);
-                        scanToCloseBrace(true);
-                        result.append(CLOSING_BRACE);
+                        return;
                     }
+                    default:
+                        index++;
+                    }
+                }
+            } else
+                // no matching close
+                literal.append(OPENING_BRACE);
+        }
+
+        // Compile the alt text of {varName|alt text}. The text is skipped
+        // when varName is bound and expanded when it is not; if those end at
+        // different places, the result depends on the environment.
+        private void alternative(String varName) {
+            int start = index;
+            scanToCloseBrace(false);
+            int skipEnd = index;
+            index = start;
+            List<Segment> outer = segments;
+            StringBuilder outerLiteral = literal;
+            segments = new ArrayList<Segment>();
+            literal = new StringBuilder();
+            scanToCloseBrace(true);
+            Segment[] alt = finish();
+            segments = outer;
+            literal = outerLiteral;
+            if (index != skipEnd)
+                dynamic = true;
+            add(new VarOrDefault(varName, alt));
+        }
+
+        // return true if there is a matching } for the current {
+        private boolean hasMatchingCloseBrace() {
+            int matchDepth = 1;
+            for (int i = index; i < len; i++) {
+                char ch = input.charAt(i);
+                if (ch == OPENING_BRACE)
+                    matchDepth++;
+                else if (ch == CLOSING_BRACE) {
+                    matchDepth--;
+                    if (matchDepth == 0)
+                        return true;
+                }
+            }
+            return false;
+        }
+
+        // process characters until we find the match }
+        // If copy is true, those characters and any nested
+        // variable references are copied/expanded,
+        // else we simply skip over them.
+        // This method assumes a matching } exists
+        private void scanToCloseBrace(boolean copy) {
+            while (index < len) {
+                char c = input.charAt(index);
+                switch (c) {
+                case OPENING_BRACE: {
+                    if (copy)
+                        resolveVar();
+                    else {
+                        index++;
+                        scanToCloseBrace(false);
+                    }
+                    break;
+                }
+                case CLOSING_BRACE: {
+                    index++;
                     return;
                 }
                 default:
+                    if (copy)
+                        literal.append(c);
                     index++;
                 }
             }
-        } else
-            // no matching close
-            result.append(OPENING_BRACE);
+        }
     }
 
-    // return true if there is a matching } for the current {
-    private boolean hasMatchingCloseBrace() {
-        int matchDepth = 1;
-        for (int i = index; i < len; i++) {
-            char ch = input.charAt(i);
-            if (ch == OPENING_BRACE)
-                matchDepth++;
-            else if (ch == CLOSING_BRACE) {
-                matchDepth--;
-                if (matchDepth == 0)
-                    return true;
-            }
+    /**
+     * Find the variables referenced in a string, in the forms {varName},
+     * {varName|alt text} or {@varName@}, including references nested in alt
+     * text. This only inspects the syntax of the string; it does not depend on
+     * which variables are bound.
+     *
+     * @param input
+     *            the input string
+     * @param names
+     *            the set to which referenced variable names are added
+     * @return names
+     */
+    public static Set<String> variableReferences(String input,
+            Set<String> names) {
+        int len = input.length();
+        for (int i = input.indexOf(OPENING_BRACE); i != -1; i = input.indexOf(
+                OPENING_BRACE, i + 1)) {
+            int start = i + 1;
+            boolean valueForm = start < len && input.charAt(start) == '@';
+            if (valueForm)
+                start++;
+            int end = start;
+            while (end < len && isVarNameChar(input.charAt(end)))
+                end++;
+            if (end == start || end == len)
+                continue;
+            char next = input.charAt(end);
+            if (valueForm ? next == '@' : next == CLOSING_BRACE
+                    || next == DELIMITER)
+                names.add(input.substring(start, end));
         }
-        return false;
+        return names;
     }
 
-    // process characters until we find the match }
-    // If copy is true, those characters and any nested
-    // variable references are copied/expanded,
-    // else we simply skip over them.
-    // This method assumes a matching } exists
-    private void scanToCloseBrace(boolean copy) {
-        while (index < len) {
-            char c = input.charAt(index);
-            switch (c) {
-            case OPENING_BRACE: {
-                if (copy)
-                    resolveVar();
-                else {
-                    index++;
-                    scanToCloseBrace(false);
-                }
-                break;
-            }
-            case CLOSING_BRACE: {
-                index++;
-                return;
-            }
-            default:
-                if (copy)
-                    result.append(c);
-                index++;
-            }
-        }
+    // the characters allowed in VAR_NAME_PATTERN
+    private static boolean isVarNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9') || c == '_' || c == '-' || c == '.'
+                || c == '$';
     }
 
     // Return true iff candidateVarName matches a valid variable name syntax:
-    // [alphanumeric, _, ., #, -]+
+    // [alphanumeric, _, ., #, -]+ (see VAR_NAME_PATTERN)
     private static boolean isValidVarName(String candidateVarName) {
-        return VAR_NAME_PATTERN.matcher(candidateVarName).matches();
+        int len = candidateVarName.length();
+        if (len == 0)
+            return false;
+        for (int i = 0; i < len; i++)
+            if (!isVarNameChar(candidateVarName.charAt(i)))
+                return false;
+        return true;
     }
 
     /**
@@ -226,7 +451,18 @@ public class VariableResolver {
      *         Case is ignored.
      */
     public static boolean isUnicodeCodePointName(String string) {
-        return UNICODE_CHARACTER_NAME_PATTERN.matcher(string).matches();
+        if (string.length() != 6 || string.charAt(1) != '+')
+            return false;
+        char u = string.charAt(0);
+        if (u != 'U' && u != 'u')
+            return false;
+        for (int i = 2; i < 6; i++) {
+            char c = string.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')
+                    || (c >= 'A' && c <= 'F')))
+                return false;
+        }
+        return true;
     }
 
     // Convert "U+hhhh to a Unicode character, where hhhh is four hex digits
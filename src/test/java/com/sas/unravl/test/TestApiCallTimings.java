@@ -0,0 +1,43 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.ApiCallTimings;
+import com.sas.unravl.ApiCallTimings.Phase;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestApiCallTimings extends TestBase {
+
+    @Test
+    public void phases() throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.execute(mockJson("{ 'name' : 'timed', 'env' : { 'x' : 1 },"
+                + " 'bind' : [ { 'groovy' : { 'y' : 'x + 1' } } ],"
+                + " 'assert' : [ 'y == 2', { 'groovy' : 'x == 1' } ] }"));
+        assertEquals(0, rt.getFailedAssertionCount());
+        ApiCall call = rt.getApiCalls().get(0);
+        ApiCallTimings timings = call.getTimings();
+        assertTrue(timings.getNanos(Phase.TOTAL) > 0);
+        assertTrue(timings.contains(Phase.ENV));
+        assertFalse(timings.contains(Phase.HTTP));
+        List<ApiCallTimings.Entry> entries = timings.getEntries();
+        assertEquals(3, entries.size());
+        assertEquals(Phase.EXTRACT, entries.get(0).getPhase());
+        assertEquals("groovy", entries.get(0).getName());
+        assertEquals(Phase.ASSERT, entries.get(2).getPhase());
+        long assertNanos = entries.get(1).getNanos()
+                + entries.get(2).getNanos();
+        assertEquals(assertNanos, timings.getNanos(Phase.ASSERT));
+        assertTrue(timings.toString().contains("total "));
+    }
+}
@@ -0,0 +1,45 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sas.unravl.ApiResponse;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.generators.Text;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestApiResponse extends TestBase {
+
+    @Test
+    public void memoizesForms() throws UnRAVLException {
+        ApiResponse response = new ApiResponse(
+                "{\"pi\":\"\u03c0\",\"n\":[1,2]}".getBytes(Text.UTF_8));
+        String text = response.text();
+        assertSame(text, response.text());
+        JsonNode json = response.json();
+        assertSame(json, response.json());
+        assertEquals("\u03c0", json.get("pi").textValue());
+        Object unwrapped = response.unwrapped();
+        assertSame(unwrapped, response.unwrapped());
+        assertTrue(unwrapped instanceof Map);
+        assertEquals(2, ((List<?>) ((Map<?, ?>) unwrapped).get("n")).size());
+    }
+
+    @Test
+    public void unwrapsArrays() throws UnRAVLException {
+        ApiResponse response = new ApiResponse("[1,2,3]".getBytes(Text.UTF_8));
+        assertEquals(3, ((List<?>) response.unwrapped()).size());
+    }
+
+    @Test(expected = UnRAVLException.class)
+    public void invalidJson() throws UnRAVLException {
+        new ApiResponse("{ not json".getBytes(Text.UTF_8)).json();
+    }
+}
@@ -0,0 +1,108 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sas.unravl.ArrivalProfile;
+import com.sas.unravl.LoadStatistics;
+import com.sas.unravl.LoadTest;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestArrivalProfile extends TestBase {
+
+    private static int arrivals(ArrivalProfile profile) {
+        ArrivalProfile.Schedule schedule = profile.schedule(new Random(42));
+        int n = 0;
+        long previous = -1;
+        for (long next = schedule.next(); next >= 0; next = schedule.next()) {
+            assertTrue(next >= previous);
+            previous = next;
+            n++;
+        }
+        return n;
+    }
+
+    @Test
+    public void constant() throws UnRAVLException {
+        ArrivalProfile p = ArrivalProfile
+                .parse(mockJson("{ 'type' : 'constant', 'rate' : 10, 'duration' : 2 }"));
+        assertEquals(20.0, p.expectedArrivals(), 1e-9);
+        assertEquals(0.5, p.time(5), 1e-9);
+        // arrivals at 0.0, 0.1, ... 2.0
+        assertEquals(21, arrivals(p));
+    }
+
+    @Test
+    public void ramp() throws UnRAVLException {
+        ArrivalProfile p = ArrivalProfile
+                .parse(mockJson("{ 'type' : 'ramp', 'from' : 0, 'to' : 100, 'duration' : 10 }"));
+        assertEquals(50.0, p.rate(5), 1e-9);
+        assertEquals(500.0, p.expectedArrivals(), 1e-9);
+        assertEquals(5.0, p.time(p.count(5)), 1e-9);
+        assertEquals(501, arrivals(p));
+        ArrivalProfile down = new ArrivalProfile.Ramp(100, 0, 10, false);
+        assertEquals(5.0, down.time(down.count(5)), 1e-9);
+        assertEquals(501, arrivals(down));
+    }
+
+    @Test
+    public void stepped() throws UnRAVLException {
+        ArrivalProfile p = ArrivalProfile
+                .parse(mockJson("{ 'type' : 'stepped', 'steps' : [ { 'rate' : 10, 'duration' : 1 },"
+                        + " { 'rate' : 0, 'duration' : 1 }, { 'rate' : 20, 'duration' : 1 } ] }"));
+        assertEquals(3.0, p.getDuration(), 1e-9);
+        assertEquals(0.0, p.rate(1.5), 1e-9);
+        assertEquals(30.0, p.expectedArrivals(), 1e-9);
+        assertEquals(2.5, p.time(20), 1e-9);
+        assertEquals(31, arrivals(p));
+    }
+
+    @Test
+    public void poisson() throws UnRAVLException {
+        ArrivalProfile p = ArrivalProfile
+                .parse(mockJson("{ 'type' : 'poisson', 'rate' : 1000, 'duration' : 10 }"));
+        assertTrue(p.isPoisson());
+        int n = arrivals(p);
+        // 10000 expected; the standard deviation is 100
+        assertTrue(n > 9500 && n < 10500);
+    }
+
+    @Test(expected = UnRAVLException.class)
+    public void invalid() throws UnRAVLException {
+        ArrivalProfile.parse(mockJson("{ 'type' : 'ramp', 'from' : 1 }"));
+    }
+
+    @Test
+    public void openModel() throws UnRAVLException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        LoadStatistics stats = new LoadTest()
+                .setUsers(4)
+                .setProfile(new ArrivalProfile.Constant(100, 0.2, false))
+                .run(rt, Arrays.asList(mockJson("{ 'name' : 'noop' }")));
+        assertEquals(21, stats.getCalls());
+        assertEquals(21, stats.getLag().getCount());
+        assertTrue(stats.getElapsedNanos() >= 200000000L);
+    }
+
+    @Test
+    public void backlog() throws UnRAVLException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        // 21 arrivals in 20ms, but one user which takes 100ms per arrival
+        LoadStatistics stats = new LoadTest()
+                .setUsers(1)
+                .setBacklog(1)
+                .setProfile(new ArrivalProfile.Constant(1000, 0.02, false))
+                .run(rt, Arrays.asList(mockJson("{ 'name' : 'slow',"
+                        + " 'bind' : { 'groovy' : { 'x' : 'Thread.sleep(100); 1' } } }")));
+        assertTrue(stats.getDroppedArrivals() > 0);
+        assertTrue(stats.getLateArrivals() > 0);
+        assertEquals(21, stats.getCalls() + stats.getDroppedArrivals());
+    }
+}
@@ -0,0 +1,135 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.DependencyGraph;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestDependencyGraph extends TestBase {
+
+    private static List<JsonNode> scripts(String... json)
+            throws UnRAVLException {
+        JsonNode nodes[] = new JsonNode[json.length];
+        for (int i = 0; i < json.length; i++)
+            nodes[i] = mockJson(json[i]);
+        return Arrays.asList(nodes);
+    }
+
+    @Test
+    public void waves() throws UnRAVLException {
+        // 'if' : true lets the scripts run even if earlier ones fail, so
+        // only their variables and resources order them
+        List<JsonNode> scripts = scripts(
+                "{ 'name' : 'setup', 'if' : true, 'env' : { 'site' : 'http://www.example.com' } }",
+                "{ 'name' : 'create', 'if' : true, 'POST' : '{site}/items', 'bind' : { 'jsonPath' : { 'id' : '$.id' } } }",
+                "{ 'name' : 'other', 'if' : true, 'GET' : '{site}/other?q=1' }",
+                "{ 'name' : 'delete', 'if' : true, 'DELETE' : '{site}/items/{id}' }",
+                "{ 'name' : 'list', 'if' : true, 'GET' : '{site}/items' }",
+                "{ 'name' : 'calc', 'if' : true, 'bind' : { 'groovy' : { 'next' : 'id + 1' } } }");
+        DependencyGraph graph = DependencyGraph.analyze(new UnRAVLRuntime(),
+                scripts);
+        assertEquals(6, graph.size());
+        assertTrue(graph.getWrites(1).contains("id"));
+        assertTrue(graph.getReads(3).contains("id"));
+        assertTrue(graph.getReads(5).contains("id"));
+        assertFalse(graph.getReads(5).contains("next"));
+        assertEquals("[[0], [1, 2], [3, 5], [4]]", graph.getWaves().toString());
+    }
+
+    @Test
+    public void barriers() throws UnRAVLException {
+        List<JsonNode> scripts = scripts("{ 'name' : 'a', 'env' : { 'a' : 1 } }",
+                "{ 'name' : 'b', 'env' : { 'b' : 1 } }", "'a'",
+                "{ 'name' : 'c', 'assert' : [ 'unravlScript.cancel(); true' ] }",
+                "{ 'name' : 'd', 'env' : { 'd' : 1 } }");
+        DependencyGraph graph = DependencyGraph.analyze(new UnRAVLRuntime(),
+                scripts);
+        assertTrue(graph.isBarrier(2));
+        assertTrue(graph.isBarrier(3));
+        assertEquals("[[0, 1], [2], [3], [4]]", graph.getWaves().toString());
+    }
+
+    @Test
+    public void templatesAndFiles() throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.execute(mockJson("{ 'name' : 'auth.template', 'if' : true, 'headers' : { 'Authorization' : '{token}' } }"));
+        List<JsonNode> scripts = scripts(
+                "{ 'name' : 'login', 'if' : true, 'env' : { 'token' : 'secret' } }",
+                "{ 'name' : 'use', 'template' : 'auth', 'GET' : 'http://www.example.com/a' }",
+                "{ 'name' : 'save', 'if' : true, 'GET' : 'http://www.example.com/b', 'bind' : { 'json' : '@b.json' } }",
+                "{ 'name' : 'compare', 'if' : true, 'assert' : { 'json' : '@b.json' } }");
+        DependencyGraph graph = DependencyGraph.analyze(rt, scripts);
+        assertTrue(graph.getReads(1).contains("token"));
+        assertEquals("[[0, 2], [1, 3]]", graph.getWaves().toString());
+    }
+
+    @Test
+    public void failedAssertionCount() throws UnRAVLException {
+        List<JsonNode> scripts = scripts(
+                "{ 'name' : 'a', 'env' : { 'a' : 1 } }",
+                "{ 'name' : 'b', 'if' : true, 'assert' : [ 'false' ] }",
+                "{ 'name' : 'c', 'env' : { 'c' : 1 } }",
+                "{ 'name' : 'd', 'if' : 'failedAssertionCount == 0', 'env' : { 'd' : 1 } }",
+                "{ 'name' : 'e', 'if' : true, 'env' : { 'e' : 1 } }");
+        DependencyGraph graph = DependencyGraph.analyze(new UnRAVLRuntime(),
+                scripts);
+        assertTrue(graph.getWrites(1).contains("failedAssertionCount"));
+        assertFalse(graph.getWrites(0).contains("failedAssertionCount"));
+        // scripts without an "if" read the count implicitly
+        assertTrue(graph.getReads(2).contains("failedAssertionCount"));
+        assertTrue(graph.getReads(3).contains("failedAssertionCount"));
+        assertFalse(graph.getReads(4).contains("failedAssertionCount"));
+        assertEquals("[[0, 1, 4], [2, 3]]", graph.getWaves().toString());
+    }
+
+    @Test
+    public void skipsAfterFailure() throws UnRAVLException, IOException {
+        List<JsonNode> scripts = scripts(
+                "{ 'name' : 'a', 'env' : { 'a' : 1 } }",
+                "{ 'name' : 'b', 'if' : true, 'assert' : [ 'false' ] }",
+                "{ 'name' : 'c', 'env' : { 'c' : 1 } }",
+                "{ 'name' : 'd', 'if' : 'failedAssertionCount == 0', 'env' : { 'd' : 1 } }",
+                "{ 'name' : 'e', 'if' : true, 'env' : { 'e' : 1 } }");
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.setParallelism(4);
+        rt.execute(scripts);
+        assertEquals(1, rt.getFailedAssertionCount());
+        assertEquals(5, rt.getApiCalls().size());
+        Map<String, ApiCall> calls = new HashMap<String, ApiCall>();
+        for (ApiCall call : rt.getApiCalls())
+            calls.put(call.getScript().getName(), call);
+        assertTrue(calls.get("c").wasSkipped());
+        assertTrue(calls.get("d").wasSkipped());
+        assertFalse(calls.get("e").wasSkipped());
+        assertFalse(rt.bound("c"));
+        assertFalse(rt.bound("d"));
+        assertEquals(Long.valueOf(1), rt.binding("e"));
+    }
+
+    @Test
+    public void parallelDataFlow() throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.setParallelism(4);
+        rt.execute(scripts("{ 'env' : { 'a' : 'x' } }",
+                "{ 'env' : { 'b' : '{a}y' } }",
+                "{ 'bind' : { 'groovy' : { 'c' : 'b + a' } } }",
+                "{ 'env' : { 'unrelated' : 1 } }"));
+        assertEquals("xy", rt.binding("b"));
+        assertEquals("xyx", rt.binding("c"));
+        assertEquals(0, rt.report());
+    }
+}
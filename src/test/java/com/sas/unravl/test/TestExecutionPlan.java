@@ -0,0 +1,79 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sas.unravl.ExecutionPlan;
+import com.sas.unravl.Method;
+import com.sas.unravl.PlanCache;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TestExecutionPlan extends TestBase {
+
+    @Test
+    public void flattensTemplates() throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.execute(mockJson("{ 'name' : 'base.template', 'GET' : 'http://www.example.com/{id}', 'headers' : { 'Accept' : 'application/json' } }"));
+        UnRAVL script = new UnRAVL(rt,
+                (ObjectNode) mockJson("{ 'name' : 'get', 'template' : 'base', 'headers' : { 'X-Id' : '{id}' } }"));
+        ExecutionPlan plan = script.getPlan();
+        assertEquals(1, plan.getTemplates().size());
+        assertSame(rt.getTemplate("base.template").getRoot(), plan
+                .getTemplates().get(0));
+        assertEquals(Method.GET, plan.getMethod());
+        assertEquals("http://www.example.com/{id}", plan.getURI());
+        assertEquals(2, plan.getHeaders().size());
+        assertEquals("Accept", plan.getHeaders().get(0).getName());
+        assertEquals("X-Id", plan.getHeaders().get(1).getName());
+        assertSame(plan, script.getPlan());
+    }
+
+    @Test
+    public void recompilesWhenTemplatesChange() throws UnRAVLException,
+            IOException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        UnRAVL script = new UnRAVL(rt,
+                (ObjectNode) mockJson("{ 'name' : 's', 'env' : { 'a' : 1 } }"));
+        ExecutionPlan plan = script.getPlan();
+        assertEquals(0, plan.getTemplates().size());
+        rt.execute(mockJson("{ 'name' : 'implicit.template', 'env' : { 'b' : 2 } }"));
+        ExecutionPlan recompiled = script.getPlan();
+        assertNotSame(plan, recompiled);
+        assertEquals(1, recompiled.getTemplates().size());
+        script.setURI("http://www.example.com");
+        assertNotSame(recompiled, script.getPlan());
+    }
+
+    @Test
+    public void sharesPlansOfTheSameRoot() throws UnRAVLException,
+            IOException {
+        ObjectNode root = (ObjectNode) mockJson("{ 'name' : 's', 'template' : 'base', 'assert' : [ 'a == 1' ] }");
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.execute(mockJson("{ 'name' : 'base.template', 'env' : { 'a' : 1 } }"));
+        ExecutionPlan plan = new UnRAVL(rt, root).getPlan();
+        assertSame(plan, new UnRAVL(rt, root).getPlan());
+        // a runtime with the same template roots shares the plan
+        UnRAVLRuntime other = new UnRAVLRuntime();
+        other.execute(rt.getTemplate("base.template").getRoot());
+        assertSame(plan, new UnRAVL(other, root).getPlan());
+        // an equal but different template does not
+        UnRAVLRuntime changed = new UnRAVLRuntime();
+        changed.execute(mockJson("{ 'name' : 'base.template', 'env' : { 'a' : 1 } }"));
+        ExecutionPlan recompiled = new UnRAVL(changed, root).getPlan();
+        assertNotSame(plan, recompiled);
+        long misses = PlanCache.getInstance().getMissCount();
+        for (int i = 0; i < 3; i++)
+            changed.execute(root);
+        assertEquals(misses, PlanCache.getInstance().getMissCount());
+        assertEquals(0, changed.getFailedAssertionCount());
+    }
+}
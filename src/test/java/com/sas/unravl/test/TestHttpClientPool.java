@@ -0,0 +1,31 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.sas.unravl.UnRAVLPlugins;
+import com.sas.unravl.UnRAVLRuntime;
+
+import org.apache.http.pool.PoolStats;
+import org.junit.Test;
+import org.springframework.web.client.RestTemplate;
+
+public class TestHttpClientPool extends TestBase {
+
+    @Test
+    public void sharedClient() {
+        UnRAVLPlugins plugins = new UnRAVLRuntime().getPlugins();
+        RestTemplate rt = plugins.getRestTemplate();
+        assertSame(rt, plugins.getRestTemplate());
+        assertSame(plugins.getHttpClient(), plugins.getHttpClient());
+        PoolStats stats = plugins.getPoolStats();
+        assertNotNull(stats);
+        assertEquals(0, stats.getLeased());
+        assertEquals(200, stats.getMax());
+        assertNotSame(UnRAVLPlugins.newHttpContext().getCookieStore(),
+                UnRAVLPlugins.newHttpContext().getCookieStore());
+    }
+}
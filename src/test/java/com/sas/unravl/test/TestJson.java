@@ -0,0 +1,75 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.generators.Text;
+import com.sas.unravl.util.Json;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TestJson extends TestBase {
+
+    @Test
+    public void parse() throws UnRAVLException, IOException {
+        JsonNode expected = mockJson("{ 'a' : [ 1, 2.5, 'three', null ] }");
+        String json = Json.writer().writeValueAsString(expected);
+        assertEquals("{\"a\":[1,2.5,\"three\",null]}", json);
+        assertEquals(expected, Json.parse(json));
+        assertEquals(expected, Json.parse(json.getBytes(Text.UTF_8)));
+        final boolean closed[] = { false };
+        ByteArrayInputStream in = new ByteArrayInputStream(
+                json.getBytes(Text.UTF_8)) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        assertEquals(expected, Json.parse(in));
+        assertFalse(closed[0]);
+        assertTrue(Json.prettyWriter().writeValueAsString(expected)
+                .contains("\n"));
+    }
+
+    @Test(expected = UnRAVLException.class)
+    public void invalid() throws UnRAVLException {
+        Json.parse("{ \"a\" : ");
+    }
+
+    @Test
+    public void jsonFactory() throws UnRAVLException {
+        JsonFactory original = Json.jsonFactory();
+        try {
+            JsonFactory factory = new JsonFactory();
+            factory.enable(JsonParser.Feature.ALLOW_COMMENTS);
+            Json.setJsonFactory(factory);
+            assertSame(factory, Json.jsonFactory());
+            assertEquals(1, Json.parse("/* one */ { \"a\" : 1 }").get("a")
+                    .intValue());
+        } finally {
+            Json.setJsonFactory(original);
+        }
+    }
+
+    @Test
+    public void defaultFeatures() throws UnRAVLException {
+        JsonFactory factory = Json.jsonFactory();
+        assertFalse(factory.isEnabled(JsonParser.Feature.STRICT_DUPLICATE_DETECTION));
+        assertFalse(factory.isEnabled(JsonParser.Feature.AUTO_CLOSE_SOURCE));
+        assertFalse(factory.isEnabled(JsonGenerator.Feature.AUTO_CLOSE_TARGET));
+        // the last value of a repeated key wins
+        assertEquals(2, Json.parse("{ \"a\" : 1, \"a\" : 2 }").get("a")
+                .intValue());
+    }
+}
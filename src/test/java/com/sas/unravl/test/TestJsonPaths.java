@@ -0,0 +1,85 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.PathNotFoundException;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.util.Json;
+import com.sas.unravl.util.JsonPaths;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestJsonPaths extends TestBase {
+
+    private static final String DOCUMENT = "{ 's': 'string', 'b': true, 'i': 100, 'n': 0.5, 'z' : null,"
+            + " 'o': { 'x': 0, 'y' : 'why' },"
+            + " 'a': [ { 'id' : 1, 'p' : 5 }, { 'id' : 2, 'p' : 15 }, { 'id' : 3 } ] }";
+
+    // Each path gives the same value on the tree as on Map/List objects
+    @Test
+    public void sameAsUnwrapped() throws UnRAVLException {
+        new UnRAVLRuntime(); // configures JsonPath
+        JsonNode tree = mockJson(DOCUMENT);
+        Object unwrapped = Json.unwrap(tree);
+        for (String path : new String[] { "$", "$.s", "$.b", "$.i", "$.n",
+                "$.z", "$.o", "$['o']['y']", "$.a", "$.a[1]", "$.a[1].id",
+                "$.a[-1:]", "$.a[*].id", "$..id", "$.a[0:2]",
+                "$.a[?(@.p > 10)].id", "$.o.*", "$.a.length()" }) {
+            Object expected = JsonPath.read(unwrapped, path);
+            Object actual = JsonPaths.read(tree, path);
+            if (actual instanceof JsonNode)
+                actual = Json.unwrap(actual);
+            assertEquals(path, Json.wrap(expected), Json.wrap(actual));
+        }
+    }
+
+    @Test
+    public void readSeveral() throws UnRAVLException {
+        JsonNode tree = mockJson(DOCUMENT);
+        List<Object> values = JsonPaths.read(tree,
+                Arrays.asList("$.a[0].id", "$.a[0].p", "$.o.y", "$..p"));
+        assertEquals(1, values.get(0));
+        assertEquals(5, values.get(1));
+        assertEquals("why", values.get(2));
+        assertEquals(2, ((JsonNode) values.get(3)).size());
+        assertSame(tree.get("o"), JsonPaths.read(tree, "$.o"));
+    }
+
+    @Test(expected = PathNotFoundException.class)
+    public void notFound() throws UnRAVLException {
+        JsonPaths.read(mockJson(DOCUMENT), "$.o.nope");
+    }
+
+    @Test
+    public void compiledOnce() {
+        String path = "$.compiledOnce[?(@.x)]";
+        long misses = JsonPaths.getMissCount();
+        assertSame(JsonPaths.compile(path), JsonPaths.compile(path));
+        assertEquals(misses + 1, JsonPaths.getMissCount());
+    }
+
+    @Test
+    public void extractor() throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.bind("doc", mockJson(DOCUMENT));
+        rt.execute(mockJson("{ 'bind' : ["
+                + "{ 'jsonPath' : { 'ids' : '$.a[*].id', 'y' : '$.o.y', 'o' : '$.o' }, 'from' : 'doc' },"
+                + "{ 'jsonPath' : { 'first' : '$[0]' }, 'from' : 'ids' },"
+                + "{ 'jsonPath' : { 'wrapped' : '$.a[0]' }, 'from' : 'doc', 'wrap' : true } ] }"));
+        assertEquals(Arrays.asList(1, 2, 3), rt.binding("ids"));
+        assertEquals("why", rt.binding("y"));
+        assertTrue(rt.binding("o") instanceof java.util.Map);
+        assertEquals(1, rt.binding("first"));
+        assertEquals(mockJson("{ 'id' : 1, 'p' : 5 }"), rt.binding("wrapped"));
+    }
+}
@@ -0,0 +1,111 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sas.unravl.LoadStatistics;
+import com.sas.unravl.util.LatencyHistogram;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TestLatencyHistogram extends TestBase {
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 100000; v++)
+            h.record(v * 1000L);
+        assertEquals(100000, h.getCount());
+        assertEquals(1000L, h.getMin());
+        assertEquals(100000000L, h.getMax());
+        assertEquals(50000500L, h.getMean());
+        assertWithin(50000000L, h.getPercentile(50));
+        assertWithin(99000000L, h.getPercentile(99));
+        assertEquals(100000000L, h.getPercentile(100));
+        h.record(-5);
+        assertEquals(0L, h.getMin());
+        h.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, h.getMax());
+    }
+
+    // values are within 1/128 of the upper bound of their bucket
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " is not near " + expected, actual >= expected
+                && actual <= expected + expected / 128);
+    }
+
+    @Test
+    public void concurrentRecording() throws InterruptedException {
+        final LatencyHistogram h = new LatencyHistogram(4);
+        Thread threads[] = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++)
+                        h.record(i);
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(80000, h.getCount());
+        assertEquals(9999L, h.getMax());
+    }
+
+    @Test
+    public void mergeAndSerialize() throws IOException {
+        LatencyHistogram a = new LatencyHistogram(1);
+        LatencyHistogram b = new LatencyHistogram(2);
+        for (int i = 1; i <= 1000; i++) {
+            a.record(i * 1000L);
+            b.record(i * 1000000L);
+        }
+        a.add(b);
+        assertEquals(2000, a.getCount());
+        assertEquals(1000000000L, a.getMax());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        a.writeTo(new DataOutputStream(bytes));
+        assertTrue(bytes.size() < 4000);
+        LatencyHistogram c = LatencyHistogram.readFrom(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(a.getCount(), c.getCount());
+        assertEquals(a.getSum(), c.getSum());
+        assertEquals(a.getMin(), c.getMin());
+        assertEquals(a.getMax(), c.getMax());
+        assertEquals(a.getPercentile(75), c.getPercentile(75));
+    }
+
+    @Test
+    public void responseTime() throws IOException {
+        LoadStatistics stats = new LoadStatistics();
+        stats.add("s", 10000000L, 0L, false);
+        stats.add("s", 10000000L, 90000000L, true);
+        LoadStatistics.ScriptStatistics s = stats.getScripts().get("s");
+        assertEquals(10000000L, s.getServiceTime().getMax());
+        assertEquals(100000000L, s.getResponseTime().getMax());
+
+        File file = File.createTempFile("unravl", ".stats");
+        try {
+            stats.save(file);
+            LoadStatistics loaded = LoadStatistics.load(file);
+            loaded.merge(stats);
+            s = loaded.getScripts().get("s");
+            assertEquals(4, s.getCount());
+            assertEquals(2, s.getErrors());
+            assertEquals(100000000L, s.getResponseTime().getMax());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.sas.unravl.LayeredBindings;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+
+import java.io.IOException;
+
+import javax.script.ScriptException;
+
+import org.junit.Test;
+
+public class TestLayeredBindings extends TestBase {
+
+    @Test
+    public void layers() {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.bind("x", "env");
+        LayeredBindings b = new LayeredBindings(rt);
+        assertEquals("env", b.get("x"));
+        b.put("x", "changed");
+        assertEquals("changed", rt.binding("x"));
+        b.put("y", "local");
+        b.put("out", "reserved");
+        assertEquals("local", b.get("y"));
+        assertFalse(rt.bound("y"));
+        assertFalse(rt.bound("out"));
+        assertEquals(2, b.getLocal().size());
+        assertTrue(b.entrySet().size() >= rt.getBindings().size() + 2);
+    }
+
+    @Test
+    public void scriptsWriteThrough() throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.bind("x", 1);
+        rt.execute(mockJson("{ 'name' : 'assign', 'assert' : [ 'x = 2; y = 3; true' ] }"));
+        assertEquals(0, rt.getFailedAssertionCount());
+        assertEquals(2, rt.binding("x"));
+        assertFalse(rt.bound("y"));
+    }
+
+    @Test
+    public void lazySystemProperties() throws ScriptException, UnRAVLException {
+        System.setProperty(UnRAVLRuntime.SYSTEM_PROPERTIES_MODE_PROPERTY,
+                "lazy");
+        System.setProperty("unravlLazyTest", "yes");
+        try {
+            UnRAVLRuntime rt = new UnRAVLRuntime();
+            assertTrue(rt.isLazySystemProperties());
+            assertFalse(rt.getBindings().containsKey("unravlLazyTest"));
+            assertTrue(rt.bound("unravlLazyTest"));
+            assertEquals("yes", rt.binding("unravlLazyTest"));
+            assertEquals("yes!", rt.expand("{unravlLazyTest}!"));
+            assertEquals("yes?", rt.evaluate("unravlLazyTest + '?'", null));
+            rt.bind("unravlLazyTest", "no");
+            assertEquals("no", rt.expand("{unravlLazyTest}"));
+        } finally {
+            System.clearProperty(UnRAVLRuntime.SYSTEM_PROPERTIES_MODE_PROPERTY);
+            System.clearProperty("unravlLazyTest");
+        }
+        assertFalse(new UnRAVLRuntime().isLazySystemProperties());
+    }
+}
@@ -0,0 +1,56 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sas.unravl.LoadStatistics;
+import com.sas.unravl.LoadTest;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestLoadTest extends TestBase {
+
+    @Test
+    public void iterations() throws UnRAVLException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.bind("n", 0);
+        List<JsonNode> scripts = Arrays.asList(
+                mockJson("{ 'name' : 'count', 'bind' : { 'groovy' : { 'n' : 'n + 1' } } }"),
+                mockJson("{ 'name' : 'odd', 'assert' : [ 'n % 2 == 1' ] }"));
+        LoadStatistics stats = new LoadTest().setUsers(4).setIterations(5)
+                .run(rt, scripts);
+        assertEquals(40, stats.getCalls());
+        LoadStatistics.ScriptStatistics count = stats.getScripts().get("count");
+        LoadStatistics.ScriptStatistics odd = stats.getScripts().get("odd");
+        assertEquals(20, count.getCount());
+        assertEquals(0, count.getErrors());
+        // each user has its own n, so 2 of each user's 5 iterations fail
+        assertEquals(8, odd.getErrors());
+        assertEquals(0.4, odd.getErrorRate(), 0.0001);
+        assertTrue(odd.getPercentile(50) <= odd.getPercentile(99));
+        assertTrue(odd.getPercentile(99) <= odd.getMax());
+        assertTrue(stats.getElapsedNanos() > 0);
+        // the parent runtime is not changed
+        assertEquals(0, rt.getApiCalls().size());
+        assertEquals(0, rt.binding("n"));
+    }
+
+    @Test
+    public void duration() throws UnRAVLException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        LoadStatistics stats = new LoadTest().setUsers(2)
+                .setDuration(200, TimeUnit.MILLISECONDS)
+                .run(rt, Arrays.asList(mockJson("{ 'name' : 'noop' }")));
+        assertTrue(stats.getCalls() >= 2);
+        assertTrue(stats.getElapsedNanos() >= TimeUnit.MILLISECONDS
+                .toNanos(200));
+    }
+}
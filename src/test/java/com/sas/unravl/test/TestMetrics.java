@@ -0,0 +1,159 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLPlugins;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.generators.Text;
+import com.sas.unravl.metrics.Counter;
+import com.sas.unravl.metrics.JmxExporter;
+import com.sas.unravl.metrics.MetricsRegistry;
+import com.sas.unravl.metrics.PrometheusExporter;
+import com.sas.unravl.metrics.UnRAVLMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.junit.Test;
+import org.springframework.web.client.RestTemplate;
+
+public class TestMetrics extends TestBase {
+
+    @Test
+    public void prometheusFormat() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter c = registry.counter("test_total", "A \"test\" counter",
+                "name", "a\"b");
+        c.add(3);
+        registry.summary("test_seconds", "Latency").record(2000000000L);
+        String text = new PrometheusExporter(registry).scrape();
+        assertTrue(text.contains("# TYPE test_total counter\n"));
+        assertTrue(text.contains("test_total{name=\"a\\\"b\"} 3\n"));
+        assertTrue(text.contains("# TYPE test_seconds summary\n"));
+        assertTrue(text.contains("test_seconds_count 1\n"));
+        assertTrue(text.contains("test_seconds{quantile=\"0.5\"} "));
+        assertEquals("script=\"x\",status=\"2xx\"",
+                MetricsRegistry.labels("script", "x", "status", "2xx"));
+    }
+
+    @Test
+    public void callMetrics() throws UnRAVLException, IOException,
+            JMException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        UnRAVLMetrics metrics = rt.getMetrics();
+        metrics.setEnabled(true);
+        try {
+            rt.execute(mockJson("{ 'name' : 'metrics test', 'env' : { 'x' : 1 },"
+                    + " 'assert' : [ 'x == 1', 'x == 2' ] }"));
+            String text = new PrometheusExporter(metrics.getRegistry())
+                    .scrape();
+            assertTrue(text.contains("unravl_calls_total{script=\"metrics test\",status=\"none\"} 1\n"));
+            assertTrue(text.contains("unravl_assertions_total{script=\"metrics test\",result=\"passed\"} 1\n"));
+            assertTrue(text.contains("unravl_assertions_total{script=\"metrics test\",result=\"failed\"} 1\n"));
+            assertTrue(text.contains("unravl_call_duration_seconds_count{script=\"metrics test\"} 1\n"));
+            assertTrue(text.contains("unravl_calls_in_flight 0\n"));
+
+            JmxExporter jmx = new JmxExporter(metrics.getRegistry());
+            ObjectName name = jmx.register();
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                assertEquals(Double.valueOf(1.0), server.getAttribute(name,
+                        "unravl_calls_total{script=\"metrics test\",status=\"none\"}"));
+                assertEquals(Double.valueOf(1.0), server.getAttribute(name,
+                        "unravl_call_duration_seconds_count{script=\"metrics test\"}"));
+                try {
+                    server.invoke(name, "reset", new Object[0], new String[0]);
+                    fail("invoke should have thrown ReflectionException");
+                } catch (ReflectionException e) {
+                    assertTrue(e.getCause() instanceof NoSuchMethodException);
+                }
+            } finally {
+                jmx.unregister();
+            }
+        } finally {
+            metrics.setEnabled(false);
+        }
+    }
+
+    @Test
+    public void endpoint() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.gauge("test_gauge", "A gauge").set(42);
+        PrometheusExporter exporter = new PrometheusExporter(registry);
+        InetSocketAddress address = exporter.start(0);
+        try {
+            URL url = new URL("http://localhost:" + address.getPort()
+                    + "/metrics");
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            assertEquals(200, conn.getResponseCode());
+            assertEquals(PrometheusExporter.CONTENT_TYPE,
+                    conn.getContentType());
+            InputStream in = conn.getInputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            for (int b = in.read(); b >= 0; b = in.read())
+                body.write(b);
+            in.close();
+            assertTrue(new String(body.toByteArray(), Text.UTF_8)
+                    .contains("test_gauge 42\n"));
+        } finally {
+            exporter.close();
+        }
+    }
+
+    @Test
+    public void poolLeases() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte body[] = "ok".getBytes(Text.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        UnRAVLMetrics metrics = rt.getMetrics();
+        metrics.setEnabled(true);
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort()
+                    + "/";
+            Counter leases = metrics.getRegistry().counter(
+                    "unravl_http_pool_leases_total",
+                    "Connections leased from the shared HTTP connection pool");
+            double before = leases.get();
+            // a client of its own does not lease from the shared pool
+            UnRAVLPlugins.newRestTemplate().getForObject(url, String.class);
+            assertEquals(before, leases.get(), 0.0);
+            RestTemplate pooled = rt.getPlugins().getRestTemplate();
+            pooled.getForObject(url, String.class);
+            pooled.getForObject(url, String.class);
+            assertEquals(before + 2, leases.get(), 0.0);
+        } finally {
+            metrics.setEnabled(false);
+            server.stop(0);
+        }
+    }
+}
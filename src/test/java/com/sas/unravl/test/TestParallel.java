@@ -0,0 +1,97 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestParallel extends TestBase {
+
+    @Test
+    public void mergesInScriptOrder() throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.setParallelism(4);
+        List<JsonNode> scripts = new ArrayList<JsonNode>();
+        for (int i = 0; i < 12; i++) {
+            scripts.add(mockJson("{ 'name' : 's" + i + "', 'env' : { 'v" + i
+                    + "' : " + i + ", 'last' : " + i + " } }"));
+        }
+        rt.execute(scripts);
+        assertEquals(12, rt.getApiCalls().size());
+        for (int i = 0; i < 12; i++) {
+            ApiCall call = rt.getApiCalls().get(i);
+            assertEquals("s" + i, call.getScript().getName());
+            assertNotSame(rt, call.getRuntime());
+            assertEquals(Long.valueOf(i), rt.binding("v" + i));
+        }
+        // the last script in list order wins
+        assertEquals(Long.valueOf(11), rt.binding("last"));
+        assertEquals(0, rt.report());
+    }
+
+    // the outcome of running scripts with some parallelism and scheduling
+    private static String outcome(int parallelism, boolean dependencies,
+            List<JsonNode> scripts) throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.setParallelism(parallelism);
+        rt.setDependencyScheduling(dependencies);
+        rt.execute(scripts);
+        StringBuilder b = new StringBuilder();
+        for (ApiCall call : rt.getApiCalls())
+            b.append(call.getScript().getName())
+                    .append(call.wasSkipped() ? " skipped, " : " ran, ");
+        return b.append(rt.getFailedAssertionCount()).append(" failed, ")
+                .append(rt.binding("failedAssertionCount")).append(", ")
+                .append(rt.report()).toString();
+    }
+
+    @Test
+    public void countsFailedAssertions() throws UnRAVLException, IOException {
+        List<JsonNode> scripts = new ArrayList<JsonNode>();
+        scripts.add(mockJson("{ 'name' : 'a', 'env' : { 'a' : 1 } }"));
+        scripts.add(mockJson("{ 'name' : 'b', 'assert' : [ 'false' ] }"));
+        scripts.add(mockJson("{ 'name' : 'c', 'assert' : [ '1 == 2' ] }"));
+        scripts.add(mockJson("{ 'name' : 'd', 'assert' : [ 'true' ] }"));
+        scripts.add(mockJson("{ 'name' : 'e', 'if' : true, 'assert' : [ '1 == 2' ] }"));
+        scripts.add(mockJson("{ 'name' : 'f', 'if' : 'failedAssertionCount < 2', 'env' : { 'f' : 1 } }"));
+        String sequential = outcome(1, true, scripts);
+        assertEquals("a ran, b ran, c skipped, d skipped, e ran, f skipped, "
+                + "2 failed, 2, 2", sequential);
+        assertEquals(sequential, outcome(3, true, scripts));
+        assertEquals(sequential, outcome(3, false, scripts));
+    }
+
+    @Test
+    public void templatesAreBarriers() throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.setParallelism(2);
+        rt.execute(
+                mockJson("{ 'name' : 'x.template', 'env' : { 'fromTemplate' : 'yes' } }"),
+                mockJson("{ 'name' : 'one', 'template' : 'x', 'assert' : [ 'fromTemplate != null' ] }"),
+                mockJson("{ 'name' : 'two', 'template' : 'x', 'bind' : { 'groovy' : { 'two' : 'fromTemplate + 2' } } }"));
+        // scripts defined by workers are registered in the parent runtime
+        rt.execute(mockJson("'one'"), mockJson("'two'"));
+        assertEquals(5, rt.getApiCalls().size());
+        assertEquals(0, rt.getFailedAssertionCount());
+        assertEquals("yes2", rt.binding("two"));
+        assertSame(rt, rt.getScripts().get("two").getRuntime());
+        assertFalse(rt.isCanceled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroParallelism() {
+        new UnRAVLRuntime().setParallelism(0);
+    }
+}
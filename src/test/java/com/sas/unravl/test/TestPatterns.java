@@ -0,0 +1,48 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.sas.unravl.util.Patterns;
+
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+public class TestPatterns {
+
+    @Test
+    public void cached() {
+        String regex = "^TestPatterns.cached (\\d+)$";
+        long misses = Patterns.getMissCount();
+        long hits = Patterns.getHitCount();
+        assertSame(Patterns.compile(regex), Patterns.compile(regex));
+        assertTrue(Patterns.matches(regex, "TestPatterns.cached 42"));
+        assertFalse(Patterns.matches(regex, "TestPatterns.cached x"));
+        assertEquals(misses + 1, Patterns.getMissCount());
+        assertTrue(Patterns.getHitCount() >= hits + 3);
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void invalid() {
+        Patterns.compile("(");
+    }
+
+    @Test
+    public void status() {
+        assertTrue(Patterns.statusMatches("2..", 200));
+        assertTrue(Patterns.statusMatches("2..", 299));
+        assertFalse(Patterns.statusMatches("2..", 301));
+        assertTrue(Patterns.statusMatches("404", 404));
+        assertFalse(Patterns.statusMatches("404", 400));
+        assertTrue(Patterns.statusMatches(".0.", 204));
+        assertFalse(Patterns.statusMatches("2..", 2000));
+        // not simple: regular expressions
+        assertTrue(Patterns.statusMatches("20[01]|404", 201));
+        assertTrue(Patterns.statusMatches("2\\d\\d", 250));
+        assertFalse(Patterns.statusMatches("20", 200));
+    }
+}
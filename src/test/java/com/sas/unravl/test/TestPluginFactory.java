@@ -0,0 +1,45 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.sas.unravl.PluginFactory;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLPlugins;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.assertions.StatusAssertion;
+import com.sas.unravl.assertions.UnRAVLAssertion;
+
+import org.junit.Test;
+
+public class TestPluginFactory extends TestBase {
+
+    @Test
+    public void registeredFactories() throws UnRAVLException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        UnRAVLPlugins plugins = rt.getPlugins();
+        assertSame(plugins, new UnRAVLRuntime().getPlugins());
+        PluginFactory<UnRAVLAssertion> status = plugins
+                .getAssertionFactory("status");
+        assertNotNull(status);
+        assertEquals(StatusAssertion.class, status.getType());
+        assertSame(status, plugins.factory(StatusAssertion.class));
+        UnRAVLAssertion a1 = status.newInstance();
+        UnRAVLAssertion a2 = status.newInstance();
+        assertEquals(StatusAssertion.class, a1.getClass());
+        assertNotSame(a1, a2);
+        assertNull(plugins.getAssertionFactory("noSuchAssertion"));
+        assertNotNull(plugins.getExtractorFactory("json"));
+        assertNotNull(plugins.getBodyGeneratorFactory("json"));
+        assertNotNull(plugins.getAuthFactory("basic"));
+    }
+
+    @Test(expected = UnRAVLException.class)
+    public void noDefaultConstructor() throws UnRAVLException {
+        PluginFactory.of(Integer.class).newInstance();
+    }
+}
@@ -0,0 +1,116 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.generators.Binary;
+import com.sas.unravl.generators.FileRequestBody;
+import com.sas.unravl.util.Json;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestRequestBody extends TestBase {
+
+    // larger than the default unravl.body.stream.bytes
+    private static final int SIZE = 3 * 1024 * 1024 / 2;
+
+    private static File file;
+    private static byte content[];
+
+    @BeforeClass
+    public static void createFile() throws IOException {
+        file = File.createTempFile("body", ".bin");
+        content = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++)
+            content[i] = (byte) (i * 31);
+        Files.write(file.toPath(), content);
+    }
+
+    @AfterClass
+    public static void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void streamsFileBody() throws IOException, UnRAVLException {
+        final AtomicLong received = new AtomicLong();
+        final AtomicReference<String> contentLength = new AtomicReference<String>();
+        HttpServer server = HttpServer.create(new InetSocketAddress(
+                "localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                contentLength.set(exchange.getRequestHeaders().getFirst(
+                        "Content-Length"));
+                InputStream in = exchange.getRequestBody();
+                byte buffer[] = new byte[8192];
+                long total = 0L;
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+                    total += n;
+                received.set(total);
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort()
+                    + "/upload";
+            UnRAVLRuntime r = new UnRAVLRuntime();
+            UnRAVL script = new UnRAVL(r, Json.object(mockJson("{'POST':'"
+                    + url + "', 'body':{'binary':'@" + path() + "'}}")));
+            ApiCall call = script.run();
+            assertEquals(204, call.getHttpStatus());
+            assertEquals(SIZE, received.get());
+            assertEquals(Integer.toString(SIZE), contentLength.get());
+            assertEquals(file, r.binding("requestBody"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void boundedRequestBodyView() throws IOException, UnRAVLException {
+        UnRAVLRuntime r = new UnRAVLRuntime();
+        UnRAVL script = new UnRAVL(r, Json.object(mockJson("{'body':{'binary':'@"
+                + path() + "'}}")));
+        ApiCall call = new ApiCall(script);
+        call.run();
+        assertTrue(call.getRequestStream() instanceof FileRequestBody);
+
+        @SuppressWarnings("deprecation")
+        byte view[] = call.getRequestBody().toByteArray();
+        assertEquals(ApiCall.DEFAULT_REQUEST_BODY_VIEW_BYTES, view.length);
+        assertTrue(Arrays.equals(Arrays.copyOf(content, view.length), view));
+
+        // the view does not consume the body
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        Binary.copy(call.getRequestStream(), all);
+        assertTrue(Arrays.equals(content, all.toByteArray()));
+    }
+
+    // a path which can be used in JSON
+    private static String path() {
+        return file.getPath().replace('\\', '/');
+    }
+}
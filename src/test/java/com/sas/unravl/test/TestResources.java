@@ -0,0 +1,71 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.generators.Binary;
+import com.sas.unravl.generators.Resources;
+import com.sas.unravl.generators.Text;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestResources extends TestBase {
+
+    @Test
+    public void cached() throws IOException, UnRAVLException {
+        File file = File.createTempFile("resource", ".txt");
+        try {
+            write(file, "Hello, {name}".getBytes(Text.UTF_8));
+            byte first[] = Resources.bytes(file.getPath());
+            long misses = Resources.getMissCount();
+            assertSame(first, Resources.bytes(file.getPath()));
+            assertSame(first, Resources.bytes(file.toURI().toString()));
+            assertEquals(misses, Resources.getMissCount());
+
+            UnRAVL script = new UnRAVL(new UnRAVLRuntime());
+            script.bind("file", file.getPath());
+            script.bind("name", "World");
+            assertEquals("Hello, {name}",
+                    new Text(script, "@{file}").text());
+            assertArrayEquals(first, new Binary(script,
+                    mockJson("'@{file}'")).bytes());
+
+            write(file, "Goodbye".getBytes(Text.UTF_8));
+            assertEquals("Goodbye", Resources.text(file.getPath()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void largeFile() throws IOException {
+        File file = File.createTempFile("resource", ".bin");
+        try {
+            byte bytes[] = new byte[1024 * 1024 + 12345];
+            new Random(42).nextBytes(bytes);
+            write(file, bytes);
+            assertArrayEquals(bytes, Resources.bytes(file.getPath()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void missing() throws IOException {
+        Resources.bytes("/no/such/resource.txt");
+    }
+
+    private static void write(File file, byte bytes[]) throws IOException {
+        Files.write(file.toPath(), bytes);
+    }
+}
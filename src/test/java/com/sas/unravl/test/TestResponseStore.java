@@ -0,0 +1,84 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sas.unravl.ApiResponse;
+import com.sas.unravl.ResponseStore;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.generators.Binary;
+import com.sas.unravl.generators.Text;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import org.junit.Test;
+
+public class TestResponseStore {
+
+    private static final String JSON = "{\"items\":[1,2,3],\"name\":\"store\"}";
+
+    @Test
+    public void smallBodiesStayInMemory() throws IOException,
+            UnRAVLException {
+        byte body[] = JSON.getBytes(Text.UTF_8);
+        ApiResponse known = read(body, body.length, 1024);
+        assertFalse(known.isSpilled());
+        assertEquals(JSON, known.text());
+
+        ApiResponse unknown = read(body, -1L, 1024);
+        assertFalse(unknown.isSpilled());
+        assertArrayEquals(body, unknown.bytes());
+        assertEquals("store", unknown.json().get("name").textValue());
+
+        ApiResponse empty = read(new byte[0], 0L, 0);
+        assertFalse(empty.isSpilled());
+        assertEquals(0, empty.size());
+    }
+
+    @Test
+    public void largeBodiesSpillToFile() throws IOException, UnRAVLException {
+        byte body[] = JSON.getBytes(Text.UTF_8);
+        ApiResponse response = read(body, -1L, 16);
+        assertTrue(response.isSpilled());
+        assertEquals(body.length, response.length());
+        assertEquals(JSON, response.text());
+        assertEquals(3, response.json().get("items").size());
+        assertArrayEquals(body, response.bytes());
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        Binary.copy(response.inputStream(), copy);
+        assertArrayEquals(body, copy.toByteArray());
+
+        ByteBuffer view = response.buffer();
+        assertEquals(body.length, view.remaining());
+        try {
+            view.put(0, (byte) 0);
+            fail("the view should be read-only");
+        } catch (ReadOnlyBufferException e) {
+        }
+
+        response.release();
+        try {
+            response.buffer();
+            fail("a released body should not be readable");
+        } catch (IllegalStateException e) {
+        }
+        // already computed forms are kept
+        assertEquals(JSON, response.text());
+    }
+
+    private static ApiResponse read(byte body[], long expectedLength,
+            long spillBytes) throws IOException {
+        ResponseStore store = new ResponseStore(expectedLength, spillBytes);
+        assertEquals(body.length,
+                store.readFrom(new ByteArrayInputStream(body)));
+        return store.toResponse();
+    }
+}
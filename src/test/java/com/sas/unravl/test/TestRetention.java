@@ -0,0 +1,96 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sas.unravl.ApiCallSummary;
+import com.sas.unravl.RetentionPolicy;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestRetention extends TestBase {
+
+    // ten scripts; s3 and s7 each fail one assertion. They all run, even
+    // after an assertion fails.
+    private static List<JsonNode> scripts() throws UnRAVLException {
+        List<JsonNode> scripts = new ArrayList<JsonNode>();
+        for (int i = 0; i < 10; i++) {
+            String assertion = i % 4 == 3 ? "false" : "true";
+            scripts.add(mockJson("{ 'name' : 's" + i
+                    + "', 'if' : true, 'assert' : [ '"
+                    + assertion + "' ] }"));
+        }
+        return scripts;
+    }
+
+    private static UnRAVLRuntime run(RetentionPolicy policy, int limit,
+            int parallelism) throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.setRetentionPolicy(policy, limit);
+        rt.setParallelism(parallelism);
+        rt.execute(scripts());
+        assertEquals(10, rt.getCallCount());
+        assertEquals(2, rt.report());
+        return rt;
+    }
+
+    @Test
+    public void all() throws UnRAVLException, IOException {
+        assertEquals(10, run(RetentionPolicy.ALL, 1, 1).getApiCalls().size());
+    }
+
+    @Test
+    public void lastN() throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = run(RetentionPolicy.LAST_N, 3, 1);
+        assertEquals(3, rt.getApiCalls().size());
+        assertEquals("s7", rt.getApiCalls().get(0).getScript().getName());
+        assertEquals("s9", rt.getApiCalls().get(2).getScript().getName());
+    }
+
+    @Test
+    public void failures() throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = run(RetentionPolicy.FAILURES, 1, 1);
+        assertEquals(2, rt.getApiCalls().size());
+        assertEquals("s3", rt.getApiCalls().get(0).getScript().getName());
+        assertEquals("s7", rt.getApiCalls().get(1).getScript().getName());
+    }
+
+    @Test
+    public void summaries() throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = run(RetentionPolicy.SUMMARIES, 1, 1);
+        assertEquals(0, rt.getApiCalls().size());
+        List<ApiCallSummary> summaries = rt.getApiCallSummaries();
+        assertEquals(10, summaries.size());
+        ApiCallSummary s3 = summaries.get(3);
+        assertEquals("s3", s3.getScriptName());
+        assertEquals(1, s3.getFailedCount());
+        assertTrue(s3.isFailure());
+        assertEquals(1, summaries.get(4).getPassedCount());
+    }
+
+    @Test
+    public void countsAreExactWhenMerged() throws UnRAVLException,
+            IOException {
+        assertEquals(3, run(RetentionPolicy.LAST_N, 3, 4).getApiCalls()
+                .size());
+        assertEquals(2, run(RetentionPolicy.FAILURES, 1, 4).getApiCalls()
+                .size());
+        assertEquals(10, run(RetentionPolicy.SUMMARIES, 1, 4)
+                .getApiCallSummaries().size());
+    }
+
+    @Test
+    public void parse() {
+        assertEquals(RetentionPolicy.ALL, RetentionPolicy.parse("all"));
+        assertEquals(RetentionPolicy.FAILURES, RetentionPolicy.parse("Failures"));
+        assertEquals(RetentionPolicy.LAST_N, RetentionPolicy.parse("500"));
+    }
+}
@@ -0,0 +1,85 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.fge.jsonschema.main.JsonSchema;
+import com.sas.unravl.ApiCall;
+import com.sas.unravl.UnRAVL;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+import com.sas.unravl.assertions.JsonSchemas;
+import com.sas.unravl.generators.Text;
+import com.sas.unravl.util.Json;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class TestSchemaCache extends TestBase {
+
+    @Test
+    public void compileOnce() throws UnRAVLException {
+        JsonSchemas schemas = new JsonSchemas(10);
+        JsonSchema a = schemas.compile(mockJson("{ 'maxItems' : 2 }"));
+        JsonSchema b = schemas.compile(mockJson("{ 'maxItems' : 2 }"));
+        assertSame(a, b);
+        assertEquals(1, schemas.getMissCount());
+        assertEquals(1, schemas.getHitCount());
+        schemas.compile(mockJson("{ 'maxItems' : 3 }"));
+        assertEquals(2, schemas.getMissCount());
+    }
+
+    @Test(expected = UnRAVLException.class)
+    public void invalidSchema() throws UnRAVLException {
+        new JsonSchemas(10).compile(mockJson("{ 'maxItems' : 'two' }"));
+    }
+
+    @Test
+    public void reloadChangedFile() throws IOException, UnRAVLException {
+        File file = File.createTempFile("schema", ".json");
+        file.deleteOnExit();
+        try {
+            JsonSchemas schemas = new JsonSchemas(10);
+            UnRAVL script = new UnRAVL(new UnRAVLRuntime());
+            String ref = "@" + file.getPath();
+            write(file, "{ \"maxItems\" : 2 }");
+            JsonNode first = schemas.load(script, ref);
+            assertSame(first, schemas.load(script, ref));
+            write(file, "{ \"maxItems\" : 10 }");
+            JsonNode second = schemas.load(script, ref);
+            assertEquals(10, second.get("maxItems").intValue());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void parallelValues() throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        rt.execute(mockJson("{ 'env' : { 'a' : [1], 'b' : [1,2], 'c' : [], 'd' : [1,2,3] },"
+                + " 'assert' : [ { 'schema' : { 'maxItems' : 2 }, 'values' : [ 'a', 'b', 'c' ] } ] }"));
+        assertTrue(rt.getApiCalls().get(0).getFailedAssertions().isEmpty());
+        rt.reset();
+        try {
+            rt.execute(mockJson("{ 'env' : { 'a' : [1], 'b' : [1,2,3], 'c' : [], 'd' : [1,2,3] },"
+                    + " 'assert' : [ { 'schema' : { 'maxItems' : 2 }, 'values' : [ 'a', 'b', 'c', 'd' ] } ] }"));
+        } catch (UnRAVLException e) {
+            // the assertion failure is recorded below
+        }
+        ApiCall call = rt.getApiCalls().get(0);
+        assertFalse(call.getFailedAssertions().isEmpty());
+    }
+
+    private static void write(File file, String json) throws IOException,
+            UnRAVLException {
+        Json.parse(json); // check that the test schema is JSON
+        Files.write(file.toPath(), json.getBytes(Text.UTF_8));
+    }
+}
@@ -0,0 +1,89 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sas.unravl.ScriptCache;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.generators.Text;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestScriptCache {
+
+    @Test
+    public void file() throws IOException, UnRAVLException {
+        File file = File.createTempFile("script", ".json");
+        try {
+            ScriptCache cache = new ScriptCache(10);
+            write(file, "[ { \"name\" : \"a\" }, { \"name\" : \"b\" } ]");
+            List<JsonNode> roots = cache.read(file.getPath());
+            assertEquals(2, roots.size());
+            assertEquals(roots, cache.read(file.toURI().toString()));
+            assertEquals(1, cache.getMissCount());
+            assertEquals(1, cache.getHitCount());
+
+            write(file, "{ \"name\" : \"changed\" }");
+            roots = cache.read(file.getPath());
+            assertEquals(1, roots.size());
+            assertEquals("changed", roots.get(0).get("name").textValue());
+            assertEquals(2, cache.getMissCount());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void etag() throws IOException, UnRAVLException {
+        final AtomicInteger bodies = new AtomicInteger();
+        final byte body[] = "{ \"name\" : \"remote\" }".getBytes(Text.UTF_8);
+        HttpServer server = HttpServer.create(new InetSocketAddress(
+                "localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst(
+                        "If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                bodies.incrementAndGet();
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        try {
+            ScriptCache cache = new ScriptCache(10);
+            String url = "http://localhost:" + server.getAddress().getPort()
+                    + "/script.json";
+            for (int i = 0; i < 3; i++)
+                assertEquals("remote",
+                        cache.read(url).get(0).get("name").textValue());
+            assertEquals(1, bodies.get());
+            assertEquals(2, cache.getHitCount());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void write(File file, String json) throws IOException {
+        Files.write(file.toPath(), json.getBytes(Text.UTF_8));
+    }
+}
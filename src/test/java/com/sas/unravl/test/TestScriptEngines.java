@@ -0,0 +1,65 @@
+// Copyright (c) 2015, SAS Institute Inc., Cary, NC, USA, All Rights Reserved
+package com.sas.unravl.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sas.unravl.ScriptEngines;
+import com.sas.unravl.UnRAVLException;
+import com.sas.unravl.UnRAVLRuntime;
+
+import java.io.IOException;
+
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+import org.junit.Test;
+
+public class TestScriptEngines extends TestBase {
+
+    @Test
+    public void cachesCompiledScripts() throws ScriptException,
+            UnRAVLException {
+        ScriptEngines engines = new ScriptEngines(10, 2);
+        SimpleBindings b1 = new SimpleBindings();
+        b1.put("x", 2);
+        SimpleBindings b2 = new SimpleBindings();
+        b2.put("x", 5);
+        assertEquals(3, engines.eval("groovy", "x + 1", b1));
+        assertEquals(6, engines.eval("groovy", "x + 1", b2));
+        // an alias of the same language shares the cache
+        assertEquals(3, engines.eval("Groovy", "x + 1", b1));
+        ScriptEngines.Stats stats = engines.getStats();
+        assertEquals(1, stats.getMissCount());
+        assertEquals(2, stats.getHitCount());
+        assertEquals(1, stats.getSize());
+        assertTrue(stats.getCompileNanos() > 0);
+    }
+
+    @Test
+    public void recyclesSharedEngine() throws ScriptException,
+            UnRAVLException {
+        ScriptEngines engines = new ScriptEngines(2, 2);
+        SimpleBindings b = new SimpleBindings();
+        for (int i = 0; i < 5; i++)
+            assertEquals(i, engines.eval("groovy", Integer.toString(i), b));
+        ScriptEngines.Stats stats = engines.getStats();
+        assertEquals(5, stats.getMissCount());
+        assertEquals(2, stats.getSize());
+        assertEquals(3, stats.getEnginesCreated());
+    }
+
+    @Test
+    public void runtimeUsesCache() throws UnRAVLException, IOException {
+        UnRAVLRuntime rt = new UnRAVLRuntime();
+        ScriptEngines.Stats before = rt.getPlugins().getScriptEngines()
+                .getStats();
+        rt.bind("limit", 10);
+        for (int i = 0; i < 3; i++)
+            rt.execute(mockJson("{ 'name' : 'cached', 'if' : 'limit > 9', 'assert' : [ 'limit == 10' ] }"));
+        assertEquals(0, rt.getFailedAssertionCount());
+        ScriptEngines.Stats after = rt.getPlugins().getScriptEngines()
+                .getStats();
+        assertTrue(after.getHitCount() - before.getHitCount() >= 4);
+    }
+}
@@ -2,9 +2,15 @@ package com.sas.unravl.test;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -186,4 +192,36 @@ public class TestVariableResolver {
         assertResolveVarValue(true, "{@var6@}");
     }
 
+    @Test
+    public void compiledTemplate() {
+        VariableResolver.Template t = VariableResolver
+                .compile("{var1} {missing|alt {var_2}} {U+03C0} {missing}");
+        assertEquals("val1 alt val2 \u03c0 {missing}",
+                t.render(environmentMap));
+        Map<String, Object> other = new HashMap<String, Object>();
+        other.put("missing", "here");
+        assertEquals("{var1} here \u03c0 here", t.render(other));
+    }
+
+    @Test
+    public void concurrentExpand() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 100; i++) {
+                final String input = "{var1}-" + i + "-{missing|{var5}}";
+                results.add(pool.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return reusableResolver.expand(input);
+                    }
+                }));
+            }
+            for (int i = 0; i < 100; i++)
+                assertEquals("val1-" + i + "-5", results.get(i).get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
 }